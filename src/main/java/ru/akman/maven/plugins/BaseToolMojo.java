@@ -16,18 +16,34 @@
 
 package ru.akman.maven.plugins;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.spi.ToolProvider;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import javax.inject.Inject;
@@ -44,8 +60,11 @@ import org.apache.maven.shared.model.fileset.util.FileSetManager;
 import org.apache.maven.toolchain.Toolchain;
 import org.apache.maven.toolchain.ToolchainManager;
 import org.codehaus.plexus.util.cli.CommandLineException;
+import org.codehaus.plexus.util.cli.CommandLineTimeOutException;
 import org.codehaus.plexus.util.cli.CommandLineUtils;
 import org.codehaus.plexus.util.cli.Commandline;
+import org.codehaus.plexus.util.cli.StreamConsumer;
+import org.codehaus.plexus.util.cli.StreamPumper;
 
 /**
  * Base class for creating a CLI tool Mojos.
@@ -112,6 +131,56 @@ public abstract class BaseToolMojo extends AbstractMojo {
    */
   private static final String VERSION_OPTION = "--version";
 
+  /**
+   * The name of the file under the JDK home directory
+   * describing the JDK release.
+   */
+  private static final String RELEASE_FILE = "release";
+
+  /**
+   * The name of the Java version property in the JDK release file.
+   */
+  private static final String RELEASE_JAVA_VERSION = "JAVA_VERSION";
+
+  /**
+   * The name of the system property contains the running JDK home directory.
+   */
+  private static final String JAVA_HOME_PROPERTY = "java.home";
+
+  /**
+   * The maximum number of the output lines kept to report the failure.
+   */
+  private static final int OUTPUT_TAIL_LINES = 200;
+
+  /**
+   * The time to wait for the output of the terminated process
+   * is drained (in milliseconds).
+   */
+  private static final long DRAIN_MILLIS = 5000L;
+
+  /**
+   * The name of the java launcher.
+   */
+  private static final String JAVA = "java";
+
+  /**
+   * The subdirectory of the cache directory containing the worker
+   * state files.
+   */
+  private static final String WORKERS_DIR = "workers";
+
+  /**
+   * The lock serializes in-process tool runs, some JDK tools (jpackage)
+   * keep their output writers in static state.
+   */
+  private static final Object TOOL_PROVIDER_LOCK = new Object();
+
+  /**
+   * The key of all JDK toolchains memoized in the session.
+   */
+  private static final List<Object> TOOLCHAINS_KEY =
+      Arrays.asList(BaseToolMojo.class, "toolchains", JDK);
+
   /**
    * Project base directory (that containing the pom.xml file).
    */
@@ -169,6 +238,11 @@ public abstract class BaseToolMojo extends AbstractMojo {
    */
   private String toolVersion;
 
+  /**
+   * Persistent cache directory shared between builds.
+   */
+  private File cacheDirectory;
+
   /**
    * Tool corresponding java version.
    */
@@ -421,6 +495,53 @@ public abstract class BaseToolMojo extends AbstractMojo {
     return executablePath;
   }
 
+  /**
+   * Get tool executable path memoized in the session.
+   *
+   * <p>
+   * The result of the lookup (including not found executable) is memoized
+   * once per session for the tool name, the tool home directory and
+   * the selected toolchain, so the other toolchain is resolved anew.
+   * The memoized executable is resolved anew if it has been removed.
+   * </p>
+   *
+   * @param toolName the name of the tool (without extension)
+   * @param toolHomeDir the tool home directory
+   * @param toolBinDirName the name of subdirectory where the tool live
+   *
+   * @return tool executable path or null
+   */
+  @SuppressWarnings("deprecation") // DefaultJavaToolChain
+  private Path getMemoizedToolExecutablePath(final String toolName,
+      final File toolHomeDir, final String toolBinDirName) {
+    final List<Object> key = Arrays.asList(ToolLocation.class, toolName,
+        toolHomeDir == null ? null : toolHomeDir.getAbsolutePath(),
+        toolBinDirName,
+        toolchain == null
+            ? null
+            : org.apache.maven.toolchain.java.DefaultJavaToolChain.class.cast(
+                toolchain).getJavaHome());
+    final ToolLocation[] resolved = new ToolLocation[1];
+    ToolLocation location = SessionCache.computeIfAbsent(getSession(), key,
+        () -> {
+          resolved[0] = new ToolLocation(getToolExecutablePath(toolName,
+              toolHomeDir, toolBinDirName), toolHomeDirectory);
+          return resolved[0];
+        });
+    if (resolved[0] == null && location.getExecutable() != null
+        && !Files.isExecutable(location.getExecutable())) {
+      location = new ToolLocation(getToolExecutablePath(toolName,
+          toolHomeDir, toolBinDirName), toolHomeDirectory);
+      SessionCache.put(getSession(), key, location);
+    } else if (resolved[0] == null && getLog().isDebugEnabled()) {
+      getLog().debug(MessageFormat.format(
+          "Executable (session) for [{0}]: {1}", toolName,
+          location.getExecutable()));
+    }
+    toolHomeDirectory = location.getHomeDirectory();
+    return location.getExecutable();
+  }
+
   /**
    * Resolve the tool path against the specified home dir.
    *
@@ -531,25 +652,139 @@ public abstract class BaseToolMojo extends AbstractMojo {
   /**
    * Obtain the tool version.
    *
+   * <p>
+   * The tool is probed the same way it is executed: in-process only if
+   * the in-process execution is enabled and the tool belongs to
+   * the running JDK, otherwise the tool executable is forked.
+   * </p>
+   *
+   * @param toolName the name of the tool (without extension)
+   * @param executablePath the tool executable path
+   *
    * @return the tool version or null
    *
    * @throws CommandLineException if any errors occurred while processing
    *                              command line
    */
-  private String obtainToolVersion(final Path executablePath)
-      throws CommandLineException {
+  private String obtainToolVersion(final String toolName,
+      final Path executablePath) throws CommandLineException {
     final Commandline cmdLine = new Commandline();
     cmdLine.setExecutable(executablePath.toString());
     cmdLine.createArg().setValue(VERSION_OPTION);
     final CommandLineUtils.StringStreamConsumer out =
         new CommandLineUtils.StringStreamConsumer();
-    final CommandLineUtils.StringStreamConsumer err =
-        new CommandLineUtils.StringStreamConsumer();
-    return execCmdLine(cmdLine, out, err) == 0
+    final ToolProvider toolProvider = isToolProviderEnabled()
+        ? findToolProvider(toolName)
+        : null;
+    final int exitCode = toolProvider == null
+        ? execCmdLine(cmdLine, out, null)
+        : execToolProvider(toolProvider, cmdLine, out, null);
+    return exitCode == 0
         ? StringUtils.stripToEmpty(out.getOutput())
         : null;
   }
 
+  /**
+   * Read the Java version from the release file of the JDK
+   * the tool executable belongs to.
+   *
+   * @param executablePath the real path of the tool executable
+   *
+   * @return the Java version or null if the release file is missing
+   *
+   * @throws IOException if any errors occurred while reading
+   *                     the release file
+   */
+  private String readReleaseVersion(final Path executablePath)
+      throws IOException {
+    final Path binPath = executablePath.getParent();
+    final Path homePath = binPath == null ? null : binPath.getParent();
+    final Path releasePath = homePath == null
+        ? null
+        : homePath.resolve(RELEASE_FILE);
+    if (releasePath == null || !Files.isRegularFile(releasePath)) {
+      return null;
+    }
+    final Properties release = new Properties();
+    try (BufferedReader br =
+        Files.newBufferedReader(releasePath, StandardCharsets.UTF_8)) {
+      release.load(br);
+    }
+    final String version = StringUtils.strip(
+        release.getProperty(RELEASE_JAVA_VERSION), "\" \t");
+    return StringUtils.isBlank(version) ? null : version;
+  }
+
+  /**
+   * Resolve the tool version.
+   *
+   * <p>
+   * Resolve the tool version in following order:
+   * - cache (persistent cache of the previous builds)
+   * - release (release file of the JDK the tool belongs to)
+   * - version option (run the tool with version option)
+   * </p>
+   *
+   * @param toolName the name of the tool (without extension)
+   * @param executablePath the real path of the tool executable
+   *
+   * @return the tool version or null
+   *
+   * @throws CommandLineException if any errors occurred while processing
+   *                              command line
+   */
+  private String resolveToolVersion(final String toolName,
+      final Path executablePath) throws CommandLineException {
+    final ToolVersionCache versionCache = cacheDirectory == null
+        ? null
+        : new ToolVersionCache(cacheDirectory);
+    String version = null;
+    if (versionCache != null) {
+      try {
+        version = versionCache.get(executablePath);
+      } catch (IOException ex) {
+        if (getLog().isWarnEnabled()) {
+          getLog().warn(MessageFormat.format(
+              "Unable to read cached version of [{0}]", toolName), ex);
+        }
+      }
+      if (version != null) {
+        if (getLog().isDebugEnabled()) {
+          getLog().debug(MessageFormat.format(
+              "Version (cache) of [{0}]: {1}", toolName, version));
+        }
+        return version;
+      }
+    }
+    try {
+      version = readReleaseVersion(executablePath);
+    } catch (IOException ex) {
+      if (getLog().isWarnEnabled()) {
+        getLog().warn(MessageFormat.format(
+            "Unable to read release file of [{0}]", toolName), ex);
+      }
+    }
+    if (version == null) {
+      version = obtainToolVersion(toolName, executablePath);
+    } else {
+      if (getLog().isDebugEnabled()) {
+        getLog().debug(MessageFormat.format(
+            "Version (release) of [{0}]: {1}", toolName, version));
+      }
+    }
+    if (version != null && versionCache != null) {
+      try {
+        versionCache.put(executablePath, version);
+      } catch (IOException ex) {
+        if (getLog().isWarnEnabled()) {
+          getLog().warn(MessageFormat.format(
+              "Unable to cache version of [{0}]", toolName), ex);
+        }
+      }
+    }
+    return version;
+  }
+
   /**
    * Get Java version corresponding to the tool version passed in.
    *
@@ -607,38 +842,321 @@ public abstract class BaseToolMojo extends AbstractMojo {
         ? null : ctxToolchain;
   }
 
+  /**
+   * Run the tool in-process with the arguments of the command line.
+   *
+   * @param toolProvider the tool provider
+   * @param cmdLine the command line
+   * @param out the standard output
+   * @param err the standard error
+   *
+   * @return exit code
+   *
+   * @throws CommandLineException if any errors occurred while running
+   *                              the tool
+   */
+  private int runToolProvider(final ToolProvider toolProvider,
+      final Commandline cmdLine, final Writer out,
+      final Writer err) throws CommandLineException {
+    if (getLog().isDebugEnabled()) {
+      getLog().debug(MessageFormat.format("In-process [{0}]: {1}",
+          toolProvider.name(),
+          CommandLineUtils.toString(cmdLine.getArguments())));
+    }
+    try (PrintWriter outWriter = new PrintWriter(out);
+        PrintWriter errWriter = new PrintWriter(err)) {
+      synchronized (TOOL_PROVIDER_LOCK) {
+        return toolProvider.run(outWriter, errWriter,
+            cmdLine.getArguments());
+      }
+    } catch (RuntimeException ex) {
+      throw new CommandLineException(MessageFormat.format(
+          "Error: Unable to run [{0}] in-process", toolProvider.name()), ex);
+    }
+  }
+
   /**
    * Log result of the commandline execution.
    *
    * @param cmdLine the command line
    * @param exitCode the exit code
-   * @param stdout the standard output
-   * @param stderr the standard error
+   * @param stdout the tail of the standard output
+   * @param stderr the tail of the standard error
    */
   private void logCommandLineExecution(final Commandline cmdLine,
       final int exitCode, final String stdout, final String stderr) {
     if (exitCode == 0) {
+      // the output has been already logged while it was arriving
       if (getLog().isDebugEnabled()) {
-        if (!StringUtils.isBlank(stdout)) {
-          getLog().debug(System.lineSeparator() + stdout);
-        }
-        if (!StringUtils.isBlank(stderr)) {
-          getLog().debug(System.lineSeparator() + stderr);
-        }
+        getLog().debug("Exit code: " + exitCode);
       }
     } else {
-      if (getLog().isErrorEnabled()) {
-        getLog().error(System.lineSeparator() + "Exit code: " + exitCode);
-        if (!StringUtils.isBlank(stdout)) {
-          getLog().error(System.lineSeparator() + stdout);
+      logCommandLineFailure(cmdLine, "Exit code: " + exitCode, stdout,
+          stderr);
+    }
+  }
+
+  /**
+   * Log the failure of the commandline execution.
+   *
+   * @param cmdLine the command line
+   * @param status the status of the execution
+   * @param stdout the tail of the standard output
+   * @param stderr the tail of the standard error
+   */
+  private void logCommandLineFailure(final Commandline cmdLine,
+      final String status, final String stdout, final String stderr) {
+    if (getLog().isErrorEnabled()) {
+      getLog().error(System.lineSeparator() + status);
+      if (!StringUtils.isBlank(stdout)) {
+        getLog().error(System.lineSeparator() + stdout);
+      }
+      if (!StringUtils.isBlank(stderr)) {
+        getLog().error(System.lineSeparator() + stderr);
+      }
+      getLog().error(System.lineSeparator()
+          + "Command line was: "
+          + CommandLineUtils.toString(cmdLine.getCommandline()));
+    }
+  }
+
+  /**
+   * Report the execution terminated by the watchdog.
+   *
+   * @param cmdLine the command line
+   * @param reason the description of the exceeded limit
+   * @param lastLine the last output line before the termination
+   * @param stdout the standard output consumer
+   * @param stderr the standard error consumer
+   *
+   * @return the exception to be thrown
+   */
+  private CommandLineTimeOutException terminated(final Commandline cmdLine,
+      final String reason, final String lastLine,
+      final TailStreamConsumer stdout, final TailStreamConsumer stderr) {
+    logCommandLineFailure(cmdLine, "Terminated: " + reason,
+        stdout.getOutput(), stderr.getOutput());
+    return new CommandLineTimeOutException(MessageFormat.format(
+        "Error: The execution has been terminated, {0}, last output: {1}",
+        reason, lastLine == null ? "none" : lastLine));
+  }
+
+  /**
+   * Get the last output line of the execution.
+   *
+   * @param stdout the standard output consumer
+   * @param stderr the standard error consumer
+   *
+   * @return the last output line or null if there is no output
+   */
+  private static String getLastLine(final TailStreamConsumer stdout,
+      final TailStreamConsumer stderr) {
+    return stderr.getLastLine() != null && (stdout.getLastLine() == null
+        || stderr.getLastActivity() - stdout.getLastActivity() > 0)
+        ? stderr.getLastLine()
+        : stdout.getLastLine();
+  }
+
+  /**
+   * Execute the command line under the watchdog.
+   *
+   * @param cmdLine the command line
+   * @param stdout the standard output consumer
+   * @param stderr the standard error consumer
+   * @param watchdog the watchdog
+   *
+   * @return exit code
+   *
+   * @throws CommandLineException if any errors occurred while processing
+   *                              command line or the execution has been
+   *                              terminated by the watchdog
+   */
+  private int executeWatched(final Commandline cmdLine,
+      final TailStreamConsumer stdout, final TailStreamConsumer stderr,
+      final ExecutionWatchdog watchdog) throws CommandLineException {
+    final Process process = cmdLine.execute();
+    final StreamPumper outPumper =
+        new StreamPumper(process.getInputStream(), stdout);
+    final StreamPumper errPumper =
+        new StreamPumper(process.getErrorStream(), stderr);
+    outPumper.start();
+    errPumper.start();
+    String reason;
+    try {
+      process.getOutputStream().close();
+      reason = watchdog.await(process.onExit(), stdout, stderr);
+    } catch (IOException ex) {
+      reason = "unable to close standard input";
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      reason = "interrupted";
+    }
+    final String lastLine = getLastLine(stdout, stderr);
+    if (reason != null) {
+      stdout.detach();
+      stderr.detach();
+      ExecutionWatchdog.destroyProcessTree(process.toHandle());
+    }
+    try {
+      outPumper.join(DRAIN_MILLIS);
+      errPumper.join(DRAIN_MILLIS);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+    if (reason != null) {
+      throw terminated(cmdLine, reason, lastLine, stdout, stderr);
+    }
+    final Exception pumperException = outPumper.getException() == null
+        ? errPumper.getException()
+        : outPumper.getException();
+    if (pumperException != null) {
+      throw new CommandLineException("Error inside stream pumper",
+          pumperException);
+    }
+    return process.exitValue();
+  }
+
+  /**
+   * Run the task under the watchdog.
+   *
+   * @param name the name of the task (used as the thread name)
+   * @param task the task running the tool
+   * @param onTerminate the action stopping the task as soon as any limit
+   *                    is exceeded
+   * @param cmdLine the command line
+   * @param stdout the standard output consumer
+   * @param stderr the standard error consumer
+   * @param watchdog the watchdog
+   *
+   * @return the result of the task
+   *
+   * @throws CommandLineException if any errors occurred while running
+   *                              the tool or the execution has been
+   *                              terminated by the watchdog
+   */
+  private Integer runWatched(final String name, final Callable<Integer> task,
+      final Runnable onTerminate, final Commandline cmdLine,
+      final TailStreamConsumer stdout, final TailStreamConsumer stderr,
+      final ExecutionWatchdog watchdog) throws CommandLineException {
+    final CompletableFuture<Integer> result = new CompletableFuture<>();
+    final Thread runner = new Thread(() -> {
+      try {
+        result.complete(task.call());
+      } catch (Exception ex) {
+        result.completeExceptionally(ex);
+      }
+    }, name);
+    runner.setDaemon(true);
+    runner.start();
+    String reason;
+    try {
+      reason = watchdog.await(result, stdout, stderr);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      reason = "interrupted";
+    }
+    if (reason != null) {
+      final String lastLine = getLastLine(stdout, stderr);
+      stdout.detach();
+      stderr.detach();
+      onTerminate.run();
+      runner.interrupt();
+      try {
+        result.get(DRAIN_MILLIS, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      } catch (ExecutionException | TimeoutException ex) {
+        // skip, the termination is reported
+      }
+      throw terminated(cmdLine, reason, lastLine, stdout, stderr);
+    }
+    try {
+      return result.get();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new CommandLineException(MessageFormat.format(
+          "Error: Interrupted while running [{0}]", name), ex);
+    } catch (ExecutionException ex) {
+      if (ex.getCause() instanceof CommandLineException) {
+        throw (CommandLineException) ex.getCause();
+      }
+      throw new CommandLineException(MessageFormat.format(
+          "Error: Unable to run [{0}]", name), ex.getCause());
+    }
+  }
+
+  /**
+   * Run the tool in the worker process.
+   *
+   * @param connection the connection to the worker
+   * @param cmdLine the command line
+   * @param stdout the standard output consumer
+   * @param stderr the standard error consumer
+   *
+   * @return exit code or null if the worker has failed before
+   *         the tool has been started
+   *
+   * @throws CommandLineException if the worker has failed while
+   *                              running the tool
+   */
+  private Integer runToolWorker(final ToolWorkerClient.Connection connection,
+      final Commandline cmdLine, final TailStreamConsumer stdout,
+      final TailStreamConsumer stderr) throws CommandLineException {
+    try {
+      return connection.run(cmdLine.getArguments(),
+          new StreamConsumerWriter(stdout), new StreamConsumerWriter(stderr));
+    } catch (IOException ex) {
+      if (!connection.isResponded()) {
+        if (getLog().isDebugEnabled()) {
+          getLog().debug("Worker has failed before the tool has been started",
+              ex);
         }
-        if (!StringUtils.isBlank(stderr)) {
-          getLog().error(System.lineSeparator() + stderr);
+        return null;
+      }
+      throw new CommandLineException(MessageFormat.format(
+          "Error: Worker has failed while running [{0}]",
+          cmdLine.getExecutable()), ex);
+    }
+  }
+
+  /**
+   * Create the client of the worker running the tool.
+   *
+   * @param toolName the name of the tool (without extension)
+   * @param idleTimeout the idle timeout of the worker (in seconds)
+   *
+   * @return the client of the worker or null if the worker can not be
+   *         used, i.e. the cache directory is not specified or the java
+   *         launcher of the JDK the tool belongs to is not found
+   */
+  private ToolWorkerClient newToolWorkerClient(final String toolName,
+      final long idleTimeout) {
+    if (toolExecutable == null || cacheDirectory == null) {
+      return null;
+    }
+    try {
+      final Path binDir = toolExecutable.toPath().toRealPath().getParent();
+      final Path javaExecutable = Stream.of(JAVA, JAVA + ".exe")
+          .map(binDir::resolve)
+          .filter(Files::isRegularFile)
+          .findFirst()
+          .orElse(null);
+      if (javaExecutable == null) {
+        if (getLog().isDebugEnabled()) {
+          getLog().debug(MessageFormat.format(
+              "Java launcher for [{0}] is not found: {1}", toolName, binDir));
         }
-        getLog().error(System.lineSeparator()
-            + "Command line was: "
-            + CommandLineUtils.toString(cmdLine.getCommandline()));
+        return null;
+      }
+      return new ToolWorkerClient(getLog(), toolName, javaExecutable,
+          cacheDirectory.toPath().resolve(WORKERS_DIR), idleTimeout,
+          Runtime.getRuntime().availableProcessors());
+    } catch (IOException ex) {
+      if (getLog().isWarnEnabled()) {
+        getLog().warn(MessageFormat.format(
+            "Unable to create worker for [{0}]", toolName), ex);
       }
+      return null;
     }
   }
 
@@ -743,6 +1261,15 @@ public abstract class BaseToolMojo extends AbstractMojo {
     return toolVersion;
   }
 
+  /**
+   * Get persistent cache directory shared between builds.
+   *
+   * @return persistent cache directory or null if it is not used
+   */
+  protected File getCacheDirectory() {
+    return cacheDirectory;
+  }
+
   /**
    * Get tool corresponding java version.
    *
@@ -805,36 +1332,350 @@ public abstract class BaseToolMojo extends AbstractMojo {
 
   /**
    * Execute command line with defined standard output/error streams.
+   * The output is logged while it is arriving, only the tail of
+   * the output is kept to report the failure.
+   *
+   * @param cmdLine command line
+   * @param out standard output consumer, can be null
+   * @param err standard error consumer, can be null
+   *
+   * @return exit code
+   *
+   * @throws CommandLineException if any errors occurred while processing
+   *                              command line
+   */
+  protected int execCmdLine(final Commandline cmdLine,
+      final StreamConsumer out, final StreamConsumer err)
+      throws CommandLineException {
+    return execCmdLine(cmdLine, out, err, 0L, 0L);
+  }
+
+  /**
+   * Execute command line with defined standard output/error streams
+   * under the watchdog. The whole process tree is destroyed as soon as
+   * the wall-clock timeout or the output inactivity timeout is exceeded.
    *
    * @param cmdLine command line
-   * @param out standard output, can be null
-   * @param err standard error, can be null
+   * @param out standard output consumer, can be null
+   * @param err standard error consumer, can be null
+   * @param timeout the wall-clock timeout (in seconds),
+   *                zero to disable it
+   * @param stallTimeout the output inactivity timeout (in seconds),
+   *                     zero to disable it
    *
    * @return exit code
    *
    * @throws CommandLineException if any errors occurred while processing
    *                              command line
+   * @throws CommandLineTimeOutException if the execution has been
+   *                                     terminated by the watchdog
    */
   protected int execCmdLine(final Commandline cmdLine,
-      final CommandLineUtils.StringStreamConsumer out,
-      final CommandLineUtils.StringStreamConsumer err)
+      final StreamConsumer out, final StreamConsumer err,
+      final long timeout, final long stallTimeout)
       throws CommandLineException {
     if (getLog().isDebugEnabled()) {
       getLog().debug(CommandLineUtils.toString(cmdLine.getCommandline()));
     }
-    final CommandLineUtils.StringStreamConsumer stdout = out == null
-        ? new CommandLineUtils.StringStreamConsumer()
-        : out;
-    final CommandLineUtils.StringStreamConsumer stderr = err == null
-        ? new CommandLineUtils.StringStreamConsumer()
-        : err;
-    final int exitCode =
-        CommandLineUtils.executeCommandLine(cmdLine, stdout, err);
+    final TailStreamConsumer stdout =
+        new TailStreamConsumer(getLog(), OUTPUT_TAIL_LINES, out);
+    final TailStreamConsumer stderr =
+        new TailStreamConsumer(getLog(), OUTPUT_TAIL_LINES, err);
+    final ExecutionWatchdog watchdog =
+        new ExecutionWatchdog(timeout, stallTimeout);
+    final int exitCode = watchdog.isEnabled()
+        ? executeWatched(cmdLine, stdout, stderr, watchdog)
+        : CommandLineUtils.executeCommandLine(cmdLine, stdout, stderr);
+    logCommandLineExecution(cmdLine, exitCode, stdout.getOutput(),
+        stderr.getOutput());
+    return exitCode;
+  }
+
+  /**
+   * Create the executor of the background tasks.
+   *
+   * <p>
+   * The threads are daemons and inherit the context class loader
+   * of the calling thread (the plugin realm). The executor should be
+   * shut down by the caller.
+   * </p>
+   *
+   * @param name the name prefix of the threads
+   * @param threads the maximum number of the threads
+   *
+   * @return the executor
+   */
+  protected ExecutorService newExecutor(final String name,
+      final int threads) {
+    final ClassLoader contextClassLoader =
+        Thread.currentThread().getContextClassLoader();
+    final AtomicInteger counter = new AtomicInteger();
+    return Executors.newFixedThreadPool(threads, runnable -> {
+      final Thread thread =
+          new Thread(runnable, name + "-" + counter.incrementAndGet());
+      thread.setDaemon(true);
+      thread.setContextClassLoader(contextClassLoader);
+      return thread;
+    });
+  }
+
+  /**
+   * Wait for the task and get its result.
+   *
+   * @param <T> the type of the result
+   * @param task the task
+   *
+   * @return the result of the task
+   *
+   * @throws MojoExecutionException if the task failed or the current
+   *                                thread was interrupted
+   */
+  protected static <T> T await(final Future<T> task)
+      throws MojoExecutionException {
+    try {
+      return task.get();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new MojoExecutionException("Error: Interrupted", ex);
+    } catch (ExecutionException ex) {
+      final Throwable cause = ex.getCause();
+      if (cause instanceof MojoExecutionException) {
+        throw (MojoExecutionException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new MojoExecutionException(cause.getMessage(), cause);
+    }
+  }
+
+  /**
+   * Checks whether the tool is executed in-process through the tool
+   * provider if it belongs to the running JDK. The tool executable is
+   * forked by default.
+   *
+   * @return true if the in-process execution is enabled
+   */
+  protected boolean isToolProviderEnabled() {
+    return false;
+  }
+
+  /**
+   * Find the tool provider of the running JDK that matches
+   * the resolved tool executable.
+   *
+   * @param toolName the name of the tool (without extension)
+   *
+   * @return the tool provider or null if the resolved tool executable
+   *         does not belong to the running JDK or the tool is not provided
+   */
+  protected ToolProvider findToolProvider(final String toolName) {
+    if (toolExecutable == null) {
+      return null;
+    }
+    final String javaHome = System.getProperty(JAVA_HOME_PROPERTY);
+    final Path runtimeExecutablePath = StringUtils.isBlank(javaHome)
+        ? null
+        : resolveToolPath(toolName, Paths.get(javaHome), JAVA_HOME_BIN);
+    if (runtimeExecutablePath == null) {
+      return null;
+    }
+    try {
+      if (!runtimeExecutablePath.toRealPath().equals(
+          toolExecutable.toPath().toRealPath())) {
+        if (getLog().isDebugEnabled()) {
+          getLog().debug(MessageFormat.format(
+              "Executable for [{0}] does not belong to the running JDK: {1}",
+              toolName, javaHome));
+        }
+        return null;
+      }
+    } catch (IOException ex) {
+      if (getLog().isWarnEnabled()) {
+        getLog().warn(MessageFormat.format(
+            "Unable to compare executable for [{0}] with the running JDK",
+            toolName), ex);
+      }
+      return null;
+    }
+    return ToolProvider.findFirst(toolName).orElse(null);
+  }
+
+  /**
+   * Execute command line in-process with the tool provider.
+   * The command line executable is used only for logging.
+   *
+   * @param toolProvider the tool provider
+   * @param cmdLine command line
+   *
+   * @return exit code
+   *
+   * @throws CommandLineException if any errors occurred while running
+   *                              the tool
+   */
+  protected int execToolProvider(final ToolProvider toolProvider,
+      final Commandline cmdLine) throws CommandLineException {
+    return execToolProvider(toolProvider, cmdLine, null, null);
+  }
+
+  /**
+   * Execute command line in-process with the tool provider and
+   * defined standard output/error streams. The output is logged while
+   * it is arriving, only the tail of the output is kept to report
+   * the failure. The command line executable is used only for logging.
+   *
+   * @param toolProvider the tool provider
+   * @param cmdLine command line
+   * @param out standard output consumer, can be null
+   * @param err standard error consumer, can be null
+   *
+   * @return exit code
+   *
+   * @throws CommandLineException if any errors occurred while running
+   *                              the tool
+   */
+  protected int execToolProvider(final ToolProvider toolProvider,
+      final Commandline cmdLine, final StreamConsumer out,
+      final StreamConsumer err) throws CommandLineException {
+    return execToolProvider(toolProvider, cmdLine, out, err, 0L, 0L);
+  }
+
+  /**
+   * Execute command line in-process with the tool provider and
+   * defined standard output/error streams under the watchdog.
+   * The tool running in-process can not be stopped without affecting
+   * the other executions in the running JVM, so if the wall-clock
+   * timeout or the output inactivity timeout is enabled the tool
+   * executable is forked instead.
+   *
+   * @param toolProvider the tool provider
+   * @param cmdLine command line
+   * @param out standard output consumer, can be null
+   * @param err standard error consumer, can be null
+   * @param timeout the wall-clock timeout (in seconds),
+   *                zero to disable it
+   * @param stallTimeout the output inactivity timeout (in seconds),
+   *                     zero to disable it
+   *
+   * @return exit code
+   *
+   * @throws CommandLineException if any errors occurred while running
+   *                              the tool
+   * @throws CommandLineTimeOutException if the execution has been
+   *                                     terminated by the watchdog
+   */
+  protected int execToolProvider(final ToolProvider toolProvider,
+      final Commandline cmdLine, final StreamConsumer out,
+      final StreamConsumer err, final long timeout, final long stallTimeout)
+      throws CommandLineException {
+    if (new ExecutionWatchdog(timeout, stallTimeout).isEnabled()) {
+      if (getLog().isDebugEnabled()) {
+        getLog().debug(MessageFormat.format(
+            "Timeout is enabled, [{0}] is forked instead of in-process",
+            toolProvider.name()));
+      }
+      return execCmdLine(cmdLine, out, err, timeout, stallTimeout);
+    }
+    final TailStreamConsumer stdout =
+        new TailStreamConsumer(getLog(), OUTPUT_TAIL_LINES, out);
+    final TailStreamConsumer stderr =
+        new TailStreamConsumer(getLog(), OUTPUT_TAIL_LINES, err);
+    final int exitCode = runToolProvider(toolProvider, cmdLine,
+        new StreamConsumerWriter(stdout), new StreamConsumerWriter(stderr));
     logCommandLineExecution(cmdLine, exitCode, stdout.getOutput(),
         stderr.getOutput());
     return exitCode;
   }
 
+  /**
+   * Execute command line in the persistent worker process and
+   * defined standard output/error streams under the watchdog.
+   *
+   * <p>
+   * The worker runs the tool in-process with the java launcher of
+   * the JDK the tool belongs to, so the JVM startup and the tool
+   * warm-up are paid only once. The worker is started on the first use
+   * and is shared between the builds until it has been idle for
+   * the specified time. Every worker runs the only request at a time,
+   * the concurrent requests are run by the different workers (up to
+   * the number of the processors). The worker state files are kept in
+   * the cache directory. If the worker is not available or all workers
+   * are busy the command line is executed as usual by forking the tool
+   * executable.
+   * </p>
+   *
+   * <p>
+   * As soon as the wall-clock timeout or the output inactivity timeout
+   * is exceeded the worker running the request is destroyed together
+   * with the processes started by the tool.
+   * </p>
+   *
+   * @param toolName the name of the tool (without extension)
+   * @param cmdLine command line
+   * @param out standard output consumer, can be null
+   * @param err standard error consumer, can be null
+   * @param timeout the wall-clock timeout (in seconds),
+   *                zero to disable it
+   * @param stallTimeout the output inactivity timeout (in seconds),
+   *                     zero to disable it
+   * @param idleTimeout the idle timeout of the worker (in seconds)
+   *
+   * @return exit code
+   *
+   * @throws CommandLineException if any errors occurred while running
+   *                              the tool
+   * @throws CommandLineTimeOutException if the execution has been
+   *                                     terminated by the watchdog
+   */
+  protected int execToolWorker(final String toolName,
+      final Commandline cmdLine, final StreamConsumer out,
+      final StreamConsumer err, final long timeout, final long stallTimeout,
+      final long idleTimeout) throws CommandLineException {
+    final ToolWorkerClient client =
+        newToolWorkerClient(toolName, idleTimeout);
+    try {
+      final ToolWorkerClient.Connection connection = client == null
+          ? null
+          : client.connect();
+      if (connection != null) {
+        if (getLog().isDebugEnabled()) {
+          getLog().debug(MessageFormat.format("Worker [{0}]: {1}", toolName,
+              CommandLineUtils.toString(cmdLine.getArguments())));
+        }
+        final TailStreamConsumer stdout =
+            new TailStreamConsumer(getLog(), OUTPUT_TAIL_LINES, out);
+        final TailStreamConsumer stderr =
+            new TailStreamConsumer(getLog(), OUTPUT_TAIL_LINES, err);
+        // the watchdog is started as soon as the worker is acquired
+        final ExecutionWatchdog watchdog =
+            new ExecutionWatchdog(timeout, stallTimeout);
+        final Integer exitCode = watchdog.isEnabled()
+            ? runWatched(toolName,
+                () -> runToolWorker(connection, cmdLine, stdout, stderr),
+                client::destroy, cmdLine, stdout, stderr, watchdog)
+            : runToolWorker(connection, cmdLine, stdout, stderr);
+        if (exitCode != null) {
+          logCommandLineExecution(cmdLine, exitCode, stdout.getOutput(),
+              stderr.getOutput());
+          return exitCode;
+        }
+      }
+    } finally {
+      if (client != null) {
+        client.release();
+      }
+    }
+    if (getLog().isInfoEnabled()) {
+      getLog().info(MessageFormat.format(
+          "Worker for [{0}] is not available,"
+          + " the tool executable will be forked", toolName));
+    }
+    return execCmdLine(cmdLine, out, err, timeout, stallTimeout);
+  }
+
   /**
    * Init Mojo.
    *
@@ -848,6 +1689,49 @@ public abstract class BaseToolMojo extends AbstractMojo {
    */
   protected void init(final String toolName, final File toolHomeDir,
       final String toolBinDirName) throws MojoExecutionException {
+    init(toolName, toolHomeDir, toolBinDirName, null);
+  }
+
+  /**
+   * Init Mojo.
+   *
+   * @param toolName the name of the tool (without extension)
+   * @param toolHomeDir the tool home directory
+   * @param toolBinDirName the name of subdirectory where the tool live
+   *                       relative to the tool home directory
+   * @param cacheDir the persistent cache directory shared between builds,
+   *                 can be null
+   *
+   * @throws MojoExecutionException if any errors occurred while processing
+   *                                configuration parameters
+   */
+  protected void init(final String toolName, final File toolHomeDir,
+      final String toolBinDirName, final File cacheDir)
+      throws MojoExecutionException {
+    initTool(toolName, toolHomeDir, toolBinDirName, cacheDir);
+    initToolVersion(toolName);
+  }
+
+  /**
+   * Init Mojo without obtaining the tool version, the version is obtained
+   * later by {@link #initToolVersion(String)}, e.g. concurrently with
+   * the other preparations.
+   *
+   * @param toolName the name of the tool (without extension)
+   * @param toolHomeDir the tool home directory
+   * @param toolBinDirName the name of subdirectory where the tool live
+   *                       relative to the tool home directory
+   * @param cacheDir the persistent cache directory shared between builds,
+   *                 can be null
+   *
+   * @throws MojoExecutionException if any errors occurred while processing
+   *                                configuration parameters
+   */
+  protected void initTool(final String toolName, final File toolHomeDir,
+      final String toolBinDirName, final File cacheDir)
+      throws MojoExecutionException {
+    cacheDirectory = cacheDir;
+
     if (getProject() == null) {
       throw new MojoExecutionException(
           "Error: The predefined variable ${project} is not defined");
@@ -903,9 +1787,16 @@ public abstract class BaseToolMojo extends AbstractMojo {
           "Using source encoding: [{0}] to write files", sourceEncoding));
     }
 
-    // Resolve all available jdk toolchains
-    toolchains = getToolchainManager().getToolchains(getSession(), JDK, null);
-    if (toolchains == null) {
+    // Resolve all available jdk toolchains once per session
+    toolchains = SessionCache.computeIfAbsent(getSession(), TOOLCHAINS_KEY,
+        () -> {
+          final List<Toolchain> jdkToolchains =
+              getToolchainManager().getToolchains(getSession(), JDK, null);
+          return jdkToolchains == null
+              ? Collections.<Toolchain>emptyList()
+              : Collections.unmodifiableList(jdkToolchains);
+        });
+    if (toolchains.isEmpty()) {
       if (getLog().isDebugEnabled()) {
         getLog().debug("No toolchains found");
       }
@@ -931,17 +1822,30 @@ public abstract class BaseToolMojo extends AbstractMojo {
     }
 
     // Resolve the tool home directory and executable file
-    final Path executablePath =
-        getToolExecutablePath(toolName, toolHomeDir, toolBinDirName);
+    final Path executablePath = getMemoizedToolExecutablePath(toolName,
+        toolHomeDir, toolBinDirName);
     if (executablePath == null) {
       throw new MojoExecutionException(MessageFormat.format(
           "Error: Executable for [{0}] not found", toolName));
     }
     toolExecutable = executablePath.toFile();
 
+  }
+
+  /**
+   * Obtain the tool version and the corresponding java version.
+   *
+   * @param toolName the name of the tool (without extension)
+   *
+   * @throws MojoExecutionException if any errors occurred while obtaining
+   *                                the tool version
+   */
+  protected void initToolVersion(final String toolName)
+      throws MojoExecutionException {
+
     // Obtain the tool version
     try {
-      toolVersion = obtainToolVersion(executablePath);
+      toolVersion = resolveToolVersion(toolName, toolExecutable.toPath());
     } catch (CommandLineException ex) {
       throw new MojoExecutionException(MessageFormat.format(
           "Error: Unable to obtain version of [{0}]", toolName), ex);
@@ -976,4 +1880,50 @@ public abstract class BaseToolMojo extends AbstractMojo {
 
   }
 
+  /**
+   * Resolved location of the tool.
+   */
+  private static final class ToolLocation {
+
+    /**
+     * Tool executable or null if it not found.
+     */
+    private final Path executable;
+
+    /**
+     * Tool home directory.
+     */
+    private final File homeDirectory;
+
+    /**
+     * Create the location of the tool.
+     *
+     * @param executable the tool executable or null if it not found
+     * @param homeDirectory the tool home directory
+     */
+    ToolLocation(final Path executable, final File homeDirectory) {
+      this.executable = executable;
+      this.homeDirectory = homeDirectory;
+    }
+
+    /**
+     * Get tool executable.
+     *
+     * @return tool executable or null if it not found
+     */
+    Path getExecutable() {
+      return executable;
+    }
+
+    /**
+     * Get tool home directory.
+     *
+     * @return tool home directory
+     */
+    File getHomeDirectory() {
+      return homeDirectory;
+    }
+
+  }
+
 }
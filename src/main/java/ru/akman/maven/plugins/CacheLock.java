@@ -0,0 +1,224 @@
+/*
+  Copyright (C) 2020 - 2024 Alexander Kapitman
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package ru.akman.maven.plugins;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Exclusive lock of the cache entry shared between builds.
+ *
+ * <p>
+ * The entry is guarded by the file lock of the lock file placed next
+ * to the entry, so the concurrent producers of the same entry in
+ * the different processes are coordinated: only one of them creates
+ * the entry and the rest wait and reuse it. The file lock is held by
+ * the whole JVM, so the threads of the same JVM are coordinated by
+ * the lock of the lock file as well. The lock is not reentrant.
+ * </p>
+ */
+public final class CacheLock implements AutoCloseable {
+
+  /**
+   * The suffix of the lock file following the entry name.
+   */
+  public static final String LOCK_SUFFIX = ".lock";
+
+  /**
+   * The locks of the lock files held by the threads of the JVM.
+   */
+  private static final Map<Path, ReentrantLock> THREAD_LOCKS =
+      new ConcurrentHashMap<>();
+
+  /**
+   * The lock of the lock file held by the thread.
+   */
+  private final ReentrantLock threadLock;
+
+  /**
+   * The channel of the lock file.
+   */
+  private final FileChannel channel;
+
+  /**
+   * The lock of the lock file held by the JVM.
+   */
+  private final FileLock fileLock;
+
+  /**
+   * Create the lock.
+   *
+   * @param threadLock the lock held by the thread
+   * @param channel the channel of the lock file
+   * @param fileLock the lock held by the JVM
+   */
+  private CacheLock(final ReentrantLock threadLock,
+      final FileChannel channel, final FileLock fileLock) {
+    this.threadLock = threadLock;
+    this.channel = channel;
+    this.fileLock = fileLock;
+  }
+
+  /**
+   * Get the lock file of the cache entry.
+   *
+   * @param entry the cache entry
+   *
+   * @return the lock file
+   */
+  public static Path getLockFile(final Path entry) {
+    return entry.resolveSibling(entry.getFileName().toString()
+        + LOCK_SUFFIX);
+  }
+
+  /**
+   * Acquire the lock of the cache entry, wait until it is released
+   * by the other builds.
+   *
+   * @param entry the cache entry
+   *
+   * @return the lock
+   *
+   * @throws IOException if the lock can not be acquired
+   */
+  public static CacheLock acquire(final Path entry) throws IOException {
+    final ReentrantLock threadLock = getThreadLock(entry);
+    if (threadLock.isHeldByCurrentThread()) {
+      throw new IOException("Cache lock is already held: " + entry);
+    }
+    try {
+      threadLock.lockInterruptibly();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw (IOException) new InterruptedIOException(
+          "Interrupted while waiting for cache lock: " + entry).initCause(ex);
+    }
+    FileChannel channel = null;
+    try {
+      channel = openLockFile(entry);
+      return new CacheLock(threadLock, channel, channel.lock());
+    } catch (IOException | RuntimeException ex) {
+      release(threadLock, channel);
+      throw ex;
+    }
+  }
+
+  /**
+   * Acquire the lock of the cache entry if it is not held by the other
+   * builds.
+   *
+   * @param entry the cache entry
+   *
+   * @return the lock or null if it is held by the other builds
+   *         or by the thread
+   *
+   * @throws IOException if the lock can not be acquired
+   */
+  public static CacheLock tryAcquire(final Path entry) throws IOException {
+    final ReentrantLock threadLock = getThreadLock(entry);
+    if (threadLock.isHeldByCurrentThread() || !threadLock.tryLock()) {
+      return null;
+    }
+    FileChannel channel = null;
+    try {
+      channel = openLockFile(entry);
+      final FileLock fileLock = channel.tryLock();
+      if (fileLock == null) {
+        release(threadLock, channel);
+        return null;
+      }
+      return new CacheLock(threadLock, channel, fileLock);
+    } catch (IOException | RuntimeException ex) {
+      release(threadLock, channel);
+      throw ex;
+    }
+  }
+
+  /**
+   * Release the lock.
+   *
+   * @throws IOException if the lock file can not be closed
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      fileLock.release();
+    } finally {
+      release(threadLock, channel);
+    }
+  }
+
+  /**
+   * Get the lock of the lock file held by the thread.
+   *
+   * @param entry the cache entry
+   *
+   * @return the lock of the lock file
+   */
+  private static ReentrantLock getThreadLock(final Path entry) {
+    return THREAD_LOCKS.computeIfAbsent(
+        getLockFile(entry).toAbsolutePath().normalize(),
+        path -> new ReentrantLock());
+  }
+
+  /**
+   * Open the lock file of the cache entry, the file is created
+   * if it is missing.
+   *
+   * @param entry the cache entry
+   *
+   * @return the channel of the lock file
+   *
+   * @throws IOException if the lock file can not be opened
+   */
+  private static FileChannel openLockFile(final Path entry)
+      throws IOException {
+    final Path lockFile = getLockFile(entry);
+    Files.createDirectories(lockFile.toAbsolutePath().getParent());
+    return FileChannel.open(lockFile, StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE);
+  }
+
+  /**
+   * Close the channel of the lock file and release the lock held
+   * by the thread.
+   *
+   * @param threadLock the lock held by the thread
+   * @param channel the channel of the lock file, can be null
+   *
+   * @throws IOException if the lock file can not be closed
+   */
+  private static void release(final ReentrantLock threadLock,
+      final FileChannel channel) throws IOException {
+    try {
+      if (channel != null) {
+        channel.close();
+      }
+    } finally {
+      threadLock.unlock();
+    }
+  }
+
+}
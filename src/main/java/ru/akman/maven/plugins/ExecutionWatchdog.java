@@ -0,0 +1,149 @@
+/*
+  Copyright (C) 2020 - 2024 Alexander Kapitman
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package ru.akman.maven.plugins;
+
+import java.text.MessageFormat;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+
+/**
+ * Watchdog bounding the tool execution with the wall-clock timeout
+ * and the output inactivity (stall) timeout.
+ */
+public class ExecutionWatchdog {
+
+  /**
+   * The interval of checking the limits (in milliseconds).
+   */
+  private static final long POLL_MILLIS = 250L;
+
+  /**
+   * The wall-clock timeout (in nanoseconds), zero if it is disabled.
+   */
+  private final long timeout;
+
+  /**
+   * The output inactivity timeout (in nanoseconds), zero if it is disabled.
+   */
+  private final long stallTimeout;
+
+  /**
+   * The start time of the execution (in nanoseconds).
+   */
+  private final long startTime;
+
+  /**
+   * Create the watchdog, the execution is considered started.
+   *
+   * @param timeout the wall-clock timeout (in seconds),
+   *                zero or negative to disable it
+   * @param stallTimeout the output inactivity timeout (in seconds),
+   *                     zero or negative to disable it
+   */
+  public ExecutionWatchdog(final long timeout, final long stallTimeout) {
+    this.timeout = timeout > 0 ? TimeUnit.SECONDS.toNanos(timeout) : 0L;
+    this.stallTimeout = stallTimeout > 0
+        ? TimeUnit.SECONDS.toNanos(stallTimeout) : 0L;
+    this.startTime = System.nanoTime();
+  }
+
+  /**
+   * Check if any limit is enabled.
+   *
+   * @return true if any limit is enabled
+   */
+  public boolean isEnabled() {
+    return timeout > 0 || stallTimeout > 0;
+  }
+
+  /**
+   * Wait for the execution is terminated or any limit is exceeded.
+   *
+   * @param termination the future completed on the execution termination
+   * @param consumers the consumers of the execution output
+   *
+   * @return null if the execution is terminated, otherwise the description
+   *         of the exceeded limit
+   *
+   * @throws InterruptedException if the current thread was interrupted
+   */
+  public String await(final Future<?> termination,
+      final TailStreamConsumer... consumers) throws InterruptedException {
+    while (true) {
+      try {
+        termination.get(POLL_MILLIS, TimeUnit.MILLISECONDS);
+        return null;
+      } catch (ExecutionException ex) {
+        // the execution is terminated, the failure is reported by the caller
+        return null;
+      } catch (TimeoutException ex) {
+        final String reason = checkLimits(consumers);
+        if (reason != null) {
+          return reason;
+        }
+      }
+    }
+  }
+
+  /**
+   * Forcibly destroy the process and all of its descendants.
+   *
+   * @param process the process handle
+   */
+  public static void destroyProcessTree(final ProcessHandle process) {
+    // collect the descendants first, they are reparented
+    // as soon as the parent is destroyed
+    final List<ProcessHandle> descendants =
+        process.descendants().collect(Collectors.toList());
+    process.destroyForcibly();
+    descendants.forEach(ProcessHandle::destroyForcibly);
+  }
+
+  /**
+   * Check the limits.
+   *
+   * @param consumers the consumers of the execution output
+   *
+   * @return null if no limit is exceeded, otherwise the description
+   *         of the exceeded limit
+   */
+  private String checkLimits(final TailStreamConsumer... consumers) {
+    final long now = System.nanoTime();
+    if (timeout > 0 && now - startTime >= timeout) {
+      return MessageFormat.format("timeout of {0} seconds exceeded",
+          TimeUnit.NANOSECONDS.toSeconds(timeout));
+    }
+    if (stallTimeout > 0) {
+      long lastActivity = startTime;
+      for (final TailStreamConsumer consumer : consumers) {
+        if (consumer.getLastActivity() - lastActivity > 0) {
+          lastActivity = consumer.getLastActivity();
+        }
+      }
+      if (now - lastActivity >= stallTimeout) {
+        return MessageFormat.format("no output for {0} seconds",
+            TimeUnit.NANOSECONDS.toSeconds(stallTimeout));
+      }
+    }
+    return null;
+  }
+
+}
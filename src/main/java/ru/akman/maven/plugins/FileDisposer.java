@@ -0,0 +1,300 @@
+/*
+  Copyright (C) 2020 - 2024 Alexander Kapitman
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package ru.akman.maven.plugins;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Disposer deleting the files and the directories in background.
+ *
+ * <p>
+ * The file or the directory is renamed to the tombstone next to it at once,
+ * so its location is free immediately, and the tombstone is deleted
+ * in background.
+ * The tombstones left by the interrupted builds are swept the same way.
+ * The background thread is a daemon expiring when it is idle, so
+ * the deletion is abandoned if the build is finished before and
+ * the tombstone is swept by the next build.
+ * </p>
+ */
+public class FileDisposer {
+
+  /**
+   * The infix of the tombstone name following the original name.
+   */
+  private static final String TOMBSTONE_INFIX = ".trash-";
+
+  /**
+   * The time the idle background thread is kept alive (in seconds).
+   */
+  private static final long KEEP_ALIVE_SECONDS = 5L;
+
+  /**
+   * The log.
+   */
+  private final Log log;
+
+  /**
+   * The executor deleting the files.
+   */
+  private final ThreadPoolExecutor executor;
+
+  /**
+   * The scheduled deletions.
+   */
+  private final List<Deletion> deletions = new ArrayList<>();
+
+  /**
+   * Create the disposer.
+   *
+   * @param log the log
+   */
+  public FileDisposer(final Log log) {
+    this.log = log;
+    this.executor = new ThreadPoolExecutor(1, 1, KEEP_ALIVE_SECONDS,
+        TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+          final Thread thread = new Thread(runnable, "file-disposer");
+          thread.setDaemon(true);
+          return thread;
+        });
+    this.executor.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Dispose the file or the directory. The file or the directory is
+   * renamed to the tombstone and deleted in background, it is deleted
+   * at once if it can not be renamed. The new file can be created
+   * in its location as soon as the method returns.
+   *
+   * @param path the file or the directory, can be missing
+   *
+   * @throws IOException if the file or the directory can not be renamed
+   *                     and deleted at once
+   */
+  public void dispose(final Path path) throws IOException {
+    if (!Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+      return;
+    }
+    final Path tombstone = path.resolveSibling(path.getFileName()
+        + TOMBSTONE_INFIX + UUID.randomUUID());
+    try {
+      Files.move(path, tombstone, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException | UnsupportedOperationException ex) {
+      if (log.isDebugEnabled()) {
+        log.debug(MessageFormat.format(
+            "Unable to rename [{0}] to tombstone, deleting it at once: {1}",
+            path, ex.getMessage()));
+      }
+      deleteTree(path);
+      return;
+    }
+    if (log.isDebugEnabled()) {
+      log.debug(MessageFormat.format("Renamed [{0}] to tombstone: [{1}]",
+          path, tombstone));
+    }
+    schedule(tombstone);
+  }
+
+  /**
+   * Check if the file or the directory is the tombstone.
+   *
+   * @param path the file or the directory
+   *
+   * @return true if the file or the directory is the tombstone
+   */
+  public static boolean isTombstone(final Path path) {
+    final Path name = path.getFileName();
+    return name != null && name.toString().contains(TOMBSTONE_INFIX);
+  }
+
+  /**
+   * Sweep the tombstones of the path left by the interrupted builds,
+   * the tombstones are deleted in background.
+   *
+   * @param path the file or the directory the tombstones are swept for
+   *
+   * @throws IOException if the parent directory can not be listed
+   */
+  public void sweep(final Path path) throws IOException {
+    final Path parent = path.toAbsolutePath().getParent();
+    if (parent == null || !Files.isDirectory(parent)) {
+      return;
+    }
+    final String prefix = path.getFileName() + TOMBSTONE_INFIX;
+    try (DirectoryStream<Path> stream =
+        Files.newDirectoryStream(parent, prefix + "*")) {
+      for (final Path tombstone : stream) {
+        if (log.isDebugEnabled()) {
+          log.debug(MessageFormat.format("Sweeping tombstone: [{0}]",
+              tombstone));
+        }
+        schedule(tombstone);
+      }
+    }
+  }
+
+  /**
+   * Wait for the scheduled deletions are finished. The failed deletions
+   * are reported as warnings, the remaining tombstones are swept by
+   * the next build.
+   */
+  public void await() {
+    final List<Deletion> scheduled;
+    synchronized (deletions) {
+      scheduled = new ArrayList<>(deletions);
+      deletions.clear();
+    }
+    for (final Deletion deletion : scheduled) {
+      try {
+        deletion.getTask().get();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        return;
+      } catch (ExecutionException ex) {
+        if (log.isWarnEnabled()) {
+          log.warn(MessageFormat.format("Unable to delete: [{0}]",
+              deletion.getPath()), ex.getCause());
+        }
+      }
+    }
+  }
+
+  /**
+   * Schedule the deletion of the file or the directory in background.
+   *
+   * @param path the file or the directory
+   */
+  private void schedule(final Path path) {
+    final Future<?> task = executor.submit(() -> {
+      deleteTree(path);
+      return null;
+    });
+    synchronized (deletions) {
+      deletions.add(new Deletion(path, task));
+    }
+  }
+
+  /**
+   * Delete the file or the directory with all its content.
+   * The symbolic links are deleted, not followed. The files deleted
+   * concurrently are skipped.
+   *
+   * @param root the file or the directory
+   *
+   * @throws IOException if any errors occurred while deleting
+   */
+  private static void deleteTree(final Path root) throws IOException {
+    if (!Files.exists(root, LinkOption.NOFOLLOW_LINKS)) {
+      return;
+    }
+    Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+
+      @Override
+      public FileVisitResult visitFile(final Path file,
+          final BasicFileAttributes attrs) throws IOException {
+        Files.deleteIfExists(file);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFileFailed(final Path file,
+          final IOException exc) throws IOException {
+        if (exc instanceof NoSuchFileException) {
+          return FileVisitResult.CONTINUE;
+        }
+        throw exc;
+      }
+
+      @Override
+      public FileVisitResult postVisitDirectory(final Path dir,
+          final IOException exc) throws IOException {
+        if (exc != null && !(exc instanceof NoSuchFileException)) {
+          throw exc;
+        }
+        Files.deleteIfExists(dir);
+        return FileVisitResult.CONTINUE;
+      }
+
+    });
+  }
+
+  /**
+   * The scheduled deletion.
+   */
+  private static final class Deletion {
+
+    /**
+     * The file or the directory.
+     */
+    private final Path path;
+
+    /**
+     * The deleting task.
+     */
+    private final Future<?> task;
+
+    /**
+     * Create the scheduled deletion.
+     *
+     * @param path the file or the directory
+     * @param task the deleting task
+     */
+    Deletion(final Path path, final Future<?> task) {
+      this.path = path;
+      this.task = task;
+    }
+
+    /**
+     * Get the file or the directory.
+     *
+     * @return the file or the directory
+     */
+    Path getPath() {
+      return path;
+    }
+
+    /**
+     * Get the deleting task.
+     *
+     * @return the deleting task
+     */
+    Future<?> getTask() {
+      return task;
+    }
+
+  }
+
+}
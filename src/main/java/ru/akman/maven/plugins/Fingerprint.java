@@ -0,0 +1,769 @@
+/*
+  Copyright (C) 2020 - 2024 Alexander Kapitman
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package ru.akman.maven.plugins;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystemLoopException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Fingerprint of the inputs and the outputs of the tool execution.
+ *
+ * <p>
+ * The inputs are the values (e.g. the command options) and the contents
+ * of the files and the directories. The files are hashed concurrently,
+ * the digest of the file is reused from the previous fingerprint if
+ * the size and the modification time of the file are not changed.
+ * The outputs are recorded with the digest of their metadata (relative
+ * paths, sizes and modification times) to check they are intact.
+ * </p>
+ *
+ * <p>
+ * The paths inside of the root directories (e.g. the project base
+ * directory and the tool home directory) are keyed and hashed relatively
+ * to the roots, they are replaced with the placeholders of the roots
+ * in the keys, the values and the command options. So the same inputs
+ * have the same fingerprints in the different locations, e.g. in
+ * the workspaces of the different build agents sharing the cache.
+ * </p>
+ */
+public class Fingerprint {
+
+  /**
+   * The algorithm of the digests.
+   */
+  private static final String DIGEST_ALGORITHM = "SHA-256";
+
+  /**
+   * The size of the buffer reading the files.
+   */
+  private static final int BUFFER_SIZE = 65536;
+
+  /**
+   * The header of the fingerprint file.
+   */
+  private static final String HEADER = "# fingerprint 2";
+
+  /**
+   * The field separator of the fingerprint file.
+   */
+  private static final String SEPARATOR = "\t";
+
+  /**
+   * The record type of the input.
+   */
+  private static final String INPUT = "input";
+
+  /**
+   * The record type of the output.
+   */
+  private static final String OUTPUT = "output";
+
+  /**
+   * The input key prefix of the value.
+   */
+  private static final String VALUE_PREFIX = "value:";
+
+  /**
+   * The input key prefix of the file.
+   */
+  private static final String FILE_PREFIX = "file:";
+
+  /**
+   * The input key prefix of the directory.
+   */
+  private static final String DIR_PREFIX = "dir:";
+
+  /**
+   * The input key prefix of the missing file.
+   */
+  private static final String MISSING_PREFIX = "missing:";
+
+  /**
+   * The input key prefix of the command option line.
+   */
+  private static final String OPTION_PREFIX = "option:";
+
+  /**
+   * The prefix of the comment line of the command options.
+   */
+  private static final String COMMENT_PREFIX = "#";
+
+  /**
+   * The number of the fields of the input record.
+   */
+  private static final int INPUT_FIELDS = 5;
+
+  /**
+   * The number of the fields of the output record.
+   */
+  private static final int OUTPUT_FIELDS = 3;
+
+  /**
+   * The characters the path is delimited by in the text.
+   */
+  private static final String DELIMITERS = "\\s'\"=,;:";
+
+  /**
+   * The inputs by the keys.
+   */
+  private final SortedMap<String, Entry> inputs = new TreeMap<>();
+
+  /**
+   * The root directories by the placeholders, the longest roots go first.
+   */
+  private final Map<String, Path> roots = new LinkedHashMap<>();
+
+  /**
+   * The patterns of the root directories in the text by the placeholders.
+   */
+  private final Map<String, Pattern> rootPatterns = new LinkedHashMap<>();
+
+  /**
+   * The digests of the outputs by the names.
+   */
+  private final SortedMap<String, String> outputs = new TreeMap<>();
+
+  /**
+   * Create the fingerprint, the paths are keyed as is.
+   */
+  public Fingerprint() {
+    this(Map.of());
+  }
+
+  /**
+   * Create the fingerprint, the paths inside of the root directories
+   * are keyed relatively to the roots.
+   *
+   * @param roots the root directories by the placeholders
+   *              (e.g. <code>${basedir}</code>), the roots can be null
+   */
+  public Fingerprint(final Map<String, Path> roots) {
+    roots.entrySet().stream()
+        .filter(root -> root.getValue() != null)
+        .map(root -> Map.entry(root.getKey(),
+            root.getValue().toAbsolutePath().normalize()))
+        .filter(root -> root.getValue().getNameCount() > 0)
+        .sorted(Comparator.comparing(
+            (Map.Entry<String, Path> root) -> root.getValue().toString()
+                .length()).reversed())
+        .forEach(root -> {
+          this.roots.put(root.getKey(), root.getValue());
+          this.rootPatterns.put(root.getKey(), Pattern.compile(
+              "(?<=^|[" + DELIMITERS + "])"
+              + Pattern.quote(root.getValue().toString())
+              + "(?=$|[" + DELIMITERS + "]|"
+              + Pattern.quote(File.separator) + ")"));
+        });
+  }
+
+  /**
+   * Replace the root directories in the text with their placeholders.
+   *
+   * @param text the text
+   *
+   * @return the text with the placeholders
+   */
+  public String relativize(final String text) {
+    String result = text;
+    for (final Map.Entry<String, Pattern> root : rootPatterns.entrySet()) {
+      result = root.getValue().matcher(result)
+          .replaceAll(Matcher.quoteReplacement(root.getKey()));
+    }
+    return result;
+  }
+
+  /**
+   * Get the key of the path.
+   *
+   * @param prefix the prefix of the key
+   * @param path the absolute path
+   *
+   * @return the key, the path is relative to its root if any
+   */
+  private String toKey(final String prefix, final Path path) {
+    for (final Map.Entry<String, Path> root : roots.entrySet()) {
+      if (path.startsWith(root.getValue())) {
+        return prefix + root.getKey() + path.toString().substring(
+            root.getValue().toString().length());
+      }
+    }
+    return prefix + path;
+  }
+
+  /**
+   * Get the path of the key.
+   *
+   * @param prefix the prefix of the key
+   * @param key the key
+   *
+   * @return the absolute path or null if the key has not the prefix
+   */
+  private Path toPath(final String prefix, final String key) {
+    if (!key.startsWith(prefix)) {
+      return null;
+    }
+    final String path = key.substring(prefix.length());
+    for (final Map.Entry<String, Path> root : roots.entrySet()) {
+      if (path.startsWith(root.getKey())) {
+        return Paths.get(root.getValue().toString()
+            + path.substring(root.getKey().length()));
+      }
+    }
+    return Paths.get(path);
+  }
+
+  /**
+   * Add the value to the inputs, the root directories in the value
+   * are replaced with their placeholders.
+   *
+   * @param name the name of the value
+   * @param value the value, can be null
+   */
+  public void addValue(final String name, final String value) {
+    inputs.put(VALUE_PREFIX + name, new Entry(-1L, -1L,
+        value == null ? "" : digest(relativize(value))));
+  }
+
+  /**
+   * Add the command options to the inputs. The options are added as
+   * the whole value and line by line, so the changed lines can be told
+   * by the keys of the inputs. The comment lines are not told.
+   * The root directories in the options are replaced with
+   * their placeholders.
+   *
+   * @param name the name of the value
+   * @param lines the lines of the command options
+   */
+  public void addOptions(final String name, final List<String> lines) {
+    addValue(name, String.join("\n", lines));
+    for (final String line : lines) {
+      if (!line.startsWith(COMMENT_PREFIX)) {
+        inputs.put(OPTION_PREFIX + relativize(line),
+            new Entry(-1L, -1L, ""));
+      }
+    }
+  }
+
+  /**
+   * Add the files and the directories with all their content
+   * to the inputs. The files are hashed concurrently.
+   *
+   * @param paths the files and the directories, can be missing
+   * @param previous the previous fingerprint to reuse the digests
+   *                 of the unchanged files from, can be null
+   * @param executor the executor hashing the files
+   *
+   * @throws IOException if any errors occurred while hashing the files
+   */
+  public void addPaths(final Collection<Path> paths,
+      final Fingerprint previous, final ExecutorService executor)
+      throws IOException {
+    final List<String> keys = new ArrayList<>();
+    final List<Future<Entry>> tasks = new ArrayList<>();
+    for (final Path path : paths) {
+      final Path root = path.toAbsolutePath().normalize();
+      if (!Files.exists(root)) {
+        inputs.put(toKey(MISSING_PREFIX, root), new Entry(-1L, -1L, ""));
+        continue;
+      }
+      Files.walkFileTree(root, EnumSet.of(FileVisitOption.FOLLOW_LINKS),
+          Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+
+            @Override
+            public FileVisitResult preVisitDirectory(final Path dir,
+                final BasicFileAttributes attrs) {
+              inputs.put(toKey(DIR_PREFIX, dir), new Entry(-1L, -1L, ""));
+              return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(final Path file,
+                final BasicFileAttributes attrs) {
+              final String key = toKey(FILE_PREFIX, file);
+              final long size = attrs.size();
+              final long modified = attrs.lastModifiedTime().toMillis();
+              final Entry cached = previous == null
+                  ? null
+                  : previous.inputs.get(key);
+              if (cached != null && cached.getSize() == size
+                  && cached.getModified() == modified) {
+                inputs.put(key, cached);
+              } else {
+                keys.add(key);
+                tasks.add(executor.submit(() ->
+                    new Entry(size, modified, digest(file))));
+              }
+              return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(final Path file,
+                final IOException exc) throws IOException {
+              if (exc instanceof FileSystemLoopException) {
+                return FileVisitResult.CONTINUE;
+              }
+              throw exc;
+            }
+
+          });
+    }
+    try {
+      for (int i = 0; i < tasks.size(); i++) {
+        inputs.put(keys.get(i), tasks.get(i).get());
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while hashing files", ex);
+    } catch (ExecutionException ex) {
+      if (ex.getCause() instanceof IOException) {
+        throw (IOException) ex.getCause();
+      }
+      throw new IOException("Unable to hash files", ex.getCause());
+    } finally {
+      tasks.forEach(task -> task.cancel(true));
+    }
+  }
+
+  /**
+   * Get the digest of the inputs.
+   *
+   * @return the digest of the inputs
+   */
+  public String getDigest() {
+    final StringBuilder content = new StringBuilder();
+    for (final Map.Entry<String, Entry> input : inputs.entrySet()) {
+      content.append(input.getKey()).append(SEPARATOR)
+          .append(input.getValue().getDigest()).append('\n');
+    }
+    return digest(content.toString());
+  }
+
+  /**
+   * Get the digests of the inputs by the keys.
+   *
+   * @return the digests of the inputs by the keys
+   */
+  public SortedMap<String, String> getInputs() {
+    final SortedMap<String, String> digests = new TreeMap<>();
+    inputs.forEach((key, entry) -> digests.put(key, entry.getDigest()));
+    return Collections.unmodifiableSortedMap(digests);
+  }
+
+  /**
+   * Get the keys of the inputs added, removed or changed since
+   * the previous fingerprint.
+   *
+   * @param previous the previous fingerprint
+   *
+   * @return the keys of the changed inputs
+   */
+  public SortedSet<String> getChangedInputs(final Fingerprint previous) {
+    final SortedSet<String> changed = new TreeSet<>();
+    inputs.forEach((key, entry) -> {
+      final Entry other = previous.inputs.get(key);
+      if (other == null || !other.getDigest().equals(entry.getDigest())) {
+        changed.add(key);
+      }
+    });
+    previous.inputs.keySet().stream()
+        .filter(key -> !inputs.containsKey(key))
+        .forEach(changed::add);
+    return changed;
+  }
+
+  /**
+   * Check the input is present.
+   *
+   * @param key the key of the input
+   *
+   * @return true if the input is present
+   */
+  public boolean hasInput(final String key) {
+    return inputs.containsKey(key);
+  }
+
+  /**
+   * Get the file of the input.
+   *
+   * @param key the key of the input
+   *
+   * @return the file or null if the input is not a file
+   */
+  public Path getFile(final String key) {
+    return toPath(FILE_PREFIX, key);
+  }
+
+  /**
+   * Get the directory of the input.
+   *
+   * @param key the key of the input
+   *
+   * @return the directory or null if the input is not a directory
+   */
+  public Path getDirectory(final String key) {
+    return toPath(DIR_PREFIX, key);
+  }
+
+  /**
+   * Get the missing file or directory of the input.
+   *
+   * @param key the key of the input
+   *
+   * @return the missing file or directory or null if the input is not
+   *         missing
+   */
+  public Path getMissing(final String key) {
+    return toPath(MISSING_PREFIX, key);
+  }
+
+  /**
+   * Get the command option line of the input.
+   *
+   * @param key the key of the input
+   *
+   * @return the command option line or null if the input is not
+   *         a command option line
+   */
+  public static String getOption(final String key) {
+    return key.startsWith(OPTION_PREFIX)
+        ? key.substring(OPTION_PREFIX.length())
+        : null;
+  }
+
+  /**
+   * Get the name of the value of the input.
+   *
+   * @param key the key of the input
+   *
+   * @return the name of the value or null if the input is not a value
+   */
+  public static String getValueName(final String key) {
+    return key.startsWith(VALUE_PREFIX)
+        ? key.substring(VALUE_PREFIX.length())
+        : null;
+  }
+
+  /**
+   * Get the digests of the outputs by the names.
+   *
+   * @return the digests of the outputs by the names
+   */
+  public SortedMap<String, String> getOutputs() {
+    return Collections.unmodifiableSortedMap(outputs);
+  }
+
+  /**
+   * Set the digests of the outputs by the names.
+   *
+   * @param outputs the digests of the outputs by the names
+   */
+  public void setOutputs(final Map<String, String> outputs) {
+    this.outputs.clear();
+    this.outputs.putAll(outputs);
+  }
+
+  /**
+   * Write the fingerprint to the file, the file is replaced atomically.
+   *
+   * @param file the file
+   *
+   * @throws IOException if any errors occurred while writing the file
+   */
+  public void write(final Path file) throws IOException {
+    final Path parent = file.toAbsolutePath().getParent();
+    Files.createDirectories(parent);
+    final Path tempFile = Files.createTempFile(parent,
+        file.getFileName().toString(), null);
+    try {
+      try (BufferedWriter bw =
+          Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+        bw.write(HEADER);
+        bw.newLine();
+        for (final Map.Entry<String, Entry> input : inputs.entrySet()) {
+          final Entry entry = input.getValue();
+          bw.write(String.join(SEPARATOR, INPUT,
+              String.valueOf(entry.getSize()),
+              String.valueOf(entry.getModified()), entry.getDigest(),
+              input.getKey()));
+          bw.newLine();
+        }
+        for (final Map.Entry<String, String> output : outputs.entrySet()) {
+          bw.write(String.join(SEPARATOR, OUTPUT, output.getValue(),
+              output.getKey()));
+          bw.newLine();
+        }
+      }
+      Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(tempFile);
+    }
+  }
+
+  /**
+   * Read the fingerprint from the file.
+   *
+   * @param file the file
+   *
+   * @return the fingerprint or null if the file is missing
+   *         or it is not a valid fingerprint
+   *
+   * @throws IOException if any errors occurred while reading the file
+   */
+  public static Fingerprint read(final Path file) throws IOException {
+    if (!Files.isRegularFile(file)) {
+      return null;
+    }
+    final Fingerprint fingerprint = new Fingerprint();
+    try (BufferedReader br =
+        Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+      if (!HEADER.equals(br.readLine())) {
+        return null;
+      }
+      String line;
+      while ((line = br.readLine()) != null) {
+        if (line.startsWith(INPUT + SEPARATOR)) {
+          final String[] fields = line.split(SEPARATOR, INPUT_FIELDS);
+          if (fields.length != INPUT_FIELDS) {
+            return null;
+          }
+          fingerprint.inputs.put(fields[4], new Entry(
+              Long.parseLong(fields[1]), Long.parseLong(fields[2]),
+              fields[3]));
+        } else if (line.startsWith(OUTPUT + SEPARATOR)) {
+          final String[] fields = line.split(SEPARATOR, OUTPUT_FIELDS);
+          if (fields.length != OUTPUT_FIELDS) {
+            return null;
+          }
+          fingerprint.outputs.put(fields[2], fields[1]);
+        } else {
+          return null;
+        }
+      }
+    } catch (NumberFormatException ex) {
+      return null;
+    }
+    return fingerprint;
+  }
+
+  /**
+   * Compute the digest of the metadata (relative paths, sizes and
+   * modification times) of the file or the directory with all its
+   * content. The symbolic links are not followed.
+   *
+   * @param root the file or the directory
+   *
+   * @return the digest of the metadata or null if the file is missing
+   *
+   * @throws IOException if any errors occurred while walking the directory
+   */
+  public static String digestTree(final Path root) throws IOException {
+    if (!Files.exists(root, LinkOption.NOFOLLOW_LINKS)) {
+      return null;
+    }
+    final StringBuilder content = new StringBuilder();
+    Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+
+      @Override
+      public FileVisitResult preVisitDirectory(final Path dir,
+          final BasicFileAttributes attrs) {
+        content.append(root.relativize(dir)).append("/\n");
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFile(final Path file,
+          final BasicFileAttributes attrs) {
+        content.append(root.relativize(file)).append(SEPARATOR)
+            .append(attrs.size()).append(SEPARATOR)
+            .append(attrs.lastModifiedTime().toMillis()).append('\n');
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFileFailed(final Path file,
+          final IOException exc) throws IOException {
+        if (exc instanceof NoSuchFileException) {
+          return FileVisitResult.CONTINUE;
+        }
+        throw exc;
+      }
+
+    });
+    return digest(content.toString());
+  }
+
+  /**
+   * Compute the digest of the string.
+   *
+   * @param value the string
+   *
+   * @return the digest in hex format
+   */
+  public static String digest(final String value) {
+    final MessageDigest md = newMessageDigest();
+    return toHex(md.digest(value.getBytes(StandardCharsets.UTF_8)));
+  }
+
+  /**
+   * Compute the digest of the file content.
+   *
+   * @param file the file
+   *
+   * @return the digest in hex format
+   *
+   * @throws IOException if any errors occurred while reading the file
+   */
+  public static String digest(final Path file) throws IOException {
+    final MessageDigest md = newMessageDigest();
+    final byte[] buffer = new byte[BUFFER_SIZE];
+    try (InputStream is = Files.newInputStream(file)) {
+      int count;
+      while ((count = is.read(buffer)) != -1) {
+        md.update(buffer, 0, count);
+      }
+    }
+    return toHex(md.digest());
+  }
+
+  /**
+   * Create the message digest.
+   *
+   * @return the message digest
+   */
+  private static MessageDigest newMessageDigest() {
+    try {
+      return MessageDigest.getInstance(DIGEST_ALGORITHM);
+    } catch (NoSuchAlgorithmException ex) {
+      // every Java platform is required to support SHA-256
+      throw new IllegalStateException(ex);
+    }
+  }
+
+  /**
+   * Convert the bytes to the hex format.
+   *
+   * @param bytes the bytes
+   *
+   * @return the bytes in hex format
+   */
+  private static String toHex(final byte[] bytes) {
+    final StringBuilder hex = new StringBuilder(bytes.length * 2);
+    for (final byte b : bytes) {
+      hex.append(Character.forDigit((b >> 4) & 0xF, 16))
+          .append(Character.forDigit(b & 0xF, 16));
+    }
+    return hex.toString();
+  }
+
+  /**
+   * The input entry.
+   */
+  private static final class Entry {
+
+    /**
+     * The size of the file or -1.
+     */
+    private final long size;
+
+    /**
+     * The modification time of the file (in milliseconds) or -1.
+     */
+    private final long modified;
+
+    /**
+     * The digest of the content.
+     */
+    private final String digest;
+
+    /**
+     * Create the entry.
+     *
+     * @param size the size of the file or -1
+     * @param modified the modification time of the file or -1
+     * @param digest the digest of the content
+     */
+    Entry(final long size, final long modified, final String digest) {
+      this.size = size;
+      this.modified = modified;
+      this.digest = digest;
+    }
+
+    /**
+     * Get the size of the file.
+     *
+     * @return the size of the file or -1
+     */
+    long getSize() {
+      return size;
+    }
+
+    /**
+     * Get the modification time of the file.
+     *
+     * @return the modification time of the file (in milliseconds) or -1
+     */
+    long getModified() {
+      return modified;
+    }
+
+    /**
+     * Get the digest of the content.
+     *
+     * @return the digest of the content
+     */
+    String getDigest() {
+      return digest;
+    }
+
+  }
+
+}
@@ -0,0 +1,507 @@
+/*
+  Copyright (C) 2020 - 2024 Alexander Kapitman
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package ru.akman.maven.plugins;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.codehaus.plexus.languages.java.jpms.JavaModuleDescriptor;
+import org.codehaus.plexus.languages.java.jpms.JavaModuleDescriptor.JavaRequires.JavaModifier;
+import org.codehaus.plexus.languages.java.jpms.ModuleNameSource;
+
+/**
+ * Persistent index of the module descriptors of the dependency jars.
+ *
+ * <p>
+ * The descriptor (the name, the automatic flag, the requires, exports,
+ * provides and uses directives) and the source of the module name are
+ * stored under the real path of the jar together with the size,
+ * the last modified time and the content digest of the jar, so the jar
+ * is not opened again while it is not changed. The jar touched without
+ * changes (the same size and digest) is not parsed again as well.
+ * The failure to read the jar is indexed too.
+ * </p>
+ */
+public class ModuleDescriptorIndex {
+
+  /**
+   * The name of the index file.
+   */
+  private static final String INDEX_FILE = "module-index.properties";
+
+  /**
+   * The separator of the index entry value parts.
+   */
+  private static final String SEPARATOR = ";";
+
+  /**
+   * The separator of the directives.
+   */
+  private static final String LIST_SEPARATOR = ",";
+
+  /**
+   * The separator of the directive parts.
+   */
+  private static final String ITEM_SEPARATOR = " ";
+
+  /**
+   * The number of the index entry value parts
+   * (size, mtime, digest, kind, data).
+   */
+  private static final int PARTS = 5;
+
+  /**
+   * The number of the descriptor parts
+   * (automatic, name, requires, exports, provides, uses).
+   */
+  private static final int DESCRIPTOR_PARTS = 6;
+
+  /**
+   * The kind of the entry without the module descriptor.
+   */
+  private static final String KIND_NONE = "NONE";
+
+  /**
+   * The kind of the entry of the jar failed to read.
+   */
+  private static final String KIND_ERROR = "ERROR";
+
+  /**
+   * The index file.
+   */
+  private final Path indexFile;
+
+  /**
+   * The index entries (the encoded values by the paths).
+   */
+  private final Properties entries = new Properties();
+
+  /**
+   * The updated index entries.
+   */
+  private final Map<String, String> updates = new HashMap<>();
+
+  /**
+   * The number of the found entries.
+   */
+  private int hits;
+
+  /**
+   * The number of the missing or outdated entries.
+   */
+  private int misses;
+
+  /**
+   * Create the index stored in the specified directory.
+   *
+   * @param cacheDir the cache directory
+   */
+  public ModuleDescriptorIndex(final File cacheDir) {
+    this.indexFile = cacheDir.toPath().resolve(INDEX_FILE);
+  }
+
+  /**
+   * Load the index entries.
+   *
+   * @throws IOException if any errors occurred while reading the index
+   */
+  public void load() throws IOException {
+    entries.clear();
+    readEntries(entries);
+  }
+
+  /**
+   * Get the indexed module descriptor of the jar.
+   *
+   * @param jar the jar
+   *
+   * @return the index entry or null if it is missing or outdated
+   *
+   * @throws IOException if any errors occurred while reading the jar
+   *                     attributes
+   */
+  public Entry get(final Path jar) throws IOException {
+    final String key = getKey(jar);
+    final String value = entries.getProperty(key);
+    final String[] parts = value == null
+        ? new String[0]
+        : value.split(SEPARATOR, PARTS);
+    if (parts.length < PARTS - 1
+        || !String.valueOf(Files.size(jar)).equals(parts[0])) {
+      misses++;
+      return null;
+    }
+    final String mtime =
+        String.valueOf(Files.getLastModifiedTime(jar).toMillis());
+    if (!mtime.equals(parts[1])) {
+      // the jar is touched, it is reused if the content is not changed
+      if (!Fingerprint.digest(jar).equals(parts[2])) {
+        misses++;
+        return null;
+      }
+      final String updated = parts[0] + SEPARATOR + mtime
+          + value.substring(parts[0].length() + parts[1].length() + 1);
+      entries.setProperty(key, updated);
+      updates.put(key, updated);
+    }
+    final Entry entry;
+    try {
+      entry = decode(parts);
+    } catch (IllegalArgumentException ex) {
+      misses++;
+      return null;
+    }
+    hits++;
+    return entry;
+  }
+
+  /**
+   * Index the module descriptor of the jar.
+   *
+   * @param jar the jar
+   * @param descriptor the module descriptor or null if it is missing
+   * @param source the source of the module name or null if it is missing
+   *
+   * @throws IOException if any errors occurred while reading the jar
+   */
+  public void put(final Path jar, final JavaModuleDescriptor descriptor,
+      final ModuleNameSource source) throws IOException {
+    putValue(jar, descriptor == null || source == null
+        ? KIND_NONE
+        : source.name() + SEPARATOR + encode(descriptor));
+  }
+
+  /**
+   * Index the failure to read the jar.
+   *
+   * @param jar the jar
+   * @param error the error message
+   *
+   * @throws IOException if any errors occurred while reading the jar
+   */
+  public void putError(final Path jar, final String error)
+      throws IOException {
+    putValue(jar, KIND_ERROR + SEPARATOR + (error == null ? "" : error));
+  }
+
+  /**
+   * Store the updated index entries. The entries are merged with
+   * the index file under the lock, the entries stored by the concurrent
+   * builds are kept.
+   *
+   * @throws IOException if any errors occurred while writing the index
+   */
+  public void save() throws IOException {
+    if (updates.isEmpty()) {
+      return;
+    }
+    Files.createDirectories(indexFile.getParent());
+    try (CacheLock lock = CacheLock.acquire(indexFile)) {
+      final Properties props = new Properties();
+      readEntries(props);
+      props.putAll(updates);
+      final Path tempFile = Files.createTempFile(indexFile.getParent(),
+          INDEX_FILE, null);
+      try {
+        try (BufferedWriter bw =
+            Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+          props.store(bw, null);
+        }
+        Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      } finally {
+        Files.deleteIfExists(tempFile);
+      }
+    }
+    updates.clear();
+  }
+
+  /**
+   * Get the number of the found entries.
+   *
+   * @return the number of the found entries
+   */
+  public int getHits() {
+    return hits;
+  }
+
+  /**
+   * Get the number of the missing or outdated entries.
+   *
+   * @return the number of the missing or outdated entries
+   */
+  public int getMisses() {
+    return misses;
+  }
+
+  /**
+   * Read the entries of the index file.
+   *
+   * @param props the entries
+   *
+   * @throws IOException if any errors occurred while reading the index
+   */
+  private void readEntries(final Properties props) throws IOException {
+    if (Files.isRegularFile(indexFile)) {
+      try (BufferedReader br =
+          Files.newBufferedReader(indexFile, StandardCharsets.UTF_8)) {
+        props.load(br);
+      }
+    }
+  }
+
+  /**
+   * Store the index entry of the jar.
+   *
+   * @param jar the jar
+   * @param data the encoded data of the entry (kind and data)
+   *
+   * @throws IOException if any errors occurred while reading the jar
+   */
+  private void putValue(final Path jar, final String data)
+      throws IOException {
+    final String key = getKey(jar);
+    final String value = Files.size(jar) + SEPARATOR
+        + Files.getLastModifiedTime(jar).toMillis() + SEPARATOR
+        + Fingerprint.digest(jar) + SEPARATOR + data;
+    entries.setProperty(key, value);
+    updates.put(key, value);
+  }
+
+  /**
+   * Get the key of the jar entry.
+   *
+   * @param jar the jar
+   *
+   * @return the key of the jar entry
+   *
+   * @throws IOException if the real path of the jar can not be resolved
+   */
+  private static String getKey(final Path jar) throws IOException {
+    return jar.toRealPath().toString();
+  }
+
+  /**
+   * Encode the module descriptor.
+   *
+   * @param descriptor the module descriptor
+   *
+   * @return the encoded module descriptor
+   */
+  private static String encode(final JavaModuleDescriptor descriptor) {
+    return descriptor.isAutomatic() + SEPARATOR
+        + descriptor.name() + SEPARATOR
+        + descriptor.requires().stream()
+            .map(requires -> join(requires.modifiers().stream()
+                .map(modifier -> modifier.name().toLowerCase(Locale.ROOT))
+                .sorted()
+                .collect(Collectors.toList()), requires.name()))
+            .sorted()
+            .collect(Collectors.joining(LIST_SEPARATOR)) + SEPARATOR
+        + descriptor.exports().stream()
+            .map(exports -> join(List.of(exports.source()),
+                exports.targets() == null
+                    ? List.of()
+                    : exports.targets().stream().sorted()
+                        .collect(Collectors.toList())))
+            .sorted()
+            .collect(Collectors.joining(LIST_SEPARATOR)) + SEPARATOR
+        + descriptor.provides().stream()
+            .map(provides -> join(List.of(provides.service()),
+                provides.providers()))
+            .sorted()
+            .collect(Collectors.joining(LIST_SEPARATOR)) + SEPARATOR
+        + descriptor.uses().stream()
+            .sorted()
+            .collect(Collectors.joining(LIST_SEPARATOR));
+  }
+
+  /**
+   * Join the directive parts.
+   *
+   * @param head the leading parts
+   * @param tail the trailing parts
+   *
+   * @return the directive
+   */
+  private static String join(final List<String> head,
+      final List<String> tail) {
+    final List<String> items = new ArrayList<>(head);
+    items.addAll(tail);
+    return String.join(ITEM_SEPARATOR, items);
+  }
+
+  /**
+   * Join the directive parts.
+   *
+   * @param head the leading parts
+   * @param last the last part
+   *
+   * @return the directive
+   */
+  private static String join(final List<String> head, final String last) {
+    return join(head, List.of(last));
+  }
+
+  /**
+   * Decode the index entry.
+   *
+   * @param parts the parts of the index entry value
+   *
+   * @return the index entry
+   *
+   * @throws IllegalArgumentException if the entry is malformed
+   */
+  private static Entry decode(final String[] parts) {
+    final String kind = parts[3];
+    final String data = parts.length < PARTS ? "" : parts[4];
+    if (KIND_NONE.equals(kind)) {
+      return new Entry(null, null, null);
+    }
+    if (KIND_ERROR.equals(kind)) {
+      return new Entry(null, null, data);
+    }
+    final ModuleNameSource source = ModuleNameSource.valueOf(kind);
+    final String[] fields = data.split(SEPARATOR, -1);
+    if (fields.length != DESCRIPTOR_PARTS || fields[1].isEmpty()) {
+      throw new IllegalArgumentException("Malformed index entry: " + data);
+    }
+    final JavaModuleDescriptor.Builder builder =
+        Boolean.parseBoolean(fields[0])
+            ? JavaModuleDescriptor.newAutomaticModule(fields[1])
+            : JavaModuleDescriptor.newModule(fields[1]);
+    for (final List<String> items : split(fields[2])) {
+      final Set<JavaModifier> modifiers = new HashSet<>();
+      for (final String modifier : items.subList(0, items.size() - 1)) {
+        modifiers.add(JavaModifier.valueOf(
+            modifier.toUpperCase(Locale.ROOT)));
+      }
+      builder.requires(modifiers, items.get(items.size() - 1));
+    }
+    for (final List<String> items : split(fields[3])) {
+      if (items.size() == 1) {
+        builder.exports(items.get(0));
+      } else {
+        builder.exports(items.get(0),
+            new HashSet<>(items.subList(1, items.size())));
+      }
+    }
+    for (final List<String> items : split(fields[4])) {
+      builder.provides(items.get(0),
+          new ArrayList<>(items.subList(1, items.size())));
+    }
+    for (final List<String> items : split(fields[5])) {
+      builder.uses(items.get(0));
+    }
+    return new Entry(builder.build(), source, null);
+  }
+
+  /**
+   * Split the encoded directives.
+   *
+   * @param value the encoded directives
+   *
+   * @return the parts of the directives
+   */
+  private static List<List<String>> split(final String value) {
+    if (value.isEmpty()) {
+      return List.of();
+    }
+    return Arrays.stream(value.split(LIST_SEPARATOR))
+        .map(item -> Arrays.asList(item.split(ITEM_SEPARATOR)))
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * The index entry.
+   */
+  public static final class Entry {
+
+    /**
+     * The module descriptor.
+     */
+    private final JavaModuleDescriptor descriptor;
+
+    /**
+     * The source of the module name.
+     */
+    private final ModuleNameSource source;
+
+    /**
+     * The error message.
+     */
+    private final String error;
+
+    /**
+     * Create the index entry.
+     *
+     * @param descriptor the module descriptor or null
+     * @param source the source of the module name or null
+     * @param error the error message or null
+     */
+    private Entry(final JavaModuleDescriptor descriptor,
+        final ModuleNameSource source, final String error) {
+      this.descriptor = descriptor;
+      this.source = source;
+      this.error = error;
+    }
+
+    /**
+     * Get the module descriptor.
+     *
+     * @return the module descriptor or null if it is missing
+     */
+    public JavaModuleDescriptor getDescriptor() {
+      return descriptor;
+    }
+
+    /**
+     * Get the source of the module name.
+     *
+     * @return the source of the module name or null if it is missing
+     */
+    public ModuleNameSource getSource() {
+      return source;
+    }
+
+    /**
+     * Get the message of the error occurred while reading the jar.
+     *
+     * @return the error message or null if the jar has been read
+     */
+    public String getError() {
+      return error;
+    }
+
+  }
+
+}
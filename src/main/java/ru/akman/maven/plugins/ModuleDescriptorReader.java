@@ -0,0 +1,469 @@
+/*
+  Copyright (C) 2020 - 2024 Alexander Kapitman
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package ru.akman.maven.plugins;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.module.InvalidModuleDescriptorException;
+import java.lang.module.ModuleDescriptor;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import org.codehaus.plexus.languages.java.jpms.JavaModuleDescriptor;
+import org.codehaus.plexus.languages.java.jpms.JavaModuleDescriptor.JavaRequires.JavaModifier;
+import org.codehaus.plexus.languages.java.jpms.ModuleNameSource;
+
+/**
+ * Lightweight reader of the module descriptor of the jar.
+ *
+ * <p>
+ * Only the end of the central directory, the central directory and
+ * the <code>module-info.class</code> and <code>META-INF/MANIFEST.MF</code>
+ * entries are read by the positioned reads of the file channel, the jar
+ * is not opened as the zip file and the rest of the entries are not
+ * inflated. The reader is stateless and can be used concurrently.
+ * </p>
+ *
+ * <p>
+ * The jars which can not be told apart by these entries are not read:
+ * the modules named by the file name, the multi-release jars with
+ * the versioned module descriptors, the ZIP64 and encrypted jars.
+ * They should be read by the JPMS location manager.
+ * </p>
+ */
+public final class ModuleDescriptorReader {
+
+  /**
+   * The signature of the end of the central directory.
+   */
+  private static final int END_SIGNATURE = 0x06054b50;
+
+  /**
+   * The signature of the central directory header.
+   */
+  private static final int CENTRAL_SIGNATURE = 0x02014b50;
+
+  /**
+   * The signature of the local file header.
+   */
+  private static final int LOCAL_SIGNATURE = 0x04034b50;
+
+  /**
+   * The size of the end of the central directory (without comment).
+   */
+  private static final int END_SIZE = 22;
+
+  /**
+   * The size of the central directory header (without name, extra field
+   * and comment).
+   */
+  private static final int CENTRAL_SIZE = 46;
+
+  /**
+   * The size of the local file header (without name and extra field).
+   */
+  private static final int LOCAL_SIZE = 30;
+
+  /**
+   * The maximum size of the zip file comment.
+   */
+  private static final int MAX_COMMENT = 0xFFFF;
+
+  /**
+   * The value of the count field telling the ZIP64 format.
+   */
+  private static final int ZIP64_COUNT = 0xFFFF;
+
+  /**
+   * The value of the size or offset field telling the ZIP64 format.
+   */
+  private static final long ZIP64_SIZE = 0xFFFFFFFFL;
+
+  /**
+   * The mask of the 16-bit field.
+   */
+  private static final int SHORT_MASK = 0xFFFF;
+
+  /**
+   * The mask of the 32-bit field.
+   */
+  private static final long INT_MASK = 0xFFFFFFFFL;
+
+  /**
+   * The flag of the encrypted entry.
+   */
+  private static final int FLAG_ENCRYPTED = 1;
+
+  /**
+   * The method of the stored entry.
+   */
+  private static final int METHOD_STORED = 0;
+
+  /**
+   * The method of the deflated entry.
+   */
+  private static final int METHOD_DEFLATED = 8;
+
+  /**
+   * The maximum size of the entry read.
+   */
+  private static final long MAX_ENTRY_SIZE = 16L * 1024 * 1024;
+
+  /**
+   * The name of the module descriptor entry.
+   */
+  private static final String MODULE_INFO = "module-info.class";
+
+  /**
+   * The name of the manifest entry.
+   */
+  private static final String MANIFEST = "META-INF/MANIFEST.MF";
+
+  /**
+   * The prefix of the versioned entries of the multi-release jar.
+   */
+  private static final String VERSIONS_PREFIX = "META-INF/versions/";
+
+  /**
+   * The manifest attribute of the automatic module name.
+   */
+  private static final String AUTOMATIC_MODULE_NAME = "Automatic-Module-Name";
+
+  /**
+   * Private constructor.
+   */
+  private ModuleDescriptorReader() {
+    // not called
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Read the module descriptor of the jar.
+   *
+   * @param jar the jar
+   *
+   * @return the module descriptor or null if it can not be told by
+   *         the module descriptor or the manifest of the jar
+   *
+   * @throws IOException if the jar can not be read
+   */
+  public static Result read(final Path jar) throws IOException {
+    try (FileChannel channel = FileChannel.open(jar,
+        StandardOpenOption.READ)) {
+      final long size = channel.size();
+      // find the end of the central directory
+      final int tailSize = (int) Math.min(size, END_SIZE + MAX_COMMENT);
+      final ByteBuffer tail = readFully(channel, size - tailSize, tailSize);
+      int end = -1;
+      for (int i = tailSize - END_SIZE; i >= 0; i--) {
+        if (tail.getInt(i) == END_SIGNATURE
+            && i + END_SIZE + (tail.getShort(i + 20) & SHORT_MASK)
+                <= tailSize) {
+          end = i;
+          break;
+        }
+      }
+      if (end < 0) {
+        throw new IOException("Zip end header not found: " + jar);
+      }
+      final int count = tail.getShort(end + 10) & SHORT_MASK;
+      final long centralSize = tail.getInt(end + 12) & INT_MASK;
+      final long centralOffset = tail.getInt(end + 16) & INT_MASK;
+      if (count == ZIP64_COUNT || centralSize == ZIP64_SIZE
+          || centralOffset == ZIP64_SIZE) {
+        return null;
+      }
+      // the data can be prepended to the zip file
+      final long centralPosition = size - tailSize + end - centralSize;
+      final long base = centralPosition - centralOffset;
+      if (base < 0 || centralSize > Integer.MAX_VALUE) {
+        throw new IOException("Zip central directory is malformed: " + jar);
+      }
+      final ByteBuffer central =
+          readFully(channel, centralPosition, (int) centralSize);
+      // find the entries
+      int moduleInfo = -1;
+      int manifest = -1;
+      boolean versioned = false;
+      int pos = 0;
+      for (int i = 0; i < count; i++) {
+        if (pos + CENTRAL_SIZE > central.limit()
+            || central.getInt(pos) != CENTRAL_SIGNATURE) {
+          throw new IOException("Zip central directory is malformed: "
+              + jar);
+        }
+        final int nameLength = central.getShort(pos + 28) & SHORT_MASK;
+        final int extraLength = central.getShort(pos + 30) & SHORT_MASK;
+        final int commentLength = central.getShort(pos + 32) & SHORT_MASK;
+        final String name = getName(central, pos + CENTRAL_SIZE, nameLength);
+        if (MODULE_INFO.equals(name)) {
+          moduleInfo = pos;
+        } else if (MANIFEST.equalsIgnoreCase(name)) {
+          manifest = pos;
+        } else if (name.startsWith(VERSIONS_PREFIX)
+            && name.endsWith("/" + MODULE_INFO)) {
+          versioned = true;
+        }
+        pos += CENTRAL_SIZE + nameLength + extraLength + commentLength;
+      }
+      // the versioned module descriptor can differ from the root one,
+      // it is selected by the runtime version
+      if (versioned) {
+        return null;
+      }
+      if (moduleInfo >= 0) {
+        return new Result(parseModuleInfo(jar,
+            readEntry(channel, central, moduleInfo, base, jar)),
+            ModuleNameSource.MODULEDESCRIPTOR);
+      }
+      if (manifest < 0) {
+        return null;
+      }
+      final String name = new Manifest(new ByteArrayInputStream(
+          readEntry(channel, central, manifest, base, jar)))
+          .getMainAttributes().getValue(AUTOMATIC_MODULE_NAME);
+      return name == null
+          ? null
+          : new Result(JavaModuleDescriptor.newAutomaticModule(name).build(),
+              ModuleNameSource.MANIFEST);
+    }
+  }
+
+  /**
+   * Read the bytes of the file.
+   *
+   * @param channel the file channel
+   * @param position the position of the bytes
+   * @param length the number of the bytes
+   *
+   * @return the buffer of the bytes (little endian)
+   *
+   * @throws IOException if the bytes can not be read
+   */
+  private static ByteBuffer readFully(final FileChannel channel,
+      final long position, final int length) throws IOException {
+    final ByteBuffer buffer = ByteBuffer.allocate(length)
+        .order(ByteOrder.LITTLE_ENDIAN);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0) {
+        throw new IOException("Unexpected end of file");
+      }
+    }
+    return buffer.flip();
+  }
+
+  /**
+   * Get the name of the entry. The names looked for are ASCII,
+   * so the encoding of the name does not matter.
+   *
+   * @param buffer the buffer
+   * @param offset the offset of the name
+   * @param length the length of the name
+   *
+   * @return the name of the entry
+   */
+  private static String getName(final ByteBuffer buffer, final int offset,
+      final int length) {
+    final byte[] bytes = new byte[length];
+    buffer.get(offset, bytes);
+    return new String(bytes, StandardCharsets.ISO_8859_1);
+  }
+
+  /**
+   * Read the content of the entry.
+   *
+   * @param channel the file channel
+   * @param central the central directory
+   * @param pos the position of the entry in the central directory
+   * @param base the position of the zip file in the file
+   * @param jar the jar
+   *
+   * @return the content of the entry
+   *
+   * @throws IOException if the entry can not be read
+   */
+  private static byte[] readEntry(final FileChannel channel,
+      final ByteBuffer central, final int pos, final long base,
+      final Path jar) throws IOException {
+    final int flags = central.getShort(pos + 8) & SHORT_MASK;
+    final int method = central.getShort(pos + 10) & SHORT_MASK;
+    final long crc = central.getInt(pos + 16) & INT_MASK;
+    final long compressedSize = central.getInt(pos + 20) & INT_MASK;
+    final long size = central.getInt(pos + 24) & INT_MASK;
+    final long offset = central.getInt(pos + 42) & INT_MASK;
+    if ((flags & FLAG_ENCRYPTED) != 0
+        || method != METHOD_STORED && method != METHOD_DEFLATED
+        || compressedSize > MAX_ENTRY_SIZE || size > MAX_ENTRY_SIZE) {
+      throw new IOException("Zip entry is not supported: " + jar);
+    }
+    final ByteBuffer local = readFully(channel, base + offset, LOCAL_SIZE);
+    if (local.getInt(0) != LOCAL_SIGNATURE) {
+      throw new IOException("Zip local header is malformed: " + jar);
+    }
+    final long dataPosition = base + offset + LOCAL_SIZE
+        + (local.getShort(26) & SHORT_MASK)
+        + (local.getShort(28) & SHORT_MASK);
+    final ByteBuffer data =
+        readFully(channel, dataPosition, (int) compressedSize);
+    final byte[] content;
+    if (method == METHOD_STORED) {
+      content = data.array();
+    } else {
+      // the extra dummy byte is required by the inflater without
+      // the zlib header
+      final byte[] input = new byte[(int) compressedSize + 1];
+      data.get(input, 0, (int) compressedSize);
+      final Inflater inflater = new Inflater(true);
+      try {
+        inflater.setInput(input);
+        content = new byte[(int) size];
+        int length = 0;
+        while (length < content.length && !inflater.finished()) {
+          final int inflated =
+              inflater.inflate(content, length, content.length - length);
+          if (inflated == 0 && (inflater.needsInput()
+              || inflater.needsDictionary())) {
+            break;
+          }
+          length += inflated;
+        }
+        if (length != content.length) {
+          throw new IOException("Zip entry is truncated: " + jar);
+        }
+      } catch (DataFormatException ex) {
+        throw new IOException("Zip entry is malformed: " + jar, ex);
+      } finally {
+        inflater.end();
+      }
+    }
+    final CRC32 checksum = new CRC32();
+    checksum.update(content);
+    if (checksum.getValue() != crc) {
+      throw new IOException("Zip entry checksum mismatch: " + jar);
+    }
+    return content;
+  }
+
+  /**
+   * Parse the module descriptor.
+   *
+   * @param jar the jar
+   * @param content the content of the module descriptor
+   *
+   * @return the module descriptor
+   *
+   * @throws IOException if the module descriptor is malformed
+   */
+  private static JavaModuleDescriptor parseModuleInfo(final Path jar,
+      final byte[] content) throws IOException {
+    final ModuleDescriptor descriptor;
+    try {
+      descriptor = ModuleDescriptor.read(ByteBuffer.wrap(content));
+    } catch (InvalidModuleDescriptorException ex) {
+      throw new IOException("Module descriptor is malformed: " + jar, ex);
+    }
+    final JavaModuleDescriptor.Builder builder =
+        JavaModuleDescriptor.newModule(descriptor.name());
+    for (final ModuleDescriptor.Requires requires : descriptor.requires()) {
+      final Set<JavaModifier> modifiers = new LinkedHashSet<>();
+      if (requires.modifiers().contains(
+          ModuleDescriptor.Requires.Modifier.STATIC)) {
+        modifiers.add(JavaModifier.STATIC);
+      }
+      if (requires.modifiers().contains(
+          ModuleDescriptor.Requires.Modifier.TRANSITIVE)) {
+        modifiers.add(JavaModifier.TRANSITIVE);
+      }
+      if (modifiers.isEmpty()) {
+        builder.requires(requires.name());
+      } else {
+        builder.requires(modifiers, requires.name());
+      }
+    }
+    for (final ModuleDescriptor.Exports exports : descriptor.exports()) {
+      if (exports.targets().isEmpty()) {
+        builder.exports(exports.source());
+      } else {
+        builder.exports(exports.source(), exports.targets());
+      }
+    }
+    for (final String uses : descriptor.uses()) {
+      builder.uses(uses);
+    }
+    for (final ModuleDescriptor.Provides provides : descriptor.provides()) {
+      builder.provides(provides.service(), provides.providers());
+    }
+    return builder.build();
+  }
+
+  /**
+   * The module descriptor read.
+   */
+  public static final class Result {
+
+    /**
+     * The module descriptor.
+     */
+    private final JavaModuleDescriptor descriptor;
+
+    /**
+     * The source of the module name.
+     */
+    private final ModuleNameSource source;
+
+    /**
+     * Create the result.
+     *
+     * @param descriptor the module descriptor
+     * @param source the source of the module name
+     */
+    private Result(final JavaModuleDescriptor descriptor,
+        final ModuleNameSource source) {
+      this.descriptor = descriptor;
+      this.source = source;
+    }
+
+    /**
+     * Get the module descriptor.
+     *
+     * @return the module descriptor
+     */
+    public JavaModuleDescriptor getDescriptor() {
+      return descriptor;
+    }
+
+    /**
+     * Get the source of the module name.
+     *
+     * @return the source of the module name
+     */
+    public ModuleNameSource getSource() {
+      return source;
+    }
+
+  }
+
+}
@@ -0,0 +1,684 @@
+/*
+  Copyright (C) 2020 - 2024 Alexander Kapitman
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package ru.akman.maven.plugins;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.text.MessageFormat;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Content-addressed cache of the tool outputs shared between builds.
+ *
+ * <p>
+ * The entry of the cache is the directory named by the digest of
+ * the inputs, it contains the outputs and the entry properties.
+ * The entry is staged next to its final location and published by
+ * the atomic rename, the concurrent producers of the same entry are
+ * coordinated by the lock of the entry. The modification time of
+ * the entry properties is
+ * the time of the last access, the least recently used entries are
+ * evicted as soon as the total size of the cache exceeds the limit.
+ * The outputs are restored by copying, the entry never shares the files
+ * with the restored outputs, so the outputs changed in place (e.g. signed
+ * or post-processed) do not change the entry.
+ * </p>
+ *
+ * <p>
+ * The entries missing in the cache are got from the remote cache if it
+ * is specified, the stored entries are put to the remote cache.
+ * </p>
+ */
+public class OutputCache {
+
+  /**
+   * The subdirectory of the entry containing the outputs.
+   */
+  private static final String CONTENT_DIR = "content";
+
+  /**
+   * The file of the entry properties.
+   */
+  private static final String ENTRY_FILE = "entry.properties";
+
+  /**
+   * The file of the cache statistics.
+   */
+  private static final String STATS_FILE = "stats.properties";
+
+  /**
+   * The lock file guarding the cache statistics.
+   */
+  private static final String STATS_LOCK_FILE = "stats.lock";
+
+  /**
+   * The lock guarding the cache statistics between the threads,
+   * the file lock is held by the whole JVM.
+   */
+  private static final Object STATS_LOCK = new Object();
+
+  /**
+   * The infix of the staging entry name following the entry name.
+   */
+  private static final String STAGING_INFIX = ".staging-";
+
+  /**
+   * The age of the abandoned staging entry.
+   */
+  private static final Duration STAGING_MAX_AGE = Duration.ofHours(1L);
+
+  /**
+   * The entry property of the total size of the outputs.
+   */
+  private static final String PROP_SIZE = "size";
+
+  /**
+   * The entry property of the creation time.
+   */
+  private static final String PROP_CREATED = "created";
+
+  /**
+   * The statistics counter of the cache hits.
+   */
+  public static final String STAT_HITS = "hits";
+
+  /**
+   * The statistics counter of the cache misses.
+   */
+  public static final String STAT_MISSES = "misses";
+
+  /**
+   * The statistics counter of the stored entries.
+   */
+  public static final String STAT_STORES = "stores";
+
+  /**
+   * The statistics counter of the evicted entries.
+   */
+  public static final String STAT_EVICTIONS = "evictions";
+
+  /**
+   * The statistics counter of the entries got from the remote cache.
+   */
+  public static final String STAT_REMOTE_HITS = "remotehits";
+
+  /**
+   * The statistics counter of the entries put to the remote cache.
+   */
+  public static final String STAT_REMOTE_STORES = "remotestores";
+
+  /**
+   * The namespace of the entries in the remote cache.
+   */
+  private static final String REMOTE_NAMESPACE = "outputs";
+
+  /**
+   * The log.
+   */
+  private final Log log;
+
+  /**
+   * The disposer deleting the evicted entries.
+   */
+  private final FileDisposer fileDisposer;
+
+  /**
+   * The root directory of the cache.
+   */
+  private final Path root;
+
+  /**
+   * The size limit of the cache (in bytes).
+   */
+  private final long maxSize;
+
+  /**
+   * The remote cache or null.
+   */
+  private RemoteCache remoteCache;
+
+  /**
+   * Create the cache.
+   *
+   * @param log the log
+   * @param fileDisposer the disposer deleting the evicted entries
+   * @param root the root directory of the cache
+   * @param maxSize the size limit of the cache (in bytes)
+   */
+  public OutputCache(final Log log, final FileDisposer fileDisposer,
+      final Path root, final long maxSize) {
+    this.log = log;
+    this.fileDisposer = fileDisposer;
+    this.root = root;
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * Set the remote cache the missing entries are got from and the stored
+   * entries are put to.
+   *
+   * @param remoteCache the remote cache or null
+   */
+  public void setRemoteCache(final RemoteCache remoteCache) {
+    this.remoteCache = remoteCache;
+  }
+
+  /**
+   * Acquire the lock of the entry, wait until it is released by
+   * the concurrent producer of the same entry.
+   *
+   * @param key the key of the entry (the digest of the inputs)
+   *
+   * @return the lock of the entry
+   *
+   * @throws IOException if the lock can not be acquired
+   */
+  public CacheLock lock(final String key) throws IOException {
+    return CacheLock.acquire(root.resolve(key));
+  }
+
+  /**
+   * Acquire the lock of the entry if it is not held by the concurrent
+   * producer of the same entry.
+   *
+   * @param key the key of the entry (the digest of the inputs)
+   *
+   * @return the lock of the entry or null if it is held
+   *
+   * @throws IOException if the lock can not be acquired
+   */
+  public CacheLock tryLock(final String key) throws IOException {
+    return CacheLock.tryAcquire(root.resolve(key));
+  }
+
+  /**
+   * Restore the outputs of the entry to the destination directory.
+   *
+   * @param key the key of the entry (the digest of the inputs)
+   * @param destDir the destination directory
+   *
+   * @return true if the outputs have been restored, false if the entry
+   *         is missing or the outputs already exist
+   *
+   * @throws IOException if any errors occurred while restoring
+   *                     the outputs
+   */
+  public boolean restore(final String key, final Path destDir)
+      throws IOException {
+    final Path entry = root.resolve(key);
+    final Path content = entry.resolve(CONTENT_DIR);
+    if ((!Files.isRegularFile(entry.resolve(ENTRY_FILE))
+        || !Files.isDirectory(content)) && !fetchRemote(key)) {
+      updateStats(STAT_MISSES, 1L);
+      return false;
+    }
+    final List<Path> outputs = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(content)) {
+      for (final Path output : stream) {
+        outputs.add(output);
+        if (Files.exists(destDir.resolve(output.getFileName().toString()),
+            LinkOption.NOFOLLOW_LINKS)) {
+          if (log.isInfoEnabled()) {
+            log.info(MessageFormat.format(
+                "Output cache entry [{0}] is not restored, the output"
+                + " already exists: [{1}]", key, output.getFileName()));
+          }
+          updateStats(STAT_MISSES, 1L);
+          return false;
+        }
+      }
+    }
+    Files.setLastModifiedTime(entry.resolve(ENTRY_FILE),
+        FileTime.from(Instant.now()));
+    Files.createDirectories(destDir);
+    try {
+      for (final Path output : outputs) {
+        copyTree(output, destDir.resolve(output.getFileName().toString()));
+      }
+    } catch (IOException ex) {
+      // the partially restored outputs would prevent the tool
+      // from creating the new ones
+      for (final Path output : outputs) {
+        fileDisposer.dispose(destDir.resolve(
+            output.getFileName().toString()));
+      }
+      throw ex;
+    }
+    updateStats(STAT_HITS, 1L);
+    return true;
+  }
+
+  /**
+   * Store the outputs to the new entry and evict the least recently
+   * used entries exceeding the size limit.
+   *
+   * @param key the key of the entry (the digest of the inputs)
+   * @param destDir the destination directory
+   * @param names the names of the outputs in the destination directory
+   *
+   * @throws IOException if any errors occurred while storing the outputs
+   */
+  public void store(final String key, final Path destDir,
+      final Collection<String> names) throws IOException {
+    final Path entry = root.resolve(key);
+    if (names.isEmpty() || Files.isDirectory(entry)) {
+      return;
+    }
+    final Path staging = root.resolve(key + STAGING_INFIX
+        + UUID.randomUUID());
+    try {
+      final Path content = staging.resolve(CONTENT_DIR);
+      Files.createDirectories(content);
+      long size = 0L;
+      for (final String name : names) {
+        size += copyTree(destDir.resolve(name), content.resolve(name));
+      }
+      final Properties props = new Properties();
+      props.setProperty(PROP_SIZE, String.valueOf(size));
+      props.setProperty(PROP_CREATED, Instant.now().toString());
+      try (BufferedWriter bw = Files.newBufferedWriter(
+          staging.resolve(ENTRY_FILE), StandardCharsets.UTF_8)) {
+        props.store(bw, null);
+      }
+      try {
+        Files.move(staging, entry, StandardCopyOption.ATOMIC_MOVE);
+      } catch (IOException ex) {
+        if (Files.isDirectory(entry)) {
+          // stored concurrently by another build
+          return;
+        }
+        throw ex;
+      }
+      if (log.isDebugEnabled()) {
+        log.debug(MessageFormat.format(
+            "Stored output cache entry [{0}]: {1} bytes", key,
+            String.valueOf(size)));
+      }
+      updateStats(STAT_STORES, 1L);
+    } finally {
+      fileDisposer.dispose(staging);
+    }
+    if (remoteCache != null && remoteCache.store(REMOTE_NAMESPACE, key,
+        entry.resolve(CONTENT_DIR))) {
+      updateStats(STAT_REMOTE_STORES, 1L);
+    }
+    prune(maxSize);
+  }
+
+  /**
+   * Get the entry from the remote cache and publish it.
+   *
+   * @param key the key of the entry (the digest of the inputs)
+   *
+   * @return true if the entry has been got
+   *
+   * @throws IOException if any errors occurred while publishing the entry
+   */
+  private boolean fetchRemote(final String key) throws IOException {
+    if (remoteCache == null) {
+      return false;
+    }
+    final Path entry = root.resolve(key);
+    final Path staging = root.resolve(key + STAGING_INFIX
+        + UUID.randomUUID());
+    try {
+      Files.createDirectories(staging);
+      final Path content = staging.resolve(CONTENT_DIR);
+      if (!remoteCache.fetch(REMOTE_NAMESPACE, key, content)) {
+        return false;
+      }
+      final AtomicLong size = new AtomicLong();
+      Files.walkFileTree(content, new SimpleFileVisitor<Path>() {
+
+        @Override
+        public FileVisitResult visitFile(final Path file,
+            final BasicFileAttributes attrs) {
+          if (attrs.isRegularFile()) {
+            size.addAndGet(attrs.size());
+          }
+          return FileVisitResult.CONTINUE;
+        }
+
+      });
+      final Properties props = new Properties();
+      props.setProperty(PROP_SIZE, String.valueOf(size.get()));
+      props.setProperty(PROP_CREATED, Instant.now().toString());
+      try (BufferedWriter bw = Files.newBufferedWriter(
+          staging.resolve(ENTRY_FILE), StandardCharsets.UTF_8)) {
+        props.store(bw, null);
+      }
+      try {
+        Files.move(staging, entry, StandardCopyOption.ATOMIC_MOVE);
+      } catch (IOException ex) {
+        if (!Files.isDirectory(entry)) {
+          throw ex;
+        }
+        // stored concurrently by another build
+      }
+      updateStats(STAT_REMOTE_HITS, 1L);
+      return true;
+    } finally {
+      fileDisposer.dispose(staging);
+    }
+  }
+
+  /**
+   * Evict the least recently used entries until the total size
+   * of the cache does not exceed the limit. The entries locked by
+   * the concurrent builds are not evicted. The abandoned staging
+   * entries are removed.
+   *
+   * @param limit the size limit of the cache (in bytes)
+   *
+   * @return the number of the evicted entries
+   *
+   * @throws IOException if any errors occurred while evicting
+   */
+  public int prune(final long limit) throws IOException {
+    final List<Entry> entries = getEntries();
+    long total = entries.stream().mapToLong(Entry::getSize).sum();
+    entries.sort(Comparator.comparing(Entry::getAccessed));
+    int evicted = 0;
+    for (final Entry entry : entries) {
+      if (total <= limit) {
+        break;
+      }
+      try (CacheLock lock = CacheLock.tryAcquire(entry.getPath())) {
+        if (lock == null) {
+          // the entry is being stored or restored
+          continue;
+        }
+        if (log.isInfoEnabled()) {
+          log.info(MessageFormat.format(
+              "Evicting output cache entry [{0}]: {1} bytes",
+              entry.getPath().getFileName(),
+              String.valueOf(entry.getSize())));
+        }
+        fileDisposer.dispose(entry.getPath());
+      }
+      total -= entry.getSize();
+      evicted++;
+    }
+    if (evicted > 0) {
+      updateStats(STAT_EVICTIONS, evicted);
+    }
+    final Instant staleBefore = Instant.now().minus(STAGING_MAX_AGE);
+    if (Files.isDirectory(root)) {
+      try (DirectoryStream<Path> stream =
+          Files.newDirectoryStream(root, "*" + STAGING_INFIX + "*")) {
+        for (final Path staging : stream) {
+          if (Files.getLastModifiedTime(staging).toInstant()
+              .isBefore(staleBefore)) {
+            fileDisposer.dispose(staging);
+          }
+        }
+      }
+    }
+    return evicted;
+  }
+
+  /**
+   * Get the entries of the cache.
+   *
+   * @return the entries of the cache
+   *
+   * @throws IOException if any errors occurred while listing the cache
+   */
+  public List<Entry> getEntries() throws IOException {
+    final List<Entry> entries = new ArrayList<>();
+    if (!Files.isDirectory(root)) {
+      return entries;
+    }
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(root,
+        // the staging entries and the tombstones are dotted
+        path -> path.getFileName().toString().indexOf('.') < 0
+            && Files.isRegularFile(path.resolve(ENTRY_FILE)))) {
+      for (final Path path : stream) {
+        final Path entryFile = path.resolve(ENTRY_FILE);
+        final Properties props = new Properties();
+        try (BufferedReader br =
+            Files.newBufferedReader(entryFile, StandardCharsets.UTF_8)) {
+          props.load(br);
+          entries.add(new Entry(path,
+              Long.parseLong(props.getProperty(PROP_SIZE, "0")),
+              Files.getLastModifiedTime(entryFile).toInstant()));
+        } catch (IOException | NumberFormatException ex) {
+          // evicted concurrently or corrupted, the corrupted entry
+          // is evicted first
+          entries.add(new Entry(path, 0L, Instant.EPOCH));
+        }
+      }
+    }
+    return entries;
+  }
+
+  /**
+   * Get the statistics of the cache.
+   *
+   * @return the counters of the statistics by the names
+   *
+   * @throws IOException if any errors occurred while reading
+   *                     the statistics
+   */
+  public Properties getStats() throws IOException {
+    final Properties stats = new Properties();
+    final Path statsFile = root.resolve(STATS_FILE);
+    if (Files.isRegularFile(statsFile)) {
+      try (BufferedReader br =
+          Files.newBufferedReader(statsFile, StandardCharsets.UTF_8)) {
+        stats.load(br);
+      }
+    }
+    return stats;
+  }
+
+  /**
+   * Increment the counter of the statistics. The statistics is shared
+   * between builds and guarded by the file lock.
+   *
+   * @param name the name of the counter
+   * @param delta the increment
+   */
+  private void updateStats(final String name, final long delta) {
+    synchronized (STATS_LOCK) {
+      updateStatsLocked(name, delta);
+    }
+  }
+
+  /**
+   * Increment the counter of the statistics holding the file lock.
+   *
+   * @param name the name of the counter
+   * @param delta the increment
+   */
+  private void updateStatsLocked(final String name, final long delta) {
+    try {
+      Files.createDirectories(root);
+      try (FileChannel channel = FileChannel.open(
+              root.resolve(STATS_LOCK_FILE), StandardOpenOption.CREATE,
+              StandardOpenOption.WRITE);
+          FileLock lock = channel.lock()) {
+        final Properties stats = getStats();
+        long value = 0L;
+        try {
+          value = Long.parseLong(stats.getProperty(name, "0"));
+        } catch (NumberFormatException ex) {
+          // skip, the counter is reset
+        }
+        stats.setProperty(name, String.valueOf(value + delta));
+        final Path tempFile = Files.createTempFile(root, STATS_FILE, null);
+        try {
+          try (BufferedWriter bw =
+              Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+            stats.store(bw, null);
+          }
+          Files.move(tempFile, root.resolve(STATS_FILE),
+              StandardCopyOption.REPLACE_EXISTING,
+              StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+          Files.deleteIfExists(tempFile);
+        }
+      }
+    } catch (IOException ex) {
+      if (log.isDebugEnabled()) {
+        log.debug("Unable to update output cache statistics", ex);
+      }
+    }
+  }
+
+  /**
+   * Copy the file or the directory with all its content. The symbolic
+   * links are copied, not followed.
+   *
+   * @param source the file or the directory
+   * @param target the target, must not exist
+   *
+   * @return the total size of the copied files
+   *
+   * @throws IOException if any errors occurred while copying
+   */
+  private static long copyTree(final Path source, final Path target)
+      throws IOException {
+    final AtomicLong size = new AtomicLong();
+    Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+
+      @Override
+      public FileVisitResult preVisitDirectory(final Path dir,
+          final BasicFileAttributes attrs) throws IOException {
+        final Path targetDir = target.resolve(source.relativize(dir)
+            .toString());
+        Files.copy(dir, targetDir, StandardCopyOption.COPY_ATTRIBUTES);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFile(final Path file,
+          final BasicFileAttributes attrs) throws IOException {
+        final Path targetFile = target.resolve(source.relativize(file)
+            .toString());
+        if (attrs.isRegularFile()) {
+          size.addAndGet(attrs.size());
+        }
+        Files.copy(file, targetFile, StandardCopyOption.COPY_ATTRIBUTES,
+            LinkOption.NOFOLLOW_LINKS);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult postVisitDirectory(final Path dir,
+          final IOException exc) throws IOException {
+        if (exc != null) {
+          throw exc;
+        }
+        // the modification time is changed by the content
+        final Path targetDir = target.resolve(source.relativize(dir)
+            .toString());
+        Files.setLastModifiedTime(targetDir,
+            Files.getLastModifiedTime(dir));
+        return FileVisitResult.CONTINUE;
+      }
+
+    });
+    return size.get();
+  }
+
+  /**
+   * The entry of the cache.
+   */
+  public static final class Entry {
+
+    /**
+     * The directory of the entry.
+     */
+    private final Path path;
+
+    /**
+     * The total size of the outputs.
+     */
+    private final long size;
+
+    /**
+     * The time of the last access.
+     */
+    private final Instant accessed;
+
+    /**
+     * Create the entry.
+     *
+     * @param path the directory of the entry
+     * @param size the total size of the outputs
+     * @param accessed the time of the last access
+     */
+    Entry(final Path path, final long size, final Instant accessed) {
+      this.path = path;
+      this.size = size;
+      this.accessed = accessed;
+    }
+
+    /**
+     * Get the directory of the entry.
+     *
+     * @return the directory of the entry
+     */
+    public Path getPath() {
+      return path;
+    }
+
+    /**
+     * Get the total size of the outputs.
+     *
+     * @return the total size of the outputs
+     */
+    public long getSize() {
+      return size;
+    }
+
+    /**
+     * Get the time of the last access.
+     *
+     * @return the time of the last access
+     */
+    public Instant getAccessed() {
+      return accessed;
+    }
+
+  }
+
+}
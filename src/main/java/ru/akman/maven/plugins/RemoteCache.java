@@ -0,0 +1,593 @@
+/*
+  Copyright (C) 2020 - 2024 Alexander Kapitman
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package ru.akman.maven.plugins;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.text.MessageFormat;
+import java.time.Duration;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Remote cache of the cache entries shared between the build hosts.
+ *
+ * <p>
+ * The entry is the zip archive of the directory addressed by the key
+ * of the entry, the archive is accompanied by the SHA-256 digest of it.
+ * The archives are got and put by the plain HTTP GET and PUT requests:
+ * <code>{url}/{namespace}/{key}.zip</code> and
+ * <code>{url}/{namespace}/{key}.zip.sha256</code>. The digest is put
+ * after the archive, so the entry is complete as soon as its digest
+ * exists. The archives are streamed from and to the temporary files,
+ * the downloaded archive is verified by the digest before it is
+ * extracted. The POSIX permissions and the symbolic links are kept
+ * in the comments of the archive entries.
+ * </p>
+ *
+ * <p>
+ * The remote cache is optional, the failures of the requests are reported
+ * and the entry is considered missing, so the outputs are created
+ * locally. The remote cache is not requested any more as soon as it
+ * is not reachable or does not respond in time.
+ * </p>
+ */
+public class RemoteCache {
+
+  /**
+   * The suffix of the archive.
+   */
+  private static final String ARCHIVE_SUFFIX = ".zip";
+
+  /**
+   * The suffix of the digest of the archive.
+   */
+  private static final String DIGEST_SUFFIX = ".sha256";
+
+  /**
+   * The prefix of the archive entry comment of the symbolic link.
+   */
+  private static final String LINK_PREFIX = "link:";
+
+  /**
+   * The prefix of the archive entry comment of the POSIX permissions.
+   */
+  private static final String MODE_PREFIX = "mode:";
+
+  /**
+   * The status code of the successful response.
+   */
+  private static final int HTTP_OK = 200;
+
+  /**
+   * The upper bound of the status codes of the successful response.
+   */
+  private static final int HTTP_REDIRECT = 300;
+
+  /**
+   * The status code of the missing entry.
+   */
+  private static final int HTTP_NOT_FOUND = 404;
+
+  /**
+   * The log.
+   */
+  private final Log log;
+
+  /**
+   * The URL of the remote cache.
+   */
+  private final String url;
+
+  /**
+   * The timeout of the requests.
+   */
+  private final Duration timeout;
+
+  /**
+   * True if the new entries are put to the remote cache.
+   */
+  private final boolean push;
+
+  /**
+   * The HTTP client.
+   */
+  private final HttpClient client;
+
+  /**
+   * True if the remote cache is reachable.
+   */
+  private volatile boolean available = true;
+
+  /**
+   * Create the remote cache.
+   *
+   * @param log the log
+   * @param url the URL of the remote cache
+   * @param timeout the timeout of the requests
+   * @param push true if the new entries are put to the remote cache
+   */
+  public RemoteCache(final Log log, final String url,
+      final Duration timeout, final boolean push) {
+    this.log = log;
+    this.url = url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+    this.timeout = timeout;
+    this.push = push;
+    this.client = HttpClient.newBuilder()
+        .connectTimeout(timeout)
+        .followRedirects(HttpClient.Redirect.NORMAL)
+        .build();
+  }
+
+  /**
+   * Get the URL of the remote cache.
+   *
+   * @return the URL of the remote cache
+   */
+  public String getUrl() {
+    return url;
+  }
+
+  /**
+   * Get the entry from the remote cache and extract it
+   * to the directory.
+   *
+   * @param namespace the namespace of the entry
+   * @param key the key of the entry
+   * @param target the directory the entry is extracted to, must not exist
+   *
+   * @return true if the entry has been extracted, false if it is
+   *         missing or can not be got
+   */
+  public boolean fetch(final String namespace, final String key,
+      final Path target) {
+    if (!available) {
+      return false;
+    }
+    final URI archiveUri = getUri(namespace, key, ARCHIVE_SUFFIX);
+    Path archive = null;
+    try {
+      final String digest = getDigest(namespace, key);
+      if (digest == null) {
+        if (log.isDebugEnabled()) {
+          log.debug(MessageFormat.format(
+              "Remote cache entry is missing: [{0}]", archiveUri));
+        }
+        return false;
+      }
+      Files.createDirectories(target.toAbsolutePath().getParent());
+      archive = Files.createTempFile(target.toAbsolutePath().getParent(),
+          key, ARCHIVE_SUFFIX);
+      final HttpResponse<Path> response = send(
+          HttpRequest.newBuilder(archiveUri).timeout(timeout).GET().build(),
+          HttpResponse.BodyHandlers.ofFile(archive));
+      if (!isSuccessful(response.statusCode())) {
+        throw new IOException(MessageFormat.format(
+            "Unexpected response status: {0}",
+            String.valueOf(response.statusCode())));
+      }
+      final String actual = Fingerprint.digest(archive);
+      if (!digest.equals(actual)) {
+        throw new IOException(MessageFormat.format(
+            "Digest mismatch, expected: {0}, actual: {1}", digest, actual));
+      }
+      extract(archive, target);
+      if (log.isInfoEnabled()) {
+        log.info(MessageFormat.format(
+            "Remote cache hit [{0}]: {1} bytes", archiveUri,
+            String.valueOf(Files.size(archive))));
+      }
+      return true;
+    } catch (IOException ex) {
+      if (log.isWarnEnabled()) {
+        log.warn(MessageFormat.format(
+            "Unable to get remote cache entry [{0}]: {1}", archiveUri,
+            ex));
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    } finally {
+      deleteQuietly(archive);
+    }
+    return false;
+  }
+
+  /**
+   * Put the directory to the remote cache as the entry unless
+   * the entry already exists or the entries are not put.
+   *
+   * @param namespace the namespace of the entry
+   * @param key the key of the entry
+   * @param source the directory
+   *
+   * @return true if the entry has been put
+   */
+  public boolean store(final String namespace, final String key,
+      final Path source) {
+    if (!push || !available) {
+      return false;
+    }
+    final URI archiveUri = getUri(namespace, key, ARCHIVE_SUFFIX);
+    Path archive = null;
+    try {
+      if (getDigest(namespace, key) != null) {
+        return false;
+      }
+      archive = Files.createTempFile(source.toAbsolutePath().getParent(),
+          key, ARCHIVE_SUFFIX);
+      archive(source, archive);
+      final String digest = Fingerprint.digest(archive);
+      put(archiveUri, HttpRequest.BodyPublishers.ofFile(archive));
+      // the entry is complete as soon as its digest is put
+      put(getUri(namespace, key, ARCHIVE_SUFFIX + DIGEST_SUFFIX),
+          HttpRequest.BodyPublishers.ofString(digest,
+              StandardCharsets.US_ASCII));
+      if (log.isInfoEnabled()) {
+        log.info(MessageFormat.format(
+            "Stored remote cache entry [{0}]: {1} bytes", archiveUri,
+            String.valueOf(Files.size(archive))));
+      }
+      return true;
+    } catch (IOException ex) {
+      if (log.isWarnEnabled()) {
+        log.warn(MessageFormat.format(
+            "Unable to put remote cache entry [{0}]: {1}", archiveUri,
+            ex));
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    } finally {
+      deleteQuietly(archive);
+    }
+    return false;
+  }
+
+  /**
+   * Get the digest of the archive of the entry.
+   *
+   * @param namespace the namespace of the entry
+   * @param key the key of the entry
+   *
+   * @return the digest or null if the entry is missing
+   *
+   * @throws IOException if the digest can not be got
+   * @throws InterruptedException if the request is interrupted
+   */
+  private String getDigest(final String namespace, final String key)
+      throws IOException, InterruptedException {
+    final HttpResponse<String> response = send(
+        HttpRequest.newBuilder(getUri(namespace, key,
+            ARCHIVE_SUFFIX + DIGEST_SUFFIX)).timeout(timeout).GET().build(),
+        HttpResponse.BodyHandlers.ofString(StandardCharsets.US_ASCII));
+    if (response.statusCode() == HTTP_NOT_FOUND) {
+      return null;
+    }
+    if (!isSuccessful(response.statusCode())) {
+      throw new IOException(MessageFormat.format(
+          "Unexpected response status: {0}",
+          String.valueOf(response.statusCode())));
+    }
+    // the digest can be followed by the file name (sha256sum format)
+    final String[] fields = response.body().trim().split("\\s+", 2);
+    return fields[0].isEmpty() ? null : fields[0].toLowerCase(Locale.ROOT);
+  }
+
+  /**
+   * Put the content to the remote cache.
+   *
+   * @param uri the URI of the content
+   * @param publisher the publisher of the content
+   *
+   * @throws IOException if the content can not be put
+   * @throws InterruptedException if the request is interrupted
+   */
+  private void put(final URI uri, final HttpRequest.BodyPublisher publisher)
+      throws IOException, InterruptedException {
+    final HttpResponse<Void> response = send(
+        HttpRequest.newBuilder(uri).timeout(timeout).PUT(publisher).build(),
+        HttpResponse.BodyHandlers.discarding());
+    if (!isSuccessful(response.statusCode())) {
+      throw new IOException(MessageFormat.format(
+          "Unexpected response status: {0}",
+          String.valueOf(response.statusCode())));
+    }
+  }
+
+  /**
+   * Send the request to the remote cache. The remote cache is not
+   * requested any more if the request fails.
+   *
+   * @param <T> the type of the response body
+   * @param request the request
+   * @param handler the handler of the response body
+   *
+   * @return the response
+   *
+   * @throws IOException if the request fails
+   * @throws InterruptedException if the request is interrupted
+   */
+  private <T> HttpResponse<T> send(final HttpRequest request,
+      final HttpResponse.BodyHandler<T> handler)
+      throws IOException, InterruptedException {
+    try {
+      return client.send(request, handler);
+    } catch (IOException ex) {
+      available = false;
+      if (log.isWarnEnabled()) {
+        log.warn(MessageFormat.format(
+            "Remote cache is not available, it is not used any more: [{0}]",
+            url));
+      }
+      throw ex;
+    }
+  }
+
+  /**
+   * Get the URI of the remote cache entry.
+   *
+   * @param namespace the namespace of the entry
+   * @param key the key of the entry
+   * @param suffix the suffix of the file of the entry
+   *
+   * @return the URI of the file of the entry
+   */
+  private URI getUri(final String namespace, final String key,
+      final String suffix) {
+    return URI.create(url + "/" + namespace + "/" + key + suffix);
+  }
+
+  /**
+   * Check the response status code is successful.
+   *
+   * @param statusCode the status code
+   *
+   * @return true if the status code is successful
+   */
+  private static boolean isSuccessful(final int statusCode) {
+    return statusCode >= HTTP_OK && statusCode < HTTP_REDIRECT;
+  }
+
+  /**
+   * Write the content of the directory to the archive.
+   *
+   * @param source the directory
+   * @param archive the archive
+   *
+   * @throws IOException if the archive can not be written
+   */
+  private static void archive(final Path source, final Path archive)
+      throws IOException {
+    try (OutputStream os = Files.newOutputStream(archive);
+        ZipOutputStream zos = new ZipOutputStream(
+            new BufferedOutputStream(os))) {
+      Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+
+        @Override
+        public FileVisitResult preVisitDirectory(final Path dir,
+            final BasicFileAttributes attrs) throws IOException {
+          if (!dir.equals(source)) {
+            zos.putNextEntry(newEntry(source, dir, attrs, "/"));
+            zos.closeEntry();
+          }
+          return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFile(final Path file,
+            final BasicFileAttributes attrs) throws IOException {
+          final ZipEntry entry = newEntry(source, file, attrs, "");
+          if (attrs.isSymbolicLink()) {
+            entry.setComment(LINK_PREFIX + Files.readSymbolicLink(file));
+            zos.putNextEntry(entry);
+          } else {
+            zos.putNextEntry(entry);
+            Files.copy(file, zos);
+          }
+          zos.closeEntry();
+          return FileVisitResult.CONTINUE;
+        }
+
+      });
+    }
+  }
+
+  /**
+   * Create the archive entry of the file or the directory.
+   *
+   * @param source the archived directory
+   * @param path the file or the directory
+   * @param attrs the attributes of the file or the directory
+   * @param suffix the suffix of the entry name
+   *
+   * @return the archive entry
+   *
+   * @throws IOException if the attributes can not be read
+   */
+  private static ZipEntry newEntry(final Path source, final Path path,
+      final BasicFileAttributes attrs, final String suffix)
+      throws IOException {
+    final StringBuilder name = new StringBuilder();
+    for (final Path element : source.relativize(path)) {
+      name.append(name.length() == 0 ? "" : "/").append(element);
+    }
+    final ZipEntry entry = new ZipEntry(name.append(suffix).toString());
+    entry.setLastModifiedTime(attrs.lastModifiedTime());
+    final PosixFileAttributeView view = Files.getFileAttributeView(path,
+        PosixFileAttributeView.class, LinkOption.NOFOLLOW_LINKS);
+    if (view != null && !attrs.isSymbolicLink()) {
+      entry.setComment(MODE_PREFIX + PosixFilePermissions.toString(
+          view.readAttributes().permissions()));
+    }
+    return entry;
+  }
+
+  /**
+   * Extract the archive to the directory. Nothing is extracted outside of
+   * the directory: the entries escaping the directory, the absolute
+   * symbolic links and the symbolic links resolved outside of
+   * the directory are rejected.
+   *
+   * @param archive the archive
+   * @param target the directory, must not exist
+   *
+   * @throws IOException if the archive can not be extracted
+   */
+  static void extract(final Path archive, final Path target)
+      throws IOException {
+    final Path root = target.toAbsolutePath().normalize();
+    Files.createDirectory(root);
+    final Path realRoot = root.toRealPath();
+    try (ZipFile zipFile = new ZipFile(archive.toFile())) {
+      // the symbolic links are created as soon as the content is
+      // extracted, so nothing is written through them
+      final Map<Path, Path> links = new LinkedHashMap<>();
+      final Enumeration<? extends ZipEntry> entries = zipFile.entries();
+      while (entries.hasMoreElements()) {
+        final ZipEntry entry = entries.nextElement();
+        final Path path = root.resolve(entry.getName()).normalize();
+        if (!path.startsWith(root) || path.equals(root)
+            || !isInside(realRoot, path.getParent())) {
+          throw new IOException("Invalid archive entry: " + entry.getName());
+        }
+        final String comment = entry.getComment();
+        if (entry.isDirectory()) {
+          Files.createDirectories(path);
+        } else if (comment != null && comment.startsWith(LINK_PREFIX)) {
+          final Path link =
+              Paths.get(comment.substring(LINK_PREFIX.length()));
+          if (link.isAbsolute() || !path.getParent().resolve(link)
+              .normalize().startsWith(root)) {
+            throw new IOException(MessageFormat.format(
+                "Invalid archive entry link: {0} -> {1}", entry.getName(),
+                link));
+          }
+          links.put(path, link);
+        } else {
+          Files.createDirectories(path.getParent());
+          try (InputStream is = zipFile.getInputStream(entry)) {
+            Files.copy(is, path, StandardCopyOption.REPLACE_EXISTING);
+          }
+        }
+      }
+      for (final Map.Entry<Path, Path> link : links.entrySet()) {
+        Files.createDirectories(link.getKey().getParent());
+        Files.createSymbolicLink(link.getKey(), link.getValue());
+      }
+      // the links are resolved through the other links, so the targets
+      // are checked as soon as all of them are created
+      for (final Map.Entry<Path, Path> link : links.entrySet()) {
+        if (!Files.exists(link.getKey())
+            || !link.getKey().toRealPath().startsWith(realRoot)) {
+          throw new IOException(MessageFormat.format(
+              "Invalid archive entry link: {0} -> {1}",
+              root.relativize(link.getKey()), link.getValue()));
+        }
+      }
+      // the permissions and the modification times are restored
+      // as soon as the content is extracted, the directories can be
+      // read-only and their modification times are changed by
+      // the content
+      final Enumeration<? extends ZipEntry> attributes = zipFile.entries();
+      while (attributes.hasMoreElements()) {
+        final ZipEntry entry = attributes.nextElement();
+        final Path path = root.resolve(entry.getName()).normalize();
+        if (Files.isSymbolicLink(path)) {
+          continue;
+        }
+        final String comment = entry.getComment();
+        final PosixFileAttributeView view = Files.getFileAttributeView(path,
+            PosixFileAttributeView.class, LinkOption.NOFOLLOW_LINKS);
+        if (view != null && comment != null
+            && comment.startsWith(MODE_PREFIX)) {
+          view.setPermissions(PosixFilePermissions.fromString(
+              comment.substring(MODE_PREFIX.length())));
+        }
+        final FileTime modified = entry.getLastModifiedTime();
+        if (modified != null) {
+          Files.setLastModifiedTime(path, modified);
+        }
+      }
+    }
+  }
+
+  /**
+   * Checks whether the real path of the directory, i.e. with
+   * the symbolic links resolved, is inside of the root directory.
+   * The nearest existing ancestor is checked if the directory
+   * does not exist yet.
+   *
+   * @param realRoot the real path of the root directory
+   * @param dir the directory
+   *
+   * @return true if the directory is inside of the root directory
+   *
+   * @throws IOException if the real path can not be resolved
+   */
+  private static boolean isInside(final Path realRoot, final Path dir)
+      throws IOException {
+    Path existing = dir;
+    while (existing != null
+        && !Files.exists(existing, LinkOption.NOFOLLOW_LINKS)) {
+      existing = existing.getParent();
+    }
+    return existing != null && existing.toRealPath().startsWith(realRoot);
+  }
+
+  /**
+   * Delete the temporary file, the failure is ignored.
+   *
+   * @param file the temporary file, can be null
+   */
+  private void deleteQuietly(final Path file) {
+    if (file == null) {
+      return;
+    }
+    try {
+      Files.deleteIfExists(file);
+    } catch (IOException ex) {
+      if (log.isDebugEnabled()) {
+        log.debug(MessageFormat.format(
+            "Unable to delete temporary file: [{0}]", file), ex);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,481 @@
+/*
+  Copyright (C) 2020 - 2024 Alexander Kapitman
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package ru.akman.maven.plugins;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.module.Configuration;
+import java.lang.module.FindException;
+import java.lang.module.ModuleDescriptor;
+import java.lang.module.ModuleFinder;
+import java.lang.module.ModuleReader;
+import java.lang.module.ModuleReference;
+import java.lang.module.ResolutionException;
+import java.lang.module.ResolvedModule;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.text.MessageFormat;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Cache of the runtime images shared between builds.
+ *
+ * <p>
+ * The runtime image contains the modules of the JDK required by
+ * the application, the modules of the application are kept on the module
+ * path. The runtime image is keyed by the set of the linked modules,
+ * the identity of the JDK build and the jlink options, so it is
+ * linked again only if any of them is changed. The runtime image is
+ * staged next to its final location and published by the atomic rename,
+ * the concurrent producers of the same runtime image are coordinated by
+ * the lock of the runtime image.
+ * </p>
+ *
+ * <p>
+ * The runtime images missing in the cache are got from the remote cache
+ * if it is specified, the linked runtime images are put to the remote
+ * cache. The identity of the JDK build is the part of the key, so
+ * the hosts share the runtime images linked from the same JDK builds.
+ * </p>
+ */
+public class RuntimeImageCache {
+
+  /**
+   * The options of jlink, the same as used by jpackage.
+   */
+  public static final List<String> JLINK_OPTIONS = List.of(
+      "--strip-native-commands",
+      "--strip-debug",
+      "--no-man-pages",
+      "--no-header-files");
+
+  /**
+   * The root module set of the default modules.
+   */
+  public static final String ALL_DEFAULT = "ALL-DEFAULT";
+
+  /**
+   * The root module set of all system modules.
+   */
+  public static final String ALL_SYSTEM = "ALL-SYSTEM";
+
+  /**
+   * The root module set of all modules on the module path.
+   */
+  public static final String ALL_MODULE_PATH = "ALL-MODULE-PATH";
+
+  /**
+   * The release file of the JDK.
+   */
+  private static final String RELEASE_FILE = "release";
+
+  /**
+   * The file of the JDK modules.
+   */
+  private static final String MODULES_FILE = "lib/modules";
+
+  /**
+   * The name of the module descriptor.
+   */
+  private static final String DESCRIPTOR_NAME = "module-info.class";
+
+  /**
+   * The infix of the staging image name following the image name.
+   */
+  private static final String STAGING_INFIX = ".staging-";
+
+  /**
+   * The property of the java home.
+   */
+  private static final String JAVA_HOME_PROPERTY = "java.home";
+
+  /**
+   * The namespace of the runtime images in the remote cache.
+   */
+  private static final String REMOTE_NAMESPACE = "runtimes";
+
+  /**
+   * The log.
+   */
+  private final Log log;
+
+  /**
+   * The root directory of the cache.
+   */
+  private final Path root;
+
+  /**
+   * The home directory of the JDK.
+   */
+  private final Path jdkHome;
+
+  /**
+   * The remote cache or null.
+   */
+  private RemoteCache remoteCache;
+
+  /**
+   * Create the cache.
+   *
+   * @param log the log
+   * @param root the root directory of the cache
+   * @param jdkHome the home directory of the JDK the modules are linked from
+   */
+  public RuntimeImageCache(final Log log, final Path root,
+      final Path jdkHome) {
+    this.log = log;
+    this.root = root;
+    this.jdkHome = jdkHome;
+  }
+
+  /**
+   * Set the remote cache the missing runtime images are got from and
+   * the linked runtime images are put to.
+   *
+   * @param remoteCache the remote cache or null
+   */
+  public void setRemoteCache(final RemoteCache remoteCache) {
+    this.remoteCache = remoteCache;
+  }
+
+  /**
+   * Resolve the set of the JDK modules required by the application.
+   *
+   * @param modulePath the module path of the application
+   * @param mainModule the main module of the application, null if
+   *                   the application is not modular
+   * @param addModules the additional root modules
+   * @param bindServices true to bind the services
+   *
+   * @return the names of the JDK modules to be linked or null if
+   *         the application requires the modules of the module path
+   *         to be linked as well (it is not modular)
+   *
+   * @throws IOException if the modules can not be resolved
+   */
+  public SortedSet<String> resolveModules(final Collection<Path> modulePath,
+      final String mainModule, final Collection<String> addModules,
+      final boolean bindServices) throws IOException {
+    try {
+      return resolveModules(readSystemModules(), modulePath, mainModule,
+          addModules, bindServices);
+    } catch (FindException | ResolutionException ex) {
+      throw new IOException("Unable to resolve modules: " + ex.getMessage(),
+          ex);
+    }
+  }
+
+  /**
+   * Resolve the set of the JDK modules required by the application.
+   *
+   * @param systemModules the descriptors of the JDK modules by the names
+   * @param modulePath the module path of the application
+   * @param mainModule the main module of the application, null if
+   *                   the application is not modular
+   * @param addModules the additional root modules
+   * @param bindServices true to bind the services
+   *
+   * @return the names of the JDK modules to be linked or null if
+   *         the application requires the modules of the module path
+   *         to be linked as well
+   */
+  private static SortedSet<String> resolveModules(
+      final Map<String, ModuleDescriptor> systemModules,
+      final Collection<Path> modulePath, final String mainModule,
+      final Collection<String> addModules, final boolean bindServices) {
+    final ModuleFinder modulePathFinder =
+        ModuleFinder.of(modulePath.toArray(new Path[0]));
+    final Set<String> defaultModules = systemModules.values().stream()
+        .filter(descriptor -> descriptor.exports().stream()
+            .anyMatch(export -> !export.isQualified()))
+        .map(ModuleDescriptor::name)
+        .collect(Collectors.toSet());
+    final Set<String> roots = new HashSet<>();
+    if (mainModule != null) {
+      roots.add(mainModule);
+    } else if (addModules.isEmpty()) {
+      roots.addAll(defaultModules);
+    }
+    for (final String name : addModules) {
+      if (ALL_DEFAULT.equals(name)) {
+        roots.addAll(defaultModules);
+      } else if (ALL_SYSTEM.equals(name)) {
+        roots.addAll(systemModules.keySet());
+      } else if (ALL_MODULE_PATH.equals(name)) {
+        modulePathFinder.findAll().forEach(reference ->
+            roots.add(reference.descriptor().name()));
+      } else {
+        roots.add(name);
+      }
+    }
+    final ModuleFinder finder = ModuleFinder.compose(modulePathFinder,
+        new DescriptorFinder(systemModules));
+    // the services of the non-modular application are bound
+    // by jpackage as well
+    final Configuration configuration = bindServices || mainModule == null
+        ? Configuration.empty().resolveAndBind(finder, ModuleFinder.of(),
+            roots)
+        : Configuration.empty().resolve(finder, ModuleFinder.of(), roots);
+    final SortedSet<String> modules = new TreeSet<>();
+    for (final ResolvedModule module : configuration.modules()) {
+      final String name = module.name();
+      if (modulePathFinder.find(name).isPresent()) {
+        if (mainModule == null) {
+          // the launcher of the non-modular application does not
+          // resolve the modules of the module path
+          return null;
+        }
+      } else {
+        modules.add(name);
+      }
+    }
+    return modules;
+  }
+
+  /**
+   * Compute the key of the runtime image.
+   *
+   * @param modules the names of the linked modules
+   *
+   * @return the key of the runtime image
+   *
+   * @throws IOException if the JDK build identity can not be read
+   */
+  public String getKey(final SortedSet<String> modules) throws IOException {
+    final Path release = jdkHome.resolve(RELEASE_FILE);
+    final Path modulesFile = jdkHome.resolve(MODULES_FILE);
+    final StringBuilder identity = new StringBuilder();
+    if (Files.isRegularFile(release)) {
+      identity.append(new String(Files.readAllBytes(release),
+          StandardCharsets.UTF_8));
+    }
+    if (Files.isRegularFile(modulesFile)) {
+      identity.append(Files.size(modulesFile)).append('\n')
+          .append(Files.getLastModifiedTime(modulesFile).toMillis())
+          .append('\n');
+    }
+    identity.append(String.join(",", modules)).append('\n')
+        .append(String.join(" ", JLINK_OPTIONS)).append('\n');
+    return Fingerprint.digest(identity.toString());
+  }
+
+  /**
+   * Get the cached runtime image.
+   *
+   * @param key the key of the runtime image
+   *
+   * @return the runtime image or null if it is not cached
+   */
+  public Path getImage(final String key) {
+    final Path image = root.resolve(key);
+    return Files.isRegularFile(image.resolve(RELEASE_FILE)) ? image : null;
+  }
+
+  /**
+   * Acquire the lock of the runtime image, wait until it is released
+   * by the concurrent producer of the same runtime image.
+   *
+   * @param key the key of the runtime image
+   *
+   * @return the lock of the runtime image
+   *
+   * @throws IOException if the lock can not be acquired
+   */
+  public CacheLock lock(final String key) throws IOException {
+    return CacheLock.acquire(root.resolve(key));
+  }
+
+  /**
+   * Acquire the lock of the runtime image if it is not held by
+   * the concurrent producer of the same runtime image.
+   *
+   * @param key the key of the runtime image
+   *
+   * @return the lock of the runtime image or null if it is held
+   *
+   * @throws IOException if the lock can not be acquired
+   */
+  public CacheLock tryLock(final String key) throws IOException {
+    return CacheLock.tryAcquire(root.resolve(key));
+  }
+
+  /**
+   * Get the new location the runtime image is staged to.
+   *
+   * @param key the key of the runtime image
+   *
+   * @return the staging location, it does not exist
+   *
+   * @throws IOException if the cache directory can not be created
+   */
+  public Path newStaging(final String key) throws IOException {
+    Files.createDirectories(root);
+    return root.resolve(key + STAGING_INFIX + UUID.randomUUID());
+  }
+
+  /**
+   * Get the runtime image from the remote cache.
+   *
+   * @param key the key of the runtime image
+   * @param staging the staging location the runtime image is
+   *                extracted to, it must not exist
+   *
+   * @return true if the runtime image has been got
+   */
+  public boolean fetchRemote(final String key, final Path staging) {
+    return remoteCache != null
+        && remoteCache.fetch(REMOTE_NAMESPACE, key, staging);
+  }
+
+  /**
+   * Put the published runtime image to the remote cache.
+   *
+   * @param key the key of the runtime image
+   * @param image the published runtime image
+   */
+  public void storeRemote(final String key, final Path image) {
+    if (remoteCache != null) {
+      remoteCache.store(REMOTE_NAMESPACE, key, image);
+    }
+  }
+
+  /**
+   * Publish the staged runtime image.
+   *
+   * @param key the key of the runtime image
+   * @param staging the staged runtime image
+   *
+   * @return the published runtime image
+   *
+   * @throws IOException if the runtime image can not be published
+   */
+  public Path publish(final String key, final Path staging)
+      throws IOException {
+    final Path image = root.resolve(key);
+    try {
+      Files.move(staging, image, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException ex) {
+      if (getImage(key) == null) {
+        throw ex;
+      }
+      // published concurrently by another build
+      if (log.isDebugEnabled()) {
+        log.debug(MessageFormat.format(
+            "Runtime image [{0}] is published concurrently", key));
+      }
+    }
+    return image;
+  }
+
+  /**
+   * Read the descriptors of the JDK modules.
+   *
+   * @return the descriptors of the JDK modules by the names
+   *
+   * @throws IOException if the descriptors can not be read
+   */
+  private Map<String, ModuleDescriptor> readSystemModules()
+      throws IOException {
+    final Map<String, ModuleDescriptor> descriptors = new HashMap<>();
+    final String javaHome = System.getProperty(JAVA_HOME_PROPERTY);
+    if (javaHome != null && Files.isSameFile(Paths.get(javaHome), jdkHome)) {
+      ModuleFinder.ofSystem().findAll().forEach(reference ->
+          descriptors.put(reference.descriptor().name(),
+              reference.descriptor()));
+      return descriptors;
+    }
+    try (FileSystem jrt = FileSystems.newFileSystem(URI.create("jrt:/"),
+        Map.of(JAVA_HOME_PROPERTY, jdkHome.toString()))) {
+      try (DirectoryStream<Path> stream =
+          Files.newDirectoryStream(jrt.getPath("/modules"))) {
+        for (final Path module : stream) {
+          final Path descriptor = module.resolve(DESCRIPTOR_NAME);
+          if (Files.isRegularFile(descriptor)) {
+            try (InputStream is = Files.newInputStream(descriptor)) {
+              final ModuleDescriptor md = ModuleDescriptor.read(is);
+              descriptors.put(md.name(), md);
+            }
+          }
+        }
+      }
+    } catch (IllegalArgumentException | UnsupportedOperationException ex) {
+      throw new IOException(
+          "Unable to read modules of the JDK: " + jdkHome, ex);
+    }
+    return descriptors;
+  }
+
+  /**
+   * Module finder of the module descriptors, the modules can be resolved
+   * but can not be read.
+   */
+  private static final class DescriptorFinder implements ModuleFinder {
+
+    /**
+     * The module references by the names.
+     */
+    private final Map<String, ModuleReference> references = new HashMap<>();
+
+    /**
+     * Create the finder.
+     *
+     * @param descriptors the module descriptors by the names
+     */
+    DescriptorFinder(final Map<String, ModuleDescriptor> descriptors) {
+      descriptors.forEach((name, descriptor) ->
+          references.put(name, new ModuleReference(descriptor, null) {
+
+            @Override
+            public ModuleReader open() throws IOException {
+              throw new IOException("Module can not be read: " + name);
+            }
+
+          }));
+    }
+
+    @Override
+    public Optional<ModuleReference> find(final String name) {
+      return Optional.ofNullable(references.get(name));
+    }
+
+    @Override
+    public Set<ModuleReference> findAll() {
+      return Collections.unmodifiableSet(new HashSet<>(references.values()));
+    }
+
+  }
+
+}
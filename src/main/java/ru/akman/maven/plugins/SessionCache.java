@@ -0,0 +1,112 @@
+/*
+  Copyright (C) 2020 - 2024 Alexander Kapitman
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package ru.akman.maven.plugins;
+
+import java.util.function.Supplier;
+import org.apache.maven.execution.MavenSession;
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.SessionData;
+
+/**
+ * Helper class for values memoized once per Maven session.
+ *
+ * <p>
+ * The values are kept in the repository session data, so they are shared
+ * between all reactor modules and executions of the session and are
+ * dropped together with the session. The keys should contain a class
+ * loaded by the plugin realm, so different plugin versions never
+ * see each other values.
+ * </p>
+ */
+public final class SessionCache {
+
+  /**
+   * Private constructor.
+   */
+  private SessionCache() {
+    // not called
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Get the value memoized in the session or compute and memoize it.
+   * The value is computed without memoizing if the session data
+   * is not available.
+   *
+   * @param <T> the type of the value
+   * @param session the maven session
+   * @param key the key of the value
+   * @param supplier the supplier computing the value, should not
+   *                 return null
+   *
+   * @return the memoized or computed value
+   */
+  @SuppressWarnings("unchecked") // key contains the class of the value
+  public static <T> T computeIfAbsent(final MavenSession session,
+      final Object key, final Supplier<T> supplier) {
+    final SessionData data = getSessionData(session);
+    return data == null
+        ? supplier.get()
+        : (T) data.computeIfAbsent(key, () -> supplier.get());
+  }
+
+  /**
+   * Get the value memoized in the session.
+   *
+   * @param <T> the type of the value
+   * @param session the maven session
+   * @param key the key of the value
+   *
+   * @return the memoized value or null if it is missing or the session
+   *         data is not available
+   */
+  @SuppressWarnings("unchecked") // key contains the class of the value
+  public static <T> T get(final MavenSession session, final Object key) {
+    final SessionData data = getSessionData(session);
+    return data == null ? null : (T) data.get(key);
+  }
+
+  /**
+   * Memoize the value in the session replacing the previous one.
+   *
+   * @param session the maven session
+   * @param key the key of the value
+   * @param value the value
+   */
+  public static void put(final MavenSession session, final Object key,
+      final Object value) {
+    final SessionData data = getSessionData(session);
+    if (data != null) {
+      data.set(key, value);
+    }
+  }
+
+  /**
+   * Get the repository session data.
+   *
+   * @param session the maven session
+   *
+   * @return the repository session data or null if it is not available
+   */
+  private static SessionData getSessionData(final MavenSession session) {
+    final RepositorySystemSession repositorySession = session == null
+        ? null
+        : session.getRepositorySession();
+    return repositorySession == null ? null : repositorySession.getData();
+  }
+
+}
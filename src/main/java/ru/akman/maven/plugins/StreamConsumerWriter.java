@@ -0,0 +1,114 @@
+/*
+  Copyright (C) 2020 - 2024 Alexander Kapitman
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package ru.akman.maven.plugins;
+
+import java.io.IOException;
+import java.io.Writer;
+import org.codehaus.plexus.util.cli.StreamConsumer;
+
+/**
+ * Writer splitting the written characters into lines
+ * passed to the stream consumer.
+ */
+public class StreamConsumerWriter extends Writer {
+
+  /**
+   * The maximum length of the buffered line, the longer line
+   * is passed to the consumer in parts.
+   */
+  private static final int MAX_LINE_LENGTH = 65536;
+
+  /**
+   * The consumer the lines are passed to.
+   */
+  private final StreamConsumer consumer;
+
+  /**
+   * The current line.
+   */
+  private final StringBuilder line = new StringBuilder();
+
+  /**
+   * Create the writer.
+   *
+   * @param consumer the consumer the lines are passed to
+   */
+  public StreamConsumerWriter(final StreamConsumer consumer) {
+    this.consumer = consumer;
+  }
+
+  /**
+   * Write the characters, every completed line is passed to the consumer.
+   *
+   * @param cbuf the characters
+   * @param off the offset of the first character
+   * @param len the number of the characters
+   *
+   * @throws IOException if the consumer failed
+   */
+  @Override
+  public void write(final char[] cbuf, final int off, final int len)
+      throws IOException {
+    synchronized (lock) {
+      for (int i = off; i < off + len; i++) {
+        final char ch = cbuf[i];
+        if (ch == '\n') {
+          emitLine();
+        } else if (ch != '\r') {
+          line.append(ch);
+          if (line.length() >= MAX_LINE_LENGTH) {
+            emitLine();
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Flush the writer, the incomplete line is kept until it is completed.
+   */
+  @Override
+  public void flush() {
+    // skip
+  }
+
+  /**
+   * Close the writer, the incomplete line is passed to the consumer.
+   *
+   * @throws IOException if the consumer failed
+   */
+  @Override
+  public void close() throws IOException {
+    synchronized (lock) {
+      if (line.length() > 0) {
+        emitLine();
+      }
+    }
+  }
+
+  /**
+   * Pass the current line to the consumer.
+   *
+   * @throws IOException if the consumer failed
+   */
+  private void emitLine() throws IOException {
+    final String value = line.toString();
+    line.setLength(0);
+    consumer.consumeLine(value);
+  }
+
+}
@@ -0,0 +1,169 @@
+/*
+  Copyright (C) 2020 - 2024 Alexander Kapitman
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package ru.akman.maven.plugins;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.cli.StreamConsumer;
+
+/**
+ * Stream consumer logging the lines as they arrive and keeping
+ * only a bounded tail of the output, so the memory does not depend
+ * on the output volume.
+ */
+public class TailStreamConsumer implements StreamConsumer {
+
+  /**
+   * The maximum length of the line kept in the tail.
+   */
+  private static final int MAX_LINE_LENGTH = 8192;
+
+  /**
+   * The log the lines are written to at debug level.
+   */
+  private final Log log;
+
+  /**
+   * The maximum number of the lines kept in the tail.
+   */
+  private final int maxLines;
+
+  /**
+   * The consumer the lines are passed to, can be null.
+   */
+  private final StreamConsumer delegate;
+
+  /**
+   * The tail of the output.
+   */
+  private final Deque<String> tail = new ArrayDeque<>();
+
+  /**
+   * The number of the lines dropped from the tail.
+   */
+  private long omitted;
+
+  /**
+   * The time of the last consumed line (in nanoseconds).
+   */
+  private volatile long lastActivity = System.nanoTime();
+
+  /**
+   * The last consumed line.
+   */
+  private volatile String lastLine;
+
+  /**
+   * Whether the lines are no longer passed to the delegate consumer.
+   */
+  private volatile boolean detached;
+
+  /**
+   * Create the consumer.
+   *
+   * @param log the log the lines are written to at debug level
+   * @param maxLines the maximum number of the lines kept in the tail
+   * @param delegate the consumer the lines are passed to, can be null
+   */
+  public TailStreamConsumer(final Log log, final int maxLines,
+      final StreamConsumer delegate) {
+    this.log = log;
+    this.maxLines = maxLines;
+    this.delegate = delegate;
+  }
+
+  /**
+   * Consume the line.
+   *
+   * @param line the line
+   *
+   * @throws IOException if the delegate consumer failed
+   */
+  @Override
+  public void consumeLine(final String line) throws IOException {
+    if (log.isDebugEnabled()) {
+      log.debug(line);
+    }
+    lastActivity = System.nanoTime();
+    lastLine = line;
+    synchronized (tail) {
+      tail.addLast(line.length() > MAX_LINE_LENGTH
+          ? line.substring(0, MAX_LINE_LENGTH) + "..."
+          : line);
+      if (tail.size() > maxLines) {
+        tail.removeFirst();
+        omitted++;
+      }
+    }
+    if (delegate != null && !detached) {
+      delegate.consumeLine(line);
+    }
+  }
+
+  /**
+   * Stop passing the lines to the delegate consumer, the lines
+   * are still logged and kept in the tail.
+   */
+  public void detach() {
+    detached = true;
+  }
+
+  /**
+   * Get the time of the last consumed line.
+   *
+   * @return the time of the last consumed line (in nanoseconds), the time
+   *         of creating the consumer if no line has been consumed yet
+   */
+  public long getLastActivity() {
+    return lastActivity;
+  }
+
+  /**
+   * Get the last consumed line.
+   *
+   * @return the last consumed line or null if no line has been consumed yet
+   */
+  public String getLastLine() {
+    return lastLine;
+  }
+
+  /**
+   * Get the tail of the output.
+   *
+   * @return the tail of the output, the number of the dropped lines
+   *         is reported in the first line
+   */
+  public String getOutput() {
+    final StringBuilder result = new StringBuilder();
+    synchronized (tail) {
+      if (omitted > 0) {
+        result
+            .append("[... ")
+            .append(omitted)
+            .append(" lines omitted ...]")
+            .append(System.lineSeparator());
+      }
+      tail.forEach(line -> result
+          .append(line)
+          .append(System.lineSeparator()));
+    }
+    return result.toString();
+  }
+
+}
@@ -0,0 +1,157 @@
+/*
+  Copyright (C) 2020 - 2024 Alexander Kapitman
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package ru.akman.maven.plugins;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Persistent cache of the tool versions.
+ *
+ * <p>
+ * The version is stored under the real path of the tool executable
+ * together with the size and the last modified time of the executable,
+ * so the entry is ignored as soon as the executable is changed.
+ * The cache file is shared by the concurrent builds, it is updated
+ * under the cache lock.
+ * </p>
+ */
+public class ToolVersionCache {
+
+  /**
+   * The name of the cache file.
+   */
+  private static final String CACHE_FILE = "tool-versions.properties";
+
+  /**
+   * The separator of the cache entry value parts.
+   */
+  private static final String SEPARATOR = ";";
+
+  /**
+   * The number of the cache entry value parts (size, mtime, version).
+   */
+  private static final int PARTS = 3;
+
+  /**
+   * The cache file.
+   */
+  private final Path cacheFile;
+
+  /**
+   * Create the cache stored in the specified directory.
+   *
+   * @param cacheDir the cache directory
+   */
+  public ToolVersionCache(final File cacheDir) {
+    this.cacheFile = cacheDir.toPath().resolve(CACHE_FILE);
+  }
+
+  /**
+   * Get the cached version of the tool executable.
+   *
+   * @param executable the real path of the tool executable
+   *
+   * @return the cached version or null if it is missing or outdated
+   *
+   * @throws IOException if any errors occurred while reading the cache
+   */
+  public String get(final Path executable) throws IOException {
+    final String value = load().getProperty(executable.toString());
+    if (value == null) {
+      return null;
+    }
+    final String[] parts = value.split(SEPARATOR, PARTS);
+    if (parts.length != PARTS || !getStamp(executable).equals(
+        parts[0] + SEPARATOR + parts[1])) {
+      return null;
+    }
+    return StringUtils.isBlank(parts[2]) ? null : parts[2];
+  }
+
+  /**
+   * Store the version of the tool executable.
+   *
+   * @param executable the real path of the tool executable
+   * @param version the tool version
+   *
+   * @throws IOException if any errors occurred while writing the cache
+   */
+  public void put(final Path executable, final String version)
+      throws IOException {
+    final String value = getStamp(executable) + SEPARATOR + version;
+    Files.createDirectories(cacheFile.getParent());
+    // the entries stored by the concurrent builds are merged
+    try (CacheLock lock = CacheLock.acquire(cacheFile)) {
+      final Properties props = load();
+      props.setProperty(executable.toString(), value);
+      final Path tempFile = Files.createTempFile(cacheFile.getParent(),
+          CACHE_FILE, null);
+      try {
+        try (BufferedWriter bw =
+            Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+          props.store(bw, null);
+        }
+        Files.move(tempFile, cacheFile, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      } finally {
+        Files.deleteIfExists(tempFile);
+      }
+    }
+  }
+
+  /**
+   * Load the cache entries.
+   *
+   * @return the cache entries
+   *
+   * @throws IOException if any errors occurred while reading the cache
+   */
+  private Properties load() throws IOException {
+    final Properties props = new Properties();
+    if (Files.isRegularFile(cacheFile)) {
+      try (BufferedReader br =
+          Files.newBufferedReader(cacheFile, StandardCharsets.UTF_8)) {
+        props.load(br);
+      }
+    }
+    return props;
+  }
+
+  /**
+   * Get the stamp (size and last modified time) of the tool executable.
+   *
+   * @param executable the tool executable
+   *
+   * @return the stamp of the tool executable
+   *
+   * @throws IOException if any errors occurred while reading attributes
+   */
+  private static String getStamp(final Path executable) throws IOException {
+    return Files.size(executable) + SEPARATOR
+        + Files.getLastModifiedTime(executable).toMillis();
+  }
+
+}
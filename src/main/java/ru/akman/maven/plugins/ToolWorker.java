@@ -0,0 +1,435 @@
+/*
+  Copyright (C) 2020 - 2024 Alexander Kapitman
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package ru.akman.maven.plugins;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.SecureRandom;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.spi.ToolProvider;
+
+/**
+ * Persistent worker process running the JDK tool in-process.
+ *
+ * <p>
+ * The worker is started by {@link ToolWorkerClient} with the java launcher
+ * of the JDK the tool belongs to and the plugin jar as the only class path
+ * entry, so this class uses the JDK classes only. The worker listens on
+ * the loopback interface, the port and the secret token are published
+ * in the state file. The requests are run one by one, the client holds
+ * the lock of the worker slot while its request is running, so
+ * the concurrent requests are served by the different workers.
+ * The worker exits when it has been idle for the specified time.
+ * </p>
+ *
+ * <p>
+ * The request is the protocol version, the token and the arguments of
+ * the tool, the response is the stream of the output frames finished
+ * by the exit code frame.
+ * </p>
+ */
+public final class ToolWorker {
+
+  /**
+   * The version of the protocol.
+   */
+  static final int PROTOCOL = 1;
+
+  /**
+   * The acknowledgement of the accepted request.
+   */
+  static final byte ACK = 0;
+
+  /**
+   * The frame of the standard output.
+   */
+  static final byte FRAME_OUT = 1;
+
+  /**
+   * The frame of the standard error.
+   */
+  static final byte FRAME_ERR = 2;
+
+  /**
+   * The frame of the exit code.
+   */
+  static final byte FRAME_EXIT = 3;
+
+  /**
+   * The frame of the tool failure.
+   */
+  static final byte FRAME_FAIL = 4;
+
+  /**
+   * The state property of the port.
+   */
+  static final String STATE_PORT = "port";
+
+  /**
+   * The state property of the token.
+   */
+  static final String STATE_TOKEN = "token";
+
+  /**
+   * The state property of the process id.
+   */
+  static final String STATE_PID = "pid";
+
+  /**
+   * The time to read the request (in milliseconds).
+   */
+  static final int REQUEST_TIMEOUT_MILLIS = 5000;
+
+  /**
+   * The maximum number of the tool arguments.
+   */
+  private static final int MAX_ARGS = 65536;
+
+  /**
+   * The maximum number of the characters in the output frame.
+   */
+  private static final int MAX_FRAME_CHARS = 8192;
+
+  /**
+   * The number of the random bytes of the token.
+   */
+  private static final int TOKEN_BYTES = 32;
+
+  /**
+   * The number of the arguments of the worker.
+   */
+  private static final int WORKER_ARGS = 3;
+
+  /**
+   * The permissions of the state file.
+   */
+  private static final String STATE_PERMISSIONS = "rw-------";
+
+  /**
+   * The tool.
+   */
+  private final ToolProvider tool;
+
+  /**
+   * The secret token.
+   */
+  private final String token;
+
+  /**
+   * The executor running the requests one by one.
+   */
+  private final ExecutorService executor =
+      Executors.newSingleThreadExecutor();
+
+  /**
+   * The number of the accepted requests not finished yet.
+   */
+  private final AtomicInteger pending = new AtomicInteger();
+
+  /**
+   * Create the worker.
+   *
+   * @param tool the tool
+   * @param token the secret token
+   */
+  private ToolWorker(final ToolProvider tool, final String token) {
+    this.tool = tool;
+    this.token = token;
+  }
+
+  /**
+   * Run the worker.
+   *
+   * @param args the name of the tool, the state file and the idle timeout
+   *             (in seconds)
+   *
+   * @throws IOException if any errors occurred while listening
+   */
+  public static void main(final String[] args) throws IOException {
+    if (args.length != WORKER_ARGS) {
+      System.err.println("Usage: ToolWorker <tool name> <state file>"
+          + " <idle timeout>");
+      System.exit(2);
+    }
+    final ToolProvider tool = ToolProvider.findFirst(args[0]).orElse(null);
+    if (tool == null) {
+      System.err.println("Tool not found: " + args[0]);
+      System.exit(1);
+    }
+    final Path stateFile = Paths.get(args[1]);
+    final long idleMillis = TimeUnit.SECONDS.toMillis(Long.parseLong(args[2]));
+    final byte[] random = new byte[TOKEN_BYTES];
+    new SecureRandom().nextBytes(random);
+    final StringBuilder token = new StringBuilder();
+    for (final byte b : random) {
+      token.append(String.format("%02x", b));
+    }
+    final ToolWorker worker = new ToolWorker(tool, token.toString());
+    try (ServerSocket server =
+        new ServerSocket(0, 0, InetAddress.getLoopbackAddress())) {
+      server.setSoTimeout((int) Math.min(Integer.MAX_VALUE,
+          Math.max(1L, idleMillis)));
+      writeState(stateFile, server.getLocalPort(), worker.token);
+      System.out.println("Worker for [" + tool.name() + "] listening on port "
+          + server.getLocalPort());
+      worker.listen(server);
+    } finally {
+      deleteState(stateFile);
+      worker.executor.shutdownNow();
+    }
+    System.out.println("Worker for [" + tool.name() + "] is idle, exiting");
+    System.exit(0);
+  }
+
+  /**
+   * Accept the requests until the worker is idle.
+   *
+   * @param server the server socket
+   *
+   * @throws IOException if any errors occurred while listening
+   */
+  private void listen(final ServerSocket server) throws IOException {
+    while (true) {
+      final Socket socket;
+      try {
+        socket = server.accept();
+      } catch (SocketTimeoutException ex) {
+        if (pending.get() == 0) {
+          return;
+        }
+        continue;
+      }
+      try {
+        accept(socket);
+      } catch (IOException ex) {
+        System.err.println("Unable to accept request: " + ex);
+        socket.close();
+      }
+    }
+  }
+
+  /**
+   * Read the request and schedule it.
+   *
+   * @param socket the socket
+   *
+   * @throws IOException if the request can not be read
+   */
+  private void accept(final Socket socket) throws IOException {
+    socket.setSoTimeout(REQUEST_TIMEOUT_MILLIS);
+    final DataInputStream in = new DataInputStream(
+        new BufferedInputStream(socket.getInputStream()));
+    final DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(socket.getOutputStream()));
+    if (in.readInt() != PROTOCOL || !token.equals(in.readUTF())) {
+      socket.close();
+      return;
+    }
+    out.writeByte(ACK);
+    out.flush();
+    final int count = in.readInt();
+    if (count < 0 || count > MAX_ARGS) {
+      socket.close();
+      return;
+    }
+    final String[] toolArgs = new String[count];
+    for (int i = 0; i < count; i++) {
+      toolArgs[i] = in.readUTF();
+    }
+    socket.setSoTimeout(0);
+    pending.incrementAndGet();
+    executor.execute(() -> {
+      try (socket) {
+        serve(out, toolArgs);
+      } catch (IOException ex) {
+        System.err.println("Unable to serve request: " + ex);
+      } finally {
+        pending.decrementAndGet();
+      }
+    });
+  }
+
+  /**
+   * Run the tool and send the output and the exit code.
+   *
+   * @param out the output stream of the socket
+   * @param toolArgs the arguments of the tool
+   *
+   * @throws IOException if the response can not be sent
+   */
+  private void serve(final DataOutputStream out, final String[] toolArgs)
+      throws IOException {
+    int exitCode = 0;
+    String failure = null;
+    try (PrintWriter outWriter = new PrintWriter(new BufferedWriter(
+            new FrameWriter(out, FRAME_OUT)), true);
+        PrintWriter errWriter = new PrintWriter(new BufferedWriter(
+            new FrameWriter(out, FRAME_ERR)), true)) {
+      try {
+        exitCode = tool.run(outWriter, errWriter, toolArgs);
+      } catch (RuntimeException ex) {
+        final StringWriter trace = new StringWriter();
+        ex.printStackTrace(new PrintWriter(trace));
+        failure = trace.toString();
+      }
+    }
+    synchronized (out) {
+      if (failure == null) {
+        out.writeByte(FRAME_EXIT);
+        out.writeInt(exitCode);
+      } else {
+        out.writeByte(FRAME_FAIL);
+        out.writeUTF(failure.length() > MAX_FRAME_CHARS
+            ? failure.substring(0, MAX_FRAME_CHARS)
+            : failure);
+      }
+      out.flush();
+    }
+  }
+
+  /**
+   * Publish the port and the token in the state file.
+   *
+   * @param stateFile the state file
+   * @param port the port
+   * @param token the token
+   *
+   * @throws IOException if the state file can not be written
+   */
+  private static void writeState(final Path stateFile, final int port,
+      final String token) throws IOException {
+    final Properties state = new Properties();
+    state.setProperty(STATE_PORT, String.valueOf(port));
+    state.setProperty(STATE_TOKEN, token);
+    state.setProperty(STATE_PID, String.valueOf(ProcessHandle.current().pid()));
+    final Path tempFile = Files.createTempFile(stateFile.toAbsolutePath()
+        .getParent(), stateFile.getFileName().toString(), null);
+    try {
+      try {
+        Files.setPosixFilePermissions(tempFile,
+            PosixFilePermissions.fromString(STATE_PERMISSIONS));
+      } catch (UnsupportedOperationException ex) {
+        // skip, not a posix file system
+      }
+      try (Writer writer =
+          Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+        state.store(writer, null);
+      }
+      Files.move(tempFile, stateFile, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(tempFile);
+    }
+  }
+
+  /**
+   * Delete the state file if it is published by the current process.
+   *
+   * @param stateFile the state file
+   */
+  private static void deleteState(final Path stateFile) {
+    try {
+      final Properties state = new Properties();
+      try (Reader reader =
+          Files.newBufferedReader(stateFile, StandardCharsets.UTF_8)) {
+        state.load(reader);
+      }
+      if (String.valueOf(ProcessHandle.current().pid()).equals(
+          state.getProperty(STATE_PID))) {
+        Files.deleteIfExists(stateFile);
+      }
+    } catch (IOException ex) {
+      // skip, the state file is replaced by the next worker
+    }
+  }
+
+  /**
+   * Writer sending the characters as the output frames.
+   */
+  private static final class FrameWriter extends Writer {
+
+    /**
+     * The output stream of the socket.
+     */
+    private final DataOutputStream out;
+
+    /**
+     * The type of the frames.
+     */
+    private final byte type;
+
+    /**
+     * Create the writer.
+     *
+     * @param out the output stream of the socket
+     * @param type the type of the frames
+     */
+    FrameWriter(final DataOutputStream out, final byte type) {
+      this.out = out;
+      this.type = type;
+    }
+
+    @Override
+    public void write(final char[] cbuf, final int off, final int len)
+        throws IOException {
+      for (int pos = off; pos < off + len; pos += MAX_FRAME_CHARS) {
+        final int count = Math.min(MAX_FRAME_CHARS, off + len - pos);
+        synchronized (out) {
+          out.writeByte(type);
+          out.writeUTF(new String(cbuf, pos, count));
+        }
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      synchronized (out) {
+        out.flush();
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      // the socket is closed by the worker
+      flush();
+    }
+
+  }
+
+}
@@ -0,0 +1,565 @@
+/*
+  Copyright (C) 2020 - 2024 Alexander Kapitman
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package ru.akman.maven.plugins;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.MessageFormat;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Client of the persistent worker process running the JDK tool in-process.
+ *
+ * <p>
+ * The workers are keyed by the java launcher of the JDK the tool belongs
+ * to, the plugin jar, the protocol version, the working directory and
+ * the environment variables affecting the tool, so the workers are shared
+ * between the builds using the same JDK, the same plugin and the same
+ * environment. The rest of the environment is kept as it was when
+ * the worker has been started. The workers
+ * form the pool of the slots, the client holds the file lock of the slot
+ * while its request is running, so every worker serves the only request
+ * at a time and the concurrent requests are served by the different
+ * workers. The worker is started on the first use of the slot.
+ * </p>
+ *
+ * <p>
+ * The client serves the only request, the slot is acquired by
+ * {@link #connect()} and released by {@link #release()}.
+ * </p>
+ */
+public class ToolWorkerClient {
+
+  /**
+   * The time to connect to the worker (in milliseconds).
+   */
+  private static final int CONNECT_TIMEOUT_MILLIS = 1000;
+
+  /**
+   * The time to wait for the started worker (in milliseconds).
+   */
+  private static final long START_TIMEOUT_MILLIS = 30000L;
+
+  /**
+   * The interval of checking the started worker (in milliseconds).
+   */
+  private static final long START_POLL_MILLIS = 100L;
+
+  /**
+   * The number of the hex digits of the worker key.
+   */
+  private static final int KEY_LENGTH = 16;
+
+  /**
+   * The environment variables affecting the tool, the worker keeps
+   * the environment it has been started with, so the workers started
+   * with the different values of them are not shared.
+   */
+  private static final List<String> KEY_ENVIRONMENT = List.of(
+      "PATH", "PATHEXT", "SOURCE_DATE_EPOCH", "TMPDIR", "TMP", "TEMP",
+      "HOME", "LANG", "LC_ALL", "LC_CTYPE", "TZ",
+      "JAVA_TOOL_OPTIONS", "JDK_JAVA_OPTIONS", "_JAVA_OPTIONS");
+
+  /**
+   * The log.
+   */
+  private final Log log;
+
+  /**
+   * The name of the tool.
+   */
+  private final String toolName;
+
+  /**
+   * The java launcher of the JDK the tool belongs to.
+   */
+  private final Path javaExecutable;
+
+  /**
+   * The working directory of the worker (the working directory
+   * of the build).
+   */
+  private final Path workingDirectory;
+
+  /**
+   * The idle timeout of the worker (in seconds).
+   */
+  private final long idleTimeout;
+
+  /**
+   * The directory of the worker state files.
+   */
+  private final Path workersDir;
+
+  /**
+   * The prefix of the worker files (the name of the tool and the key
+   * of the worker).
+   */
+  private final String prefix;
+
+  /**
+   * The maximum number of the workers.
+   */
+  private final int maxWorkers;
+
+  /**
+   * The class path of the worker (the plugin jar).
+   */
+  private final Path classPath;
+
+  /**
+   * The state file of the worker of the acquired slot.
+   */
+  private Path stateFile;
+
+  /**
+   * The log file of the worker of the acquired slot.
+   */
+  private Path logFile;
+
+  /**
+   * The lock of the acquired slot or null if no slot is acquired.
+   */
+  private CacheLock slotLock;
+
+  /**
+   * Create the client.
+   *
+   * @param log the log
+   * @param toolName the name of the tool
+   * @param javaExecutable the java launcher of the JDK the tool belongs to
+   * @param workersDir the directory of the worker state files
+   * @param idleTimeout the idle timeout of the worker (in seconds)
+   * @param maxWorkers the maximum number of the workers
+   *
+   * @throws IOException if the worker key can not be computed
+   */
+  public ToolWorkerClient(final Log log, final String toolName,
+      final Path javaExecutable, final Path workersDir,
+      final long idleTimeout, final int maxWorkers) throws IOException {
+    this.log = log;
+    this.toolName = toolName;
+    this.javaExecutable = javaExecutable.toRealPath();
+    this.workingDirectory =
+        Paths.get(System.getProperty("user.dir")).toAbsolutePath();
+    this.idleTimeout = idleTimeout;
+    this.workersDir = workersDir;
+    this.maxWorkers = Math.max(1, maxWorkers);
+    this.classPath = getClassPath();
+    this.prefix = toolName + "-"
+        + getKey(toolName, this.javaExecutable, classPath,
+            workingDirectory);
+  }
+
+  /**
+   * Acquire the free slot and connect to its running worker or start
+   * the new one. The slot is held until it is released.
+   *
+   * @return the connection to the worker or null if the worker
+   *         is not available or all workers are busy
+   */
+  public Connection connect() {
+    try {
+      for (int slot = 0; slot < maxWorkers && slotLock == null; slot++) {
+        final Path slotStateFile =
+            workersDir.resolve(prefix + "-" + slot + ".properties");
+        slotLock = CacheLock.tryAcquire(slotStateFile);
+        if (slotLock != null) {
+          stateFile = slotStateFile;
+          logFile = workersDir.resolve(prefix + "-" + slot + ".log");
+        }
+      }
+      if (slotLock == null) {
+        if (log.isDebugEnabled()) {
+          log.debug(MessageFormat.format("All workers for [{0}] are busy",
+              toolName));
+        }
+        return null;
+      }
+      final Connection connection = tryConnect();
+      return connection == null ? start() : connection;
+    } catch (IOException ex) {
+      if (log.isWarnEnabled()) {
+        log.warn(MessageFormat.format(
+            "Unable to connect to worker for [{0}]: {1}", toolName,
+            ex.getMessage()));
+      }
+      release();
+      return null;
+    }
+  }
+
+  /**
+   * Release the acquired slot, the worker of the slot is available
+   * for the other requests.
+   */
+  public void release() {
+    if (slotLock == null) {
+      return;
+    }
+    try {
+      slotLock.close();
+    } catch (IOException ex) {
+      if (log.isDebugEnabled()) {
+        log.debug(MessageFormat.format(
+            "Unable to release worker for [{0}]", toolName), ex);
+      }
+    } finally {
+      slotLock = null;
+    }
+  }
+
+  /**
+   * Destroy the worker of the acquired slot and the processes started
+   * by the worker. The worker serves the only request of the client,
+   * so the requests of the other clients are not affected.
+   */
+  public void destroy() {
+    if (stateFile == null) {
+      return;
+    }
+    try {
+      final Properties state = readState();
+      final String pid = state == null
+          ? null
+          : state.getProperty(ToolWorker.STATE_PID);
+      if (pid != null) {
+        ProcessHandle.of(Long.parseLong(pid))
+            .ifPresent(ExecutionWatchdog::destroyProcessTree);
+      }
+      Files.deleteIfExists(stateFile);
+    } catch (IOException | NumberFormatException ex) {
+      if (log.isWarnEnabled()) {
+        log.warn(MessageFormat.format(
+            "Unable to destroy worker for [{0}]", toolName), ex);
+      }
+    }
+  }
+
+  /**
+   * Connect to the running worker.
+   *
+   * @return the connection or null if the worker is not running
+   *
+   * @throws IOException if the state file can not be read
+   */
+  private Connection tryConnect() throws IOException {
+    final Properties state = readState();
+    if (state == null) {
+      return null;
+    }
+    final Socket socket = new Socket();
+    try {
+      socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(),
+          Integer.parseInt(state.getProperty(ToolWorker.STATE_PORT))),
+          CONNECT_TIMEOUT_MILLIS);
+      socket.setSoTimeout(ToolWorker.REQUEST_TIMEOUT_MILLIS);
+      final Connection connection = new Connection(socket);
+      connection.handshake(state.getProperty(ToolWorker.STATE_TOKEN));
+      socket.setSoTimeout(0);
+      if (log.isDebugEnabled()) {
+        log.debug(MessageFormat.format(
+            "Connected to worker for [{0}]: {1}", toolName,
+            state.getProperty(ToolWorker.STATE_PID)));
+      }
+      return connection;
+    } catch (IOException | RuntimeException ex) {
+      socket.close();
+      if (log.isDebugEnabled()) {
+        log.debug(MessageFormat.format(
+            "Worker for [{0}] is not available: {1}", toolName, ex));
+      }
+      return null;
+    }
+  }
+
+  /**
+   * Start the worker and connect to it.
+   *
+   * @return the connection
+   *
+   * @throws IOException if the worker can not be started
+   */
+  private Connection start() throws IOException {
+    Files.deleteIfExists(stateFile);
+    final ProcessBuilder builder = new ProcessBuilder(
+        javaExecutable.toString(),
+        "-cp", classPath.toString(),
+        ToolWorker.class.getName(),
+        toolName, stateFile.toString(), String.valueOf(idleTimeout));
+    builder.directory(workingDirectory.toFile());
+    builder.redirectErrorStream(true);
+    builder.redirectOutput(ProcessBuilder.Redirect.appendTo(logFile.toFile()));
+    if (log.isInfoEnabled()) {
+      log.info(MessageFormat.format("Starting worker for [{0}]: {1}",
+          toolName, javaExecutable));
+    }
+    final Process process = builder.start();
+    process.getOutputStream().close();
+    final long deadline = System.nanoTime()
+        + TimeUnit.MILLISECONDS.toNanos(START_TIMEOUT_MILLIS);
+    while (System.nanoTime() - deadline < 0) {
+      if (Files.isRegularFile(stateFile)) {
+        final Connection connection = tryConnect();
+        if (connection != null) {
+          return connection;
+        }
+      }
+      if (!process.isAlive()) {
+        throw new IOException(MessageFormat.format(
+            "Worker exited with code {0}, see [{1}]", process.exitValue(),
+            logFile));
+      }
+      try {
+        Thread.sleep(START_POLL_MILLIS);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+    }
+    ExecutionWatchdog.destroyProcessTree(process.toHandle());
+    throw new IOException(MessageFormat.format(
+        "Worker did not start in time, see [{0}]", logFile));
+  }
+
+  /**
+   * Read the state file of the worker.
+   *
+   * @return the state or null if the state file is missing
+   *
+   * @throws IOException if the state file can not be read
+   */
+  private Properties readState() throws IOException {
+    if (!Files.isRegularFile(stateFile)) {
+      return null;
+    }
+    final Properties state = new Properties();
+    try (BufferedReader br =
+        Files.newBufferedReader(stateFile, StandardCharsets.UTF_8)) {
+      state.load(br);
+    }
+    return state.getProperty(ToolWorker.STATE_PORT) == null
+        || state.getProperty(ToolWorker.STATE_TOKEN) == null
+        ? null
+        : state;
+  }
+
+  /**
+   * Get the class path of the worker.
+   *
+   * @return the plugin jar or the directory containing the plugin classes
+   *
+   * @throws IOException if the location of the plugin classes is unknown
+   */
+  private static Path getClassPath() throws IOException {
+    final CodeSource codeSource =
+        ToolWorker.class.getProtectionDomain().getCodeSource();
+    if (codeSource == null || codeSource.getLocation() == null) {
+      throw new IOException("Unable to locate plugin classes");
+    }
+    try {
+      return Paths.get(codeSource.getLocation().toURI());
+    } catch (URISyntaxException | IllegalArgumentException ex) {
+      throw new IOException("Unable to locate plugin classes", ex);
+    }
+  }
+
+  /**
+   * Compute the key of the worker.
+   *
+   * @param toolName the name of the tool
+   * @param javaExecutable the java launcher
+   * @param classPath the class path of the worker
+   * @param workingDirectory the working directory of the worker
+   *
+   * @return the key of the worker
+   *
+   * @throws IOException if the class path can not be read
+   */
+  private static String getKey(final String toolName,
+      final Path javaExecutable, final Path classPath,
+      final Path workingDirectory) throws IOException {
+    final StringBuilder stamp = new StringBuilder()
+        .append(toolName)
+        .append('|').append(javaExecutable)
+        .append('|').append(classPath.toRealPath())
+        .append('|').append(Files.size(classPath))
+        .append('|').append(Files.getLastModifiedTime(classPath).toMillis())
+        .append('|').append(ToolWorker.PROTOCOL)
+        .append('|').append(workingDirectory);
+    for (final String name : KEY_ENVIRONMENT) {
+      final String value = System.getenv(name);
+      if (value != null) {
+        stamp.append('|').append(name).append('=').append(value);
+      }
+    }
+    try {
+      final byte[] digest = MessageDigest.getInstance("SHA-256")
+          .digest(stamp.toString().getBytes(StandardCharsets.UTF_8));
+      final StringBuilder key = new StringBuilder();
+      for (final byte b : digest) {
+        key.append(String.format("%02x", b));
+      }
+      return key.substring(0, KEY_LENGTH);
+    } catch (NoSuchAlgorithmException ex) {
+      throw new IOException(ex);
+    }
+  }
+
+  /**
+   * The connection to the worker.
+   */
+  public static final class Connection {
+
+    /**
+     * The socket.
+     */
+    private final Socket socket;
+
+    /**
+     * The input stream of the socket.
+     */
+    private final DataInputStream in;
+
+    /**
+     * The output stream of the socket.
+     */
+    private final DataOutputStream out;
+
+    /**
+     * Whether the worker has responded to the request.
+     */
+    private volatile boolean responded;
+
+    /**
+     * Create the connection.
+     *
+     * @param socket the connected socket
+     *
+     * @throws IOException if the socket streams are not available
+     */
+    Connection(final Socket socket) throws IOException {
+      this.socket = socket;
+      this.in = new DataInputStream(
+          new BufferedInputStream(socket.getInputStream()));
+      this.out = new DataOutputStream(
+          new BufferedOutputStream(socket.getOutputStream()));
+    }
+
+    /**
+     * Authenticate the connection.
+     *
+     * @param token the secret token of the worker
+     *
+     * @throws IOException if the worker has not accepted the connection
+     */
+    void handshake(final String token) throws IOException {
+      out.writeInt(ToolWorker.PROTOCOL);
+      out.writeUTF(token);
+      out.flush();
+      if (in.readByte() != ToolWorker.ACK) {
+        throw new IOException("Worker has not accepted the connection");
+      }
+    }
+
+    /**
+     * Run the tool in the worker, the connection is closed after that.
+     *
+     * @param args the arguments of the tool
+     * @param stdout the standard output
+     * @param stderr the standard error
+     *
+     * @return exit code
+     *
+     * @throws IOException if the worker failed or the connection is lost
+     */
+    public int run(final String[] args, final Writer stdout,
+        final Writer stderr) throws IOException {
+      try (socket; stdout; stderr) {
+        out.writeInt(args.length);
+        for (final String arg : args) {
+          out.writeUTF(arg);
+        }
+        out.flush();
+        while (true) {
+          final byte type = in.readByte();
+          responded = true;
+          switch (type) {
+            case ToolWorker.FRAME_OUT:
+              stdout.write(in.readUTF());
+              break;
+            case ToolWorker.FRAME_ERR:
+              stderr.write(in.readUTF());
+              break;
+            case ToolWorker.FRAME_EXIT:
+              return in.readInt();
+            case ToolWorker.FRAME_FAIL:
+              throw new IOException("Worker failed to run the tool: "
+                  + in.readUTF());
+            default:
+              throw new IOException("Unknown worker frame: " + type);
+          }
+        }
+      } catch (EOFException ex) {
+        throw new IOException("Worker closed the connection", ex);
+      }
+    }
+
+    /**
+     * Check if the worker has responded to the request, i.e. the tool
+     * has been started.
+     *
+     * @return true if the worker has responded to the request
+     */
+    public boolean isResponded() {
+      return responded;
+    }
+
+    /**
+     * Close the connection.
+     */
+    public void close() {
+      try {
+        socket.close();
+      } catch (IOException ex) {
+        // skip
+      }
+    }
+
+  }
+
+}
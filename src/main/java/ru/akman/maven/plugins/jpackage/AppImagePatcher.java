@@ -0,0 +1,316 @@
+/*
+  Copyright (C) 2020 - 2024 Alexander Kapitman
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package ru.akman.maven.plugins.jpackage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import org.apache.maven.plugin.logging.Log;
+import ru.akman.maven.plugins.Fingerprint;
+
+/**
+ * Patcher of the application image created by jpackage.
+ *
+ * <p>
+ * If only the application files (the content of the input directory and
+ * the module path) have been changed since the image was created,
+ * the changed files are replaced under the application directory of
+ * the image and the class path of the launchers is rewritten, so
+ * the runtime and the launchers are not created again. The changes are
+ * told by the fingerprints of the inputs, the fingerprint recorded with
+ * the image is the manifest of the application files.
+ * </p>
+ */
+public class AppImagePatcher {
+
+  /**
+   * The directory of the modules in the application directory.
+   */
+  public static final String MODS_DIR = "mods";
+
+  /**
+   * The locations of the application directory in the image
+   * (Linux, Windows, macOS).
+   */
+  private static final List<String> APP_DIRS =
+      List.of("lib/app", "app", "Contents/app");
+
+  /**
+   * The file marks the application directory of the image.
+   */
+  private static final String APP_IMAGE_FILE = ".jpackage.xml";
+
+  /**
+   * The suffix of the launcher configuration file.
+   */
+  private static final String CFG_SUFFIX = ".cfg";
+
+  /**
+   * The suffix of the jar file.
+   */
+  private static final String JAR_SUFFIX = ".jar";
+
+  /**
+   * The class path entry of the launcher configuration.
+   */
+  private static final String CLASSPATH_PREFIX = "app.classpath=";
+
+  /**
+   * The main class entry of the launcher configuration.
+   */
+  private static final String MAINCLASS_PREFIX = "app.mainclass=";
+
+  /**
+   * The variable of the application directory used by the launcher
+   * configuration.
+   */
+  private static final String APPDIR = "$APPDIR";
+
+  /**
+   * The log.
+   */
+  private final Log log;
+
+  /**
+   * The application image.
+   */
+  private final Path image;
+
+  /**
+   * The locations of the application files in the application directory
+   * (relative) by the input files and directories they are copied from.
+   */
+  private final Map<Path, Path> roots;
+
+  /**
+   * Create the patcher.
+   *
+   * @param log the log
+   * @param image the application image
+   * @param roots the locations of the application files in
+   *              the application directory (relative) by the input files
+   *              and directories they are copied from
+   */
+  public AppImagePatcher(final Log log, final Path image,
+      final Map<Path, Path> roots) {
+    this.log = log;
+    this.image = image;
+    this.roots = roots;
+  }
+
+  /**
+   * Patch the application image. The image is not modified if any
+   * input other than the application files has been changed.
+   *
+   * @param previous the fingerprint the image has been created with
+   * @param fingerprint the fingerprint of the inputs
+   *
+   * @return the number of the patched files or -1 if the image
+   *         can not be patched
+   *
+   * @throws IOException if the image has been partially patched
+   */
+  public int patch(final Fingerprint previous, final Fingerprint fingerprint)
+      throws IOException {
+    final Path appDir = findAppDir();
+    if (appDir == null) {
+      return -1;
+    }
+    final SortedSet<String> changed = fingerprint.getChangedInputs(previous);
+    final List<Path[]> copies = new ArrayList<>();
+    final SortedSet<Path> createdDirs = new TreeSet<>();
+    final SortedSet<Path> deleted = new TreeSet<>();
+    final List<String> addedJars = new ArrayList<>();
+    final List<String> removedJars = new ArrayList<>();
+    for (final String key : changed) {
+      final Path file = fingerprint.getFile(key);
+      final Path path = file == null ? fingerprint.getDirectory(key) : file;
+      final Path target = path == null
+          ? null
+          : getTarget(appDir, path, file != null);
+      if (target == null) {
+        if (log.isDebugEnabled()) {
+          log.debug(MessageFormat.format(
+              "Application image can not be patched, the input is changed:"
+              + " [{0}]", key));
+        }
+        return -1;
+      }
+      final boolean present = fingerprint.hasInput(key);
+      if (file == null) {
+        if (present) {
+          createdDirs.add(target);
+        } else {
+          deleted.add(target);
+        }
+        continue;
+      }
+      if (present) {
+        copies.add(new Path[] {file, target});
+      } else {
+        deleted.add(target);
+      }
+      // the jars of the application directory are on the class path,
+      // the modules are not
+      if (!target.startsWith(appDir.resolve(MODS_DIR))
+          && target.getFileName().toString().endsWith(JAR_SUFFIX)
+          && present != previous.hasInput(key)) {
+        final String entry = APPDIR + File.separator
+            + appDir.relativize(target).toString();
+        (present ? addedJars : removedJars).add(entry);
+      }
+    }
+    for (final Path dir : createdDirs) {
+      Files.createDirectories(dir);
+    }
+    for (final Path[] copy : copies) {
+      Files.createDirectories(copy[1].getParent());
+      Files.copy(copy[0], copy[1], StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.COPY_ATTRIBUTES);
+    }
+    // the content of the deleted directory is deleted first
+    final List<Path> deletions = new ArrayList<>(deleted);
+    Collections.reverse(deletions);
+    for (final Path path : deletions) {
+      Files.deleteIfExists(path);
+    }
+    if (!addedJars.isEmpty() || !removedJars.isEmpty()) {
+      rewriteClasspath(appDir, addedJars, removedJars);
+    }
+    return copies.size() + deleted.size();
+  }
+
+  /**
+   * Find the application directory of the image.
+   *
+   * @return the application directory or null if it is not found
+   */
+  private Path findAppDir() {
+    for (final String name : APP_DIRS) {
+      final Path appDir = image.resolve(name);
+      if (Files.isRegularFile(appDir.resolve(APP_IMAGE_FILE))) {
+        return appDir;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Get the location of the application file in the application
+   * directory.
+   *
+   * @param appDir the application directory
+   * @param path the input file or directory
+   * @param isFile true if the input is the file
+   *
+   * @return the location of the application file or null if the input
+   *         is not the application file
+   */
+  private Path getTarget(final Path appDir, final Path path,
+      final boolean isFile) {
+    Path root = null;
+    for (final Path candidate : roots.keySet()) {
+      if (path.startsWith(candidate)
+          && (root == null || candidate.startsWith(root))) {
+        root = candidate;
+      }
+    }
+    if (root == null) {
+      return null;
+    }
+    final Path base = appDir.resolve(roots.get(root));
+    if (path.equals(root)) {
+      // the file is copied itself, the directory is copied
+      // by its content and can not be added or removed
+      return isFile ? base.resolve(path.getFileName().toString()) : null;
+    }
+    final Path target = base.resolve(root.relativize(path).toString())
+        .normalize();
+    // the launcher configuration and the image file are not replaced
+    return target.startsWith(appDir) && !target.equals(appDir)
+        && !target.getFileName().toString().equals(APP_IMAGE_FILE)
+        ? target
+        : null;
+  }
+
+  /**
+   * Rewrite the class path of the launchers.
+   *
+   * @param appDir the application directory
+   * @param addedJars the class path entries of the added jars
+   * @param removedJars the class path entries of the removed jars
+   *
+   * @throws IOException if the launcher configuration can not be
+   *                     rewritten
+   */
+  private void rewriteClasspath(final Path appDir,
+      final List<String> addedJars, final List<String> removedJars)
+      throws IOException {
+    try (DirectoryStream<Path> stream =
+        Files.newDirectoryStream(appDir, "*" + CFG_SUFFIX)) {
+      for (final Path cfg : stream) {
+        final List<String> lines =
+            Files.readAllLines(cfg, StandardCharsets.UTF_8);
+        if (lines.stream().noneMatch(line ->
+            line.startsWith(CLASSPATH_PREFIX))) {
+          // the modular launcher
+          continue;
+        }
+        lines.removeIf(line -> line.startsWith(CLASSPATH_PREFIX)
+            && removedJars.contains(line.substring(
+                CLASSPATH_PREFIX.length())));
+        int index = -1;
+        for (int i = 0; i < lines.size(); i++) {
+          final String line = lines.get(i);
+          if (line.startsWith(CLASSPATH_PREFIX)
+              || line.startsWith(MAINCLASS_PREFIX)) {
+            index = i;
+          }
+        }
+        for (final String entry : addedJars) {
+          lines.add(++index, CLASSPATH_PREFIX + entry);
+        }
+        // the file is replaced atomically, not overwritten
+        final Path tempFile = Files.createTempFile(appDir, cfg.getFileName()
+            .toString(), null);
+        try {
+          Files.write(tempFile, lines, StandardCharsets.UTF_8);
+          Files.move(tempFile, cfg, StandardCopyOption.REPLACE_EXISTING,
+              StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+          Files.deleteIfExists(tempFile);
+        }
+        if (log.isDebugEnabled()) {
+          log.debug(MessageFormat.format(
+              "Class path of the launcher is rewritten: [{0}]", cfg));
+        }
+      }
+    }
+  }
+
+}
@@ -0,0 +1,666 @@
+/*
+  Copyright (C) 2020 - 2024 Alexander Kapitman
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package ru.akman.maven.plugins.jpackage;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.regex.Pattern;
+import ru.akman.maven.plugins.Fingerprint;
+
+/**
+ * Explainer of the cache misses of the packaging executions.
+ *
+ * <p>
+ * The fingerprint of the inputs is compared with the fingerprint of
+ * the previous execution and the changed command option lines, values
+ * (e.g. the tool version), files and directories are told. The option
+ * lines differ only by the paths of the temporary files or by
+ * the generated numbers are marked as non-deterministic, they are
+ * the usual cause of the lost cache hits.
+ * </p>
+ */
+public class CacheExplainer {
+
+  /**
+   * The pattern of the generated numbers (timestamps, random and
+   * unique identifiers) in the command option lines.
+   */
+  private static final Pattern GENERATED_PATTERN =
+      Pattern.compile("[0-9A-Fa-f]{8,}(-[0-9A-Fa-f]+)*");
+
+  /**
+   * The names of the values identify the tool.
+   */
+  private static final List<String> TOOL_VALUES =
+      List.of("executable", "version");
+
+  /**
+   * The explanations of the executions.
+   */
+  private final List<Explanation> explanations = new ArrayList<>();
+
+  /**
+   * The patterns of the paths of the temporary files.
+   */
+  private final List<Pattern> tempPatterns = new ArrayList<>();
+
+  /**
+   * Create the explainer.
+   *
+   * @param tempDirs the directories contain the temporary files
+   */
+  public CacheExplainer(final Collection<Path> tempDirs) {
+    for (final Path tempDir : tempDirs) {
+      tempPatterns.add(Pattern.compile(Pattern.quote(
+          tempDir.toAbsolutePath().normalize().toString()) + "[^\\s'\"]*"));
+    }
+  }
+
+  /**
+   * Explain the changes of the inputs since the previous execution.
+   *
+   * @param stage the name of the stage or null if the execution is not
+   *              staged
+   * @param previous the fingerprint of the previous execution or null
+   * @param fingerprint the fingerprint of the inputs
+   * @param reuse true if the up to date outputs are reused
+   *
+   * @return the explanation, its status is not set
+   */
+  public synchronized Explanation explain(final String stage,
+      final Fingerprint previous, final Fingerprint fingerprint,
+      final boolean reuse) {
+    final List<Change> changes = new ArrayList<>();
+    if (previous != null) {
+      final SortedSet<String> changed = fingerprint.getChangedInputs(previous);
+      // the option lines are paired by the option names
+      final Map<String, List<String>> removedOptions = new LinkedHashMap<>();
+      final Map<String, List<String>> addedOptions = new LinkedHashMap<>();
+      for (final String key : changed) {
+        final boolean present = fingerprint.hasInput(key);
+        final boolean existed = previous.hasInput(key);
+        final String action = !existed
+            ? Change.ADDED
+            : present ? Change.CHANGED : Change.REMOVED;
+        final String option = Fingerprint.getOption(key);
+        final String valueName = Fingerprint.getValueName(key);
+        final Path file = fingerprint.getFile(key);
+        final Path dir = fingerprint.getDirectory(key);
+        if (option != null) {
+          (present ? addedOptions : removedOptions)
+              .computeIfAbsent(getOptionName(option), name ->
+                  new ArrayList<>())
+              .add(option);
+        } else if (valueName != null) {
+          // the whole options are told by the changed lines
+          if (!"options".equals(valueName)) {
+            changes.add(new Change(TOOL_VALUES.contains(valueName)
+                ? Change.TOOL
+                : Change.VALUE, action, valueName, null, null, null));
+          }
+        } else if (file != null || dir != null) {
+          final Path path = file == null ? dir : file;
+          changes.add(new Change(file == null ? Change.DIRECTORY : Change.FILE,
+              action, path.toString(), null, null, null));
+        } else {
+          final Path missing = fingerprint.getMissing(key);
+          changes.add(new Change(Change.MISSING, action,
+              missing == null ? key : missing.toString(), null, null, null));
+        }
+      }
+      explainOptions(changes, removedOptions, addedOptions);
+    }
+    final Explanation explanation = new Explanation(stage, previous != null,
+        reuse, changes);
+    explanations.add(explanation);
+    return explanation;
+  }
+
+  /**
+   * Get the explanations of the executions.
+   *
+   * @return the explanations of the executions ordered by the stages
+   */
+  public synchronized List<Explanation> getExplanations() {
+    final List<Explanation> result = new ArrayList<>(explanations);
+    result.sort(Comparator.comparing(Explanation::getStage,
+        Comparator.nullsFirst(Comparator.naturalOrder())));
+    return Collections.unmodifiableList(result);
+  }
+
+  /**
+   * Write the explanations of the executions to the file.
+   *
+   * @param file the file
+   *
+   * @throws IOException if any errors occurred while writing the file
+   */
+  public void writeJson(final Path file) throws IOException {
+    final String nl = System.lineSeparator();
+    final List<Explanation> list = getExplanations();
+    final StringBuilder json = new StringBuilder();
+    json.append('{').append(nl).append("  \"executions\": [");
+    for (int i = 0; i < list.size(); i++) {
+      final Explanation explanation = list.get(i);
+      json.append(i == 0 ? "" : ",").append(nl)
+          .append("    {").append(nl)
+          .append("      \"stage\": ").append(quote(explanation.getStage()))
+          .append(',').append(nl)
+          .append("      \"status\": ").append(quote(explanation.getStatus()))
+          .append(',').append(nl)
+          .append("      \"reason\": ").append(quote(explanation.getReason()))
+          .append(',').append(nl)
+          .append("      \"changes\": [");
+      final List<Change> changes = explanation.getChanges();
+      for (int j = 0; j < changes.size(); j++) {
+        final Change change = changes.get(j);
+        json.append(j == 0 ? "" : ",").append(nl)
+            .append("        { \"kind\": ").append(quote(change.getKind()))
+            .append(", \"change\": ").append(quote(change.getAction()))
+            .append(", \"name\": ").append(quote(change.getName()));
+        if (change.getPrevious() != null) {
+          json.append(", \"previous\": ").append(quote(change.getPrevious()));
+        }
+        if (change.getCurrent() != null) {
+          json.append(", \"current\": ").append(quote(change.getCurrent()));
+        }
+        if (change.getHint() != null) {
+          json.append(", \"hint\": ").append(quote(change.getHint()));
+        }
+        json.append(" }");
+      }
+      json.append(changes.isEmpty() ? "" : nl + "      ").append(']')
+          .append(nl).append("    }");
+    }
+    json.append(list.isEmpty() ? "" : nl + "  ").append(']').append(nl)
+        .append('}').append(nl);
+    Files.createDirectories(file.toAbsolutePath().getParent());
+    try (BufferedWriter bw =
+        Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+      bw.write(json.toString());
+    }
+  }
+
+  /**
+   * Pair the removed and the added option lines by the option names
+   * and add the changes of the options.
+   *
+   * @param changes the changes the changes of the options are added to
+   * @param removedOptions the removed option lines by the option names
+   * @param addedOptions the added option lines by the option names
+   */
+  private void explainOptions(final List<Change> changes,
+      final Map<String, List<String>> removedOptions,
+      final Map<String, List<String>> addedOptions) {
+    for (final Map.Entry<String, List<String>> entry
+        : removedOptions.entrySet()) {
+      final List<String> removed = entry.getValue();
+      final List<String> added = addedOptions.getOrDefault(entry.getKey(),
+          new ArrayList<>());
+      while (!removed.isEmpty() && !added.isEmpty()) {
+        final String previous = removed.remove(0);
+        final String current = added.remove(0);
+        changes.add(new Change(Change.OPTION, Change.CHANGED, entry.getKey(),
+            previous, current, getOptionHint(previous, current)));
+      }
+      for (final String previous : removed) {
+        changes.add(new Change(Change.OPTION, Change.REMOVED, entry.getKey(),
+            previous, null, null));
+      }
+    }
+    for (final Map.Entry<String, List<String>> entry
+        : addedOptions.entrySet()) {
+      for (final String current : entry.getValue()) {
+        changes.add(new Change(Change.OPTION, Change.ADDED, entry.getKey(),
+            null, current, null));
+      }
+    }
+  }
+
+  /**
+   * Get the hint of the changed option line.
+   *
+   * @param previous the previous option line
+   * @param current the current option line
+   *
+   * @return the hint or null if the change looks deterministic
+   */
+  private String getOptionHint(final String previous, final String current) {
+    final String previousMasked = maskTemporary(previous);
+    if (!previousMasked.equals(previous)
+        && previousMasked.equals(maskTemporary(current))) {
+      return Change.TEMPORARY_HINT;
+    }
+    if (GENERATED_PATTERN.matcher(previous).replaceAll("#").equals(
+        GENERATED_PATTERN.matcher(current).replaceAll("#"))) {
+      return Change.GENERATED_HINT;
+    }
+    return null;
+  }
+
+  /**
+   * Replace the paths of the temporary files in the string.
+   *
+   * @param value the string
+   *
+   * @return the string with the paths of the temporary files replaced
+   */
+  private String maskTemporary(final String value) {
+    String masked = value;
+    for (final Pattern pattern : tempPatterns) {
+      masked = pattern.matcher(masked).replaceAll("#");
+    }
+    return masked;
+  }
+
+  /**
+   * Get the name of the option of the command option line.
+   *
+   * @param option the command option line
+   *
+   * @return the name of the option
+   */
+  private static String getOptionName(final String option) {
+    final String line = option.trim();
+    final int index = line.indexOf(' ');
+    return index < 0 ? line : line.substring(0, index);
+  }
+
+  /**
+   * Quote the string to the JSON string.
+   *
+   * @param value the string, can be null
+   *
+   * @return the JSON string or null
+   */
+  private static String quote(final String value) {
+    if (value == null) {
+      return "null";
+    }
+    final StringBuilder quoted = new StringBuilder(value.length() + 2);
+    quoted.append('"');
+    for (int i = 0; i < value.length(); i++) {
+      final char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        quoted.append('\\').append(c);
+      } else if (c < ' ') {
+        quoted.append(String.format("\\u%04x", (int) c));
+      } else {
+        quoted.append(c);
+      }
+    }
+    return quoted.append('"').toString();
+  }
+
+  /**
+   * The status of the execution.
+   */
+  public enum Status {
+
+    /**
+     * The outputs are up to date.
+     */
+    UP_TO_DATE("up-to-date"),
+
+    /**
+     * The application image is patched.
+     */
+    PATCHED("patched"),
+
+    /**
+     * The outputs are restored from the output cache.
+     */
+    RESTORED("restored"),
+
+    /**
+     * The tool is executed.
+     */
+    EXECUTED("executed");
+
+    /**
+     * The name of the status.
+     */
+    private final String name;
+
+    /**
+     * Create the status.
+     *
+     * @param name the name of the status
+     */
+    Status(final String name) {
+      this.name = name;
+    }
+
+    /**
+     * Get the name of the status.
+     *
+     * @return the name of the status
+     */
+    public String getName() {
+      return name;
+    }
+
+  }
+
+  /**
+   * The explanation of the execution.
+   */
+  public static final class Explanation {
+
+    /**
+     * The name of the stage or null.
+     */
+    private final String stage;
+
+    /**
+     * True if the previous execution is fingerprinted.
+     */
+    private final boolean hasPrevious;
+
+    /**
+     * True if the up to date outputs are reused.
+     */
+    private final boolean reuse;
+
+    /**
+     * The changes of the inputs.
+     */
+    private final List<Change> changes;
+
+    /**
+     * The status of the execution or null if it is not set.
+     */
+    private volatile Status status;
+
+    /**
+     * Create the explanation.
+     *
+     * @param stage the name of the stage or null
+     * @param hasPrevious true if the previous execution is fingerprinted
+     * @param reuse true if the up to date outputs are reused
+     * @param changes the changes of the inputs
+     */
+    Explanation(final String stage, final boolean hasPrevious,
+        final boolean reuse, final List<Change> changes) {
+      this.stage = stage;
+      this.hasPrevious = hasPrevious;
+      this.reuse = reuse;
+      this.changes = Collections.unmodifiableList(changes);
+    }
+
+    /**
+     * Get the name of the stage.
+     *
+     * @return the name of the stage or null if the execution is not staged
+     */
+    public String getStage() {
+      return stage;
+    }
+
+    /**
+     * Get the status of the execution.
+     *
+     * @return the name of the status or null if it is not set
+     */
+    public String getStatus() {
+      final Status value = status;
+      return value == null ? null : value.getName();
+    }
+
+    /**
+     * Set the status of the execution.
+     *
+     * @param status the status of the execution
+     */
+    public void setStatus(final Status status) {
+      this.status = status;
+    }
+
+    /**
+     * Check the outputs are up to date.
+     *
+     * @return true if the outputs are up to date
+     */
+    public boolean isUpToDate() {
+      return status == Status.UP_TO_DATE;
+    }
+
+    /**
+     * Get the reason the outputs are not up to date.
+     *
+     * @return the reason or null if the outputs are up to date
+     */
+    public String getReason() {
+      if (isUpToDate()) {
+        return null;
+      }
+      if (!hasPrevious) {
+        return "no previous execution";
+      }
+      if (!changes.isEmpty()) {
+        return "inputs changed";
+      }
+      return reuse ? "outputs changed" : "incremental execution disabled";
+    }
+
+    /**
+     * Get the changes of the inputs.
+     *
+     * @return the changes of the inputs
+     */
+    public List<Change> getChanges() {
+      return changes;
+    }
+
+  }
+
+  /**
+   * The change of the input.
+   */
+  public static final class Change {
+
+    /**
+     * The kind of the command option line.
+     */
+    static final String OPTION = "option";
+
+    /**
+     * The kind of the value identifies the tool.
+     */
+    static final String TOOL = "tool";
+
+    /**
+     * The kind of the value.
+     */
+    static final String VALUE = "value";
+
+    /**
+     * The kind of the file.
+     */
+    static final String FILE = "file";
+
+    /**
+     * The kind of the directory.
+     */
+    static final String DIRECTORY = "directory";
+
+    /**
+     * The kind of the missing file or directory.
+     */
+    static final String MISSING = "missing";
+
+    /**
+     * The added input.
+     */
+    static final String ADDED = "added";
+
+    /**
+     * The removed input.
+     */
+    static final String REMOVED = "removed";
+
+    /**
+     * The changed input.
+     */
+    static final String CHANGED = "changed";
+
+    /**
+     * The hint of the input changed only by the temporary paths.
+     */
+    static final String TEMPORARY_HINT =
+        "non-deterministic: differs only by temporary file paths";
+
+    /**
+     * The hint of the input changed only by the generated numbers.
+     */
+    static final String GENERATED_HINT =
+        "non-deterministic: differs only by generated numbers";
+
+    /**
+     * The kind of the input.
+     */
+    private final String kind;
+
+    /**
+     * The action of the change.
+     */
+    private final String action;
+
+    /**
+     * The name of the input.
+     */
+    private final String name;
+
+    /**
+     * The previous command option line or null.
+     */
+    private final String previous;
+
+    /**
+     * The current command option line or null.
+     */
+    private final String current;
+
+    /**
+     * The hint or null.
+     */
+    private final String hint;
+
+    /**
+     * Create the change.
+     *
+     * @param kind the kind of the input
+     * @param action the action of the change
+     * @param name the name of the input
+     * @param previous the previous command option line or null
+     * @param current the current command option line or null
+     * @param hint the hint or null
+     */
+    Change(final String kind, final String action, final String name,
+        final String previous, final String current, final String hint) {
+      this.kind = kind;
+      this.action = action;
+      this.name = name;
+      this.previous = previous;
+      this.current = current;
+      this.hint = hint;
+    }
+
+    /**
+     * Get the kind of the input.
+     *
+     * @return the kind of the input
+     */
+    public String getKind() {
+      return kind;
+    }
+
+    /**
+     * Get the action of the change.
+     *
+     * @return the action of the change (added, removed or changed)
+     */
+    public String getAction() {
+      return action;
+    }
+
+    /**
+     * Get the name of the input.
+     *
+     * @return the name of the input
+     */
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * Get the previous command option line.
+     *
+     * @return the previous command option line or null
+     */
+    public String getPrevious() {
+      return previous;
+    }
+
+    /**
+     * Get the current command option line.
+     *
+     * @return the current command option line or null
+     */
+    public String getCurrent() {
+      return current;
+    }
+
+    /**
+     * Get the hint of the change.
+     *
+     * @return the hint or null
+     */
+    public String getHint() {
+      return hint;
+    }
+
+    @Override
+    public String toString() {
+      final StringBuilder sb = new StringBuilder();
+      sb.append(action).append(' ').append(kind).append(' ').append(name);
+      if (previous != null) {
+        sb.append(": ").append(previous);
+      }
+      if (current != null) {
+        sb.append(previous == null ? ": " : " -> ").append(current);
+      }
+      if (hint != null) {
+        sb.append(" (").append(hint).append(')');
+      }
+      return sb.toString();
+    }
+
+  }
+
+}
@@ -0,0 +1,138 @@
+/*
+  Copyright (C) 2020 - 2024 Alexander Kapitman
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package ru.akman.maven.plugins.jpackage;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.List;
+import java.util.Properties;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import ru.akman.maven.plugins.FileDisposer;
+import ru.akman.maven.plugins.OutputCache;
+
+/**
+ * The cache-prune goal evicts the least recently used entries of
+ * the output cache until its size does not exceed the limit and
+ * reports the cache statistics.
+ */
+@Mojo(
+    name = "cache-prune",
+    requiresProject = false,
+    threadSafe = true
+)
+public class CachePruneMojo extends AbstractMojo {
+
+  /**
+   * Specifies the location of the persistent cache directory shared
+   * between builds.
+   *
+   * <p>Default value: ${user.home}/.m2/jpackage-cache</p>
+   */
+  @Parameter(
+      property = "jpackage.cachedir",
+      defaultValue = "${user.home}/.m2/jpackage-cache"
+  )
+  private File cachedir;
+
+  /**
+   * Specifies the size limit of the output cache (in megabytes).
+   * The zero value evicts all entries.
+   *
+   * <p>Default value: 4096</p>
+   */
+  @Parameter(
+      property = "jpackage.cachemaxsize",
+      defaultValue = "4096"
+  )
+  private long cachemaxsize;
+
+  /**
+   * Execute goal.
+   *
+   * @throws MojoExecutionException if any errors occurred
+   */
+  @Override
+  public void execute() throws MojoExecutionException {
+    if (cachedir == null) {
+      throw new MojoExecutionException(
+          "Error: The cache directory is not specified");
+    }
+    final FileDisposer fileDisposer = new FileDisposer(getLog());
+    final OutputCache outputCache = new OutputCache(getLog(), fileDisposer,
+        cachedir.toPath().resolve(JpackageMojo.OUTPUTS_DIR),
+        cachemaxsize * JpackageMojo.MEGABYTE);
+    final int evicted;
+    final List<OutputCache.Entry> entries;
+    final Properties stats;
+    try {
+      evicted = outputCache.prune(cachemaxsize * JpackageMojo.MEGABYTE);
+      fileDisposer.await();
+      entries = outputCache.getEntries();
+      stats = outputCache.getStats();
+    } catch (IOException ex) {
+      throw new MojoExecutionException(MessageFormat.format(
+          "Error: Unable to prune output cache: [{0}]", cachedir), ex);
+    }
+    if (getLog().isInfoEnabled()) {
+      final long size = entries.stream()
+          .mapToLong(OutputCache.Entry::getSize)
+          .sum();
+      final long hits = getCounter(stats, OutputCache.STAT_HITS);
+      final long misses = getCounter(stats, OutputCache.STAT_MISSES);
+      getLog().info(MessageFormat.format(
+          "Output cache: [{0}]", cachedir.toPath().resolve(
+              JpackageMojo.OUTPUTS_DIR)));
+      getLog().info(MessageFormat.format(
+          "  evicted: {0}, entries: {1}, size: {2} MB, limit: {3} MB",
+          String.valueOf(evicted), String.valueOf(entries.size()),
+          String.valueOf(size / JpackageMojo.MEGABYTE),
+          String.valueOf(cachemaxsize)));
+      getLog().info(MessageFormat.format(
+          "  hits: {0}, misses: {1}, hit ratio: {2}%, stores: {3},"
+          + " evictions: {4}",
+          String.valueOf(hits), String.valueOf(misses),
+          String.valueOf(hits + misses == 0 ? 0 : hits * 100 / (hits + misses)),
+          String.valueOf(getCounter(stats, OutputCache.STAT_STORES)),
+          String.valueOf(getCounter(stats, OutputCache.STAT_EVICTIONS))));
+      getLog().info(MessageFormat.format(
+          "  remote hits: {0}, remote stores: {1}",
+          String.valueOf(getCounter(stats, OutputCache.STAT_REMOTE_HITS)),
+          String.valueOf(getCounter(stats, OutputCache.STAT_REMOTE_STORES))));
+    }
+  }
+
+  /**
+   * Get the counter of the cache statistics.
+   *
+   * @param stats the cache statistics
+   * @param name the name of the counter
+   *
+   * @return the value of the counter
+   */
+  private static long getCounter(final Properties stats, final String name) {
+    try {
+      return Long.parseLong(stats.getProperty(name, "0"));
+    } catch (NumberFormatException ex) {
+      return 0L;
+    }
+  }
+
+}
@@ -0,0 +1,375 @@
+/*
+  Copyright (C) 2020 - 2024 Alexander Kapitman
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package ru.akman.maven.plugins.jpackage;
+
+import java.io.File;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Immutable matcher of the dependencies compiled from the dependencyset.
+ *
+ * <p>
+ * The include and exclude patterns are compiled once. The literal
+ * patterns (without wildcards) are matched by the exact lookup and
+ * the patterns which are literal except the trailing wildcard
+ * (<code>glob:/path/**</code>, <code>regex:/path/.*</code>,
+ * <code>org\.example\..*</code>) are matched by the prefix, the rest
+ * are matched by the compiled path matchers and regular expressions.
+ * </p>
+ */
+public final class DependencyMatcher {
+
+  /**
+   * The prefix of the glob path pattern.
+   */
+  private static final String GLOB_PREFIX = "glob:";
+
+  /**
+   * The prefix of the regex path pattern.
+   */
+  private static final String REGEX_PREFIX = "regex:";
+
+  /**
+   * The trailing wildcard of the glob pattern.
+   */
+  private static final String GLOB_WILDCARD = "**";
+
+  /**
+   * The trailing wildcard of the regex pattern.
+   */
+  private static final String REGEX_WILDCARD = ".*";
+
+  /**
+   * The special characters of the glob pattern.
+   */
+  private static final String GLOB_SPECIALS = "*?[]{}\\";
+
+  /**
+   * The special characters of the regex pattern.
+   */
+  private static final String REGEX_SPECIALS = ".[]{}()*+?^$|\\";
+
+  /**
+   * Should the project output directory be included.
+   */
+  private final boolean outputIncluded;
+
+  /**
+   * Should the automatic modules be excluded.
+   */
+  private final boolean automaticExcluded;
+
+  /**
+   * The compiled include patterns of the paths.
+   */
+  private final Patterns includes;
+
+  /**
+   * The compiled include patterns of the module names.
+   */
+  private final Patterns includeNames;
+
+  /**
+   * The compiled exclude patterns of the paths.
+   */
+  private final Patterns excludes;
+
+  /**
+   * The compiled exclude patterns of the module names.
+   */
+  private final Patterns excludeNames;
+
+  /**
+   * Compile the dependencyset.
+   *
+   * @param depSet the dependencyset
+   *
+   * @throws IllegalArgumentException if any pattern is invalid
+   */
+  public DependencyMatcher(final DependencySet depSet) {
+    this.outputIncluded = depSet.isOutputIncluded();
+    this.automaticExcluded = depSet.isAutomaticExcluded();
+    this.includes = compilePathPatterns(depSet.getIncludes());
+    this.includeNames = compileNamePatterns(depSet.getIncludeNames());
+    this.excludes = compilePathPatterns(depSet.getExcludes());
+    this.excludeNames = compileNamePatterns(depSet.getExcludeNames());
+  }
+
+  /**
+   * Should the project output directory be included.
+   *
+   * @return true if the project output directory should be included
+   */
+  public boolean isOutputIncluded() {
+    return outputIncluded;
+  }
+
+  /**
+   * Should the automatic modules be excluded.
+   *
+   * @return true if the automatic modules should be excluded
+   */
+  public boolean isAutomaticExcluded() {
+    return automaticExcluded;
+  }
+
+  /**
+   * Checks whether the dependency matches the include patterns.
+   * The dependency is included if no include patterns are specified.
+   *
+   * @param path the dependency path
+   * @param name the module name, empty if the descriptor is missing
+   *
+   * @return should the dependency be included
+   */
+  public boolean matchesIncludes(final Path path, final String name) {
+    if (includes == null && includeNames == null) {
+      return true;
+    }
+    return includes != null && includes.matches(path)
+        || includeNames != null && includeNames.matches(name);
+  }
+
+  /**
+   * Checks whether the dependency matches the exclude patterns.
+   *
+   * @param path the dependency path
+   * @param name the module name, empty if the descriptor is missing
+   *
+   * @return should the dependency be excluded
+   */
+  public boolean matchesExcludes(final Path path, final String name) {
+    return excludes != null && excludes.matches(path)
+        || excludeNames != null && excludeNames.matches(name);
+  }
+
+  /**
+   * Compile the path patterns, the pattern should be regex or glob,
+   * this is determined by the prefix specified in the pattern.
+   *
+   * @param patterns the path patterns
+   *
+   * @return the compiled patterns or null if no patterns are specified
+   *
+   * @throws IllegalArgumentException if any pattern is invalid
+   */
+  private static Patterns compilePathPatterns(final List<String> patterns) {
+    if (patterns == null || patterns.isEmpty()) {
+      return null;
+    }
+    final FileSystem fileSystem = FileSystems.getDefault();
+    // the literal paths are compared by strings on the file systems
+    // with the case sensitive names only
+    final boolean literals = File.separatorChar == '/';
+    final Patterns result = new Patterns();
+    for (final String pattern : patterns) {
+      String literal = null;
+      String prefix = null;
+      if (literals && pattern.startsWith(GLOB_PREFIX)) {
+        final String glob = pattern.substring(GLOB_PREFIX.length());
+        if (isGlobLiteral(glob)) {
+          literal = glob;
+        } else if (glob.endsWith(GLOB_WILDCARD) && isGlobLiteral(
+            glob.substring(0, glob.length() - GLOB_WILDCARD.length()))) {
+          prefix = glob.substring(0, glob.length() - GLOB_WILDCARD.length());
+        }
+      } else if (literals && pattern.startsWith(REGEX_PREFIX)) {
+        final String regex = pattern.substring(REGEX_PREFIX.length());
+        literal = getRegexLiteral(regex);
+        prefix = literal == null ? getRegexPrefix(regex) : null;
+      }
+      if (literal != null) {
+        result.exact.add(literal);
+      } else if (prefix != null) {
+        result.prefixes.add(prefix);
+      } else {
+        final PathMatcher pathMatcher = fileSystem.getPathMatcher(pattern);
+        result.matchers.add(path -> pathMatcher.matches((Path) path));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Compile the name patterns, the pattern should be regex only.
+   *
+   * @param patterns the name patterns
+   *
+   * @return the compiled patterns or null if no patterns are specified
+   *
+   * @throws IllegalArgumentException if any pattern is invalid
+   */
+  private static Patterns compileNamePatterns(final List<String> patterns) {
+    if (patterns == null || patterns.isEmpty()) {
+      return null;
+    }
+    final Patterns result = new Patterns();
+    for (final String pattern : patterns) {
+      final String literal = getRegexLiteral(pattern);
+      final String prefix = literal == null ? getRegexPrefix(pattern) : null;
+      if (literal != null) {
+        result.exact.add(literal);
+      } else if (prefix != null) {
+        result.prefixes.add(prefix);
+      } else {
+        final Pattern regex = Pattern.compile(pattern);
+        result.matchers.add(name -> regex.matcher((String) name).matches());
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Checks if the glob pattern has no special characters.
+   *
+   * @param glob the glob pattern
+   *
+   * @return true if the glob pattern is literal
+   */
+  private static boolean isGlobLiteral(final String glob) {
+    for (int i = 0; i < glob.length(); i++) {
+      if (GLOB_SPECIALS.indexOf(glob.charAt(i)) >= 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Get the string matched by the literal regex pattern. The special
+   * characters escaped by the backslash are literal.
+   *
+   * @param regex the regex pattern
+   *
+   * @return the matched string or null if the pattern is not literal
+   */
+  private static String getRegexLiteral(final String regex) {
+    final StringBuilder literal = new StringBuilder();
+    for (int i = 0; i < regex.length(); i++) {
+      final char ch = regex.charAt(i);
+      if (ch == '\\') {
+        // only the escaped special characters are literal,
+        // the escaped letters and digits are character classes
+        if (i + 1 == regex.length()
+            || REGEX_SPECIALS.indexOf(regex.charAt(i + 1)) < 0
+                && Character.isLetterOrDigit(regex.charAt(i + 1))) {
+          return null;
+        }
+        literal.append(regex.charAt(++i));
+      } else if (REGEX_SPECIALS.indexOf(ch) >= 0) {
+        return null;
+      } else {
+        literal.append(ch);
+      }
+    }
+    return literal.toString();
+  }
+
+  /**
+   * Get the prefix matched by the regex pattern which is literal except
+   * the trailing wildcard.
+   *
+   * @param regex the regex pattern
+   *
+   * @return the matched prefix or null if the pattern is not literal
+   *         except the trailing wildcard
+   */
+  private static String getRegexPrefix(final String regex) {
+    if (!regex.endsWith(REGEX_WILDCARD)) {
+      return null;
+    }
+    final String head =
+        regex.substring(0, regex.length() - REGEX_WILDCARD.length());
+    // the trailing backslash escapes the dot of the wildcard
+    return head.endsWith("\\") && !head.endsWith("\\\\")
+        ? null
+        : getRegexLiteral(head);
+  }
+
+  /**
+   * The compiled patterns.
+   */
+  private static final class Patterns {
+
+    /**
+     * The literal patterns.
+     */
+    private final Set<String> exact = new HashSet<>();
+
+    /**
+     * The prefixes of the literal patterns with the trailing wildcard.
+     */
+    private final List<String> prefixes = new ArrayList<>();
+
+    /**
+     * The compiled patterns.
+     */
+    private final List<Matcher> matchers = new ArrayList<>();
+
+    /**
+     * Checks if the value matches at least one of the patterns.
+     *
+     * @param value the path or the name
+     *
+     * @return true if the value matches at least one of the patterns
+     */
+    private boolean matches(final Object value) {
+      final String str = value.toString();
+      if (exact.contains(str)) {
+        return true;
+      }
+      for (final String prefix : prefixes) {
+        if (str.startsWith(prefix)) {
+          return true;
+        }
+      }
+      for (final Matcher matcher : matchers) {
+        if (matcher.matches(value)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+  }
+
+  /**
+   * The compiled pattern.
+   */
+  @FunctionalInterface
+  private interface Matcher {
+
+    /**
+     * Checks if the value matches the pattern.
+     *
+     * @param value the path or the name
+     *
+     * @return true if the value matches the pattern
+     */
+    boolean matches(Object value);
+
+  }
+
+}
@@ -0,0 +1,203 @@
+/*
+  Copyright (C) 2020 - 2024 Alexander Kapitman
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package ru.akman.maven.plugins.jpackage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.text.MessageFormat;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Watches the directories with all their subdirectories for the changes,
+ * the changes are debounced: they are reported when the directories
+ * have been quiet for the debounce time.
+ */
+class DirectoryWatcher implements Closeable {
+
+  /**
+   * The plugin logger.
+   */
+  private final Log log;
+
+  /**
+   * The time (in milliseconds) the directories should be quiet
+   * after the change.
+   */
+  private final long debounce;
+
+  /**
+   * The watch service.
+   */
+  private final WatchService watchService;
+
+  /**
+   * The watched directories by the watch keys.
+   */
+  private final Map<WatchKey, Path> watchedDirs = new HashMap<>();
+
+  /**
+   * The time (in nanoseconds) of the first change reported last.
+   */
+  private long changed;
+
+  /**
+   * Create the watcher.
+   *
+   * @param log the plugin logger
+   * @param debounce the time (in milliseconds) the directories should
+   *                 be quiet after the change
+   *
+   * @throws IOException if the watch service can not be created
+   */
+  DirectoryWatcher(final Log log, final long debounce) throws IOException {
+    this.log = log;
+    this.debounce = debounce;
+    this.watchService = FileSystems.getDefault().newWatchService();
+  }
+
+  /**
+   * Register the directory with all its subdirectories.
+   *
+   * @param root the directory
+   *
+   * @throws IOException if any errors occurred
+   */
+  void register(final Path root) throws IOException {
+    Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+
+      @Override
+      public FileVisitResult preVisitDirectory(final Path dir,
+          final BasicFileAttributes attrs) throws IOException {
+        watchedDirs.put(dir.register(watchService,
+            StandardWatchEventKinds.ENTRY_CREATE,
+            StandardWatchEventKinds.ENTRY_DELETE,
+            StandardWatchEventKinds.ENTRY_MODIFY), dir);
+        return FileVisitResult.CONTINUE;
+      }
+
+    });
+  }
+
+  /**
+   * Checks whether there are no watched directories, i.e. all of them
+   * have been deleted.
+   *
+   * @return true if there are no watched directories
+   */
+  boolean isEmpty() {
+    return watchedDirs.isEmpty();
+  }
+
+  /**
+   * Get the time of the first change reported last.
+   *
+   * @return the time (in nanoseconds, see {@link System#nanoTime()})
+   */
+  long getChanged() {
+    return changed;
+  }
+
+  /**
+   * Wait for the change, then wait until the directories are quiet.
+   *
+   * @param timeout the time (in milliseconds) to wait for the change,
+   *                it is waited forever if the value is not positive
+   *
+   * @return the changed paths or the empty set if there are no changes
+   *         within the timeout
+   *
+   * @throws IOException if any errors occurred
+   * @throws InterruptedException if the waiting is interrupted
+   */
+  Set<Path> await(final long timeout)
+      throws IOException, InterruptedException {
+    final Set<Path> paths = new TreeSet<>();
+    final WatchKey key = timeout > 0L
+        ? watchService.poll(timeout, TimeUnit.MILLISECONDS)
+        : watchService.take();
+    if (key == null) {
+      return paths;
+    }
+    changed = System.nanoTime();
+    processEvents(key, paths);
+    WatchKey next = watchService.poll(debounce, TimeUnit.MILLISECONDS);
+    while (next != null) {
+      processEvents(next, paths);
+      next = watchService.poll(debounce, TimeUnit.MILLISECONDS);
+    }
+    return paths;
+  }
+
+  /**
+   * Process the events of the watch key, the created directories
+   * are registered.
+   *
+   * @param key the watch key
+   * @param paths the changed paths
+   *
+   * @throws IOException if any errors occurred
+   */
+  private void processEvents(final WatchKey key, final Set<Path> paths)
+      throws IOException {
+    final Path dir = watchedDirs.get(key);
+    for (final WatchEvent<?> event : key.pollEvents()) {
+      if (dir == null
+          || event.kind() == StandardWatchEventKinds.OVERFLOW) {
+        continue;
+      }
+      final Path path = dir.resolve((Path) event.context());
+      paths.add(path);
+      if (log.isDebugEnabled()) {
+        log.debug(MessageFormat.format("Changed [{0}]: [{1}]",
+            event.kind().name(), path));
+      }
+      if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE
+          && Files.isDirectory(path)) {
+        register(path);
+      }
+    }
+    if (!key.reset()) {
+      watchedDirs.remove(key);
+    }
+  }
+
+  /**
+   * Close the watch service.
+   *
+   * @throws IOException if any errors occurred
+   */
+  @Override
+  public void close() throws IOException {
+    watchService.close();
+  }
+
+}
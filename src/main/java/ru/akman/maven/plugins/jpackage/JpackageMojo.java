@@ -16,28 +16,42 @@
 
 package ru.akman.maven.plugins.jpackage;
 
+import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.FileSystems;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
-import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
 import java.text.MessageFormat;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Properties;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.spi.ToolProvider;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import javax.inject.Inject;
 import org.apache.commons.lang3.JavaVersion;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.maven.artifact.Artifact;
+import org.apache.maven.plugin.MojoExecution;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
@@ -48,12 +62,22 @@ import org.codehaus.plexus.languages.java.jpms.LocationManager;
 import org.codehaus.plexus.languages.java.jpms.ModuleNameSource;
 import org.codehaus.plexus.languages.java.jpms.ResolvePathsRequest;
 import org.codehaus.plexus.languages.java.jpms.ResolvePathsResult;
-import org.codehaus.plexus.util.FileUtils;
 import org.codehaus.plexus.util.cli.CommandLineException;
+import org.codehaus.plexus.util.cli.CommandLineTimeOutException;
 import org.codehaus.plexus.util.cli.Commandline;
+import org.codehaus.plexus.util.cli.StreamConsumer;
 import ru.akman.maven.plugins.BaseToolMojo;
+import ru.akman.maven.plugins.CacheLock;
 import ru.akman.maven.plugins.CommandLineBuilder;
 import ru.akman.maven.plugins.CommandLineOption;
+import ru.akman.maven.plugins.FileDisposer;
+import ru.akman.maven.plugins.Fingerprint;
+import ru.akman.maven.plugins.ModuleDescriptorIndex;
+import ru.akman.maven.plugins.ModuleDescriptorReader;
+import ru.akman.maven.plugins.OutputCache;
+import ru.akman.maven.plugins.RemoteCache;
+import ru.akman.maven.plugins.RuntimeImageCache;
+import ru.akman.maven.plugins.SessionCache;
 
 /**
  * The jpackage goal lets you create a custom runtime image with
@@ -66,7 +90,8 @@ import ru.akman.maven.plugins.CommandLineOption;
  */
 @Mojo(
     name = "jpackage",
-    requiresDependencyResolution = ResolutionScope.RUNTIME
+    requiresDependencyResolution = ResolutionScope.RUNTIME,
+    threadSafe = true
 //    defaultPhase = LifecyclePhase.VERIFY,
 //    requiresProject = true,
 //    aggregator = <false|true>,
@@ -77,7 +102,6 @@ import ru.akman.maven.plugins.CommandLineOption;
 //    requiresDependencyCollection = ResolutionScope.<scope>,
 //    requiresDirectInvocation = <false|true>,
 //    requiresOnline = <false|true>,
-//    threadSafe = <false|true>,
 )
 // @Execute(
 //    This will fork an alternate build lifecycle up to the specified phase
@@ -111,15 +135,188 @@ public class JpackageMojo extends BaseToolMojo {
    */
   private static final String OPTS_FILE = TOOL_NAME + ".opts";
 
+  /**
+   * The suffix of the file contains the tool options of the stage.
+   */
+  private static final String OPTS_SUFFIX = ".opts";
+
+  /**
+   * The suffix of the file contains the tool output of the stage.
+   */
+  private static final String LOG_SUFFIX = ".log";
+
+  /**
+   * The name of the stage creating the application image.
+   */
+  private static final String APP_IMAGE_STAGE = "app-image";
+
+  /**
+   * The name of the stage creating the package from the application image.
+   */
+  private static final String PACKAGE_STAGE = "package";
+
+  /**
+   * The options of the tool valid for the application image only,
+   * they are not passed to the package stage.
+   */
+  private static final Set<String> LAUNCHER_OPTIONS = Set.of(
+      "--input",
+      "--runtime-image",
+      "--module",
+      "--main-jar",
+      "--main-class",
+      "--arguments",
+      "--java-options",
+      "--add-launcher",
+      "--win-console",
+      "--module-path",
+      "--add-modules",
+      "--bind-services");
+
+  /**
+   * The options of the tool valid for the package only,
+   * they are not passed to the application image stage.
+   */
+  private static final Set<String> INSTALLER_OPTIONS = Set.of(
+      "--app-image",
+      "--file-associations",
+      "--install-dir",
+      "--license-file",
+      "--win-dir-chooser",
+      "--win-menu",
+      "--win-menu-group",
+      "--win-per-user-install",
+      "--win-shortcut",
+      "--win-upgrade-uuid",
+      "--linux-package-name",
+      "--linux-deb-maintainer",
+      "--linux-menu-group",
+      "--linux-package-deps",
+      "--linux-rpm-license-type",
+      "--linux-app-release",
+      "--linux-app-category",
+      "--linux-shortcut");
+
+  /**
+   * The prefix of the name of the working directory of the execution,
+   * the name is followed by the execution id.
+   */
+  private static final String WORK_DIR_PREFIX = TOOL_NAME + "-";
+
+  /**
+   * The pattern of the characters not allowed in the file name.
+   */
+  private static final String FILE_NAME_UNSAFE_PATTERN = "[^A-Za-z0-9._-]";
+
+  /**
+   * The name of the file contains the phase timeline of the execution.
+   */
+  private static final String TIMINGS_FILE = TOOL_NAME + "-timings.json";
+
+  /**
+   * The suffix of the file contains the phase timeline of the stage.
+   */
+  private static final String TIMINGS_SUFFIX = "-timings.json";
+
+  /**
+   * The suffix of the file contains the explanations of the cache misses,
+   * placed in the build directory, the name is prefixed with the key
+   * of the execution.
+   */
+  private static final String EXPLAIN_SUFFIX = "-cache-explain.json";
+
+  /**
+   * The maximum number of the changes of the inputs reported to the log
+   * by the explanation of the cache miss.
+   */
+  private static final int MAX_LOGGED_CHANGES = 20;
+
+  /**
+   * The suffix of the fingerprint file placed next to the destination
+   * directory.
+   */
+  private static final String FINGERPRINT_SUFFIX = ".fingerprint";
+
+  /**
+   * The placeholder of the project base directory in the fingerprint.
+   */
+  private static final String BASEDIR_PLACEHOLDER = "${basedir}";
+
+  /**
+   * The placeholder of the tool home directory in the fingerprint.
+   */
+  private static final String TOOLHOME_PLACEHOLDER = "${toolhome}";
+
+  /**
+   * The placeholder of the local repository in the fingerprint.
+   */
+  private static final String LOCALREPO_PLACEHOLDER = "${localrepo}";
+
+  /**
+   * The name of the file of the JDK contains the properties
+   * of the JDK build.
+   */
+  private static final String RELEASE_FILE = "release";
+
+  /**
+   * The properties of the JDK build identifying the JDK in
+   * the fingerprint, the JDKs of the different vendors, versions and
+   * architectures installed in the same location do not share
+   * the cache keys.
+   */
+  private static final List<String> RELEASE_KEYS = List.of(
+      "IMPLEMENTOR", "JAVA_RUNTIME_VERSION", "OS_ARCH");
+
+  /**
+   * The subdirectory of the cache directory containing the output cache.
+   */
+  static final String OUTPUTS_DIR = "outputs";
+
+  /**
+   * The number of bytes in megabyte.
+   */
+  static final long MEGABYTE = 1024L * 1024L;
+
+  /**
+   * The subdirectory of the cache directory containing the runtime
+   * image cache.
+   */
+  private static final String RUNTIMES_DIR = "runtimes";
+
+  /**
+   * The name of the tool linking the runtime image.
+   */
+  private static final String JLINK_NAME = "jlink";
+
+  /**
+   * The subdirectory of the JDK home directory containing the JDK modules.
+   */
+  private static final String JMODS_DIR = "jmods";
+
+  /**
+   * The number of the threads running the preparations concurrently.
+   */
+  private static final int INIT_THREADS = 2;
+
   /**
    * Filename of a module descriptor.
    */
   private static final String DESCRIPTOR_NAME = "module-info.class";
 
+  /**
+   * Manifest attribute of an automatic module name.
+   */
+  private static final String AUTOMATIC_MODULE_NAME = "Automatic-Module-Name";
+
+  /**
+   * Extension of a jar file.
+   */
+  private static final String JAR_EXTENSION = ".jar";
+
   /**
    * Filename prefix for temporary file contains the launcher properties.
    */
-  private static final String PROPS_PREFIX = "launcher.";
+  private static final String PROPS_PREFIX = "launcher-";
 
   /**
    * Filename suffix for temporary file contains the launcher properties.
@@ -143,20 +340,46 @@ public class JpackageMojo extends BaseToolMojo {
       "Error: Unable to resolve file path for {0} [{1}]";
 
   /**
-   * List of temporary files.
+   * The working directory of the execution contains the command options
+   * file and the additional launchers properties files.
+   */
+  private File workDir;
+
+  /**
+   * Disposer deleting the temporary files in background.
+   */
+  private FileDisposer fileDisposer;
+
+  /**
+   * Explainer of the cache misses of the execution.
    */
-  private final List<File> tempFiles = new ArrayList<>();
+  private CacheExplainer cacheExplainer;
+
+  /**
+   * Remote cache of the execution or null.
+   */
+  private RemoteCache remoteCache;
 
   /**
    * Resolved project dependencies.
    */
-  private ResolvePathsResult<File> projectDependencies;
+  private ResolvedDependencies projectDependencies;
 
   /**
    * Resolved main module descriptor.
    */
   private JavaModuleDescriptor mainModuleDescriptor;
 
+  /**
+   * Mojo execution.
+   */
+  @Parameter(
+      defaultValue = "${mojoExecution}",
+      readonly = true,
+      required = true
+  )
+  private MojoExecution mojoExecution;
+
   /**
    * JPMS location manager.
    */
@@ -169,6 +392,257 @@ public class JpackageMojo extends BaseToolMojo {
   @Parameter
   private File toolhome;
 
+  /**
+   * Run the tool in-process through <code>java.util.spi.ToolProvider</code>
+   * instead of forking the tool executable. The in-process mode is used
+   * only if the resolved tool belongs to the JDK running Maven, otherwise
+   * the tool executable is forked as usual.
+   *
+   * <p>Default value: false</p>
+   */
+  @Parameter(
+      defaultValue = "false"
+  )
+  private boolean toolprovider;
+
+  /**
+   * Specifies the location of the persistent cache directory shared
+   * between builds. The plugin keeps there the data which is expensive
+   * to obtain and does not change between builds, e.g. the tool version.
+   *
+   * <p>Default value: ${user.home}/.m2/jpackage-cache</p>
+   */
+  @Parameter(
+      defaultValue = "${user.home}/.m2/jpackage-cache"
+  )
+  private File cachedir;
+
+  /**
+   * Specifies the wall-clock timeout of the tool execution (in seconds).
+   * As soon as the timeout is exceeded the tool and all processes
+   * started by the tool are destroyed and the build fails.
+   * The zero value disables the timeout.
+   *
+   * <p>
+   * The tool running in-process can not be stopped, so if this timeout
+   * or <code>stalltimeout</code> is enabled the <code>toolprovider</code>
+   * option is ignored and the tool executable is forked.
+   * </p>
+   *
+   * <p>Default value: 0</p>
+   */
+  @Parameter(
+      defaultValue = "0"
+  )
+  private long timeout;
+
+  /**
+   * Specifies the output inactivity timeout of the tool execution
+   * (in seconds). As soon as the tool produces no output during
+   * the timeout the tool and all processes started by the tool
+   * are destroyed and the build fails. The zero value disables
+   * the timeout.
+   *
+   * <p>
+   * The tool produces the output of the execution progress only if
+   * the <code>verbose</code> option is enabled.
+   * </p>
+   *
+   * <p>Default value: 0</p>
+   */
+  @Parameter(
+      defaultValue = "0"
+  )
+  private long stalltimeout;
+
+  /**
+   * Run the tool in the persistent worker process instead of forking
+   * the tool executable. The worker runs the tool in-process with
+   * the java launcher of the JDK the tool belongs to, it is started on
+   * the first use and is shared between the builds (e.g. the builds run
+   * by the Maven daemon), so the JVM startup and the tool warm-up are
+   * paid only once. The worker state files are kept in the
+   * <code>cachedir</code> directory. If the worker is not available
+   * the tool executable is forked as usual.
+   *
+   * <p>
+   * Every worker runs the only request at a time and keeps
+   * the environment of the build that has started it. The workers are
+   * not shared between the builds run in the different working
+   * directories or with the different values of the environment
+   * variables affecting the tool (<code>PATH</code>,
+   * <code>SOURCE_DATE_EPOCH</code>, <code>TMPDIR</code>, the locale
+   * and the JVM options variables), the changes of the rest of
+   * the environment are not seen by the running worker until it is
+   * stopped after <code>workeridletimeout</code>. The concurrent
+   * requests are run by the different workers (up to the number of
+   * the processors), the tool executable is forked if all workers
+   * are busy. On timeout only the worker running the timed out request
+   * is destroyed.
+   * </p>
+   *
+   * <p>Default value: false</p>
+   */
+  @Parameter(
+      defaultValue = "false"
+  )
+  private boolean worker;
+
+  /**
+   * Specifies the time (in seconds) the persistent worker process
+   * is kept running without requests.
+   *
+   * <p>Default value: 1800</p>
+   */
+  @Parameter(
+      defaultValue = "1800"
+  )
+  private long workeridletimeout;
+
+  /**
+   * Skip the execution if nothing affecting the outputs has changed since
+   * the previous execution and the outputs are intact. The inputs are
+   * the command options, the tool version and the content of the files
+   * passed to the tool (the module path, <code>input</code>,
+   * <code>resourcedir</code>, <code>icon</code>, <code>licensefile</code>,
+   * <code>fileassociations</code>, etc.). The fingerprint of the inputs
+   * and the outputs is stored next to the <code>dest</code> directory.
+   * The stale outputs of the previous execution are removed before
+   * the tool is run.
+   *
+   * <p>Default value: false</p>
+   */
+  @Parameter(
+      defaultValue = "false"
+  )
+  private boolean incremental;
+
+  /**
+   * Keep the outputs in the content-addressed cache shared between builds
+   * (in the <code>cachedir</code> directory). The outputs are keyed by
+   * the fingerprint of the inputs (see <code>incremental</code>), so
+   * switching branches or cleaning the build directory restores
+   * the outputs from the cache instead of running the tool.
+   * The paths inside of the project base directory, the tool home
+   * directory and the local repository are keyed relatively to them,
+   * so the builds in the different workspaces share the outputs.
+   * The outputs are restored by copying, so they can be modified
+   * in place (e.g. signed) without affecting the cache.
+   *
+   * <p>Default value: false</p>
+   */
+  @Parameter(
+      defaultValue = "false"
+  )
+  private boolean outputcache;
+
+  /**
+   * Specifies the size limit of the output cache (in megabytes).
+   * The least recently used entries are evicted as soon as the limit
+   * is exceeded.
+   *
+   * <p>Default value: 4096</p>
+   */
+  @Parameter(
+      defaultValue = "4096"
+  )
+  private long cachemaxsize;
+
+  /**
+   * Link the runtime image once and keep it in the cache shared between
+   * builds (in the <code>cachedir</code> directory) instead of letting
+   * jpackage link it by every execution. The runtime image contains
+   * the JDK modules required by the application, it is keyed by
+   * the module set (resolved from <code>module</code>,
+   * <code>addmodules</code>, <code>modulepath</code> and
+   * <code>bindservices</code>), the JDK build and the jlink options,
+   * so it is linked again only if any of them is changed. The modules of
+   * the application are kept on the module path of the application image.
+   * The cache is not used if <code>runtimeimage</code> or
+   * <code>appimage</code> is specified, the JDK has no
+   * <code>jmods</code> directory or the non-modular application requires
+   * the modules of the module path.
+   *
+   * <p>Default value: false</p>
+   */
+  @Parameter(
+      defaultValue = "false"
+  )
+  private boolean runtimecache;
+
+  /**
+   * Package in the stages: the runtime image, the application image and
+   * the package created from the application image. Each stage is reused
+   * if its inputs are not changed since the previous execution or
+   * restored from the cache (in the <code>cachedir</code> directory),
+   * so only the stages affected by the change are run again. The staged
+   * execution implies <code>runtimecache</code> and
+   * <code>outputcache</code>, the application image stage is skipped if
+   * <code>appimage</code> is specified.
+   *
+   * <p>Default value: false</p>
+   */
+  @Parameter(
+      defaultValue = "false"
+  )
+  private boolean staged;
+
+  /**
+   * Patch the application image created by the previous execution
+   * if only the application files (the content of <code>input</code> and
+   * <code>modulepath</code>) have been changed: the changed files are
+   * replaced in the application directory of the image and the class path
+   * of the launchers is rewritten instead of creating the whole image
+   * again. The fingerprint of the inputs recorded with the image is used
+   * as the manifest of the application files. The image is not patched
+   * if its runtime contains the modules of the module path (it is linked
+   * by jpackage, see <code>runtimecache</code>).
+   *
+   * <p>Default value: false</p>
+   */
+  @Parameter(
+      defaultValue = "false"
+  )
+  private boolean patchimage;
+
+  /**
+   * Specifies the URL of the remote cache shared between the build hosts
+   * (e.g. <code>https://cache.example.com/jpackage</code>). The entries
+   * missing in the output cache and the runtime image cache (see
+   * <code>outputcache</code> and <code>runtimecache</code>) are got from
+   * the remote cache by the plain HTTP GET request and the new entries are
+   * put to the remote cache by the HTTP PUT request (see
+   * <code>remotecachepush</code>). The entry is the zip archive
+   * <code>{url}/{outputs|runtimes}/{key}.zip</code> accompanied by its
+   * SHA-256 digest <code>{url}/{outputs|runtimes}/{key}.zip.sha256</code>,
+   * the downloaded archive is verified by the digest. If the remote cache
+   * is not available the outputs are created locally.
+   */
+  @Parameter
+  private String remotecache;
+
+  /**
+   * Specifies the timeout of the requests to the remote cache
+   * (in seconds).
+   *
+   * <p>Default value: 60</p>
+   */
+  @Parameter(
+      defaultValue = "60"
+  )
+  private int remotecachetimeout;
+
+  /**
+   * Put the new entries to the remote cache (see <code>remotecache</code>),
+   * otherwise the remote cache is only read.
+   *
+   * <p>Default value: true</p>
+   */
+  @Parameter(
+      defaultValue = "true"
+  )
+  private boolean remotecachepush;
+
 
   // generic options
 
@@ -208,6 +682,38 @@ public class JpackageMojo extends BaseToolMojo {
   )
   private PackageType type;
 
+  /**
+   * Specifies the types of the packages created from the single
+   * application image, for example: DEB and RPM or IMAGE and the installer.
+   * The application image is created once, then the packages are
+   * created concurrently with the isolated temporary directories
+   * (see <code>staged</code>). The output of the tool creating
+   * the package is kept in the working directory of the execution.
+   * If specified, it overrides <code>type</code>.
+   *
+   * <pre>
+   * &lt;types&gt;
+   *   &lt;type&gt;DEB&lt;/type&gt;
+   *   &lt;type&gt;RPM&lt;/type&gt;
+   * &lt;/types&gt;
+   * </pre>
+   */
+  @Parameter
+  private List<PackageType> types;
+
+  /**
+   * Specifies the maximum number of the packages created concurrently,
+   * zero means the number of the available processors. The in-process
+   * tool provider and the persistent worker create the packages
+   * one by one.
+   *
+   * <p>Default value: 0</p>
+   */
+  @Parameter(
+      defaultValue = "0"
+  )
+  private int packagethreads;
+
   /**
    * Enable verbose tracing.
    *
@@ -784,10 +1290,12 @@ public class JpackageMojo extends BaseToolMojo {
    * Process options.
    *
    * @param cmdLine the command line builder
+   * @param tempFiles the list the created temporary files are added to
    *
    * @throws MojoExecutionException if any errors occurred
    */
-  private void processOptions(final CommandLineBuilder cmdLine)
+  private void processOptions(final CommandLineBuilder cmdLine,
+      final List<File> tempFiles)
       throws MojoExecutionException {
     CommandLineOption opt = null;
     // dest
@@ -818,31 +1326,7 @@ public class JpackageMojo extends BaseToolMojo {
     if (type != null && !type.equals(PackageType.PLATFORM)) {
       opt = cmdLine.createOpt();
       opt.createArg().setValue("--type");
-      switch (type) {
-        case IMAGE:
-          opt.createArg().setValue("app-image");
-          break;
-        case EXE:
-          opt.createArg().setValue("exe");
-          break;
-        case MSI:
-          opt.createArg().setValue("msi");
-          break;
-        case RPM:
-          opt.createArg().setValue("rpm");
-          break;
-        case DEB:
-          opt.createArg().setValue("deb");
-          break;
-        case PKG:
-          opt.createArg().setValue("pkg");
-          break;
-        case DMG:
-          opt.createArg().setValue("dmg");
-          break;
-        default:
-          // skip
-      }
+      opt.createArg().setValue(getTypeName(type));
     }
     // verbose
     if (verbose) {
@@ -1216,16 +1700,9 @@ public class JpackageMojo extends BaseToolMojo {
           "Error: Unable to read properties for launcher: [{0}]",
           name), ex);
     }
-    // create a temporary properties file
-    File file;
-    try {
-      file = Files.createTempFile(getBuildDir().toPath(),
-          PROPS_PREFIX, PROPS_SUFFIX).toFile();
-    } catch (IOException ex) {
-      throw new MojoExecutionException(MessageFormat.format(
-          "Error: Unable to create temporary file for launcher: [{0}]",
-          name), ex);
-    }
+    // create a properties file in the working directory
+    final File file = new File(workDir, PROPS_PREFIX
+        + toFileName(name) + PROPS_SUFFIX);
     // save properties to the temporary file
     try (BufferedWriter bw =
         Files.newBufferedWriter(file.toPath(), getCharset())) {
@@ -1245,14 +1722,45 @@ public class JpackageMojo extends BaseToolMojo {
   }
 
   /**
-   * Resolve project dependencies.
+   * Get the project dependencies, they are resolved on the first call.
+   *
+   * @return the resolved project dependencies
+   *
+   * @throws MojoExecutionException if any errors occurred while resolving
+   *                                dependencies
+   */
+  private ResolvedDependencies getProjectDependencies()
+      throws MojoExecutionException {
+    if (projectDependencies == null) {
+      projectDependencies = resolveDependencies();
+      mainModuleDescriptor = fetchMainModuleDescriptor();
+      // final List<File> classpathElements = fetchClasspathElements();
+      // final List<File> modulepathElements = fetchModulepathElements();
+      final Map<File, String> pathExceptions = fetchPathExceptions();
+      if (!pathExceptions.isEmpty() && getLog().isWarnEnabled()) {
+        getLog().warn("Found path exceptions: " + pathExceptions.size()
+            + System.lineSeparator()
+            + pathExceptions.entrySet().stream()
+                .map(entry -> entry.getKey().toString()
+                    + System.lineSeparator()
+                    + entry.getValue())
+                .collect(Collectors.joining(System.lineSeparator())));
+      }
+    }
+    return projectDependencies;
+  }
+
+  /**
+   * Resolve project dependencies. The dependencies resolved for the same
+   * paths and the same main module descriptor are reused within
+   * the session.
    *
-   * @return map of the resolved project dependencies
+   * @return the resolved project dependencies
    *
    * @throws MojoExecutionException if any errors occurred while resolving
    *                                dependencies
    */
-  private ResolvePathsResult<File> resolveDependencies()
+  private ResolvedDependencies resolveDependencies()
       throws MojoExecutionException {
 
     // get project artifacts - all dependencies that this project has,
@@ -1305,14 +1813,79 @@ public class JpackageMojo extends BaseToolMojo {
         .map(d -> new File(StringUtils.stripToEmpty(d.getSystemPath())))
         .collect(Collectors.toList()));
 
+    // this is used to resolve main module descriptor
+    final File descriptorFile =
+        getOutputDir().toPath().resolve(DESCRIPTOR_NAME).toFile();
+
+    // reuse the dependencies resolved by the other executions
+    final List<Object> key = Arrays.asList(ResolvedDependencies.class,
+        paths.stream()
+            .map(path -> path == null ? null : path.getAbsolutePath())
+            .collect(Collectors.toList()),
+        descriptorFile.getAbsolutePath(), descriptorFile.length(),
+        descriptorFile.lastModified(),
+        getToolHomeDirectory() == null
+            ? null
+            : getToolHomeDirectory().getAbsolutePath());
+    ResolvedDependencies resolved = SessionCache.get(getSession(), key);
+    if (resolved == null) {
+      resolved = resolvePaths(paths, descriptorFile);
+      SessionCache.put(getSession(), key, resolved);
+    } else if (getLog().isDebugEnabled()) {
+      getLog().debug("Project dependencies (session): " + paths.size());
+    }
+    return resolved;
+
+  }
+
+  /**
+   * Resolve the paths of the project dependencies.
+   *
+   * <p>
+   * The module descriptors of the jars are taken from the module
+   * descriptor index (in the <code>cachedir</code> directory), only
+   * the project output directory and the jars missing in the index are
+   * read by the JPMS location manager, then the index is updated.
+   * </p>
+   *
+   * @param paths the paths of the project dependencies
+   * @param descriptorFile the main module descriptor file
+   *
+   * @return the resolved project dependencies
+   *
+   * @throws MojoExecutionException if any errors occurred while resolving
+   *                                dependencies
+   */
+  private ResolvedDependencies resolvePaths(final List<File> paths,
+      final File descriptorFile) throws MojoExecutionException {
+
+    // consult the module descriptor index first
+    final ModuleDescriptorIndex moduleIndex = loadModuleIndex();
+    final Map<File, ModuleDescriptorIndex.Entry> indexed =
+        new LinkedHashMap<>();
+    final List<File> unindexed = new ArrayList<>();
+    for (final File path : paths) {
+      final ModuleDescriptorIndex.Entry entry =
+          getIndexEntry(moduleIndex, path);
+      if (entry == null) {
+        unindexed.add(path);
+      } else {
+        indexed.put(path, entry);
+      }
+    }
+
+    // read the module descriptors of the jars missing in the index
+    final Map<File, ModuleDescriptorReader.Result> read =
+        readModuleDescriptors(unindexed);
+
     // create request contains all information
     // required to analyze the project
     final ResolvePathsRequest<File> request =
-        ResolvePathsRequest.ofFiles(paths);
+        ResolvePathsRequest.ofFiles(unindexed.stream()
+            .filter(path -> !read.containsKey(path))
+            .collect(Collectors.toList()));
 
     // this is used to resolve main module descriptor
-    final File descriptorFile =
-        getOutputDir().toPath().resolve(DESCRIPTOR_NAME).toFile();
     if (descriptorFile.exists() && !descriptorFile.isDirectory()) {
       request.setMainModuleDescriptor(descriptorFile);
     }
@@ -1322,15 +1895,260 @@ public class JpackageMojo extends BaseToolMojo {
       request.setJdkHome(getToolHomeDirectory());
     }
 
-    // resolve project dependencies
+    // resolve the path elements missing in the index
+    final ResolvePathsResult<File> result;
     try {
-      return locationManager.resolvePaths(request);
+      result = locationManager.resolvePaths(request);
     } catch (IOException ex) {
       throw new MojoExecutionException(
           "Error: Unable to resolve project dependencies", ex);
     }
 
-  }
+    // merge the resolved path elements with the indexed ones
+    // in the order of the paths
+    final Map<File, JavaModuleDescriptor> pathElements =
+        new LinkedHashMap<>();
+    final Map<File, ModuleNameSource> sources = new LinkedHashMap<>();
+    final Map<File, Exception> pathExceptions = new LinkedHashMap<>();
+    for (final File path : paths) {
+      final ModuleDescriptorIndex.Entry entry = indexed.get(path);
+      if (entry != null) {
+        pathElements.put(path, entry.getDescriptor());
+        sources.put(path, entry.getSource());
+        if (entry.getError() != null) {
+          pathExceptions.put(path, new IOException(entry.getError()));
+        }
+        continue;
+      }
+      final ModuleDescriptorReader.Result readResult = read.get(path);
+      final JavaModuleDescriptor descriptor = readResult == null
+          ? result.getPathElements().get(path)
+          : readResult.getDescriptor();
+      final Exception exception = descriptor == null
+          ? result.getPathExceptions().get(path)
+          : null;
+      final ModuleNameSource source = readResult == null
+          ? getModuleNameSource(result, path, descriptor)
+          : readResult.getSource();
+      pathElements.put(path, descriptor);
+      sources.put(path, source);
+      if (exception != null) {
+        pathExceptions.put(path, exception);
+      }
+      putIndexEntry(moduleIndex, path, descriptor, source, exception);
+    }
+    saveModuleIndex(moduleIndex);
+
+    return new ResolvedDependencies(result.getMainModuleDescriptor(),
+        pathElements, sources, pathExceptions);
+
+  }
+
+  /**
+   * Read the module descriptors of the jars concurrently by the central
+   * directories of the jars. The jars which module names can not be told
+   * by the module descriptor or the manifest and the jars failed to read
+   * are left to the JPMS location manager.
+   *
+   * @param paths the path elements
+   *
+   * @return the module descriptors read by the jars
+   *
+   * @throws MojoExecutionException if the current thread was interrupted
+   */
+  private Map<File, ModuleDescriptorReader.Result> readModuleDescriptors(
+      final List<File> paths) throws MojoExecutionException {
+    final List<File> jars = paths.stream()
+        .filter(path -> path != null && path.isFile()
+            && path.getName().endsWith(JAR_EXTENSION))
+        .collect(Collectors.toList());
+    final Map<File, ModuleDescriptorReader.Result> result =
+        new LinkedHashMap<>();
+    if (jars.isEmpty()) {
+      return result;
+    }
+    final ExecutorService executor = newExecutor(TOOL_NAME + "-modules",
+        Math.min(Runtime.getRuntime().availableProcessors(),
+            jars.size())); // from BaseToolMojo
+    try {
+      final Map<File, Future<ModuleDescriptorReader.Result>> tasks =
+          new LinkedHashMap<>();
+      for (final File jar : jars) {
+        tasks.put(jar, executor.submit(() -> {
+          try {
+            return ModuleDescriptorReader.read(jar.toPath());
+          } catch (IOException ex) {
+            if (getLog().isDebugEnabled()) {
+              getLog().debug("Unable to read the module descriptor: "
+                  + jar, ex);
+            }
+            return null;
+          }
+        }));
+      }
+      for (final Map.Entry<File, Future<ModuleDescriptorReader.Result>> task
+          : tasks.entrySet()) {
+        final ModuleDescriptorReader.Result descriptor =
+            await(task.getValue()); // from BaseToolMojo
+        if (descriptor != null) {
+          result.put(task.getKey(), descriptor);
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    if (getLog().isDebugEnabled()) {
+      getLog().debug(MessageFormat.format(
+          "Module descriptors read: {0} of {1} jars",
+          String.valueOf(result.size()), String.valueOf(jars.size())));
+    }
+    return result;
+  }
+
+  /**
+   * Load the module descriptor index.
+   *
+   * @return the module descriptor index or null if it is not available
+   */
+  private ModuleDescriptorIndex loadModuleIndex() {
+    if (cachedir == null) {
+      return null;
+    }
+    final ModuleDescriptorIndex moduleIndex =
+        new ModuleDescriptorIndex(cachedir);
+    try {
+      moduleIndex.load();
+    } catch (IOException ex) {
+      if (getLog().isWarnEnabled()) {
+        getLog().warn("Unable to load the module descriptor index", ex);
+      }
+      return null;
+    }
+    return moduleIndex;
+  }
+
+  /**
+   * Get the module descriptor index entry of the path element.
+   * Only the jars are indexed.
+   *
+   * @param moduleIndex the module descriptor index or null
+   * @param path the path element
+   *
+   * @return the index entry or null if it is missing or outdated
+   */
+  private ModuleDescriptorIndex.Entry getIndexEntry(
+      final ModuleDescriptorIndex moduleIndex, final File path) {
+    if (moduleIndex == null || path == null || !path.isFile()) {
+      return null;
+    }
+    try {
+      return moduleIndex.get(path.toPath());
+    } catch (IOException ex) {
+      if (getLog().isDebugEnabled()) {
+        getLog().debug("Unable to look up the module descriptor index: "
+            + path, ex);
+      }
+      return null;
+    }
+  }
+
+  /**
+   * Get the source of the module name of the path element resolved by
+   * the JPMS location manager. The location manager tells the source of
+   * the module path elements only, the source of the automatic module
+   * name of the other elements is told by the manifest of the jar.
+   *
+   * @param result the result of the location manager
+   * @param path the path element
+   * @param descriptor the module descriptor or null if it is missing
+   *
+   * @return the source of the module name or null if the module
+   *         descriptor is missing
+   */
+  private ModuleNameSource getModuleNameSource(
+      final ResolvePathsResult<File> result, final File path,
+      final JavaModuleDescriptor descriptor) {
+    if (descriptor == null) {
+      return null;
+    }
+    final ModuleNameSource source = result.getModulepathElements().get(path);
+    if (source != null) {
+      return source;
+    }
+    if (!descriptor.isAutomatic()) {
+      return ModuleNameSource.MODULEDESCRIPTOR;
+    }
+    if (path.isFile()) {
+      try (JarFile jarFile = new JarFile(path)) {
+        final Manifest manifest = jarFile.getManifest();
+        if (manifest != null && manifest.getMainAttributes()
+            .getValue(AUTOMATIC_MODULE_NAME) != null) {
+          return ModuleNameSource.MANIFEST;
+        }
+      } catch (IOException ex) {
+        if (getLog().isDebugEnabled()) {
+          getLog().debug("Unable to read the manifest: " + path, ex);
+        }
+      }
+    }
+    return ModuleNameSource.FILENAME;
+  }
+
+  /**
+   * Index the module descriptor of the path element. Only the jars
+   * are indexed.
+   *
+   * @param moduleIndex the module descriptor index or null
+   * @param path the path element
+   * @param descriptor the module descriptor or null if it is missing
+   * @param source the source of the module name or null if it is missing
+   * @param exception the exception occurred while reading the path element
+   *                  or null
+   */
+  private void putIndexEntry(final ModuleDescriptorIndex moduleIndex,
+      final File path, final JavaModuleDescriptor descriptor,
+      final ModuleNameSource source, final Exception exception) {
+    if (moduleIndex == null || path == null || !path.isFile()) {
+      return;
+    }
+    try {
+      if (exception == null) {
+        moduleIndex.put(path.toPath(), descriptor, source);
+      } else {
+        moduleIndex.putError(path.toPath(),
+            PluginUtils.getThrowableCause(exception));
+      }
+    } catch (IOException ex) {
+      if (getLog().isDebugEnabled()) {
+        getLog().debug("Unable to update the module descriptor index: "
+            + path, ex);
+      }
+    }
+  }
+
+  /**
+   * Store the module descriptor index.
+   *
+   * @param moduleIndex the module descriptor index or null
+   */
+  private void saveModuleIndex(final ModuleDescriptorIndex moduleIndex) {
+    if (moduleIndex == null) {
+      return;
+    }
+    if (getLog().isDebugEnabled()) {
+      getLog().debug(MessageFormat.format(
+          "Module descriptor index: {0} hits, {1} misses",
+          String.valueOf(moduleIndex.getHits()),
+          String.valueOf(moduleIndex.getMisses())));
+    }
+    try {
+      moduleIndex.save();
+    } catch (IOException ex) {
+      if (getLog().isWarnEnabled()) {
+        getLog().warn("Unable to store the module descriptor index", ex);
+      }
+    }
+  }
 
   /**
    * Fetch the resolved main module descriptor.
@@ -1427,22 +2245,19 @@ public class JpackageMojo extends BaseToolMojo {
   /**
    * Get path from the pathelements parameter.
    *
-   * @return path contains parameter elements
+   * @return the path elements
    */
-  private String getPathElements() {
-    String result = null;
-    if (modulepath != null) {
-      final List<File> pathelements = modulepath.getPathElements();
-      if (pathelements != null && !pathelements.isEmpty()) {
-        result = pathelements.stream()
-            .filter(Objects::nonNull)
-            .map(file -> file.toString())
-            .collect(Collectors.joining(File.pathSeparator));
-        if (getLog().isDebugEnabled()) {
-          getLog().debug(PluginUtils.getPathElementsDebugInfo("PATHELEMENTS",
-              pathelements));
-          getLog().debug(result);
-        }
+  private List<File> getPathElements() {
+    final List<File> result = new ArrayList<>();
+    final List<File> pathelements = modulepath.getPathElements();
+    if (pathelements != null && !pathelements.isEmpty()) {
+      pathelements.stream()
+          .filter(Objects::nonNull)
+          .forEach(result::add);
+      if (getLog().isDebugEnabled()) {
+        getLog().debug(PluginUtils.getPathElementsDebugInfo("PATHELEMENTS",
+            pathelements));
+        getLog().debug(joinPath(result));
       }
     }
     return result;
@@ -1451,34 +2266,36 @@ public class JpackageMojo extends BaseToolMojo {
   /**
    * Get filesets from modulepath parameter.
    *
-   * @return path contains filesets
+   * @return the files included by all filesets in the order of
+   *         the filesets
    *
    * @throws MojoExecutionException if any errors occurred while resolving
    *                                a fileset
    */
-  private String getFileSets() throws MojoExecutionException {
-    String result = null;
-    if (modulepath != null) {
-      final List<FileSet> filesets = modulepath.getFileSets();
-      if (filesets != null && !filesets.isEmpty()) {
-        for (final FileSet fileSet : filesets) {
-          final File fileSetDir;
-          try {
-            fileSetDir =
-                PluginUtils.normalizeFileSetBaseDir(getBaseDir(), fileSet);
-          } catch (IOException ex) {
-            throw new MojoExecutionException(
-                "Error: Unable to resolve fileset", ex);
-          }
-          result = Stream.of(getFileSetManager().getIncludedFiles(fileSet))
-              .filter(fileName -> !StringUtils.isBlank(fileName))
-              .map(fileName -> fileSetDir.toPath().resolve(
-                  StringUtils.stripToEmpty(fileName)).toString())
-              .collect(Collectors.joining(File.pathSeparator));
-          if (getLog().isDebugEnabled()) {
-            getLog().debug(PluginUtils.getFileSetDebugInfo("FILESET",
-                fileSet, result));
-          }
+  private List<File> getFileSets() throws MojoExecutionException {
+    final List<File> result = new ArrayList<>();
+    final List<FileSet> filesets = modulepath.getFileSets();
+    if (filesets != null && !filesets.isEmpty()) {
+      for (final FileSet fileSet : filesets) {
+        final FileSet normalizedFileSet;
+        try {
+          normalizedFileSet =
+              PluginUtils.normalizeFileSetBaseDir(getBaseDir(), fileSet);
+        } catch (IOException ex) {
+          throw new MojoExecutionException(
+              "Error: Unable to resolve fileset", ex);
+        }
+        final File fileSetDir = new File(normalizedFileSet.getDirectory());
+        final List<File> files = Stream.of(getFileSetManager()
+            .getIncludedFiles(normalizedFileSet))
+            .filter(fileName -> !StringUtils.isBlank(fileName))
+            .map(fileName -> fileSetDir.toPath().resolve(
+                StringUtils.stripToEmpty(fileName)).toFile())
+            .collect(Collectors.toList());
+        result.addAll(files);
+        if (getLog().isDebugEnabled()) {
+          getLog().debug(PluginUtils.getFileSetDebugInfo("FILESET",
+              normalizedFileSet, joinPath(files)));
         }
       }
     }
@@ -1488,34 +2305,36 @@ public class JpackageMojo extends BaseToolMojo {
   /**
    * Get dirsets from modulepath parameter.
    *
-   * @return path contains dirsets
+   * @return the directories included by all dirsets in the order of
+   *         the dirsets
    *
    * @throws MojoExecutionException if any errors occurred while resolving
    *                                a dirset
    */
-  private String getDirSets() throws MojoExecutionException {
-    String result = null;
-    if (modulepath != null) {
-      final List<FileSet> dirsets = modulepath.getDirSets();
-      if (dirsets != null && !dirsets.isEmpty()) {
-        for (final FileSet dirSet : dirsets) {
-          final File dirSetDir;
-          try {
-            dirSetDir =
-                PluginUtils.normalizeFileSetBaseDir(getBaseDir(), dirSet);
-          } catch (IOException ex) {
-            throw new MojoExecutionException(
-                "Error: Unable to resolve dirset", ex);
-          }
-          result = Stream.of(getFileSetManager().getIncludedDirectories(dirSet))
-              .filter(dirName -> !StringUtils.isBlank(dirName))
-              .map(dirName -> dirSetDir.toPath().resolve(
-                  StringUtils.stripToEmpty(dirName)).toString())
-              .collect(Collectors.joining(File.pathSeparator));
-          if (getLog().isDebugEnabled()) {
-            getLog().debug(PluginUtils.getFileSetDebugInfo("DIRSET",
-                dirSet, result));
-          }
+  private List<File> getDirSets() throws MojoExecutionException {
+    final List<File> result = new ArrayList<>();
+    final List<FileSet> dirsets = modulepath.getDirSets();
+    if (dirsets != null && !dirsets.isEmpty()) {
+      for (final FileSet dirSet : dirsets) {
+        final FileSet normalizedDirSet;
+        try {
+          normalizedDirSet =
+              PluginUtils.normalizeFileSetBaseDir(getBaseDir(), dirSet);
+        } catch (IOException ex) {
+          throw new MojoExecutionException(
+              "Error: Unable to resolve dirset", ex);
+        }
+        final File dirSetDir = new File(normalizedDirSet.getDirectory());
+        final List<File> dirs = Stream.of(getFileSetManager()
+            .getIncludedDirectories(normalizedDirSet))
+            .filter(dirName -> !StringUtils.isBlank(dirName))
+            .map(dirName -> dirSetDir.toPath().resolve(
+                StringUtils.stripToEmpty(dirName)).toFile())
+            .collect(Collectors.toList());
+        result.addAll(dirs);
+        if (getLog().isDebugEnabled()) {
+          getLog().debug(PluginUtils.getFileSetDebugInfo("DIRSET",
+              normalizedDirSet, joinPath(dirs)));
         }
       }
     }
@@ -1525,22 +2344,26 @@ public class JpackageMojo extends BaseToolMojo {
   /**
    * Get dependencysets from modulepath parameter.
    *
-   * @return path contains dependencysets
+   * @return the dependencies included by all dependencysets in the order
+   *         of the dependencysets
+   *
+   * @throws MojoExecutionException if any errors occurred while resolving
+   *                                dependencies
    */
-  private String getDependencySets() {
-    String result = null;
-    if (modulepath != null) {
-      final List<DependencySet> dependencysets =
-          modulepath.getDependencySets();
-      if (dependencysets != null && !dependencysets.isEmpty()) {
-        for (final DependencySet dependencySet : dependencysets) {
-          result = getIncludedDependencies(dependencySet)
-              .stream()
-              .collect(Collectors.joining(File.pathSeparator));
-          if (getLog().isDebugEnabled()) {
-            getLog().debug(PluginUtils.getDependencySetDebugInfo(
-                "DEPENDENCYSET", dependencySet, result));
-          }
+  private List<File> getDependencySets() throws MojoExecutionException {
+    final List<File> result = new ArrayList<>();
+    final List<DependencySet> dependencysets =
+        modulepath.getDependencySets();
+    if (dependencysets != null && !dependencysets.isEmpty()) {
+      for (final DependencySet dependencySet : dependencysets) {
+        final List<File> dependencies =
+            partitionDependencies(dependencySet).get(Boolean.TRUE).stream()
+                .map(File::new)
+                .collect(Collectors.toList());
+        result.addAll(dependencies);
+        if (getLog().isDebugEnabled()) {
+          getLog().debug(PluginUtils.getDependencySetDebugInfo(
+              "DEPENDENCYSET", dependencySet, joinPath(dependencies)));
         }
       }
     }
@@ -1548,37 +2371,104 @@ public class JpackageMojo extends BaseToolMojo {
   }
 
   /**
-   * Get the included project dependencies
-   * defined in the specified dependencyset.
+   * Get the module path assembled from all sources of the modulepath
+   * parameter in the order of declaration: pathelements, filesets,
+   * dirsets and dependencysets. The elements are deduplicated by
+   * the canonical paths (the first one wins) and the missing elements
+   * are skipped.
    *
-   * @param depSet the dependencyset
+   * @return the module path elements
+   *
+   * @throws MojoExecutionException if any errors occurred while resolving
+   *                                the module path elements
+   */
+  private List<File> getModulePath() throws MojoExecutionException {
+    final List<File> sources = new ArrayList<>(getPathElements());
+    sources.addAll(getFileSets());
+    sources.addAll(getDirSets());
+    sources.addAll(getDependencySets());
+    // the canonical paths of the module path elements
+    final Map<File, File> elements = new LinkedHashMap<>();
+    int duplicates = 0;
+    int missing = 0;
+    for (final File element : sources) {
+      if (!element.exists()) {
+        missing++;
+        if (getLog().isWarnEnabled()) {
+          getLog().warn("Missing module path element: " + element);
+        }
+        continue;
+      }
+      final File canonical;
+      try {
+        canonical = element.getCanonicalFile();
+      } catch (IOException ex) {
+        throw new MojoExecutionException(MessageFormat.format(
+            "Error: Unable to resolve module path element: [{0}]",
+            element), ex);
+      }
+      if (elements.putIfAbsent(canonical, element) != null) {
+        duplicates++;
+        if (getLog().isDebugEnabled()) {
+          getLog().debug("Duplicate module path element: " + element);
+        }
+      }
+    }
+    if (getLog().isInfoEnabled()) {
+      getLog().info(MessageFormat.format(
+          "Module path: {0} elements ({1} duplicates, {2} missing)",
+          String.valueOf(elements.size()), String.valueOf(duplicates),
+          String.valueOf(missing)));
+    }
+    return new ArrayList<>(elements.values());
+  }
+
+  /**
+   * Join the path elements.
    *
-   * @return the set of the included project dependencies
+   * @param elements the path elements
+   *
+   * @return the path
    */
-  private Set<String> getIncludedDependencies(final DependencySet depSet) {
-    return projectDependencies.getPathElements().entrySet().stream()
-        .filter(entry -> entry != null
-            && entry.getKey() != null
-            && filterDependency(depSet, entry.getKey(), entry.getValue()))
-        .map(entry -> entry.getKey().toString())
-        .collect(Collectors.toSet());
+  private static String joinPath(final List<File> elements) {
+    return elements.stream()
+        .map(File::toString)
+        .collect(Collectors.joining(File.pathSeparator));
   }
 
   /**
-   * Get the excluded project dependencies
-   * defined in the specified dependencyset.
+   * Partition the project dependencies into the included and
+   * the excluded ones defined in the specified dependencyset.
+   * The patterns of the dependencyset are compiled once and every
+   * dependency is matched once.
    *
    * @param depSet the dependencyset
    *
-   * @return the set of the excluded project dependencies
+   * @return the included (true) and the excluded (false) project
+   *         dependencies in the order of the paths
+   *
+   * @throws MojoExecutionException if any errors occurred while resolving
+   *                                dependencies or the dependencyset
+   *                                contains an invalid pattern
    */
-  private Set<String> getExcludedDependencies(final DependencySet depSet) {
-    return projectDependencies.getPathElements().entrySet().stream()
-        .filter(entry -> entry != null
-            && entry.getKey() != null
-            && !filterDependency(depSet, entry.getKey(), entry.getValue()))
-        .map(entry -> entry.getKey().toString())
-        .collect(Collectors.toSet());
+  private Map<Boolean, List<String>> partitionDependencies(
+      final DependencySet depSet) throws MojoExecutionException {
+    final DependencyMatcher matcher;
+    try {
+      matcher = depSet == null ? null : new DependencyMatcher(depSet);
+    } catch (IllegalArgumentException ex) {
+      throw new MojoExecutionException(MessageFormat.format(
+          "Error: Invalid pattern of the dependencyset: {0}",
+          ex.getMessage()), ex);
+    }
+    final File outputDir = getOutputDir();
+    return getProjectDependencies().getPathElements().entrySet().stream()
+        .filter(entry -> entry != null && entry.getKey() != null)
+        .collect(Collectors.partitioningBy(
+            entry -> filterDependency(matcher, outputDir, entry.getKey(),
+                entry.getValue()),
+            Collectors.mapping(entry -> entry.getKey().toString(),
+                Collectors.toList())));
   }
 
   /**
@@ -1588,13 +2478,16 @@ public class JpackageMojo extends BaseToolMojo {
    * but if the dependency matches at least one exclude pattern too,
    * then the dependency will not be included.
    *
-   * @param depSet the dependencyset
+   * @param matcher the matcher compiled from the dependencyset or null
+   *                if the dependencyset is not specified
+   * @param outputDir the project output directory
    * @param file the dependency file
    * @param descriptor the dependency module descriptor
    *
    * @return will the dependency be accepted
    */
-  private boolean filterDependency(final DependencySet depSet, final File file,
+  private boolean filterDependency(final DependencyMatcher matcher,
+      final File outputDir, final File file,
       final JavaModuleDescriptor descriptor) {
 
     if (descriptor == null) {
@@ -1609,7 +2502,7 @@ public class JpackageMojo extends BaseToolMojo {
 
     boolean isIncluded = false;
 
-    if (depSet == null) {
+    if (matcher == null) {
       // include module by default
       isIncluded = true;
       // include automatic module by default
@@ -1618,7 +2511,7 @@ public class JpackageMojo extends BaseToolMojo {
         getLog().debug("Included automatic module: " + file);
       }
       // exclude output module by default
-      if (file.compareTo(getOutputDir()) == 0) {
+      if (file.compareTo(outputDir) == 0) {
         isIncluded = false;
         if (getLog().isDebugEnabled()) {
           getLog().debug("Excluded output module: " + file);
@@ -1626,13 +2519,13 @@ public class JpackageMojo extends BaseToolMojo {
       }
     } else {
       if (descriptor != null && descriptor.isAutomatic()
-          && depSet.isAutomaticExcluded()) {
+          && matcher.isAutomaticExcluded()) {
         if (getLog().isDebugEnabled()) {
           getLog().debug("Excluded automatic module: " + file);
         }
       } else {
-        if (file.compareTo(getOutputDir()) == 0) {
-          if (depSet.isOutputIncluded()) {
+        if (file.compareTo(outputDir) == 0) {
+          if (matcher.isOutputIncluded()) {
             isIncluded = true;
             if (getLog().isDebugEnabled()) {
               getLog().debug("Included output module: " + file);
@@ -1643,8 +2536,9 @@ public class JpackageMojo extends BaseToolMojo {
             }
           }
         } else {
-          isIncluded = matchesIncludes(depSet, file, descriptor)
-              && !matchesExcludes(depSet, file, descriptor);
+          final String name = descriptor == null ? "" : descriptor.name();
+          isIncluded = matcher.matchesIncludes(file.toPath(), name)
+              && !matcher.matchesExcludes(file.toPath(), name);
         }
       }
     }
@@ -1657,169 +2551,35 @@ public class JpackageMojo extends BaseToolMojo {
     return isIncluded;
   }
 
-  /**
-   * Checks whether the dependency defined by the file and
-   * the module descriptor matches the include patterns
-   * from the dependencyset.
-   *
-   * @param depSet the dependencyset
-   * @param file the file
-   * @param descriptor the module descriptor
-   *
-   * @return should the dependency be included
-   */
-  private boolean matchesIncludes(final DependencySet depSet, final File file,
-      final JavaModuleDescriptor descriptor) {
-
-    final String name = descriptor == null ? "" : descriptor.name();
-
-    final List<String> includes = depSet.getIncludes();
-    final List<String> includenames = depSet.getIncludeNames();
-
-    boolean result = true;
-
-    if (includenames == null || includenames.isEmpty()) {
-      if (includes == null || includes.isEmpty()) {
-        result = true;
-      } else {
-        result = pathMatches(includes, file.toPath());
-      }
-    } else {
-      if (includes == null || includes.isEmpty()) {
-        result = nameMatches(includenames, name);
-      } else {
-        result = pathMatches(includes, file.toPath())
-            || nameMatches(includenames, name);
-      }
-    }
-    return result;
-  }
-
-  /**
-   * Checks whether the dependency defined by the file and
-   * the module descriptor matches the exclude patterns
-   * from the dependencyset.
-   *
-   * @param depSet the dependencyset
-   * @param file the file
-   * @param descriptor the module descriptor
-   *
-   * @return should the dependency be excluded
-   */
-  private boolean matchesExcludes(final DependencySet depSet, final File file,
-      final JavaModuleDescriptor descriptor) {
-
-    final String name = descriptor == null ? "" : descriptor.name();
-
-    final List<String> excludes = depSet.getExcludes();
-    final List<String> excludenames = depSet.getExcludeNames();
-
-    boolean result = false;
-
-    if (excludenames == null || excludenames.isEmpty()) {
-      if (excludes == null || excludes.isEmpty()) {
-        result = false;
-      } else {
-        result = pathMatches(excludes, file.toPath());
-      }
-    } else {
-      if (excludes == null || excludes.isEmpty()) {
-        result = nameMatches(excludenames, name);
-      } else {
-        result = pathMatches(excludes, file.toPath())
-            || nameMatches(excludenames, name);
-      }
-    }
-    return result;
-  }
-
-  /**
-   * Checks if the path matches at least one of the patterns.
-   * The pattern should be regex or glob, this is determined
-   * by the prefix specified in the pattern.
-   *
-   * @param patterns the list of patterns
-   * @param path the file path
-   *
-   * @return true if the path matches at least one of the patterns or
-   *              if no patterns are specified
-   */
-  private boolean pathMatches(final List<String> patterns, final Path path) {
-    for (final String pattern : patterns) {
-      final PathMatcher pathMatcher =
-          FileSystems.getDefault().getPathMatcher(pattern);
-      if (pathMatcher.matches(path)) {
-        return true;
-      }
-    }
-    return false;
-  }
-
-  /**
-   * Checks if the name matches at least one of the patterns.
-   * The pattern should be regex only.
-   *
-   * @param patterns the list of patterns
-   * @param name the name
-   *
-   * @return true if the name matches at least one of the patterns or
-   *              if no patterns are specified
-   */
-  private boolean nameMatches(final List<String> patterns, final String name) {
-    for (final String pattern : patterns) {
-      final Pattern regexPattern = Pattern.compile(pattern);
-      final Matcher nameMatcher = regexPattern.matcher(name);
-      if (nameMatcher.matches()) {
-        return true;
-      }
-    }
-    return false;
-  }
-
   /**
    * Process modules.
    *
    * @param cmdLine the command line builder
+   * @param modulePathFiles the list the module path elements are added to
    *
    * @throws MojoExecutionException if any errors occurred
    */
-  private void processModules(final CommandLineBuilder cmdLine)
-      throws MojoExecutionException {
+  private void processModules(final CommandLineBuilder cmdLine,
+      final List<File> modulePathFiles) throws MojoExecutionException {
     CommandLineOption opt = null;
     // modulepath
     if (modulepath != null) {
-      final StringBuilder path = new StringBuilder();
-      final String pathElements = getPathElements();
-      if (!StringUtils.isBlank(pathElements)) {
-        path.append(StringUtils.stripToEmpty(pathElements));
-      }
-      final String fileSets = getFileSets();
-      if (!StringUtils.isBlank(fileSets)) {
-        if (path.length() != 0) {
-          path.append(File.pathSeparator);
-        }
-        path.append(StringUtils.stripToEmpty(fileSets));
-      }
-      final String dirSets = getDirSets();
-      if (!StringUtils.isBlank(dirSets)) {
-        if (path.length() != 0) {
-          path.append(File.pathSeparator);
-        }
-        path.append(StringUtils.stripToEmpty(dirSets));
-      }
-      final String dependencySets = getDependencySets();
-      if (!StringUtils.isBlank(dependencySets)) {
-        if (path.length() != 0) {
-          path.append(File.pathSeparator);
-        }
-        path.append(StringUtils.stripToEmpty(dependencySets));
-      }
-      if (path.length() != 0) {
+      final List<File> path = getModulePath();
+      if (!path.isEmpty()) {
         opt = cmdLine.createOpt();
         opt.createArg().setValue("--module-path");
-        opt.createArg().setValue(path.toString());
+        opt.createArg().setValue(joinPath(path));
+        modulePathFiles.addAll(path);
       }
     }
+    // the modules are linked to the cached runtime image
+    final File cachedRuntimeImage = getCachedRuntimeImage(modulePathFiles);
+    if (cachedRuntimeImage != null) {
+      opt = cmdLine.createOpt();
+      opt.createArg().setValue("--runtime-image");
+      opt.createArg().setValue(cachedRuntimeImage.toString());
+      return;
+    }
     // addmodules
     if (addmodules != null && !addmodules.isEmpty()) {
       opt = cmdLine.createOpt();
@@ -1835,74 +2595,1208 @@ public class JpackageMojo extends BaseToolMojo {
   }
 
   /**
-   * Execute goal.
+   * Get the runtime image from the runtime image cache, the runtime image
+   * is linked and cached if it is missing.
    *
-   * @throws MojoExecutionException if any errors occurred
+   * @param modulePathFiles the module path elements
+   *
+   * @return the runtime image or null if the runtime image cache
+   *         is not used
+   *
+   * @throws MojoExecutionException if the runtime image can not be linked
    */
-  @Override
-  public void execute() throws MojoExecutionException {
-
-    // Init
-    init(TOOL_NAME, toolhome, TOOL_HOME_BIN); // from BaseToolMojo
-
-    // Check version
-    final JavaVersion toolJavaVersion = getToolJavaVersion();
-    if (toolJavaVersion == null
-        || !toolJavaVersion.atLeast(JavaVersion.JAVA_9)) {
-      throw new MojoExecutionException(MessageFormat.format(
-          "Error: At least {0} is required to use [{1}]", JavaVersion.JAVA_9,
-          TOOL_NAME));
+  private File getCachedRuntimeImage(final List<File> modulePathFiles)
+      throws MojoExecutionException {
+    if ((!runtimecache && !staged) || runtimeimage != null
+        || appimage != null) {
+      return null;
     }
-
-    // Delete temporary directory if it exists
-    if (temp != null) {
-      if (getLog().isDebugEnabled()) {
-        getLog().debug(MessageFormat.format(
-            "Temporary directory: [{0}]", temp));
+    if (cachedir == null) {
+      if (getLog().isWarnEnabled()) {
+        getLog().warn("Runtime image cache is disabled,"
+            + " the cache directory is not specified");
       }
-      if (temp.exists() && temp.isDirectory()) {
-        try {
-          FileUtils.deleteDirectory(temp);
-        } catch (IOException ex) {
-          throw new MojoExecutionException(MessageFormat.format(
-              "Error: Unable to delete temporary directory: [{0}]", temp), ex);
-        }
+      return null;
+    }
+    final File toolExecutable = getToolExecutable();
+    Path jdkHome = null;
+    try {
+      final Path binDir = toolExecutable == null
+          ? null
+          : toolExecutable.toPath().toRealPath().getParent();
+      jdkHome = binDir == null ? null : binDir.getParent();
+    } catch (IOException ex) {
+      if (getLog().isWarnEnabled()) {
+        getLog().warn("Runtime image cache is disabled,"
+            + " unable to locate the JDK home directory", ex);
       }
+      return null;
     }
-
-    // Resolve and fetch project dependencies
-    projectDependencies = resolveDependencies();
-    mainModuleDescriptor = fetchMainModuleDescriptor();
-    // final List<File> classpathElements = fetchClasspathElements();
-    // final List<File> modulepathElements = fetchModulepathElements();
-    final Map<File, String> pathExceptions = fetchPathExceptions();
-    if (!pathExceptions.isEmpty() && getLog().isWarnEnabled()) {
-      getLog().warn("Found path exceptions: " + pathExceptions.size()
-          + System.lineSeparator()
-          + pathExceptions.entrySet().stream()
-              .map(entry -> entry.getKey().toString()
-                  + System.lineSeparator()
-                  + entry.getValue())
-              .collect(Collectors.joining(System.lineSeparator())));
+    if (jdkHome == null) {
+      if (getLog().isWarnEnabled()) {
+        getLog().warn("Runtime image cache is disabled,"
+            + " unable to locate the JDK home directory");
+      }
+      return null;
     }
-
-    // Build command line and populate the list of the command options
-    final CommandLineBuilder cmdLineBuilder = new CommandLineBuilder();
-    cmdLineBuilder.setExecutable(getToolExecutable().toString());
-    processOptions(cmdLineBuilder);
-    processModules(cmdLineBuilder);
-    final List<String> optsLines = new ArrayList<>();
-    optsLines.add("# " + TOOL_NAME);
-    optsLines.addAll(cmdLineBuilder.buildOptionList());
+    final Path jmodsDir = jdkHome.resolve(JMODS_DIR);
+    final Path jlinkPath = Stream.of(JLINK_NAME, JLINK_NAME + ".exe")
+        .map(jdkHome.resolve(TOOL_HOME_BIN)::resolve)
+        .filter(Files::isRegularFile)
+        .findFirst()
+        .orElse(null);
+    if (!Files.isDirectory(jmodsDir) || jlinkPath == null) {
+      if (getLog().isInfoEnabled()) {
+        getLog().info(MessageFormat.format(
+            "Runtime image cache is not used, the JDK has no [{0}] or [{1}]:"
+            + " [{2}]", JMODS_DIR, JLINK_NAME, jdkHome));
+      }
+      return null;
+    }
+    final RuntimeImageCache runtimeImageCache = new RuntimeImageCache(
+        getLog(), cachedir.toPath().resolve(RUNTIMES_DIR), jdkHome);
+    runtimeImageCache.setRemoteCache(remoteCache);
+    final SortedSet<String> modules;
+    final String key;
+    try {
+      modules = runtimeImageCache.resolveModules(
+          modulePathFiles.stream()
+              .map(File::toPath)
+              .collect(Collectors.toList()),
+          module == null ? null : module.split("/", 2)[0],
+          addmodules == null ? List.of() : addmodules,
+          bindservices);
+      if (modules == null) {
+        if (getLog().isInfoEnabled()) {
+          getLog().info("Runtime image cache is not used, the non-modular"
+              + " application requires the modules of the module path");
+        }
+        return null;
+      }
+      key = runtimeImageCache.getKey(modules);
+    } catch (IOException ex) {
+      if (getLog().isWarnEnabled()) {
+        getLog().warn("Runtime image cache is not used", ex);
+      }
+      return null;
+    }
+    final Path cachedImage = runtimeImageCache.getImage(key);
+    if (cachedImage != null) {
+      if (getLog().isInfoEnabled()) {
+        getLog().info(MessageFormat.format(
+            "Runtime image cache hit [{0}]: [{1}]", key, cachedImage));
+      }
+      return cachedImage.toFile();
+    }
+    // Only one of the concurrent builds links the runtime image,
+    // the rest wait and reuse it
+    CacheLock cacheLock = null;
+    Path staging = null;
+    try {
+      cacheLock = runtimeImageCache.tryLock(key);
+      if (cacheLock == null) {
+        if (getLog().isInfoEnabled()) {
+          getLog().info(MessageFormat.format(
+              "Waiting for runtime image [{0}] linked concurrently", key));
+        }
+        cacheLock = runtimeImageCache.lock(key);
+      }
+      final Path linkedImage = runtimeImageCache.getImage(key);
+      if (linkedImage != null) {
+        if (getLog().isInfoEnabled()) {
+          getLog().info(MessageFormat.format(
+              "Runtime image cache hit [{0}]: [{1}]", key, linkedImage));
+        }
+        return linkedImage.toFile();
+      }
+      staging = runtimeImageCache.newStaging(key);
+      if (runtimeImageCache.fetchRemote(key, staging)) {
+        return runtimeImageCache.publish(key, staging).toFile();
+      }
+      if (getLog().isInfoEnabled()) {
+        getLog().info(MessageFormat.format(
+            "Runtime image cache miss [{0}], linking modules: {1}", key,
+            String.join(",", modules)));
+      }
+      final Commandline cmdLine = new Commandline();
+      cmdLine.setExecutable(jlinkPath.toString());
+      cmdLine.createArg().setValue("--module-path");
+      cmdLine.createArg().setValue(jmodsDir.toString());
+      cmdLine.createArg().setValue("--add-modules");
+      cmdLine.createArg().setValue(String.join(",", modules));
+      for (final String option : RuntimeImageCache.JLINK_OPTIONS) {
+        cmdLine.createArg().setValue(option);
+      }
+      cmdLine.createArg().setValue("--output");
+      cmdLine.createArg().setValue(staging.toString());
+      final int exitCode = execCmdLine(cmdLine, null, null, timeout,
+          stalltimeout); // from BaseToolMojo
+      if (exitCode != 0) {
+        throw new MojoExecutionException(MessageFormat.format(
+            "Error: Tool execution failed [{0}] with exit code: {1}",
+            JLINK_NAME, exitCode));
+      }
+      final Path image = runtimeImageCache.publish(key, staging);
+      runtimeImageCache.storeRemote(key, image);
+      return image.toFile();
+    } catch (CommandLineException ex) {
+      throw new MojoExecutionException(MessageFormat.format(
+          "Error: Unable to execute [{0}] tool", JLINK_NAME), ex);
+    } catch (IOException ex) {
+      throw new MojoExecutionException(MessageFormat.format(
+          "Error: Unable to cache runtime image [{0}]", key), ex);
+    } finally {
+      if (staging != null) {
+        try {
+          fileDisposer.dispose(staging);
+        } catch (IOException ex) {
+          if (getLog().isWarnEnabled()) {
+            getLog().warn(MessageFormat.format(
+                "Unable to delete staging runtime image: [{0}]", staging),
+                ex);
+          }
+        }
+      }
+      unlockCache(cacheLock, key);
+    }
+  }
+
+  /**
+   * Obtain the tool version and check it is supported.
+   *
+   * @throws MojoExecutionException if the tool version is not supported
+   */
+  private void checkToolVersion() throws MojoExecutionException {
+    initToolVersion(TOOL_NAME); // from BaseToolMojo
+    final JavaVersion toolJavaVersion = getToolJavaVersion();
+    if (toolJavaVersion == null
+        || !toolJavaVersion.atLeast(JavaVersion.JAVA_9)) {
+      throw new MojoExecutionException(MessageFormat.format(
+          "Error: At least {0} is required to use [{1}]", JavaVersion.JAVA_9,
+          TOOL_NAME));
+    }
+  }
+
+  /**
+   * Dispose temporary directory if it exists, the directory is renamed
+   * to the tombstone and deleted in background. The tombstones left
+   * by the interrupted builds are swept.
+   *
+   * @throws MojoExecutionException if the directory can not be disposed
+   */
+  private void deleteTempDirectory() throws MojoExecutionException {
+    if (temp != null) {
+      if (getLog().isDebugEnabled()) {
+        getLog().debug(MessageFormat.format(
+            "Temporary directory: [{0}]", temp));
+      }
+      try {
+        fileDisposer.sweep(temp.toPath());
+      } catch (IOException ex) {
+        if (getLog().isWarnEnabled()) {
+          getLog().warn(MessageFormat.format(
+              "Unable to sweep tombstones of temporary directory: [{0}]",
+              temp), ex);
+        }
+      }
+      if (temp.exists() && temp.isDirectory()) {
+        try {
+          fileDisposer.dispose(temp.toPath());
+        } catch (IOException ex) {
+          throw new MojoExecutionException(MessageFormat.format(
+              "Error: Unable to delete temporary directory: [{0}]", temp), ex);
+        }
+      }
+    }
+  }
+
+  /**
+   * Write the phase timeline of the execution (or of the stage) to
+   * the working directory of the execution and log the summary.
+   *
+   * @param stage the name of the stage or null if the execution
+   *              is not staged
+   * @param phaseTracker the tracker of the execution phases
+   */
+  private void reportPhases(final String stage,
+      final PhaseTracker phaseTracker) {
+    phaseTracker.finish();
+    final Path timingsPath = workDir.toPath().resolve(stage == null
+        ? TIMINGS_FILE
+        : TOOL_NAME + "-" + stage + TIMINGS_SUFFIX);
+    try {
+      phaseTracker.writeJson(timingsPath);
+    } catch (IOException ex) {
+      if (getLog().isWarnEnabled()) {
+        getLog().warn(MessageFormat.format(
+            "Unable to write phase timeline to file: [{0}]", timingsPath), ex);
+      }
+    }
+    if (getLog().isInfoEnabled()) {
+      final long total = Math.max(1L, phaseTracker.getDuration().toMillis());
+      getLog().info(MessageFormat.format(
+          "Phases of [{0}] ({1} ms):", TOOL_NAME, String.valueOf(total)));
+      for (final PhaseTracker.Timing timing : phaseTracker.getTimings()) {
+        final long duration = timing.getDuration().toMillis();
+        getLog().info(String.format("  %-10s %8d ms %4d%%", timing.getName(),
+            duration, duration * 100 / total));
+      }
+    }
+  }
+
+  /**
+   * Get the key of the execution safe to be used in the file names.
+   *
+   * @return the key of the execution
+   */
+  private String getExecutionKey() {
+    return toFileName(mojoExecution == null
+        ? "default"
+        : mojoExecution.getExecutionId());
+  }
+
+  /**
+   * Convert the name to the name safe to be used in the file names.
+   * The unsafe characters are replaced and the hash of the original
+   * name is appended, so the names differ only in the unsafe characters
+   * (e.g. <code>a b</code> and <code>a_b</code>) do not collide.
+   *
+   * @param name the name
+   *
+   * @return the name safe to be used in the file names
+   */
+  private static String toFileName(final String name) {
+    final String safeName = name.replaceAll(FILE_NAME_UNSAFE_PATTERN, "_");
+    return safeName.equals(name)
+        ? name
+        : safeName + "-" + Integer.toHexString(name.hashCode());
+  }
+
+  /**
+   * Read the fingerprint of the previous execution.
+   *
+   * @param fingerprintPath the fingerprint file
+   *
+   * @return the fingerprint of the previous execution or null if it is
+   *         missing or invalid
+   */
+  private Fingerprint readFingerprint(final Path fingerprintPath) {
+    try {
+      return Fingerprint.read(fingerprintPath);
+    } catch (IOException ex) {
+      if (getLog().isWarnEnabled()) {
+        getLog().warn(MessageFormat.format(
+            "Unable to read fingerprint: [{0}]", fingerprintPath), ex);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Compute the fingerprint of the inputs.
+   *
+   * @param previous the fingerprint of the previous execution or null
+   * @param optsLines the command options
+   * @param propsFiles the files contain the effective launcher properties,
+   *                   the other files are ignored
+   * @param paths the input files and directories
+   * @param values the additional input values by the names
+   *
+   * @return the fingerprint of the inputs
+   *
+   * @throws MojoExecutionException if any errors occurred
+   */
+  private Fingerprint computeFingerprint(final Fingerprint previous,
+      final List<String> optsLines, final List<File> propsFiles,
+      final List<Path> paths, final Map<String, String> values)
+      throws MojoExecutionException {
+    // the paths inside of the project and the tool are hashed relatively,
+    // so the builds in the different locations share the cache keys
+    final Map<String, Path> roots = new LinkedHashMap<>();
+    roots.put(BASEDIR_PLACEHOLDER, toPath(getBaseDir()));
+    roots.put(TOOLHOME_PLACEHOLDER, toPath(getToolHomeDirectory()));
+    if (getSession() != null && getSession().getRepositorySession() != null
+        && getSession().getRepositorySession().getLocalRepository() != null) {
+      roots.put(LOCALREPO_PLACEHOLDER, toPath(getSession()
+          .getRepositorySession().getLocalRepository().getBasedir()));
+    }
+    final Fingerprint fingerprint = new Fingerprint(roots);
+    fingerprint.addValue("executable", getToolExecutable().toString());
+    fingerprint.addValue("version", getToolVersion());
+    fingerprint.addValue("os.name", System.getProperty("os.name"));
+    fingerprint.addValue("os.arch", System.getProperty("os.arch"));
+    getReleaseProperties().forEach(fingerprint::addValue);
+    fingerprint.addOptions("options", optsLines);
+    values.forEach(fingerprint::addValue);
+    for (final File propsFile : propsFiles) {
+      if (!propsFile.getName().endsWith(PROPS_SUFFIX)) {
+        continue;
+      }
+      // the effective launcher properties are compared by the content,
+      // the file is regenerated by every execution
+      final Properties props = new Properties();
+      try (BufferedReader br =
+          Files.newBufferedReader(propsFile.toPath(), getCharset())) {
+        props.load(br);
+      } catch (IOException ex) {
+        throw new MojoExecutionException(MessageFormat.format(
+            "Error: Unable to read temporary file: [{0}]", propsFile), ex);
+      }
+      fingerprint.addValue(propsFile.getName(), new TreeMap<>(props)
+          .toString());
+    }
+    final ExecutorService executor = newExecutor(TOOL_NAME + "-hash",
+        Runtime.getRuntime().availableProcessors()); // from BaseToolMojo
+    try {
+      fingerprint.addPaths(paths, previous, executor);
+    } catch (IOException ex) {
+      throw new MojoExecutionException(
+          "Error: Unable to compute fingerprint of inputs", ex);
+    } finally {
+      executor.shutdownNow();
+    }
+    return fingerprint;
+  }
+
+  /**
+   * Get the properties of the JDK build the tool belongs to identifying
+   * the JDK.
+   *
+   * @return the properties of the JDK build by the names, the missing
+   *         properties are skipped
+   *
+   * @throws MojoExecutionException if the release file of the JDK
+   *                                can not be read
+   */
+  private Map<String, String> getReleaseProperties()
+      throws MojoExecutionException {
+    final Map<String, String> values = new TreeMap<>();
+    if (getToolHomeDirectory() == null) {
+      return values;
+    }
+    final Path releasePath =
+        getToolHomeDirectory().toPath().resolve(RELEASE_FILE);
+    if (!Files.isRegularFile(releasePath)) {
+      return values;
+    }
+    final Properties release = new Properties();
+    try (InputStream is = Files.newInputStream(releasePath)) {
+      release.load(is);
+    } catch (IOException ex) {
+      throw new MojoExecutionException(MessageFormat.format(
+          "Error: Unable to read JDK release file: [{0}]", releasePath), ex);
+    }
+    for (final String key : RELEASE_KEYS) {
+      final String value = release.getProperty(key);
+      if (value != null) {
+        values.put("release:" + key, value);
+      }
+    }
+    return values;
+  }
+
+  /**
+   * Compare the fingerprint of the inputs with the fingerprint of
+   * the previous execution. The outputs of the previous execution are
+   * disposed unless the execution is incremental and they are up to date.
+   *
+   * @param previous the fingerprint of the previous execution or null
+   * @param fingerprint the fingerprint of the inputs
+   * @param fingerprintPath the fingerprint file
+   * @param destDir the destination directory
+   * @param reuse true if the up to date outputs are reused
+   *
+   * @return true if the outputs are reused
+   *
+   * @throws MojoExecutionException if any errors occurred
+   */
+  private boolean checkFingerprint(final Fingerprint previous,
+      final Fingerprint fingerprint, final Path fingerprintPath,
+      final File destDir, final boolean reuse)
+      throws MojoExecutionException {
+    if (previous == null) {
+      return false;
+    }
+    final boolean inputsChanged =
+        !previous.getDigest().equals(fingerprint.getDigest());
+    final boolean outputsChanged = !isIntact(destDir, previous.getOutputs());
+    if (!inputsChanged && !outputsChanged && reuse) {
+      return true;
+    }
+    if ((inputsChanged || outputsChanged) && getLog().isInfoEnabled()) {
+      getLog().info(inputsChanged
+          ? "Inputs have been changed since the previous execution"
+          : "Outputs have been changed since the previous execution");
+    }
+    // the outputs of the previous execution would prevent the tool
+    // from creating the new ones
+    try {
+      Files.deleteIfExists(fingerprintPath);
+      for (final String name : previous.getOutputs().keySet()) {
+        final Path output = destDir.toPath().resolve(name);
+        if (getLog().isInfoEnabled()
+            && Files.exists(output, LinkOption.NOFOLLOW_LINKS)) {
+          getLog().info(MessageFormat.format(
+              "Removing output of the previous execution: [{0}]", output));
+        }
+        fileDisposer.sweep(output);
+        fileDisposer.dispose(output);
+      }
+    } catch (IOException ex) {
+      throw new MojoExecutionException(
+          "Error: Unable to remove stale outputs", ex);
+    }
+    return false;
+  }
+
+  /**
+   * Check the outputs are intact.
+   *
+   * @param destDir the destination directory
+   * @param outputs the digests of the outputs by the names
+   *
+   * @return true if the outputs exist and are not changed
+   */
+  private boolean isIntact(final File destDir,
+      final Map<String, String> outputs) {
+    if (outputs.isEmpty()) {
+      return false;
+    }
+    try {
+      for (final Map.Entry<String, String> output : outputs.entrySet()) {
+        if (!output.getValue().equals(Fingerprint.digestTree(
+            destDir.toPath().resolve(output.getKey())))) {
+          return false;
+        }
+      }
+    } catch (IOException ex) {
+      if (getLog().isDebugEnabled()) {
+        getLog().debug("Unable to check outputs", ex);
+      }
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Get the digests of the destination directory entries.
+   *
+   * @param destDir the destination directory
+   * @param suffix the suffix of the names of the entries or null
+   *               for all entries
+   *
+   * @return the digests of the destination directory entries by the names
+   *
+   * @throws MojoExecutionException if the destination directory
+   *                                can not be listed
+   */
+  private Map<String, String> snapshotDestination(final File destDir,
+      final String suffix) throws MojoExecutionException {
+    final Map<String, String> snapshot = new TreeMap<>();
+    if (!destDir.isDirectory()) {
+      return snapshot;
+    }
+    try (DirectoryStream<Path> stream =
+        Files.newDirectoryStream(destDir.toPath())) {
+      for (final Path entry : stream) {
+        if (FileDisposer.isTombstone(entry) || suffix != null
+            && !entry.getFileName().toString().endsWith(suffix)) {
+          continue;
+        }
+        snapshot.put(entry.getFileName().toString(),
+            Fingerprint.digestTree(entry));
+      }
+    } catch (IOException ex) {
+      throw new MojoExecutionException(MessageFormat.format(
+          "Error: Unable to list destination directory: [{0}]", destDir),
+          ex);
+    }
+    return snapshot;
+  }
+
+  /**
+   * Record the outputs created by the execution and write
+   * the fingerprint.
+   *
+   * @param fingerprint the fingerprint of the inputs
+   * @param fingerprintPath the fingerprint file
+   * @param destDir the destination directory
+   * @param outputSuffix the suffix of the names of the outputs or null
+   *                     if all new entries of the destination directory
+   *                     are the outputs
+   * @param destSnapshot the digests of the destination directory entries
+   *                     before the execution
+   *
+   * @throws MojoExecutionException if the destination directory
+   *                                can not be listed
+   */
+  private void writeFingerprint(final Fingerprint fingerprint,
+      final Path fingerprintPath, final File destDir,
+      final String outputSuffix, final Map<String, String> destSnapshot)
+      throws MojoExecutionException {
+    final Map<String, String> outputs =
+        snapshotDestination(destDir, outputSuffix);
+    outputs.entrySet().removeIf(entry ->
+        entry.getValue().equals(destSnapshot.get(entry.getKey())));
     if (getLog().isDebugEnabled()) {
-      getLog().debug(optsLines.stream()
-          .collect(Collectors.joining(System.lineSeparator(),
-              System.lineSeparator(), "")));
+      getLog().debug("Outputs: " + outputs.keySet());
+    }
+    fingerprint.setOutputs(outputs);
+    try {
+      fingerprint.write(fingerprintPath);
+    } catch (IOException ex) {
+      if (getLog().isWarnEnabled()) {
+        getLog().warn(MessageFormat.format(
+            "Unable to write fingerprint: [{0}]", fingerprintPath), ex);
+      }
+    }
+  }
+
+  /**
+   * Create the output cache.
+   *
+   * @return the output cache or null if it is disabled
+   */
+  private OutputCache createOutputCache() {
+    if (!outputcache && !staged) {
+      return null;
+    }
+    if (cachedir == null) {
+      if (getLog().isWarnEnabled()) {
+        getLog().warn(
+            "Output cache is disabled, the cache directory is not specified");
+      }
+      return null;
+    }
+    final OutputCache outputCache = new OutputCache(getLog(), fileDisposer,
+        cachedir.toPath().resolve(OUTPUTS_DIR), cachemaxsize * MEGABYTE);
+    outputCache.setRemoteCache(remoteCache);
+    return outputCache;
+  }
+
+  /**
+   * Create the remote cache.
+   *
+   * @return the remote cache or null if it is not specified
+   *
+   * @throws MojoExecutionException if the URL of the remote cache
+   *                                is not valid
+   */
+  private RemoteCache createRemoteCache() throws MojoExecutionException {
+    if (StringUtils.isBlank(remotecache)) {
+      return null;
+    }
+    final String url = remotecache.trim();
+    final String scheme;
+    try {
+      scheme = URI.create(url).getScheme();
+    } catch (IllegalArgumentException ex) {
+      throw new MojoExecutionException(MessageFormat.format(
+          "Error: The remote cache URL is not valid: [{0}]", url), ex);
+    }
+    if (!"http".equalsIgnoreCase(scheme)
+        && !"https".equalsIgnoreCase(scheme)) {
+      throw new MojoExecutionException(MessageFormat.format(
+          "Error: The remote cache URL is not HTTP: [{0}]", url));
+    }
+    if (remotecachetimeout <= 0) {
+      throw new MojoExecutionException(MessageFormat.format(
+          "Error: The remote cache timeout is not positive: {0}",
+          String.valueOf(remotecachetimeout)));
+    }
+    if (getLog().isDebugEnabled()) {
+      getLog().debug(MessageFormat.format("Remote cache: [{0}]", url));
+    }
+    return new RemoteCache(getLog(), url,
+        Duration.ofSeconds(remotecachetimeout), remotecachepush);
+  }
+
+  /**
+   * Restore the outputs from the output cache.
+   *
+   * @param outputCache the output cache
+   * @param fingerprint the fingerprint of the inputs
+   * @param destDir the destination directory
+   *
+   * @return true if the outputs have been restored
+   */
+  private boolean restoreOutputs(final OutputCache outputCache,
+      final Fingerprint fingerprint, final File destDir) {
+    final String key = fingerprint.getDigest();
+    boolean restored = false;
+    try {
+      restored = outputCache.restore(key, destDir.toPath());
+    } catch (IOException ex) {
+      if (getLog().isWarnEnabled()) {
+        getLog().warn(MessageFormat.format(
+            "Unable to restore outputs from output cache entry [{0}]", key),
+            ex);
+      }
+    }
+    if (getLog().isInfoEnabled()) {
+      getLog().info(MessageFormat.format(
+          restored
+              ? "Output cache hit [{0}], the outputs are restored: [{1}]"
+              : "Output cache miss [{0}]",
+          key, destDir));
+    }
+    return restored;
+  }
+
+  /**
+   * Store the outputs recorded with the fingerprint to the output cache.
+   *
+   * @param outputCache the output cache
+   * @param fingerprint the fingerprint of the inputs and the outputs
+   * @param destDir the destination directory
+   */
+  private void storeOutputs(final OutputCache outputCache,
+      final Fingerprint fingerprint, final File destDir) {
+    final String key = fingerprint.getDigest();
+    try {
+      outputCache.store(key, destDir.toPath(),
+          fingerprint.getOutputs().keySet());
+    } catch (IOException ex) {
+      if (getLog().isWarnEnabled()) {
+        getLog().warn(MessageFormat.format(
+            "Unable to store outputs to output cache entry [{0}]", key), ex);
+      }
+    }
+  }
+
+  /**
+   * Acquire the lock of the output cache entry, wait until the outputs
+   * are created by the concurrent build.
+   *
+   * @param outputCache the output cache
+   * @param key the key of the entry
+   *
+   * @return the lock of the entry or null if it can not be acquired
+   */
+  private CacheLock lockOutputs(final OutputCache outputCache,
+      final String key) {
+    try {
+      final CacheLock cacheLock = outputCache.tryLock(key);
+      if (cacheLock != null) {
+        return cacheLock;
+      }
+      if (getLog().isInfoEnabled()) {
+        getLog().info(MessageFormat.format(
+            "Waiting for output cache entry [{0}] created concurrently", key));
+      }
+      return outputCache.lock(key);
+    } catch (IOException ex) {
+      if (getLog().isWarnEnabled()) {
+        getLog().warn(MessageFormat.format(
+            "Unable to lock output cache entry [{0}]", key), ex);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Release the lock of the cache entry.
+   *
+   * @param cacheLock the lock of the entry, can be null
+   * @param key the key of the entry
+   */
+  private void unlockCache(final CacheLock cacheLock, final String key) {
+    if (cacheLock == null) {
+      return;
+    }
+    try {
+      cacheLock.close();
+    } catch (IOException ex) {
+      if (getLog().isWarnEnabled()) {
+        getLog().warn(MessageFormat.format(
+            "Unable to unlock cache entry [{0}]", key), ex);
+      }
+    }
+  }
+
+  /**
+   * Delete the temporary files and wait for the background deletions.
+   *
+   * @param tempFiles the temporary files
+   *
+   * @throws MojoExecutionException if any errors occurred
+   */
+  private void disposeTempFiles(final List<File> tempFiles)
+      throws MojoExecutionException {
+    for (final File tempFile : tempFiles) {
+      try {
+        fileDisposer.dispose(tempFile.toPath());
+      } catch (IOException ex) {
+        throw new MojoExecutionException(MessageFormat.format(
+            "Error: Unable to delete temporary file: [{0}]", tempFile), ex);
+      }
+    }
+    fileDisposer.await();
+  }
+
+  /**
+   * Get the locations of the application files in the application image
+   * by the inputs they are copied from.
+   *
+   * @param optsLines the command options
+   * @param modulePathFiles the module path elements
+   *
+   * @return the locations of the application files or null if
+   *         the application image can not be patched
+   */
+  private Map<Path, Path> getPatchRoots(final List<String> optsLines,
+      final List<File> modulePathFiles) {
+    if (!patchimage) {
+      return null;
+    }
+    final Map<Path, Path> roots = new LinkedHashMap<>();
+    if (input != null) {
+      roots.put(input.toPath().toAbsolutePath().normalize(), Paths.get(""));
+    }
+    if (!modulePathFiles.isEmpty()) {
+      // the modules are copied to the application image only if
+      // the runtime image is not linked by the tool
+      if (optsLines.stream().noneMatch(line ->
+          line.startsWith("--runtime-image "))) {
+        if (getLog().isInfoEnabled()) {
+          getLog().info("Application image can not be patched,"
+              + " the modules are linked to the runtime image");
+        }
+        return null;
+      }
+      modulePathFiles.forEach(file -> roots.put(
+          file.toPath().toAbsolutePath().normalize(),
+          Paths.get(AppImagePatcher.MODS_DIR)));
+    }
+    return roots;
+  }
+
+  /**
+   * Patch the application image created by the previous execution
+   * if only the application files have been changed.
+   *
+   * @param previous the fingerprint of the previous execution or null
+   * @param fingerprint the fingerprint of the inputs
+   * @param fingerprintPath the fingerprint file
+   * @param destDir the destination directory
+   * @param patchRoots the locations of the application files in
+   *                   the application image by the inputs they are
+   *                   copied from
+   *
+   * @return true if the application image has been patched
+   *
+   * @throws MojoExecutionException if any errors occurred
+   */
+  private boolean patchAppImage(final Fingerprint previous,
+      final Fingerprint fingerprint, final Path fingerprintPath,
+      final File destDir, final Map<Path, Path> patchRoots)
+      throws MojoExecutionException {
+    if (previous == null
+        || previous.getDigest().equals(fingerprint.getDigest())
+        || previous.getOutputs().size() != 1
+        || !isIntact(destDir, previous.getOutputs())) {
+      return false;
+    }
+    final String name = previous.getOutputs().firstKey();
+    final Path image = destDir.toPath().resolve(name);
+    final int patched;
+    try {
+      patched = new AppImagePatcher(getLog(), image, patchRoots)
+          .patch(previous, fingerprint);
+    } catch (IOException ex) {
+      // the image is not intact anymore, so it is created again
+      if (getLog().isWarnEnabled()) {
+        getLog().warn(MessageFormat.format(
+            "Unable to patch application image: [{0}]", image), ex);
+      }
+      return false;
+    }
+    if (patched < 0) {
+      return false;
+    }
+    final Map<String, String> outputs = new TreeMap<>();
+    try {
+      outputs.put(name, Fingerprint.digestTree(image));
+    } catch (IOException ex) {
+      throw new MojoExecutionException(MessageFormat.format(
+          "Error: Unable to list destination directory: [{0}]", destDir),
+          ex);
+    }
+    fingerprint.setOutputs(outputs);
+    try {
+      fingerprint.write(fingerprintPath);
+    } catch (IOException ex) {
+      if (getLog().isWarnEnabled()) {
+        getLog().warn(MessageFormat.format(
+            "Unable to write fingerprint: [{0}]", fingerprintPath), ex);
+      }
+    }
+    if (getLog().isInfoEnabled()) {
+      getLog().info(MessageFormat.format(
+          "Application image is patched, the files replaced: {0} [{1}]",
+          patched, image));
+    }
+    return true;
+  }
+
+  /**
+   * Get the paths of the files.
+   *
+   * @param files the files, null elements are ignored
+   *
+   * @return the paths of the files
+   */
+  private static List<Path> toPaths(final Stream<File> files) {
+    return files
+        .filter(Objects::nonNull)
+        .map(File::toPath)
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * Get the path of the file.
+   *
+   * @param file the file, can be null
+   *
+   * @return the path of the file or null if the file is null
+   */
+  private static Path toPath(final File file) {
+    return file == null ? null : file.toPath();
+  }
+
+  /**
+   * Get the file associations.
+   *
+   * @return the file associations
+   */
+  private Stream<File> getFileAssociations() {
+    return fileassociations == null
+        ? Stream.empty()
+        : fileassociations.stream();
+  }
+
+  /**
+   * Get the command options of the stage.
+   *
+   * @param optsLines the command options of the execution
+   * @param excluded the names of the options not valid for the stage
+   * @param stage the name of the stage
+   * @param stageDest the destination directory of the stage
+   *
+   * @return the command options of the stage
+   *
+   * @throws MojoExecutionException if any errors occurred
+   */
+  private List<String> getStageOptions(final List<String> optsLines,
+      final Set<String> excluded, final String stage, final File stageDest)
+      throws MojoExecutionException {
+    final List<String> stageLines = new ArrayList<>();
+    for (final String line : optsLines) {
+      final String option = line.split(" ", 2)[0];
+      if (excluded.contains(option)) {
+        continue;
+      }
+      try {
+        if ("--dest".equals(option)) {
+          stageLines.add(option + " " + stageDest.getCanonicalPath());
+        } else if ("--temp".equals(option)) {
+          // the temporary directory must be empty for every execution
+          stageLines.add(option + " " + new File(temp, stage)
+              .getCanonicalPath());
+        } else {
+          stageLines.add(line);
+        }
+      } catch (IOException ex) {
+        throw new MojoExecutionException(MessageFormat.format(
+            ERROR_RESOLVE,
+            option,
+            stageDest.toString()), ex);
+      }
+    }
+    return stageLines;
+  }
+
+  /**
+   * Find the application image created by the application image stage.
+   *
+   * @param stageDest the destination directory of the stage
+   * @param fingerprint the fingerprint of the stage
+   *
+   * @return the application image
+   *
+   * @throws MojoExecutionException if the application image is not found
+   */
+  private File findAppImage(final File stageDest,
+      final Fingerprint fingerprint) throws MojoExecutionException {
+    final List<String> names = new ArrayList<>(
+        fingerprint.getOutputs().keySet());
+    if (names.size() != 1) {
+      throw new MojoExecutionException(MessageFormat.format(
+          "Error: Unable to find application image: [{0}]", stageDest));
+    }
+    return new File(stageDest, names.get(0));
+  }
+
+  /**
+   * Get the value of the type option of the tool.
+   *
+   * @param packageType the type of the package
+   *
+   * @return the value of the type option or null if the type
+   *         is the default one of the platform
+   */
+  private static String getTypeName(final PackageType packageType) {
+    switch (packageType) {
+      case IMAGE:
+        return "app-image";
+      case EXE:
+        return "exe";
+      case MSI:
+        return "msi";
+      case RPM:
+        return "rpm";
+      case DEB:
+        return "deb";
+      case PKG:
+        return "pkg";
+      case DMG:
+        return "dmg";
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Get the types of the packages created by the execution.
+   *
+   * @return the types of the packages
+   *
+   * @throws MojoExecutionException if the types can not be combined
+   */
+  private List<PackageType> getPackageTypes() throws MojoExecutionException {
+    final List<PackageType> packageTypes = types == null || types.isEmpty()
+        ? Stream.of(type == null ? PackageType.PLATFORM : type)
+            .collect(Collectors.toCollection(ArrayList::new))
+        : types.stream()
+            .filter(Objects::nonNull)
+            .distinct()
+            .collect(Collectors.toCollection(ArrayList::new));
+    if (packageTypes.size() > 1
+        && packageTypes.contains(PackageType.PLATFORM)) {
+      throw new MojoExecutionException(MessageFormat.format(
+          "Error: The type [{0}] can not be combined with other types",
+          PackageType.PLATFORM));
+    }
+    if (appimage != null && packageTypes.contains(PackageType.IMAGE)) {
+      throw new MojoExecutionException(MessageFormat.format(
+          "Error: The type [{0}] can not be created from the application"
+          + " image: [{1}]", PackageType.IMAGE, appimage));
+    }
+    return packageTypes;
+  }
+
+  /**
+   * Run the stages of the staged execution: the runtime image
+   * (linked in the processModules), the application image and
+   * the packages, each stage is reused if its inputs are not changed.
+   * The packages of the different types are created concurrently.
+   *
+   * @param optsLines the command options of the execution
+   * @param tempFiles the temporary files
+   * @param modulePathFiles the module path elements
+   *
+   * @throws MojoExecutionException if any errors occurred
+   */
+  private void executeStages(final List<String> optsLines,
+      final List<File> tempFiles, final List<File> modulePathFiles)
+      throws MojoExecutionException {
+    final List<PackageType> packageTypes = getPackageTypes();
+    final boolean withImage = packageTypes.remove(PackageType.IMAGE);
+    // application image stage
+    final File appImageDir;
+    final Map<String, String> packageValues;
+    if (appimage == null) {
+      final File appImageDest = withImage
+          ? dest
+          : new File(workDir, APP_IMAGE_STAGE);
+      final List<String> appImageOpts = getStageOptions(optsLines,
+          Stream.concat(INSTALLER_OPTIONS.stream(), Stream.of("--type"))
+              .collect(Collectors.toSet()),
+          APP_IMAGE_STAGE, appImageDest);
+      appImageOpts.add(1, "--type " + getTypeName(PackageType.IMAGE));
+      final List<Path> appImagePaths = toPaths(Stream.concat(
+          Stream.of(icon, input, runtimeimage, resourcedir),
+          modulePathFiles.stream()));
+      if (getLog().isInfoEnabled()) {
+        getLog().info(MessageFormat.format("Stage [{0}]: [{1}]",
+            APP_IMAGE_STAGE, appImageDest));
+      }
+      final Fingerprint appImageFingerprint = runStage(APP_IMAGE_STAGE,
+          appImageDest, null, appImageOpts, tempFiles, appImagePaths,
+          Map.of(), getPatchRoots(optsLines, modulePathFiles));
+      appImageDir = findAppImage(appImageDest, appImageFingerprint);
+      packageValues = Map.of(APP_IMAGE_STAGE,
+          appImageFingerprint.getDigest());
+    } else {
+      appImageDir = appimage;
+      packageValues = Map.of();
+    }
+    // package stages
+    final List<Path> packagePaths = toPaths(Stream.concat(
+        Stream.of(icon, appimage, licensefile, resourcedir),
+        getFileAssociations()));
+    if (packageTypes.size() == 1) {
+      runPackageStage(packageTypes.get(0), appImageDir, optsLines,
+          tempFiles, packagePaths, packageValues);
+    } else if (packageTypes.size() > 1) {
+      runPackageStages(packageTypes, appImageDir, optsLines, tempFiles,
+          packagePaths, packageValues);
+    }
+  }
+
+  /**
+   * Run the package stages concurrently. All stages are awaited,
+   * the execution fails if any of them has failed.
+   *
+   * @param packageTypes the types of the packages
+   * @param appImageDir the application image
+   * @param optsLines the command options of the execution
+   * @param tempFiles the temporary files
+   * @param paths the input files and directories
+   * @param values the additional input values by the names
+   *
+   * @throws MojoExecutionException if any stage has failed
+   */
+  private void runPackageStages(final List<PackageType> packageTypes,
+      final File appImageDir, final List<String> optsLines,
+      final List<File> tempFiles, final List<Path> paths,
+      final Map<String, String> values) throws MojoExecutionException {
+    final int threads = Math.min(packageTypes.size(), packagethreads > 0
+        ? packagethreads
+        : Runtime.getRuntime().availableProcessors());
+    final ExecutorService executor = newExecutor(TOOL_NAME + "-package",
+        threads); // from BaseToolMojo
+    final Map<PackageType, List<File>> stageTempFiles = new LinkedHashMap<>();
+    final Map<PackageType, Future<Fingerprint>> tasks = new LinkedHashMap<>();
+    final Map<PackageType, Exception> failures = new LinkedHashMap<>();
+    try {
+      for (final PackageType packageType : packageTypes) {
+        // the temporary files are collected by every stage separately
+        final List<File> files = new ArrayList<>(tempFiles);
+        stageTempFiles.put(packageType, files);
+        tasks.put(packageType, executor.submit(() -> runPackageStage(
+            packageType, appImageDir, optsLines, files, paths, values)));
+      }
+      for (final Map.Entry<PackageType, Future<Fingerprint>> task
+          : tasks.entrySet()) {
+        try {
+          await(task.getValue()); // from BaseToolMojo
+        } catch (MojoExecutionException | RuntimeException ex) {
+          failures.put(task.getKey(), ex);
+          if (getLog().isErrorEnabled()) {
+            getLog().error(MessageFormat.format(
+                "Package [{0}] has failed: {1}", task.getKey(),
+                ex.getMessage()));
+          }
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+      final int size = tempFiles.size();
+      stageTempFiles.values().forEach(files ->
+          tempFiles.addAll(files.subList(size, files.size())));
+    }
+    if (!failures.isEmpty()) {
+      final MojoExecutionException ex = new MojoExecutionException(
+          MessageFormat.format("Error: Unable to create packages: {0}",
+              failures.keySet()));
+      failures.values().forEach(ex::addSuppressed);
+      throw ex;
+    }
+  }
+
+  /**
+   * Run the package stage.
+   *
+   * @param packageType the type of the package
+   * @param appImageDir the application image
+   * @param optsLines the command options of the execution
+   * @param tempFiles the temporary files
+   * @param paths the input files and directories
+   * @param values the additional input values by the names
+   *
+   * @return the fingerprint of the stage
+   *
+   * @throws MojoExecutionException if any errors occurred
+   */
+  private Fingerprint runPackageStage(final PackageType packageType,
+      final File appImageDir, final List<String> optsLines,
+      final List<File> tempFiles, final List<Path> paths,
+      final Map<String, String> values) throws MojoExecutionException {
+    final String typeName = getTypeName(packageType);
+    final String stage = PACKAGE_STAGE + "-"
+        + (typeName == null ? packageType.name().toLowerCase(Locale.ROOT) : typeName);
+    final List<String> packageOpts = getStageOptions(optsLines,
+        Stream.concat(LAUNCHER_OPTIONS.stream(),
+            Stream.of("--type", "--app-image"))
+            .collect(Collectors.toSet()),
+        stage, dest);
+    if (typeName != null) {
+      packageOpts.add(1, "--type " + typeName);
+    }
+    try {
+      packageOpts.add("--app-image " + appImageDir.getCanonicalPath());
+    } catch (IOException ex) {
+      throw new MojoExecutionException(MessageFormat.format(
+          ERROR_RESOLVE,
+          "--app-image",
+          appImageDir.toString()), ex);
+    }
+    if (getLog().isInfoEnabled()) {
+      getLog().info(MessageFormat.format("Stage [{0}]: [{1}]", stage, dest));
     }
+    // the packages of the different types are created in the same
+    // destination directory, the outputs are told apart by the extension
+    return runStage(stage, dest, typeName == null ? null : "." + typeName,
+        packageOpts, tempFiles, paths, values, null);
+  }
+
+  /**
+   * Run the tool to create the outputs in the destination directory
+   * unless the outputs are up to date or restored from the output cache.
+   *
+   * @param stage the name of the stage or null if the execution is not
+   *              staged
+   * @param stageDest the destination directory
+   * @param outputSuffix the suffix of the names of the outputs or null
+   *                     if all new entries of the destination directory
+   *                     are the outputs
+   * @param optsLines the command options
+   * @param tempFiles the temporary files, the file of the command options
+   *                  is added
+   * @param paths the input files and directories
+   * @param values the additional input values by the names
+   * @param patchRoots the locations of the application files in
+   *                   the application image by the inputs they are
+   *                   copied from or null if the outputs can not be
+   *                   patched
+   *
+   * @return the fingerprint of the inputs and the outputs or null if
+   *         the fingerprint is not computed
+   *
+   * @throws MojoExecutionException if any errors occurred
+   */
+  private Fingerprint runStage(final String stage, final File stageDest,
+      final String outputSuffix, final List<String> optsLines,
+      final List<File> tempFiles, final List<Path> paths,
+      final Map<String, String> values, final Map<Path, Path> patchRoots)
+      throws MojoExecutionException {
 
     // Save the list of command options to the file
     // will be used in the tool command line
-    final Path cmdOptsPath = getBuildDir().toPath().resolve(OPTS_FILE);
+    final Path cmdOptsPath = workDir.toPath().resolve(stage == null
+        ? OPTS_FILE
+        : TOOL_NAME + "-" + stage + OPTS_SUFFIX);
     try {
       Files.write(cmdOptsPath, optsLines, getCharset());
     } catch (IOException ex) {
@@ -1912,19 +3806,170 @@ public class JpackageMojo extends BaseToolMojo {
     }
     tempFiles.add(cmdOptsPath.toFile());
 
+    // Skip the execution if nothing affecting the outputs has changed
+    // since the previous execution and the outputs are intact,
+    // the stages of the staged execution are always reused
+    final boolean reuse = incremental || stage != null;
+    final OutputCache outputCache = createOutputCache();
+    final Path fingerprintPath = stageDest.toPath().resolveSibling(
+        stageDest.getName() + "-" + getExecutionKey()
+        + (stage == null ? "" : "-" + stage) + FINGERPRINT_SUFFIX);
+    Fingerprint fingerprint = null;
+    Map<String, String> destSnapshot = null;
+    CacheExplainer.Explanation explanation = null;
+    CacheLock cacheLock = null;
+    if (reuse || outputCache != null) {
+      final Fingerprint previous = readFingerprint(fingerprintPath);
+      fingerprint = computeFingerprint(previous, optsLines, tempFiles,
+          paths, values);
+      explanation = cacheExplainer.explain(stage, previous, fingerprint,
+          reuse);
+      // Patch the application image if only the application files
+      // have been changed
+      if (patchRoots != null && patchAppImage(previous, fingerprint,
+          fingerprintPath, stageDest, patchRoots)) {
+        reportExplanation(explanation, CacheExplainer.Status.PATCHED);
+        return fingerprint;
+      }
+      if (checkFingerprint(previous, fingerprint, fingerprintPath,
+          stageDest, reuse)) {
+        reportExplanation(explanation, CacheExplainer.Status.UP_TO_DATE);
+        if (getLog().isInfoEnabled()) {
+          getLog().info(MessageFormat.format(
+              "Nothing to package, the outputs of [{0}] are up to date:"
+              + " [{1}]", TOOL_NAME, stageDest));
+        }
+        fingerprint.setOutputs(previous.getOutputs());
+        return fingerprint;
+      }
+      destSnapshot = snapshotDestination(stageDest, outputSuffix);
+      // Only one of the concurrent builds creates the same outputs,
+      // the rest wait and restore them from the output cache
+      if (outputCache != null) {
+        cacheLock = lockOutputs(outputCache, fingerprint.getDigest());
+      }
+    }
+    try {
+      // Restore the outputs from the output cache
+      if (outputCache != null
+          && restoreOutputs(outputCache, fingerprint, stageDest)) {
+        reportExplanation(explanation, CacheExplainer.Status.RESTORED);
+        writeFingerprint(fingerprint, fingerprintPath, stageDest,
+            outputSuffix, destSnapshot);
+        return fingerprint;
+      }
+      if (explanation != null) {
+        reportExplanation(explanation, CacheExplainer.Status.EXECUTED);
+      }
+      executeTool(stage, cmdOptsPath, optsLines);
+      // Record the outputs created by the execution with the fingerprint
+      // and keep them in the output cache
+      if (fingerprint == null) {
+        return null;
+      }
+      writeFingerprint(fingerprint, fingerprintPath, stageDest, outputSuffix,
+          destSnapshot);
+      if (outputCache != null) {
+        storeOutputs(outputCache, fingerprint, stageDest);
+      }
+      return fingerprint;
+    } finally {
+      if (cacheLock != null) {
+        unlockCache(cacheLock, fingerprint.getDigest());
+      }
+    }
+  }
+
+  /**
+   * Execute the tool with the command options.
+   *
+   * @param stage the name of the stage or null if the execution is not
+   *              staged
+   * @param cmdOptsPath the file of the command options
+   * @param optsLines the command options
+   *
+   * @throws MojoExecutionException if any errors occurred
+   */
+  private void executeTool(final String stage, final Path cmdOptsPath,
+      final List<String> optsLines) throws MojoExecutionException {
+
     // Prepare command line with command options
     // specified in the file created early
     final Commandline cmdLine = new Commandline();
     cmdLine.setExecutable(getToolExecutable().toString());
     cmdLine.createArg().setValue("@" + cmdOptsPath.toString());
 
-    // Execute command line
+    // Execute command line in-process if the tool provider is available,
+    // the persistent worker takes precedence
+    final ToolProvider toolProvider = isToolProviderEnabled()
+        ? findToolProvider(TOOL_NAME) // from BaseToolMojo
+        : null;
+    if (toolprovider && !worker && !isToolProviderEnabled()
+        && getLog().isInfoEnabled()) {
+      getLog().info(MessageFormat.format(
+          "Timeout is enabled, the tool executable of [{0}] will be forked",
+          TOOL_NAME));
+    }
+    if (isToolProviderEnabled() && toolProvider == null
+        && getLog().isInfoEnabled()) {
+      getLog().info(MessageFormat.format(
+          "Tool provider for [{0}] is not available in the running JDK,"
+          + " the tool executable will be forked", TOOL_NAME));
+    }
+    // Track the phases of the execution reported by the verbose output
+    final PhaseTracker phaseTracker = verbose ? new PhaseTracker() : null;
+    // Keep the output of the stage in the log file
+    final Path logPath = stage == null
+        ? null
+        : workDir.toPath().resolve(TOOL_NAME + "-" + stage + LOG_SUFFIX);
     int exitCode = 0;
-    try {
-      exitCode = execCmdLine(cmdLine); // from BaseToolMojo
+    try (BufferedWriter logWriter = logPath == null
+        ? null
+        : Files.newBufferedWriter(logPath, getCharset())) {
+      final StreamConsumer out = logWriter == null
+          ? phaseTracker
+          : line -> {
+            synchronized (logWriter) {
+              logWriter.write(line);
+              logWriter.newLine();
+            }
+            if (phaseTracker != null) {
+              phaseTracker.consumeLine(line);
+            }
+          };
+      final StreamConsumer err = logWriter == null
+          ? null
+          : line -> {
+            synchronized (logWriter) {
+              logWriter.write(line);
+              logWriter.newLine();
+            }
+          };
+      if (worker) {
+        exitCode = execToolWorker(TOOL_NAME, cmdLine, out, err,
+            timeout, stalltimeout, workeridletimeout); // from BaseToolMojo
+      } else {
+        exitCode = toolProvider == null
+            ? execCmdLine(cmdLine, out, err, timeout,
+                stalltimeout) // from BaseToolMojo
+            : execToolProvider(toolProvider, cmdLine, out, err,
+                timeout, stalltimeout); // from BaseToolMojo
+      }
+    } catch (IOException ex) {
+      throw new MojoExecutionException(MessageFormat.format(
+          "Error: Unable to write log file: [{0}]", logPath), ex);
+    } catch (CommandLineTimeOutException ex) {
+      throw new MojoExecutionException(phaseTracker == null
+          ? ex.getMessage()
+          : MessageFormat.format("{0}, phase reached: {1}", ex.getMessage(),
+              phaseTracker.getPhaseReached()), ex);
     } catch (CommandLineException ex) {
       throw new MojoExecutionException(MessageFormat.format(
           "Error: Unable to execute [{0}] tool", TOOL_NAME), ex);
+    } finally {
+      if (phaseTracker != null) {
+        reportPhases(stage, phaseTracker);
+      }
     }
     if (exitCode != 0) {
       if (getLog().isErrorEnabled()) {
@@ -1934,21 +3979,225 @@ public class JpackageMojo extends BaseToolMojo {
             + optsLines.stream()
                 .collect(Collectors.joining(System.lineSeparator())));
       }
+      throw new MojoExecutionException(logPath == null
+          ? MessageFormat.format(
+              "Error: Tool execution failed [{0}] with exit code: {1}",
+              TOOL_NAME, exitCode)
+          : MessageFormat.format(
+              "Error: Tool execution failed [{0}] with exit code: {1},"
+              + " see the log: [{2}]", TOOL_NAME, exitCode, logPath));
+    }
+  }
+
+  /**
+   * Set the status of the execution and report why the outputs
+   * of the previous execution are not reused.
+   *
+   * @param explanation the explanation of the execution
+   * @param status the status of the execution
+   */
+  private void reportExplanation(
+      final CacheExplainer.Explanation explanation,
+      final CacheExplainer.Status status) {
+    explanation.setStatus(status);
+    final String name = explanation.getStage() == null
+        ? TOOL_NAME
+        : explanation.getStage();
+    if (explanation.isUpToDate()) {
+      if (getLog().isDebugEnabled()) {
+        getLog().debug(MessageFormat.format(
+            "Cache hit [{0}]: the outputs are up to date", name));
+      }
+      return;
+    }
+    if (!getLog().isInfoEnabled()) {
+      return;
+    }
+    final List<CacheExplainer.Change> changes = explanation.getChanges();
+    getLog().info(MessageFormat.format("Cache miss [{0}]: {1}{2}", name,
+        explanation.getReason(), changes.isEmpty()
+            ? ""
+            : MessageFormat.format(" ({0})", String.valueOf(changes.size()))));
+    changes.stream()
+        .limit(MAX_LOGGED_CHANGES)
+        .forEach(change -> getLog().info("  " + change));
+    if (changes.size() > MAX_LOGGED_CHANGES) {
+      getLog().info(MessageFormat.format("  ... {0} more, see [{1}]",
+          String.valueOf(changes.size() - MAX_LOGGED_CHANGES),
+          getExplainPath()));
+    }
+  }
+
+  /**
+   * Get the file of the explanations of the cache misses, every
+   * execution has its own file in the shared build directory.
+   *
+   * @return the file of the explanations of the cache misses
+   */
+  private Path getExplainPath() {
+    return getBuildDir().toPath().resolve(
+        TOOL_NAME + "-" + getExecutionKey() + EXPLAIN_SUFFIX);
+  }
+
+  /**
+   * Write the explanations of the cache misses to the build directory.
+   */
+  private void writeExplanations() {
+    if (cacheExplainer.getExplanations().isEmpty()) {
+      return;
+    }
+    final Path explainPath = getExplainPath();
+    try {
+      cacheExplainer.writeJson(explainPath);
+    } catch (IOException ex) {
+      if (getLog().isWarnEnabled()) {
+        getLog().warn(MessageFormat.format(
+            "Unable to write cache explanations to file: [{0}]",
+            explainPath), ex);
+      }
+    }
+  }
+
+  /**
+   * Reuse the outputs of the previous execution and patch
+   * the application image if it is possible, used by the executions
+   * repeated on the changes of the inputs.
+   */
+  void enableIncrementalRefresh() {
+    incremental = true;
+    patchimage = true;
+  }
+
+  /**
+   * Get the directories contain the application files and resources,
+   * they are watched for the changes by the repeated executions.
+   * The project output directory is watched only if it is the module
+   * path element, otherwise its changes do not change the inputs
+   * until they are packaged into the input directory.
+   *
+   * @return the existing directories
+   *
+   * @throws MojoExecutionException if the module path can not be resolved
+   */
+  List<Path> getWatchedDirectories() throws MojoExecutionException {
+    final File outputDir = getOutputDir();
+    final boolean isModulePathElement = outputDir != null
+        && getModulePath().stream()
+            .map(File::getAbsoluteFile)
+            .anyMatch(outputDir.getAbsoluteFile()::equals);
+    return Stream.of(isModulePathElement ? outputDir : null, input,
+        resourcedir)
+        .filter(Objects::nonNull)
+        .filter(File::isDirectory)
+        .map(file -> file.toPath().toAbsolutePath().normalize())
+        .distinct()
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * Checks whether the tool is executed in-process, the persistent
+   * worker and the timeouts (the tool running in-process can not be
+   * stopped) take precedence.
+   *
+   * @return true if the in-process execution is enabled
+   */
+  @Override
+  protected boolean isToolProviderEnabled() {
+    return toolprovider && !worker && timeout <= 0 && stalltimeout <= 0;
+  }
+
+  /**
+   * Execute goal.
+   *
+   * @throws MojoExecutionException if any errors occurred
+   */
+  @Override
+  public void execute() throws MojoExecutionException {
+
+    // Init
+    fileDisposer = new FileDisposer(getLog());
+    cacheExplainer = new CacheExplainer(List.of(
+        Paths.get(System.getProperty("java.io.tmpdir"))));
+    remoteCache = createRemoteCache();
+    initTool(TOOL_NAME, toolhome, TOOL_HOME_BIN, cachedir); // from BaseToolMojo
+
+    // Create the working directory unique for the execution
+    workDir = new File(getBuildDir(), WORK_DIR_PREFIX + getExecutionKey());
+    try {
+      Files.createDirectories(workDir.toPath());
+    } catch (IOException ex) {
       throw new MojoExecutionException(MessageFormat.format(
-          "Error: Tool execution failed [{0}] with exit code: {1}", TOOL_NAME,
-          exitCode));
+          "Error: Unable to create working directory: [{0}]", workDir), ex);
+    }
+    if (getLog().isDebugEnabled()) {
+      getLog().debug(MessageFormat.format(
+          "Working directory: [{0}]", workDir));
     }
 
-    // Delete temporary files
-    for (final File tempFile : tempFiles) {
-      try {
-        FileUtils.forceDelete(tempFile);
-      } catch (IOException ex) {
-        throw new MojoExecutionException(MessageFormat.format(
-            "Error: Unable to delete temporary file: [{0}]", tempFile), ex);
+    // Run the independent preparations concurrently, the failures
+    // are reported in the order of the preparations
+    final ExecutorService executor = newExecutor(TOOL_NAME + "-init",
+        INIT_THREADS); // from BaseToolMojo
+    try {
+      final Future<Void> versionTask = executor.submit(() -> {
+        checkToolVersion();
+        return null;
+      });
+      final Future<Void> tempTask = executor.submit(() -> {
+        deleteTempDirectory();
+        return null;
+      });
+      await(versionTask); // from BaseToolMojo
+      await(tempTask); // from BaseToolMojo
+    } finally {
+      executor.shutdownNow();
+    }
+
+    // Project dependencies are resolved as soon as they are needed
+    projectDependencies = null;
+    mainModuleDescriptor = null;
+
+    // Build command line and populate the list of the command options
+    final CommandLineBuilder cmdLineBuilder = new CommandLineBuilder();
+    cmdLineBuilder.setExecutable(getToolExecutable().toString());
+    final List<File> tempFiles = new ArrayList<>();
+    final List<File> modulePathFiles = new ArrayList<>();
+    processOptions(cmdLineBuilder, tempFiles);
+    processModules(cmdLineBuilder, modulePathFiles);
+    final List<String> optsLines = new ArrayList<>();
+    optsLines.add("# " + TOOL_NAME);
+    optsLines.addAll(cmdLineBuilder.buildOptionList());
+    if (getLog().isDebugEnabled()) {
+      getLog().debug(optsLines.stream()
+          .collect(Collectors.joining(System.lineSeparator(),
+              System.lineSeparator(), "")));
+    }
+
+    // Package the outputs, the staged execution reuses the runtime image
+    // and the application image if the package inputs are only changed,
+    // the packages of the different types are created concurrently,
+    // the explanations of the cache misses are written even if
+    // the execution has failed
+    try {
+      if (staged || (types != null && !types.isEmpty())) {
+        executeStages(optsLines, tempFiles, modulePathFiles);
+      } else {
+        runStage(null, dest, null, optsLines, tempFiles,
+            toPaths(Stream.concat(Stream.concat(
+                Stream.of(icon, input, runtimeimage, appimage, licensefile,
+                    resourcedir),
+                getFileAssociations()), modulePathFiles.stream())),
+            Map.of(), PackageType.IMAGE.equals(type)
+                ? getPatchRoots(optsLines, modulePathFiles)
+                : null);
       }
+    } finally {
+      writeExplanations();
     }
 
+    // Delete temporary files and wait for the background deletions
+    disposeTempFiles(tempFiles);
+
   }
 
 }
@@ -0,0 +1,499 @@
+/*
+  Copyright (C) 2020 - 2024 Alexander Kapitman
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package ru.akman.maven.plugins.jpackage;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.codehaus.plexus.util.cli.StreamConsumer;
+
+/**
+ * Stream consumer splitting the verbose output of jpackage
+ * into the named phases of the execution.
+ *
+ * <p>
+ * The verbose output lines are prefixed with the time the line is
+ * reported by jpackage, so the phase boundaries do not depend on
+ * buffering of the output. The phases are passed forward only, the
+ * commands run by jpackage to validate the environment do not switch
+ * the phase.
+ * </p>
+ */
+public class PhaseTracker implements StreamConsumer {
+
+  /**
+   * The pattern of the verbose output line.
+   */
+  private static final Pattern LINE_PATTERN =
+      Pattern.compile("^\\[(\\d{2}:\\d{2}:\\d{2}\\.\\d{3})\\]\\s*(.*)$");
+
+  /**
+   * The half of the day (in hours), the line time that goes back
+   * more than that is considered to be passed midnight.
+   */
+  private static final long HALF_DAY_HOURS = 12L;
+
+  /**
+   * The markers of the phases in order of matching.
+   */
+  private static final List<Marker> MARKERS = List.of(
+      // the application image is created starting from the runtime
+      new Marker("^Creating app package", Phase.PREPARE, Phase.RUNTIME,
+          null),
+      // jpackage runs jlink in-process and reports it on completion
+      new Marker("^Command \\[PID: -1\\]:", Phase.PREPARE, Phase.RUNTIME,
+          Phase.APP_IMAGE),
+      new Marker("^Using (default|custom) package resource .*\\[icon\\]",
+          Phase.PREPARE, Phase.LAUNCHERS, null),
+      new Marker("^Generating ", Phase.PREPARE, Phase.PACKAGING, null),
+      new Marker("^Running (ldd|rpmbuild|candle|light|wix|hdiutil|pkgbuild"
+          + "|productbuild)\\b", Phase.RUNTIME, Phase.PACKAGING, null),
+      new Marker("^Succeeded in building ", Phase.PREPARE, Phase.DONE, null)
+  );
+
+  /**
+   * The completed phases.
+   */
+  private final List<Timing> timings = new ArrayList<>();
+
+  /**
+   * The clock of the execution.
+   */
+  private final Clock clock;
+
+  /**
+   * The start of the execution.
+   */
+  private final Instant start;
+
+  /**
+   * The current phase.
+   */
+  private Phase phase = Phase.PREPARE;
+
+  /**
+   * The phase reached by the output.
+   */
+  private Phase reached = Phase.PREPARE;
+
+  /**
+   * The start of the current phase.
+   */
+  private Instant phaseStart;
+
+  /**
+   * The time of the last verbose output line.
+   */
+  private Instant lastTime;
+
+  /**
+   * The end of the execution or null if it is not finished.
+   */
+  private Instant end;
+
+  /**
+   * Create the tracker, the execution is considered started.
+   */
+  public PhaseTracker() {
+    this(Clock.systemDefaultZone());
+  }
+
+  /**
+   * Create the tracker with the specified clock, the execution is
+   * considered started.
+   *
+   * @param clock the clock of the execution, the time zone of the clock
+   *              is the time zone of the verbose output
+   */
+  PhaseTracker(final Clock clock) {
+    this.clock = clock;
+    start = clock.instant();
+    phaseStart = start;
+    lastTime = start;
+  }
+
+  /**
+   * Consume the output line.
+   *
+   * @param line the output line
+   */
+  @Override
+  public synchronized void consumeLine(final String line) {
+    final Matcher matcher = LINE_PATTERN.matcher(line);
+    if (end != null || !matcher.matches()) {
+      return;
+    }
+    final Instant time = toInstant(matcher.group(1));
+    final String message = matcher.group(2);
+    for (final Marker marker : MARKERS) {
+      if (marker.matches(phase, message)) {
+        if (marker.getNext() == null) {
+          switchTo(marker.getPhase(), time);
+        } else if (phase == marker.getPhase()) {
+          switchTo(marker.getNext(), time);
+        } else {
+          // the phase has been completed, it was started
+          // right after the previous line
+          switchTo(marker.getPhase(), lastTime);
+          switchTo(marker.getNext(), time);
+        }
+        reached = phase;
+        break;
+      }
+    }
+    lastTime = time;
+  }
+
+  /**
+   * Finish the execution.
+   */
+  public synchronized void finish() {
+    if (end == null) {
+      end = clock.instant();
+      if (phase != Phase.DONE) {
+        switchTo(Phase.DONE, end.isBefore(lastTime) ? lastTime : end);
+      }
+    }
+  }
+
+  /**
+   * Get the name of the phase reached.
+   *
+   * @return the name of the phase reached
+   */
+  public synchronized String getPhaseReached() {
+    return reached.getName();
+  }
+
+  /**
+   * Get the completed phases.
+   *
+   * @return the completed phases
+   */
+  public synchronized List<Timing> getTimings() {
+    return Collections.unmodifiableList(new ArrayList<>(timings));
+  }
+
+  /**
+   * Get the duration of the execution.
+   *
+   * @return the duration of the execution
+   */
+  public synchronized Duration getDuration() {
+    return Duration.between(start, end == null ? clock.instant() : end);
+  }
+
+  /**
+   * Write the phases of the execution to the file in JSON format.
+   * The file is replaced atomically, so it is never read partially
+   * written.
+   *
+   * @param file the file
+   *
+   * @throws IOException if any errors occurred while writing the file
+   */
+  public synchronized void writeJson(final Path file) throws IOException {
+    final String nl = System.lineSeparator();
+    final StringBuilder json = new StringBuilder();
+    json.append('{').append(nl)
+        .append("  \"start\": \"").append(start).append("\",").append(nl)
+        .append("  \"end\": \"").append(end).append("\",").append(nl)
+        .append("  \"duration\": ").append(getDuration().toMillis())
+        .append(',').append(nl)
+        .append("  \"phaseReached\": \"").append(getPhaseReached())
+        .append("\",").append(nl)
+        .append("  \"phases\": [");
+    for (int i = 0; i < timings.size(); i++) {
+      final Timing timing = timings.get(i);
+      json.append(i == 0 ? "" : ",").append(nl)
+          .append("    { \"name\": \"").append(timing.getName())
+          .append("\", \"start\": \"").append(timing.getStart())
+          .append("\", \"end\": \"").append(timing.getEnd())
+          .append("\", \"duration\": ")
+          .append(timing.getDuration().toMillis())
+          .append(" }");
+    }
+    json.append(nl).append("  ]").append(nl).append('}').append(nl);
+    final Path parent = file.toAbsolutePath().getParent();
+    Files.createDirectories(parent);
+    final Path tempFile = Files.createTempFile(parent,
+        file.getFileName().toString(), null);
+    try {
+      try (BufferedWriter bw =
+          Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+        bw.write(json.toString());
+      }
+      Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(tempFile);
+    }
+  }
+
+  /**
+   * Switch the current phase.
+   *
+   * @param next the next phase
+   * @param time the time of switching
+   */
+  private void switchTo(final Phase next, final Instant time) {
+    final Instant boundary = time.isBefore(phaseStart) ? phaseStart : time;
+    timings.add(new Timing(phase.getName(), phaseStart, boundary));
+    phase = next;
+    phaseStart = boundary;
+  }
+
+  /**
+   * Convert the time of the output line to the instant.
+   *
+   * @param value the time of the output line
+   *
+   * @return the instant of the output line or the time
+   *         of the previous line if the time can not be parsed
+   */
+  private Instant toInstant(final String value) {
+    try {
+      Instant time = LocalTime.parse(value)
+          .atDate(LocalDate.ofInstant(lastTime, clock.getZone()))
+          .atZone(clock.getZone())
+          .toInstant();
+      if (Duration.between(time, lastTime).toHours() >= HALF_DAY_HOURS) {
+        time = time.plus(Duration.ofDays(1));
+      }
+      return time;
+    } catch (DateTimeParseException ex) {
+      return lastTime;
+    }
+  }
+
+  /**
+   * The phase of the execution.
+   */
+  private enum Phase {
+    /**
+     * Validation of the options and the environment.
+     */
+    PREPARE("prepare"),
+    /**
+     * Creating the runtime image with jlink.
+     */
+    RUNTIME("runtime"),
+    /**
+     * Copying the application content.
+     */
+    APP_IMAGE("app-image"),
+    /**
+     * Creating the launchers.
+     */
+    LAUNCHERS("launchers"),
+    /**
+     * Creating the native package.
+     */
+    PACKAGING("packaging"),
+    /**
+     * The execution is finished.
+     */
+    DONE("done");
+
+    /**
+     * The name of the phase.
+     */
+    private final String name;
+
+    /**
+     * Create the phase.
+     *
+     * @param name the name of the phase
+     */
+    Phase(final String name) {
+      this.name = name;
+    }
+
+    /**
+     * Get the name of the phase.
+     *
+     * @return the name of the phase
+     */
+    String getName() {
+      return name;
+    }
+  }
+
+  /**
+   * The marker of the phase in the output.
+   */
+  private static final class Marker {
+
+    /**
+     * The pattern of the output line.
+     */
+    private final Pattern pattern;
+
+    /**
+     * The earliest phase the marker is matched in.
+     */
+    private final Phase minimum;
+
+    /**
+     * The phase marked.
+     */
+    private final Phase phase;
+
+    /**
+     * The phase following the completed phase or null
+     * if the marker starts the phase.
+     */
+    private final Phase next;
+
+    /**
+     * Create the marker.
+     *
+     * @param regex the pattern of the output line
+     * @param minimum the earliest phase the marker is matched in
+     * @param phase the phase marked
+     * @param next the phase following the completed phase or null
+     *             if the marker starts the phase
+     */
+    Marker(final String regex, final Phase minimum, final Phase phase,
+        final Phase next) {
+      this.pattern = Pattern.compile(regex);
+      this.minimum = minimum;
+      this.phase = phase;
+      this.next = next;
+    }
+
+    /**
+     * Check if the marker matches the output line in the current phase.
+     *
+     * @param current the current phase
+     * @param message the output line without the time
+     *
+     * @return true if the marker matches
+     */
+    boolean matches(final Phase current, final String message) {
+      return current.compareTo(next == null ? phase : next) < 0
+          && current.compareTo(minimum) >= 0
+          && pattern.matcher(message).find();
+    }
+
+    /**
+     * Get the phase marked.
+     *
+     * @return the phase marked
+     */
+    Phase getPhase() {
+      return phase;
+    }
+
+    /**
+     * Get the phase following the completed phase.
+     *
+     * @return the phase following the completed phase or null
+     *         if the marker starts the phase
+     */
+    Phase getNext() {
+      return next;
+    }
+
+  }
+
+  /**
+   * The timing of the completed phase.
+   */
+  public static final class Timing {
+
+    /**
+     * The name of the phase.
+     */
+    private final String name;
+
+    /**
+     * The start of the phase.
+     */
+    private final Instant start;
+
+    /**
+     * The end of the phase.
+     */
+    private final Instant end;
+
+    /**
+     * Create the timing.
+     *
+     * @param name the name of the phase
+     * @param start the start of the phase
+     * @param end the end of the phase
+     */
+    Timing(final String name, final Instant start, final Instant end) {
+      this.name = name;
+      this.start = start;
+      this.end = end;
+    }
+
+    /**
+     * Get the name of the phase.
+     *
+     * @return the name of the phase
+     */
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * Get the start of the phase.
+     *
+     * @return the start of the phase
+     */
+    public Instant getStart() {
+      return start;
+    }
+
+    /**
+     * Get the end of the phase.
+     *
+     * @return the end of the phase
+     */
+    public Instant getEnd() {
+      return end;
+    }
+
+    /**
+     * Get the duration of the phase.
+     *
+     * @return the duration of the phase
+     */
+    public Duration getDuration() {
+      return Duration.between(start, end);
+    }
+
+  }
+
+}
@@ -18,6 +18,7 @@ package ru.akman.maven.plugins.jpackage;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
@@ -72,16 +73,17 @@ public final class PluginUtils {
 
   /**
    * Fix base directory of the fileset by resolving it
-   * relative to the specified base directory.
+   * relative to the specified base directory. The fileset passed in
+   * is not changed, it can be shared between concurrent executions.
    *
    * @param baseDir base directory
    * @param fileSet fileset
    *
-   * @return normalized fileset dir
+   * @return the copy of the fileset with normalized base directory
    *
    * @throws IOException if error occurred while resolving a canonical path
    */
-  public static File normalizeFileSetBaseDir(final File baseDir,
+  public static FileSet normalizeFileSetBaseDir(final File baseDir,
       final FileSet fileSet) throws IOException {
     String dir = fileSet.getDirectory();
     if (dir == null) {
@@ -91,8 +93,19 @@ public final class PluginUtils {
     if (!fileSetDir.isAbsolute()) {
       fileSetDir = new File(baseDir, dir);
     }
-    fileSet.setDirectory(fileSetDir.getCanonicalPath());
-    return fileSetDir;
+    final FileSet result = new FileSet();
+    result.setDirectory(fileSetDir.getCanonicalPath());
+    result.setLineEnding(fileSet.getLineEnding());
+    result.setModelEncoding(fileSet.getModelEncoding());
+    result.setDirectoryMode(fileSet.getDirectoryMode());
+    result.setFileMode(fileSet.getFileMode());
+    result.setOutputDirectory(fileSet.getOutputDirectory());
+    result.setMapper(fileSet.getMapper());
+    result.setFollowSymlinks(fileSet.isFollowSymlinks());
+    result.setUseDefaultExcludes(fileSet.isUseDefaultExcludes());
+    result.setIncludes(new ArrayList<>(fileSet.getIncludes()));
+    result.setExcludes(new ArrayList<>(fileSet.getExcludes()));
+    return result;
   }
 
   /**
@@ -0,0 +1,200 @@
+/*
+  Copyright (C) 2020 - 2024 Alexander Kapitman
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package ru.akman.maven.plugins.jpackage;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.codehaus.plexus.languages.java.jpms.JavaModuleDescriptor;
+import org.codehaus.plexus.languages.java.jpms.JavaModuleDescriptor.JavaRequires;
+import org.codehaus.plexus.languages.java.jpms.JavaModuleDescriptor.JavaRequires.JavaModifier;
+import org.codehaus.plexus.languages.java.jpms.ModuleNameSource;
+
+/**
+ * Resolved project dependencies.
+ *
+ * <p>
+ * The module descriptors of the path elements are told apart into
+ * the module path elements (the modules required by the main module)
+ * and the class path elements the same way as the JPMS location manager
+ * does, so the descriptors can be taken from the module descriptor index
+ * instead of reading every path element.
+ * </p>
+ */
+public class ResolvedDependencies {
+
+  /**
+   * The main module descriptor.
+   */
+  private final JavaModuleDescriptor mainModuleDescriptor;
+
+  /**
+   * The module descriptors by the path elements.
+   */
+  private final Map<File, JavaModuleDescriptor> pathElements;
+
+  /**
+   * The sources of the module names by the module path elements.
+   */
+  private final Map<File, ModuleNameSource> modulepathElements;
+
+  /**
+   * The class path elements.
+   */
+  private final List<File> classpathElements;
+
+  /**
+   * The exceptions by the path elements failed to resolve.
+   */
+  private final Map<File, Exception> pathExceptions;
+
+  /**
+   * Resolve the dependencies.
+   *
+   * @param mainModuleDescriptor the main module descriptor or null if
+   *                             the project is non modular
+   * @param pathElements the module descriptors by the path elements
+   *                     (in the order of the path)
+   * @param sources the sources of the module names by the path elements
+   * @param pathExceptions the exceptions by the path elements failed
+   *                       to read
+   */
+  public ResolvedDependencies(final JavaModuleDescriptor mainModuleDescriptor,
+      final Map<File, JavaModuleDescriptor> pathElements,
+      final Map<File, ModuleNameSource> sources,
+      final Map<File, Exception> pathExceptions) {
+    this.mainModuleDescriptor = mainModuleDescriptor;
+    this.pathElements = Collections.unmodifiableMap(
+        new LinkedHashMap<>(pathElements));
+    this.modulepathElements = new LinkedHashMap<>();
+    this.classpathElements = new ArrayList<>();
+    this.pathExceptions = new HashMap<>(pathExceptions);
+    // in case of identical module names, first one wins
+    final Map<String, JavaModuleDescriptor> availableModules = new HashMap<>();
+    final Map<String, ModuleNameSource> moduleNameSources = new HashMap<>();
+    for (final Map.Entry<File, JavaModuleDescriptor> entry
+        : pathElements.entrySet()) {
+      final JavaModuleDescriptor descriptor = entry.getValue();
+      if (descriptor != null && moduleNameSources.putIfAbsent(
+          descriptor.name(), sources.get(entry.getKey())) == null) {
+        availableModules.put(descriptor.name(), descriptor);
+      }
+    }
+    final Set<String> requiredModules = new HashSet<>();
+    if (mainModuleDescriptor != null) {
+      requiredModules.add(mainModuleDescriptor.name());
+      selectRequires(mainModuleDescriptor, availableModules,
+          requiredModules, true);
+    }
+    final Set<String> collectedModules = new HashSet<>();
+    for (final Map.Entry<File, JavaModuleDescriptor> entry
+        : pathElements.entrySet()) {
+      final JavaModuleDescriptor descriptor = entry.getValue();
+      if (descriptor == null
+          || !requiredModules.contains(descriptor.name())) {
+        classpathElements.add(entry.getKey());
+      } else if (collectedModules.add(descriptor.name())) {
+        modulepathElements.put(entry.getKey(),
+            moduleNameSources.get(descriptor.name()));
+      } else {
+        this.pathExceptions.put(entry.getKey(), new IllegalStateException(
+            "Module '" + descriptor.name()
+            + "' is already on the module path!"));
+      }
+    }
+  }
+
+  /**
+   * Select the modules required by the module.
+   *
+   * @param descriptor the module descriptor
+   * @param availableModules the module descriptors by the module names
+   * @param requiredModules the names of the selected modules
+   * @param isPrimary true if the module is the main module
+   */
+  private static void selectRequires(final JavaModuleDescriptor descriptor,
+      final Map<String, JavaModuleDescriptor> availableModules,
+      final Set<String> requiredModules, final boolean isPrimary) {
+    for (final JavaRequires requires : descriptor.requires()) {
+      // the static requires of the dependencies are not selected
+      if (isPrimary
+          || !requires.modifiers().contains(JavaModifier.STATIC)
+          || requires.modifiers().contains(JavaModifier.TRANSITIVE)) {
+        final JavaModuleDescriptor required =
+            availableModules.get(requires.name());
+        if (required != null && requiredModules.add(requires.name())) {
+          selectRequires(required, availableModules, requiredModules,
+              false);
+        }
+      }
+    }
+  }
+
+  /**
+   * Get the main module descriptor.
+   *
+   * @return the main module descriptor or null if the project is
+   *         non modular
+   */
+  public JavaModuleDescriptor getMainModuleDescriptor() {
+    return mainModuleDescriptor;
+  }
+
+  /**
+   * Get the module descriptors by the path elements.
+   *
+   * @return the module descriptors by the path elements, the descriptor
+   *         is null if it is missing
+   */
+  public Map<File, JavaModuleDescriptor> getPathElements() {
+    return pathElements;
+  }
+
+  /**
+   * Get the sources of the module names by the module path elements.
+   *
+   * @return the sources of the module names by the module path elements
+   */
+  public Map<File, ModuleNameSource> getModulepathElements() {
+    return Collections.unmodifiableMap(modulepathElements);
+  }
+
+  /**
+   * Get the class path elements.
+   *
+   * @return the class path elements
+   */
+  public List<File> getClasspathElements() {
+    return Collections.unmodifiableList(classpathElements);
+  }
+
+  /**
+   * Get the exceptions by the path elements failed to resolve.
+   *
+   * @return the exceptions by the path elements
+   */
+  public Map<File, Exception> getPathExceptions() {
+    return Collections.unmodifiableMap(pathExceptions);
+  }
+
+}
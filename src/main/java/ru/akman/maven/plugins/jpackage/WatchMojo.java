@@ -0,0 +1,136 @@
+/*
+  Copyright (C) 2020 - 2024 Alexander Kapitman
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package ru.akman.maven.plugins.jpackage;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.text.MessageFormat;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+
+/**
+ * The watch goal packages the application like the jpackage goal and
+ * then keeps refreshing the outputs as soon as the application files
+ * are changed, until the build is interrupted.
+ *
+ * <p>
+ * The input directory and the resource directory are watched, the project
+ * output directory is watched only if it is the module path element.
+ * The goal does not compile or copy anything, so the changes of the project
+ * classes are picked up only if the build copies them into the watched
+ * directories (for example, the jar is rebuilt into the input directory
+ * by the other build running <code>package</code>). The changes are
+ * debounced, then the outputs are
+ * refreshed incrementally: the unchanged files are not hashed again and
+ * the application image is patched if only the application files have
+ * been changed (see <code>incremental</code> and
+ * <code>patchimage</code>, they are always enabled by this goal).
+ * The latency of every refresh is reported.
+ * </p>
+ */
+@Mojo(
+    name = "watch",
+    requiresDependencyResolution = ResolutionScope.RUNTIME,
+    threadSafe = true
+)
+public class WatchMojo extends JpackageMojo {
+
+  /**
+   * Specifies the time (in milliseconds) the watched directories should
+   * be quiet after the change before the outputs are refreshed.
+   *
+   * <p>Default value: 500</p>
+   */
+  @Parameter(
+      property = "jpackage.watchdebounce",
+      defaultValue = "500"
+  )
+  private long watchdebounce;
+
+  /**
+   * Execute goal.
+   *
+   * @throws MojoExecutionException if any errors occurred
+   */
+  @Override
+  public void execute() throws MojoExecutionException {
+    enableIncrementalRefresh();
+    refresh(System.nanoTime());
+    final List<Path> roots = getWatchedDirectories();
+    if (roots.isEmpty()) {
+      throw new MojoExecutionException(
+          "Error: There are no directories to watch");
+    }
+    try (DirectoryWatcher watcher =
+        new DirectoryWatcher(getLog(), watchdebounce)) {
+      for (final Path root : roots) {
+        watcher.register(root);
+      }
+      if (getLog().isInfoEnabled()) {
+        getLog().info(MessageFormat.format(
+            "Watching for changes (press Ctrl+C to stop): {0}", roots));
+      }
+      while (!Thread.currentThread().isInterrupted()) {
+        watcher.await(0L);
+        if (watcher.isEmpty()) {
+          throw new MojoExecutionException(
+              "Error: The watched directories have been deleted");
+        }
+        refresh(watcher.getChanged());
+      }
+    } catch (IOException ex) {
+      throw new MojoExecutionException(
+          "Error: Unable to watch for changes", ex);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Refresh the outputs and report the latency. The failure is reported,
+   * the next change is waited for anyway.
+   *
+   * @param changed the time of the change (in nanoseconds)
+   */
+  private void refresh(final long changed) {
+    final long started = System.nanoTime();
+    try {
+      super.execute();
+      if (getLog().isInfoEnabled()) {
+        getLog().info(MessageFormat.format(
+            "Refreshed in {0} ms, since the change: {1} ms",
+            String.valueOf(TimeUnit.NANOSECONDS.toMillis(
+                System.nanoTime() - started)),
+            String.valueOf(TimeUnit.NANOSECONDS.toMillis(
+                System.nanoTime() - changed))));
+      }
+    } catch (MojoExecutionException | RuntimeException ex) {
+      if (getLog().isErrorEnabled()) {
+        getLog().error(MessageFormat.format(
+            "Refresh has failed in {0} ms: {1}",
+            String.valueOf(TimeUnit.NANOSECONDS.toMillis(
+                System.nanoTime() - started)),
+            ex.getMessage()), ex);
+      }
+    }
+  }
+
+}
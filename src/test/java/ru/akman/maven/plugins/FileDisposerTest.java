@@ -0,0 +1,134 @@
+/*
+  Copyright (C) 2020 - 2024 Alexander Kapitman
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package ru.akman.maven.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * FileDisposer Test Class.
+ */
+public class FileDisposerTest {
+
+  /**
+   * Temporary folder.
+   */
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * The directory the files are disposed in.
+   */
+  private Path root;
+
+  /**
+   * The disposer.
+   */
+  private FileDisposer disposer;
+
+  /**
+   * Setup.
+   *
+   * @throws Exception if any errors occurred
+   */
+  @Before
+  public void setUp() throws Exception {
+    root = folder.getRoot().toPath();
+    disposer = new FileDisposer(new SystemStreamLog());
+  }
+
+  /**
+   * Assert the directory contains the single entry only.
+   *
+   * @param name the name of the entry
+   *
+   * @throws Exception if any errors occurred
+   */
+  private void assertOnly(final String name) throws Exception {
+    try (Stream<Path> files = Files.list(root)) {
+      assertEquals(1L, files.count());
+    }
+    assertTrue(Files.exists(root.resolve(name)));
+  }
+
+  /**
+   * The file recreated at once after it is disposed is not deleted.
+   *
+   * @throws Exception if any errors occurred
+   */
+  @Test
+  public void testRecreateFile() throws Exception {
+    final Path file = root.resolve("app_1.0_amd64.deb");
+    Files.write(file, "old".getBytes(StandardCharsets.UTF_8));
+    disposer.dispose(file);
+    assertFalse(Files.exists(file));
+    Files.write(file, "new".getBytes(StandardCharsets.UTF_8));
+    disposer.await();
+    assertOnly(file.getFileName().toString());
+    assertEquals("new", new String(Files.readAllBytes(file),
+        StandardCharsets.UTF_8));
+  }
+
+  /**
+   * The directory recreated at once after it is disposed is not deleted.
+   *
+   * @throws Exception if any errors occurred
+   */
+  @Test
+  public void testRecreateDirectory() throws Exception {
+    final Path dir = root.resolve("app");
+    Files.createDirectories(dir.resolve("bin"));
+    Files.write(dir.resolve("bin/app"), new byte[] {1});
+    disposer.dispose(dir);
+    assertFalse(Files.exists(dir));
+    Files.createDirectories(dir.resolve("lib"));
+    disposer.await();
+    assertOnly(dir.getFileName().toString());
+    assertTrue(Files.isDirectory(dir.resolve("lib")));
+    assertFalse(Files.exists(dir.resolve("bin")));
+  }
+
+  /**
+   * The tombstones of the file left by the interrupted build are swept.
+   *
+   * @throws Exception if any errors occurred
+   */
+  @Test
+  public void testSweep() throws Exception {
+    final Path file = root.resolve("app.msi");
+    final Path tombstone = root.resolve("app.msi.trash-1");
+    Files.write(tombstone, new byte[] {1});
+    Files.write(file, new byte[] {1});
+    assertTrue(FileDisposer.isTombstone(tombstone));
+    assertFalse(FileDisposer.isTombstone(file));
+    disposer.sweep(file);
+    disposer.await();
+    assertOnly(file.getFileName().toString());
+  }
+
+}
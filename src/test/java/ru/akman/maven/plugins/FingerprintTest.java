@@ -0,0 +1,336 @@
+/*
+  Copyright (C) 2020 - 2024 Alexander Kapitman
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package ru.akman.maven.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Fingerprint Test Class.
+ */
+public class FingerprintTest {
+
+  /**
+   * The SHA-256 digest of the "abc" string.
+   */
+  private static final String ABC_DIGEST =
+      "ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad";
+
+  /**
+   * The modification time of the test files.
+   */
+  private static final FileTime MODIFIED = FileTime.fromMillis(1000000L);
+
+  /**
+   * Temporary folder.
+   */
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * The executor hashing the files.
+   */
+  private ExecutorService executor;
+
+  /**
+   * Setup.
+   */
+  @Before
+  public void setUp() {
+    executor = Executors.newFixedThreadPool(2);
+  }
+
+  /**
+   * Teardown.
+   */
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  /**
+   * Create the file with the content and the fixed modification time.
+   *
+   * @param file the file
+   * @param content the content
+   *
+   * @return the file
+   *
+   * @throws IOException if the file can not be written
+   */
+  private static Path writeFile(final Path file, final String content)
+      throws IOException {
+    Files.createDirectories(file.getParent());
+    Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    Files.setLastModifiedTime(file, MODIFIED);
+    return file;
+  }
+
+  /**
+   * The digests of the strings and the files are SHA-256 in hex format.
+   *
+   * @throws Exception if any errors occurred
+   */
+  @Test
+  public void testDigest() throws Exception {
+    assertEquals(ABC_DIGEST, Fingerprint.digest("abc"));
+    assertEquals(ABC_DIGEST, Fingerprint.digest(
+        writeFile(folder.getRoot().toPath().resolve("abc.txt"), "abc")));
+  }
+
+  /**
+   * The digest of the inputs depends on the values, but not on the order
+   * they are added in.
+   */
+  @Test
+  public void testInputsDigest() {
+    final Fingerprint first = new Fingerprint();
+    first.addValue("version", "17");
+    first.addValue("name", "app");
+    final Fingerprint second = new Fingerprint();
+    second.addValue("name", "app");
+    second.addValue("version", "17");
+    assertEquals(first.getDigest(), second.getDigest());
+    second.addValue("version", "21");
+    assertNotEquals(first.getDigest(), second.getDigest());
+    final Fingerprint empty = new Fingerprint();
+    empty.addValue("name", null);
+    assertEquals("", empty.getInputs().get("value:name"));
+  }
+
+  /**
+   * The changed inputs are told by the keys, the comment lines
+   * of the command options are not told.
+   */
+  @Test
+  public void testChangedInputs() {
+    final Fingerprint previous = new Fingerprint();
+    previous.addValue("version", "17");
+    previous.addValue("removed", "value");
+    previous.addOptions("options",
+        List.of("# comment", "--name app", "--dest out1"));
+    final Fingerprint current = new Fingerprint();
+    current.addValue("version", "17");
+    current.addValue("added", "value");
+    current.addOptions("options",
+        List.of("# other comment", "--name app", "--dest out2"));
+    assertEquals(new TreeSet<>(Set.of("value:removed", "value:added",
+        "value:options", "option:--dest out1", "option:--dest out2")),
+        current.getChangedInputs(previous));
+    assertTrue(current.getChangedInputs(current).isEmpty());
+    assertTrue(current.hasInput("option:--name app"));
+    assertTrue(current.hasInput("value:version"));
+    assertFalse(current.hasInput("option:# other comment"));
+    assertFalse(current.hasInput("value:removed"));
+  }
+
+  /**
+   * The files, the directories and the missing paths are added with
+   * the keys the paths are decoded from.
+   *
+   * @throws Exception if any errors occurred
+   */
+  @Test
+  public void testPaths() throws Exception {
+    final Path root = folder.getRoot().toPath().toAbsolutePath().normalize();
+    final Path dir = root.resolve("dir");
+    final Path file = writeFile(dir.resolve("sub").resolve("a.txt"), "abc");
+    final Path missing = root.resolve("missing");
+    final Fingerprint fingerprint = new Fingerprint();
+    fingerprint.addPaths(List.of(dir, missing), null, executor);
+    final Map<String, String> inputs = fingerprint.getInputs();
+    assertEquals(ABC_DIGEST, inputs.get("file:" + file));
+    assertTrue(inputs.containsKey("dir:" + dir));
+    assertTrue(inputs.containsKey("dir:" + dir.resolve("sub")));
+    assertTrue(inputs.containsKey("missing:" + missing));
+    assertEquals(4, inputs.size());
+    assertEquals(file, fingerprint.getFile("file:" + file));
+    assertEquals(dir, fingerprint.getDirectory("dir:" + dir));
+    assertEquals(missing, fingerprint.getMissing("missing:" + missing));
+    assertEquals("--name app", Fingerprint.getOption("option:--name app"));
+    assertEquals("version", Fingerprint.getValueName("value:version"));
+    assertNull(fingerprint.getFile("dir:" + dir));
+    assertNull(fingerprint.getDirectory("file:" + file));
+    assertNull(fingerprint.getMissing("file:" + file));
+    assertNull(Fingerprint.getOption("value:version"));
+    assertNull(Fingerprint.getValueName("option:--name app"));
+    assertEquals(Paths.get("a b"), fingerprint.getFile("file:a b"));
+  }
+
+  /**
+   * The digests of the files are reused from the previous fingerprint
+   * if the sizes and the modification times are not changed.
+   *
+   * @throws Exception if any errors occurred
+   */
+  @Test
+  public void testReusePreviousDigests() throws Exception {
+    final Path root = folder.getRoot().toPath().toAbsolutePath().normalize();
+    final Path file = writeFile(root.resolve("in").resolve("a.txt"), "abc");
+    // the previous digest is fake, so its reuse can be told
+    final String fake = Fingerprint.digest("fake");
+    final Path previousFile = root.resolve("previous.fingerprint");
+    Files.write(previousFile, List.of("# fingerprint 2",
+        String.join("\t", "input", "3", String.valueOf(MODIFIED.toMillis()),
+            fake, "file:" + file)), StandardCharsets.UTF_8);
+    final Fingerprint previous = Fingerprint.read(previousFile);
+    final Fingerprint reused = new Fingerprint();
+    reused.addPaths(List.of(file), previous, executor);
+    assertEquals(fake, reused.getInputs().get("file:" + file));
+    // the modification time is changed, the file is hashed again
+    Files.setLastModifiedTime(file, FileTime.fromMillis(2000000L));
+    final Fingerprint hashed = new Fingerprint();
+    hashed.addPaths(List.of(file), previous, executor);
+    assertEquals(ABC_DIGEST, hashed.getInputs().get("file:" + file));
+    assertEquals(Set.of("file:" + file), hashed.getChangedInputs(previous));
+  }
+
+  /**
+   * The fingerprint is written and read back, the invalid fingerprint
+   * files are not read.
+   *
+   * @throws Exception if any errors occurred
+   */
+  @Test
+  public void testWriteRead() throws Exception {
+    final Path root = folder.getRoot().toPath().toAbsolutePath().normalize();
+    final Path file = writeFile(root.resolve("a.txt"), "abc");
+    final Fingerprint fingerprint = new Fingerprint();
+    fingerprint.addValue("name", "app\twith tab");
+    fingerprint.addOptions("options", List.of("--name app"));
+    fingerprint.addPaths(List.of(file), null, executor);
+    fingerprint.setOutputs(Map.of("app", Fingerprint.digest("app")));
+    final Path fingerprintFile = root.resolve("out").resolve("fingerprint");
+    fingerprint.write(fingerprintFile);
+    final Fingerprint read = Fingerprint.read(fingerprintFile);
+    assertEquals(fingerprint.getDigest(), read.getDigest());
+    assertEquals(fingerprint.getInputs(), read.getInputs());
+    assertEquals(fingerprint.getOutputs(), read.getOutputs());
+    assertNull(Fingerprint.read(root.resolve("missing")));
+    Files.write(fingerprintFile, List.of("# fingerprint 0"),
+        StandardCharsets.UTF_8);
+    assertNull(Fingerprint.read(fingerprintFile));
+    Files.write(fingerprintFile, List.of("# fingerprint 2",
+        "input\tx\t1\tdigest\tvalue:name"), StandardCharsets.UTF_8);
+    assertNull(Fingerprint.read(fingerprintFile));
+  }
+
+  /**
+   * The digest of the tree depends on the relative paths, the sizes and
+   * the modification times of the files.
+   *
+   * @throws Exception if any errors occurred
+   */
+  @Test
+  public void testDigestTree() throws Exception {
+    final Path root = folder.getRoot().toPath().resolve("tree");
+    final Path file = writeFile(root.resolve("a.txt"), "abc");
+    final String digest = Fingerprint.digestTree(root);
+    // the same tree in the other location
+    final Path other = folder.getRoot().toPath().resolve("other");
+    writeFile(other.resolve("a.txt"), "xyz");
+    assertEquals(digest, Fingerprint.digestTree(other));
+    Files.setLastModifiedTime(file, FileTime.fromMillis(2000000L));
+    assertNotEquals(digest, Fingerprint.digestTree(root));
+    assertNull(Fingerprint.digestTree(root.resolve("missing")));
+  }
+
+  /**
+   * The paths inside of the roots are keyed and hashed relatively,
+   * so the fingerprints of the same inputs in the different locations
+   * are equal.
+   *
+   * @throws Exception if any errors occurred
+   */
+  @Test
+  public void testRoots() throws Exception {
+    final Path root = folder.getRoot().toPath().toAbsolutePath().normalize();
+    final Fingerprint first = newRelativeFingerprint(root.resolve("first"));
+    final Fingerprint second = newRelativeFingerprint(root.resolve("second"));
+    assertEquals(first.getDigest(), second.getDigest());
+    assertEquals(first.getInputs(), second.getInputs());
+    final Path project = root.resolve("first").resolve("project");
+    final String fileKey = "file:${basedir}" + File.separator + "in"
+        + File.separator + "a.txt";
+    assertEquals(ABC_DIGEST, first.getInputs().get(fileKey));
+    assertEquals(project.resolve("in").resolve("a.txt"),
+        first.getFile(fileKey));
+    assertEquals(project, first.getDirectory("dir:${basedir}"));
+    assertTrue(first.hasInput("option:--dest ${basedir}" + File.separator
+        + "out"));
+    assertTrue(first.hasInput("option:--module-path ${basedir}"
+        + File.pathSeparator + "${toolhome}" + File.separator + "jmods"));
+    // the longest root goes first, the similar paths are kept as is
+    assertEquals("${toolhome}" + File.separator + "bin " + project + "2 x"
+        + project, first.relativize(project.resolveSibling("jdk")
+            .resolve("bin") + " " + project + "2 x" + project));
+    // the paths outside of the roots are kept as is
+    assertEquals(root.resolve("a.txt"), first.getFile("file:"
+        + root.resolve("a.txt")));
+  }
+
+  /**
+   * Create the fingerprint of the inputs in the location, the paths
+   * are relative to the project and the tool directories.
+   *
+   * @param location the location
+   *
+   * @return the fingerprint
+   *
+   * @throws IOException if the inputs can not be written
+   */
+  private Fingerprint newRelativeFingerprint(final Path location)
+      throws IOException {
+    final Path project = location.resolve("project");
+    final Path tool = location.resolve("jdk");
+    final Path file = writeFile(project.resolve("in").resolve("a.txt"),
+        "abc");
+    final Fingerprint fingerprint = new Fingerprint(Map.of(
+        "${basedir}", project, "${toolhome}", tool));
+    fingerprint.addValue("executable", tool.resolve("bin").toString());
+    fingerprint.addOptions("options", List.of(
+        "--dest " + project.resolve("out"),
+        "--module-path " + project + File.pathSeparator
+            + tool.resolve("jmods")));
+    fingerprint.addPaths(List.of(project, file.resolveSibling("b.txt")),
+        null, executor);
+    return fingerprint;
+  }
+
+}
@@ -0,0 +1,263 @@
+/*
+  Copyright (C) 2020 - 2024 Alexander Kapitman
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package ru.akman.maven.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.codehaus.plexus.languages.java.jpms.ModuleNameSource;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * ModuleDescriptorReader Test Class.
+ */
+public class ModuleDescriptorReaderTest {
+
+  /**
+   * The name of the module the descriptor is read of.
+   */
+  private static final String MODULE_NAME = "java.sql";
+
+  /**
+   * The size of the end of the central directory (without comment).
+   */
+  private static final int END_SIZE = 22;
+
+  /**
+   * The module descriptor of the module.
+   */
+  private static byte[] moduleInfo;
+
+  /**
+   * Temporary folder.
+   */
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * Read the module descriptor of the module.
+   *
+   * @throws Exception if any errors occurred
+   */
+  @BeforeClass
+  public static void setUpClass() throws Exception {
+    try (InputStream is = ModuleLayer.boot().findModule(MODULE_NAME)
+        .orElseThrow().getResourceAsStream("module-info.class")) {
+      moduleInfo = is.readAllBytes();
+    }
+  }
+
+  /**
+   * Create the content of the jar, every entry is defined by the name and
+   * the content. The entries are stored or deflated.
+   *
+   * @param stored true if the entries are stored
+   * @param entries the names and the contents of the entries
+   *
+   * @return the content of the jar
+   *
+   * @throws IOException if the jar can not be written
+   */
+  private static byte[] newJar(final boolean stored, final Object... entries)
+      throws IOException {
+    final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    try (ZipOutputStream zos = new ZipOutputStream(baos)) {
+      for (int i = 0; i < entries.length; i += 2) {
+        final byte[] content = entries[i + 1] instanceof String
+            ? ((String) entries[i + 1]).getBytes(StandardCharsets.UTF_8)
+            : (byte[]) entries[i + 1];
+        final ZipEntry entry = new ZipEntry((String) entries[i]);
+        if (stored) {
+          final CRC32 crc = new CRC32();
+          crc.update(content);
+          entry.setMethod(ZipEntry.STORED);
+          entry.setSize(content.length);
+          entry.setCompressedSize(content.length);
+          entry.setCrc(crc.getValue());
+        }
+        zos.putNextEntry(entry);
+        zos.write(content);
+        zos.closeEntry();
+      }
+    }
+    return baos.toByteArray();
+  }
+
+  /**
+   * Write the jar and read its module descriptor.
+   *
+   * @param content the content of the jar
+   *
+   * @return the module descriptor or null
+   *
+   * @throws IOException if any errors occurred
+   */
+  private ModuleDescriptorReader.Result read(final byte[] content)
+      throws IOException {
+    final Path jar = folder.newFile().toPath();
+    Files.write(jar, content);
+    return ModuleDescriptorReader.read(jar);
+  }
+
+  /**
+   * Assert the module descriptor is read of the module-info.
+   *
+   * @param result the module descriptor read
+   */
+  private static void assertModule(
+      final ModuleDescriptorReader.Result result) {
+    assertEquals(MODULE_NAME, result.getDescriptor().name());
+    assertEquals(ModuleNameSource.MODULEDESCRIPTOR, result.getSource());
+    assertTrue(result.getDescriptor().requires().stream()
+        .anyMatch(requires -> "java.xml".equals(requires.name())));
+  }
+
+  /**
+   * The stored module descriptor is read.
+   *
+   * @throws Exception if any errors occurred
+   */
+  @Test
+  public void testStored() throws Exception {
+    assertModule(read(newJar(true,
+        "META-INF/MANIFEST.MF", "Manifest-Version: 1.0\n",
+        "module-info.class", moduleInfo)));
+  }
+
+  /**
+   * The deflated module descriptor is read.
+   *
+   * @throws Exception if any errors occurred
+   */
+  @Test
+  public void testDeflated() throws Exception {
+    assertModule(read(newJar(false,
+        "module-info.class", moduleInfo,
+        "java/sql/Driver.class", "")));
+  }
+
+  /**
+   * The module descriptor is read of the jar the stub is prepended to.
+   *
+   * @throws Exception if any errors occurred
+   */
+  @Test
+  public void testPrependedStub() throws Exception {
+    final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    baos.write("#!/bin/sh\nexec java -jar \"$0\" \"$@\"\n"
+        .getBytes(StandardCharsets.UTF_8));
+    baos.write(newJar(false, "module-info.class", moduleInfo));
+    assertModule(read(baos.toByteArray()));
+  }
+
+  /**
+   * The automatic module name is read of the manifest, the jar without
+   * the automatic module name is named by the file name.
+   *
+   * @throws Exception if any errors occurred
+   */
+  @Test
+  public void testManifestOnly() throws Exception {
+    final ModuleDescriptorReader.Result result = read(newJar(false,
+        "META-INF/MANIFEST.MF",
+        "Manifest-Version: 1.0\nAutomatic-Module-Name: org.example\n"));
+    assertEquals("org.example", result.getDescriptor().name());
+    assertTrue(result.getDescriptor().isAutomatic());
+    assertEquals(ModuleNameSource.MANIFEST, result.getSource());
+    assertNull(read(newJar(false,
+        "META-INF/MANIFEST.MF", "Manifest-Version: 1.0\n")));
+    assertNull(read(newJar(false, "org/example/App.class", "")));
+  }
+
+  /**
+   * The multi-release jar with the versioned module descriptor is not
+   * read, even though the root module descriptor exists.
+   *
+   * @throws Exception if any errors occurred
+   */
+  @Test
+  public void testVersioned() throws Exception {
+    assertNull(read(newJar(false,
+        "module-info.class", moduleInfo,
+        "META-INF/versions/11/module-info.class", moduleInfo)));
+  }
+
+  /**
+   * The ZIP64 jar is not read.
+   *
+   * @throws Exception if any errors occurred
+   */
+  @Test
+  public void testZip64() throws Exception {
+    final byte[] content = newJar(false, "module-info.class", moduleInfo);
+    // the counts of the entries of the end of the central directory
+    final int end = content.length - END_SIZE;
+    for (int i = 8; i < 12; i++) {
+      content[end + i] = (byte) 0xFF;
+    }
+    assertNull(read(content));
+  }
+
+  /**
+   * The corrupted module descriptor is not read.
+   *
+   * @throws Exception if any errors occurred
+   */
+  @Test(expected = IOException.class)
+  public void testCrcMismatch() throws Exception {
+    final byte[] content = newJar(true, "module-info.class", moduleInfo);
+    // the last byte of the stored module descriptor
+    final int last = indexOf(content, moduleInfo) + moduleInfo.length - 1;
+    content[last] = (byte) ~content[last];
+    read(content);
+  }
+
+  /**
+   * Find the bytes in the array.
+   *
+   * @param array the array
+   * @param bytes the bytes
+   *
+   * @return the index of the bytes in the array
+   */
+  private static int indexOf(final byte[] array, final byte[] bytes) {
+    for (int i = 0; i + bytes.length <= array.length; i++) {
+      int j = 0;
+      while (j < bytes.length && array[i + j] == bytes[j]) {
+        j++;
+      }
+      if (j == bytes.length) {
+        return i;
+      }
+    }
+    throw new IllegalArgumentException("Bytes not found");
+  }
+
+}
@@ -0,0 +1,437 @@
+/*
+  Copyright (C) 2020 - 2024 Alexander Kapitman
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package ru.akman.maven.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * RemoteCache Test Class.
+ */
+public class RemoteCacheTest {
+
+  /**
+   * The namespace of the entries.
+   */
+  private static final String NAMESPACE = "outputs";
+
+  /**
+   * The key of the entry.
+   */
+  private static final String KEY = "0123456789abcdef";
+
+  /**
+   * The timeout of the requests.
+   */
+  private static final Duration TIMEOUT = Duration.ofSeconds(5L);
+
+  /**
+   * The timeout of the requests to the stalled server.
+   */
+  private static final Duration SHORT_TIMEOUT = Duration.ofMillis(200L);
+
+  /**
+   * Temporary folder.
+   */
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * The archive.
+   */
+  private Path archive;
+
+  /**
+   * The directory the archive is extracted to.
+   */
+  private Path target;
+
+  /**
+   * The directory next to the target one, nothing is extracted to it.
+   */
+  private Path outside;
+
+  /**
+   * The content of the remote cache by the request paths.
+   */
+  private final Map<String, byte[]> content = new ConcurrentHashMap<>();
+
+  /**
+   * The number of the requests served by the remote cache.
+   */
+  private final AtomicInteger requests = new AtomicInteger();
+
+  /**
+   * The latch the stalled requests wait for.
+   */
+  private final CountDownLatch stall = new CountDownLatch(1);
+
+  /**
+   * True if the requests are stalled.
+   */
+  private volatile boolean stalled;
+
+  /**
+   * The executor of the remote cache requests.
+   */
+  private ExecutorService executor;
+
+  /**
+   * The remote cache server.
+   */
+  private HttpServer server;
+
+  /**
+   * Setup.
+   *
+   * @throws Exception if any errors occurred
+   */
+  @Before
+  public void setUp() throws Exception {
+    final Path root = folder.getRoot().toPath().toRealPath();
+    archive = root.resolve("entry.zip");
+    target = root.resolve("target");
+    outside = Files.createDirectory(root.resolve("outside"));
+    executor = Executors.newCachedThreadPool();
+    server = HttpServer.create(
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server.createContext("/", this::serve);
+    server.setExecutor(executor);
+    server.start();
+  }
+
+  /**
+   * Tear down.
+   *
+   * @throws Exception if any errors occurred
+   */
+  @After
+  public void tearDown() throws Exception {
+    stall.countDown();
+    server.stop(0);
+    executor.shutdownNow();
+    executor.awaitTermination(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Serve the GET and PUT requests of the remote cache.
+   *
+   * @param exchange the exchange
+   *
+   * @throws IOException if any errors occurred
+   */
+  private void serve(final HttpExchange exchange) throws IOException {
+    requests.incrementAndGet();
+    try (exchange) {
+      if (stalled) {
+        stall.await();
+      }
+      final String path = exchange.getRequestURI().getPath();
+      if ("PUT".equals(exchange.getRequestMethod())) {
+        try (InputStream is = exchange.getRequestBody()) {
+          content.put(path, is.readAllBytes());
+        }
+        exchange.sendResponseHeaders(201, -1);
+        return;
+      }
+      final byte[] body = content.get(path);
+      if (body == null) {
+        exchange.sendResponseHeaders(404, -1);
+        return;
+      }
+      exchange.sendResponseHeaders(200, body.length);
+      try (OutputStream os = exchange.getResponseBody()) {
+        os.write(body);
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Create the remote cache of the server.
+   *
+   * @param timeout the timeout of the requests
+   *
+   * @return the remote cache
+   */
+  private RemoteCache newRemoteCache(final Duration timeout) {
+    return new RemoteCache(new SystemStreamLog(), "http://"
+        + server.getAddress().getHostString() + ":"
+        + server.getAddress().getPort() + "/cache/", timeout, true);
+  }
+
+  /**
+   * Create the directory stored to the remote cache.
+   *
+   * @return the directory
+   *
+   * @throws IOException if the directory can not be created
+   */
+  private Path newSource() throws IOException {
+    final Path source = folder.getRoot().toPath().resolve("source");
+    Files.createDirectories(source.resolve("lib"));
+    Files.write(source.resolve("lib/a.txt"),
+        "abc".getBytes(StandardCharsets.UTF_8));
+    Files.createSymbolicLink(source.resolve("a.txt"), Paths.get("lib/a.txt"));
+    return source;
+  }
+
+  /**
+   * Write the archive of the entries, every entry is defined by
+   * the name and the content, the content of the symbolic link is
+   * the comment of the entry.
+   *
+   * @param entries the names and the contents of the entries
+   *
+   * @throws IOException if the archive can not be written
+   */
+  private void writeArchive(final String... entries) throws IOException {
+    try (OutputStream os = Files.newOutputStream(archive);
+        ZipOutputStream zos = new ZipOutputStream(os)) {
+      for (int i = 0; i < entries.length; i += 2) {
+        final ZipEntry entry = new ZipEntry(entries[i]);
+        if (entries[i + 1].startsWith("link:")) {
+          entry.setComment(entries[i + 1]);
+        }
+        zos.putNextEntry(entry);
+        if (!entries[i + 1].startsWith("link:")) {
+          zos.write(entries[i + 1].getBytes(StandardCharsets.UTF_8));
+        }
+        zos.closeEntry();
+      }
+    }
+  }
+
+  /**
+   * Extract the archive, it is expected to be rejected.
+   *
+   * @throws Exception if any errors occurred
+   */
+  private void assertRejected() throws Exception {
+    try {
+      RemoteCache.extract(archive, target);
+      fail("The archive is extracted");
+    } catch (IOException ex) {
+      // expected
+    }
+    try (Stream<Path> files = Files.list(outside)) {
+      assertFalse(files.findAny().isPresent());
+    }
+  }
+
+  /**
+   * The files and the symbolic links inside of the directory
+   * are extracted.
+   *
+   * @throws Exception if any errors occurred
+   */
+  @Test
+  public void testExtract() throws Exception {
+    writeArchive(
+        "lib/", "",
+        "lib/a.txt", "abc",
+        "bin/a.txt", "link:../lib/a.txt");
+    RemoteCache.extract(archive, target);
+    assertEquals("abc", new String(Files.readAllBytes(
+        target.resolve("lib/a.txt")), StandardCharsets.UTF_8));
+    final Path link = target.resolve("bin/a.txt");
+    assertTrue(Files.isSymbolicLink(link));
+    assertEquals(Paths.get("../lib/a.txt"), Files.readSymbolicLink(link));
+    assertEquals("abc", new String(Files.readAllBytes(link),
+        StandardCharsets.UTF_8));
+  }
+
+  /**
+   * The entry escaping the directory is rejected.
+   *
+   * @throws Exception if any errors occurred
+   */
+  @Test
+  public void testEscapingEntry() throws Exception {
+    writeArchive("../outside/a.txt", "abc");
+    assertRejected();
+  }
+
+  /**
+   * The absolute symbolic link is rejected.
+   *
+   * @throws Exception if any errors occurred
+   */
+  @Test
+  public void testAbsoluteLink() throws Exception {
+    writeArchive("link", "link:" + outside);
+    assertRejected();
+  }
+
+  /**
+   * The symbolic link escaping the directory is rejected.
+   *
+   * @throws Exception if any errors occurred
+   */
+  @Test
+  public void testEscapingLink() throws Exception {
+    writeArchive("link", "link:../outside");
+    assertRejected();
+  }
+
+  /**
+   * The entry is not written through the symbolic link.
+   *
+   * @throws Exception if any errors occurred
+   */
+  @Test
+  public void testEntryThroughLink() throws Exception {
+    writeArchive(
+        "dir/", "",
+        "link", "link:dir",
+        "link/a.txt", "abc");
+    assertRejected();
+  }
+
+  /**
+   * The symbolic link resolved outside of the directory through
+   * the other link is rejected, even though it is inside of
+   * the directory lexically.
+   *
+   * @throws Exception if any errors occurred
+   */
+  @Test
+  public void testLinkThroughLink() throws Exception {
+    writeArchive(
+        "sub/up", "link:..",
+        "sub/escape", "link:up/../outside");
+    assertRejected();
+  }
+
+  /**
+   * The stored entry is fetched, the existing entry is not stored again.
+   *
+   * @throws Exception if any errors occurred
+   */
+  @Test
+  public void testStoreFetch() throws Exception {
+    final RemoteCache remoteCache = newRemoteCache(TIMEOUT);
+    final Path source = newSource();
+    assertTrue(remoteCache.store(NAMESPACE, KEY, source));
+    assertTrue(content.containsKey("/cache/" + NAMESPACE + "/" + KEY
+        + ".zip.sha256"));
+    assertFalse(remoteCache.store(NAMESPACE, KEY, source));
+    assertTrue(remoteCache.fetch(NAMESPACE, KEY, target));
+    assertEquals("abc", new String(Files.readAllBytes(
+        target.resolve("lib/a.txt")), StandardCharsets.UTF_8));
+    assertEquals(Paths.get("lib/a.txt"),
+        Files.readSymbolicLink(target.resolve("a.txt")));
+  }
+
+  /**
+   * The missing entry is the cache miss, the remote cache is
+   * still requested.
+   *
+   * @throws Exception if any errors occurred
+   */
+  @Test
+  public void testMissing() throws Exception {
+    final RemoteCache remoteCache = newRemoteCache(TIMEOUT);
+    assertFalse(remoteCache.fetch(NAMESPACE, KEY, target));
+    assertFalse(Files.exists(target));
+    final int served = requests.get();
+    assertFalse(remoteCache.fetch(NAMESPACE, KEY, target));
+    assertTrue(requests.get() > served);
+  }
+
+  /**
+   * The entry not matching its digest is rejected.
+   *
+   * @throws Exception if any errors occurred
+   */
+  @Test
+  public void testDigestMismatch() throws Exception {
+    final RemoteCache remoteCache = newRemoteCache(TIMEOUT);
+    assertTrue(remoteCache.store(NAMESPACE, KEY, newSource()));
+    content.put("/cache/" + NAMESPACE + "/" + KEY + ".zip.sha256",
+        "0".repeat(64).getBytes(StandardCharsets.US_ASCII));
+    assertFalse(remoteCache.fetch(NAMESPACE, KEY, target));
+    assertFalse(Files.exists(target));
+  }
+
+  /**
+   * The unreachable remote cache is the cache miss and it is not
+   * requested any more, so the outputs are created locally.
+   *
+   * @throws Exception if any errors occurred
+   */
+  @Test
+  public void testConnectionFailure() throws Exception {
+    final RemoteCache remoteCache = newRemoteCache(TIMEOUT);
+    server.stop(0);
+    assertFalse(remoteCache.fetch(NAMESPACE, KEY, target));
+    assertFalse(remoteCache.store(NAMESPACE, KEY, newSource()));
+    assertFalse(Files.exists(target));
+    assertEquals(0, requests.get());
+  }
+
+  /**
+   * The remote cache not responding in time is the cache miss and
+   * it is not requested any more.
+   *
+   * @throws Exception if any errors occurred
+   */
+  @Test
+  public void testTimeout() throws Exception {
+    final RemoteCache remoteCache = newRemoteCache(SHORT_TIMEOUT);
+    stalled = true;
+    assertFalse(remoteCache.fetch(NAMESPACE, KEY, target));
+    final int served = requests.get();
+    assertFalse(remoteCache.fetch(NAMESPACE, KEY, target));
+    assertFalse(remoteCache.store(NAMESPACE, KEY, newSource()));
+    assertEquals(served, requests.get());
+    assertFalse(Files.exists(target));
+  }
+
+}
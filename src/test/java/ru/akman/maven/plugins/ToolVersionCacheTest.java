@@ -0,0 +1,104 @@
+/*
+  Copyright (C) 2020 - 2024 Alexander Kapitman
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package ru.akman.maven.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * ToolVersionCache Test Class.
+ */
+public class ToolVersionCacheTest {
+
+  /**
+   * The number of the executables stored concurrently.
+   */
+  private static final int EXECUTABLES = 16;
+
+  /**
+   * Temporary folder.
+   */
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * The version is read back until the executable is changed.
+   *
+   * @throws Exception if any errors occurred
+   */
+  @Test
+  public void testGetPut() throws Exception {
+    final Path executable = folder.newFile("jpackage").toPath();
+    final ToolVersionCache cache =
+        new ToolVersionCache(new File(folder.getRoot(), "cache"));
+    assertNull(cache.get(executable));
+    cache.put(executable, "17.0.9");
+    assertEquals("17.0.9", cache.get(executable));
+    Files.setLastModifiedTime(executable, FileTime.fromMillis(1000000L));
+    assertNull(cache.get(executable));
+  }
+
+  /**
+   * The versions stored concurrently by the different caches sharing
+   * the cache directory are merged.
+   *
+   * @throws Exception if any errors occurred
+   */
+  @Test
+  public void testConcurrentPut() throws Exception {
+    final File cacheDir = new File(folder.getRoot(), "cache");
+    final List<Path> executables = new ArrayList<>();
+    for (int i = 0; i < EXECUTABLES; i++) {
+      executables.add(folder.newFile("jpackage" + i).toPath());
+    }
+    final ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      final List<Future<?>> tasks = new ArrayList<>();
+      for (int i = 0; i < EXECUTABLES; i++) {
+        final Path executable = executables.get(i);
+        final String version = String.valueOf(i);
+        tasks.add(executor.submit(() -> {
+          new ToolVersionCache(cacheDir).put(executable, version);
+          return null;
+        }));
+      }
+      for (final Future<?> task : tasks) {
+        task.get();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    final ToolVersionCache cache = new ToolVersionCache(cacheDir);
+    for (int i = 0; i < EXECUTABLES; i++) {
+      assertEquals(String.valueOf(i), cache.get(executables.get(i)));
+    }
+  }
+
+}
@@ -0,0 +1,179 @@
+/*
+  Copyright (C) 2020 - 2024 Alexander Kapitman
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package ru.akman.maven.plugins.jpackage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.regex.Pattern;
+import org.junit.Test;
+
+/**
+ * DependencyMatcher Test Class.
+ */
+public class DependencyMatcherTest {
+
+  /**
+   * The path of the dependency matched by the name patterns.
+   */
+  private static final Path ANY_PATH = Paths.get("/repo/any.jar");
+
+  /**
+   * The path patterns and the paths matched against them.
+   */
+  private static final String[][] PATH_PATTERNS = {
+    // the literal globs
+    {"glob:/repo/a.jar", "/repo/a.jar", "/repo/b.jar", "/repo/a.jar/x"},
+    {"glob:/repo/a(1)+.jar", "/repo/a(1)+.jar", "/repo/a1.jar"},
+    {"glob:/repo/", "/repo", "/repo/a.jar"},
+    // the literal globs with the trailing wildcard
+    {"glob:/repo/**", "/repo/a.jar", "/repo/x/a.jar", "/repo",
+        "/repository/a.jar", "/other/a.jar"},
+    {"glob:/repo/a**", "/repo/a.jar", "/repo/ab/c.jar", "/repo/b.jar"},
+    {"glob:**", "/repo/a.jar", "/a", "/"},
+    // the rest of the globs
+    {"glob:/repo/*.jar", "/repo/a.jar", "/repo/x/a.jar", "/repo/a.zip"},
+    {"glob:/repo/a.{jar,zip}", "/repo/a.jar", "/repo/a.zip", "/repo/a.war"},
+    {"glob:/re[p]o/**", "/repo/a.jar", "/reqo/a.jar"},
+    {"glob:/repo/\\*.jar", "/repo/*.jar", "/repo/a.jar"},
+    {"glob:**/a-?.jar", "/repo/a-1.jar", "/repo/x/a-1.jar", "/repo/a-12.jar"},
+    // the literal regexes with the escaped characters
+    {"regex:/repo/a\\.jar", "/repo/a.jar", "/repo/aXjar"},
+    {"regex:/repo/a\\-b\\.jar", "/repo/a-b.jar", "/repo/a\\-b.jar"},
+    {"regex:/repo/a\\\\b\\.jar", "/repo/a\\b.jar", "/repo/ab.jar"},
+    {"regex:/repo/a\\(1\\)\\+\\.jar", "/repo/a(1)+.jar", "/repo/a11.jar"},
+    // the literal regexes with the trailing wildcard
+    {"regex:/repo/.*", "/repo/a.jar", "/repo/x/a.jar", "/repo", "/other"},
+    {"regex:/repo/a\\\\.*", "/repo/a\\b.jar", "/repo/a\\", "/repo/ab.jar"},
+    // the trailing escaped dot repeated is not the wildcard
+    {"regex:/repo/a\\.*", "/repo/a", "/repo/a..", "/repo/a.jar"},
+    {"regex:/repo/a\\\\\\.*", "/repo/a\\..", "/repo/a\\b"},
+    // the rest of the regexes
+    {"regex:/repo/\\d+\\.jar", "/repo/12.jar", "/repo/d.jar"},
+    {"regex:/repo/(a|b)\\.jar", "/repo/a.jar", "/repo/b.jar", "/repo/c.jar"},
+    {"regex:/repo/\\Qa.jar\\E", "/repo/a.jar", "/repo/aXjar"},
+    {"regex:.*\\.jar", "/repo/a.jar", "/repo/a.zip"},
+  };
+
+  /**
+   * The name patterns and the names matched against them, the empty
+   * name is the name of the dependency without the module descriptor.
+   */
+  private static final String[][] NAME_PATTERNS = {
+    // the literal names with the escaped characters
+    {"org\\.example\\.app", "org.example.app", "orgXexampleXapp", ""},
+    {"org\\-app", "org-app", "org\\-app", ""},
+    {"", "", "org.example"},
+    // the literal names with the trailing wildcard
+    {"org\\.example\\..*", "org.example.app", "org.example.", "org.example",
+        "org.examples.app", ""},
+    {".*", "", "org.example"},
+    {"org\\\\.*", "org\\app", "org", ""},
+    // the trailing escaped dot repeated is not the wildcard
+    {"org\\.example\\.*", "org.example", "org.example..", "org.examples",
+        ""},
+    // the rest of the names
+    {"org\\.example\\.app\\d", "org.example.app1", "org.example.appd"},
+    {"org\\.(a|b)", "org.a", "org.b", "org.c", ""},
+    {"\\Qorg.app\\E", "org.app", "orgXapp", ""},
+    {".+", "org", ""},
+    {"org.*app", "org.example.app", "orgapp", "org.example"},
+  };
+
+  /**
+   * Create the matcher of the dependencyset.
+   *
+   * @param includes the include path patterns
+   * @param includeNames the include name patterns
+   *
+   * @return the matcher, the same patterns are excluded
+   */
+  private static DependencyMatcher newMatcher(final List<String> includes,
+      final List<String> includeNames) {
+    final DependencySet depSet = new DependencySet();
+    depSet.setIncludes(includes);
+    depSet.setIncludeNames(includeNames);
+    depSet.setExcludes(includes);
+    depSet.setExcludeNames(includeNames);
+    return new DependencyMatcher(depSet);
+  }
+
+  /**
+   * The path patterns match the same paths as the path matchers
+   * of the default file system.
+   */
+  @Test
+  public void testPathPatterns() {
+    for (final String[] row : PATH_PATTERNS) {
+      final String pattern = row[0];
+      final DependencyMatcher matcher = newMatcher(List.of(pattern), null);
+      for (int i = 1; i < row.length; i++) {
+        final Path path = Paths.get(row[i]);
+        final boolean expected = FileSystems.getDefault()
+            .getPathMatcher(pattern).matches(path);
+        final String message = pattern + " ~ " + path;
+        assertEquals(message, expected, matcher.matchesIncludes(path, ""));
+        assertEquals(message, expected, matcher.matchesExcludes(path, ""));
+      }
+    }
+  }
+
+  /**
+   * The name patterns match the same names as the regular expressions.
+   */
+  @Test
+  public void testNamePatterns() {
+    for (final String[] row : NAME_PATTERNS) {
+      final String pattern = row[0];
+      final DependencyMatcher matcher = newMatcher(null, List.of(pattern));
+      for (int i = 1; i < row.length; i++) {
+        final String name = row[i];
+        final boolean expected = Pattern.matches(pattern, name);
+        final String message = pattern + " ~ [" + name + "]";
+        assertEquals(message, expected,
+            matcher.matchesIncludes(ANY_PATH, name));
+        assertEquals(message, expected,
+            matcher.matchesExcludes(ANY_PATH, name));
+      }
+    }
+  }
+
+  /**
+   * The dependency is included if no include patterns are specified and
+   * it is not excluded if no exclude patterns are specified.
+   */
+  @Test
+  public void testNoPatterns() {
+    final DependencyMatcher matcher = newMatcher(null, List.of());
+    assertTrue(matcher.matchesIncludes(ANY_PATH, ""));
+    assertFalse(matcher.matchesExcludes(ANY_PATH, ""));
+  }
+
+  /**
+   * The invalid patterns are rejected.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidPattern() {
+    newMatcher(null, List.of("org\\.(app"));
+  }
+
+}
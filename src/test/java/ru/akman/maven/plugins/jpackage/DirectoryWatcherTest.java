@@ -0,0 +1,166 @@
+/*
+  Copyright (C) 2020 - 2024 Alexander Kapitman
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package ru.akman.maven.plugins.jpackage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * DirectoryWatcher Test Class.
+ */
+public class DirectoryWatcherTest {
+
+  /**
+   * The debounce time (in milliseconds).
+   */
+  private static final long DEBOUNCE = 500L;
+
+  /**
+   * The time (in milliseconds) to wait for the change.
+   */
+  private static final long TIMEOUT = 10000L;
+
+  /**
+   * Temporary folder.
+   */
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * The executor changing the files.
+   */
+  private ExecutorService executor;
+
+  /**
+   * The watched directory.
+   */
+  private Path root;
+
+  /**
+   * The watcher.
+   */
+  private DirectoryWatcher watcher;
+
+  /**
+   * Setup.
+   *
+   * @throws Exception if any errors occurred
+   */
+  @Before
+  public void setUp() throws Exception {
+    executor = Executors.newSingleThreadExecutor();
+    root = folder.getRoot().toPath().toRealPath();
+    watcher = new DirectoryWatcher(new SystemStreamLog(), DEBOUNCE);
+    watcher.register(root);
+  }
+
+  /**
+   * Teardown.
+   *
+   * @throws Exception if any errors occurred
+   */
+  @After
+  public void tearDown() throws Exception {
+    executor.shutdownNow();
+    watcher.close();
+  }
+
+  /**
+   * Write the file.
+   *
+   * @param file the file
+   *
+   * @throws Exception if any errors occurred
+   */
+  private static void writeFile(final Path file) throws Exception {
+    Files.write(file, file.toString().getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * The changes made within the debounce time are reported at once,
+   * after the directories have been quiet.
+   *
+   * @throws Exception if any errors occurred
+   */
+  @Test
+  public void testDebounce() throws Exception {
+    final Path first = root.resolve("a.txt");
+    final Path second = root.resolve("b.txt");
+    final Future<?> changes = executor.submit(() -> {
+      writeFile(first);
+      // the second change is made within the debounce time
+      Thread.sleep(DEBOUNCE / 5L);
+      writeFile(second);
+      return null;
+    });
+    final long started = System.nanoTime();
+    final Set<Path> changed = watcher.await(TIMEOUT);
+    final long elapsed = (System.nanoTime() - started) / 1000000L;
+    changes.get();
+    assertTrue(changed.contains(first));
+    assertTrue(changed.contains(second));
+    // the directory has been quiet for the debounce time at least
+    assertTrue(elapsed >= DEBOUNCE + DEBOUNCE / 5L);
+    assertTrue(watcher.getChanged() >= started);
+    // there are no pending changes
+    assertTrue(watcher.await(DEBOUNCE).isEmpty());
+  }
+
+  /**
+   * The created directories are watched too.
+   *
+   * @throws Exception if any errors occurred
+   */
+  @Test
+  public void testCreatedDirectory() throws Exception {
+    final Path dir = root.resolve("dir");
+    Files.createDirectory(dir);
+    assertTrue(watcher.await(TIMEOUT).contains(dir));
+    final Path file = dir.resolve("a.txt");
+    writeFile(file);
+    assertEquals(Set.of(file), watcher.await(TIMEOUT));
+  }
+
+  /**
+   * The watcher is empty when the watched directory is deleted.
+   *
+   * @throws Exception if any errors occurred
+   */
+  @Test
+  public void testDeletedDirectory() throws Exception {
+    assertFalse(watcher.isEmpty());
+    Files.delete(root);
+    watcher.await(TIMEOUT);
+    assertTrue(watcher.isEmpty());
+  }
+
+}
@@ -24,13 +24,20 @@ import static org.junit.Assert.fail;
 
 import java.io.File;
 import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import org.apache.maven.execution.MavenSession;
 import org.apache.maven.plugin.MojoExecution;
 import org.apache.maven.plugin.testing.MojoRule;
 import org.apache.maven.project.MavenProject;
 import org.apache.maven.shared.model.fileset.FileSet;
+import org.apache.maven.shared.model.fileset.util.FileSetManager;
 import org.apache.maven.toolchain.ToolchainManager;
 import org.codehaus.plexus.PlexusContainer;
 import org.junit.Rule;
@@ -139,6 +146,204 @@ public class JpackageMojoTest {
     );
   }
 
+  /**
+   * Parameter 'toolprovider' exists and has a value.
+   *
+   * @throws Exception if any errors occurred
+   */
+  @Test
+  public void testMojoHasToolProvider() throws Exception {
+    final boolean toolprovider =
+        (boolean) rule.getVariableValueFromObject(mojo, "toolprovider");
+    assertTrue("toolprovider",
+        toolprovider);
+  }
+
+  /**
+   * Parameter 'cachedir' exists and has a value.
+   *
+   * @throws Exception if any errors occurred
+   */
+  @Test
+  public void testMojoHasCacheDir() throws Exception {
+    final File cachedir =
+        (File) rule.getVariableValueFromObject(mojo, "cachedir");
+    assertEquals("cachedir",
+        TestUtils.getCanonicalPath(cachedir),
+        TestUtils.getCanonicalPath(new File(project.getBuild().getDirectory(),
+            "jpackage-cache"))
+    );
+  }
+
+  /**
+   * Parameter 'timeout' exists and has a value.
+   *
+   * @throws Exception if any errors occurred
+   */
+  @Test
+  public void testMojoHasTimeout() throws Exception {
+    final long timeout =
+        (long) rule.getVariableValueFromObject(mojo, "timeout");
+    assertEquals("timeout",
+        timeout, 1800L);
+  }
+
+  /**
+   * Parameter 'stalltimeout' exists and has a value.
+   *
+   * @throws Exception if any errors occurred
+   */
+  @Test
+  public void testMojoHasStallTimeout() throws Exception {
+    final long stalltimeout =
+        (long) rule.getVariableValueFromObject(mojo, "stalltimeout");
+    assertEquals("stalltimeout",
+        stalltimeout, 300L);
+  }
+
+  /**
+   * Parameter 'worker' exists and has a value.
+   *
+   * @throws Exception if any errors occurred
+   */
+  @Test
+  public void testMojoHasWorker() throws Exception {
+    final boolean worker =
+        (boolean) rule.getVariableValueFromObject(mojo, "worker");
+    assertTrue("worker",
+        worker);
+  }
+
+  /**
+   * Parameter 'workeridletimeout' exists and has a value.
+   *
+   * @throws Exception if any errors occurred
+   */
+  @Test
+  public void testMojoHasWorkerIdleTimeout() throws Exception {
+    final long workeridletimeout =
+        (long) rule.getVariableValueFromObject(mojo, "workeridletimeout");
+    assertEquals("workeridletimeout",
+        workeridletimeout, 600L);
+  }
+
+  /**
+   * Parameter 'incremental' exists and has a value.
+   *
+   * @throws Exception if any errors occurred
+   */
+  @Test
+  public void testMojoHasIncremental() throws Exception {
+    final boolean incremental =
+        (boolean) rule.getVariableValueFromObject(mojo, "incremental");
+    assertTrue("incremental",
+        incremental);
+  }
+
+  /**
+   * Parameter 'outputcache' exists and has a value.
+   *
+   * @throws Exception if any errors occurred
+   */
+  @Test
+  public void testMojoHasOutputCache() throws Exception {
+    final boolean outputcache =
+        (boolean) rule.getVariableValueFromObject(mojo, "outputcache");
+    assertTrue("outputcache",
+        outputcache);
+  }
+
+  /**
+   * Parameter 'cachemaxsize' exists and has a value.
+   *
+   * @throws Exception if any errors occurred
+   */
+  @Test
+  public void testMojoHasCacheMaxSize() throws Exception {
+    final long cachemaxsize =
+        (long) rule.getVariableValueFromObject(mojo, "cachemaxsize");
+    assertEquals("cachemaxsize",
+        cachemaxsize, 1024L);
+  }
+
+  /**
+   * Parameter 'runtimecache' exists and has a value.
+   *
+   * @throws Exception if any errors occurred
+   */
+  @Test
+  public void testMojoHasRuntimeCache() throws Exception {
+    final boolean runtimecache =
+        (boolean) rule.getVariableValueFromObject(mojo, "runtimecache");
+    assertTrue("runtimecache",
+        runtimecache);
+  }
+
+  /**
+   * Parameter 'staged' exists and has a value.
+   *
+   * @throws Exception if any errors occurred
+   */
+  @Test
+  public void testMojoHasStaged() throws Exception {
+    final boolean staged =
+        (boolean) rule.getVariableValueFromObject(mojo, "staged");
+    assertTrue("staged",
+        staged);
+  }
+
+  /**
+   * Parameter 'patchimage' exists and has a value.
+   *
+   * @throws Exception if any errors occurred
+   */
+  @Test
+  public void testMojoHasPatchImage() throws Exception {
+    final boolean patchimage =
+        (boolean) rule.getVariableValueFromObject(mojo, "patchimage");
+    assertTrue("patchimage",
+        patchimage);
+  }
+
+  /**
+   * Parameter 'remotecache' exists and has a value.
+   *
+   * @throws Exception if any errors occurred
+   */
+  @Test
+  public void testMojoHasRemoteCache() throws Exception {
+    final String remotecache =
+        (String) rule.getVariableValueFromObject(mojo, "remotecache");
+    assertEquals("remotecache",
+        remotecache, "http://localhost:8080/jpackage-cache");
+  }
+
+  /**
+   * Parameter 'remotecachetimeout' exists and has a value.
+   *
+   * @throws Exception if any errors occurred
+   */
+  @Test
+  public void testMojoHasRemoteCacheTimeout() throws Exception {
+    final int remotecachetimeout =
+        (int) rule.getVariableValueFromObject(mojo, "remotecachetimeout");
+    assertEquals("remotecachetimeout",
+        remotecachetimeout, 30);
+  }
+
+  /**
+   * Parameter 'remotecachepush' exists and has a value.
+   *
+   * @throws Exception if any errors occurred
+   */
+  @Test
+  public void testMojoHasRemoteCachePush() throws Exception {
+    final boolean remotecachepush =
+        (boolean) rule.getVariableValueFromObject(mojo, "remotecachepush");
+    assertFalse("remotecachepush",
+        remotecachepush);
+  }
+
   /**
    * Parameter 'dest' exists and has a value.
    *
@@ -186,6 +391,35 @@ public class JpackageMojoTest {
     );
   }
 
+  /**
+   * Parameter 'types' exists and has a value.
+   *
+   * @throws Exception if any errors occurred
+   */
+  @Test
+  @SuppressWarnings("unchecked") // unchecked cast
+  public void testMojoHasTypes() throws Exception {
+    final List<PackageType> types =
+        (List<PackageType>) rule.getVariableValueFromObject(mojo, "types");
+    assertEquals("types",
+        types,
+        Arrays.asList(PackageType.IMAGE, PackageType.DEB)
+    );
+  }
+
+  /**
+   * Parameter 'packagethreads' exists and has a value.
+   *
+   * @throws Exception if any errors occurred
+   */
+  @Test
+  public void testMojoHasPackageThreads() throws Exception {
+    final int packagethreads =
+        (int) rule.getVariableValueFromObject(mojo, "packagethreads");
+    assertEquals("packagethreads",
+        packagethreads, 2);
+  }
+
   /**
    * Parameter 'verbose' exists and has a value.
    *
@@ -366,7 +600,7 @@ public class JpackageMojoTest {
         (ModulePath) rule.getVariableValueFromObject(mojo, "modulepath");
     final List<FileSet> filesets = modulepath.getFileSets();
     assertEquals("modulepath/filesets",
-        filesets.size(), 1);
+        filesets.size(), 2);
   }
 
   /**
@@ -460,7 +694,7 @@ public class JpackageMojoTest {
         (ModulePath) rule.getVariableValueFromObject(mojo, "modulepath");
     final List<FileSet> dirsets = modulepath.getDirSets();
     assertEquals("modulepath/dirsets",
-        dirsets.size(), 1);
+        dirsets.size(), 2);
   }
 
   /**
@@ -524,8 +758,10 @@ public class JpackageMojoTest {
         (ModulePath) rule.getVariableValueFromObject(mojo, "modulepath");
     final List<FileSet> dirsets = modulepath.getDirSets();
     final FileSet dirset = dirsets.get(0);
+    FileSet normalizedDirset = null;
     try {
-      PluginUtils.normalizeFileSetBaseDir(project.getBasedir(), dirset);
+      normalizedDirset =
+          PluginUtils.normalizeFileSetBaseDir(project.getBasedir(), dirset);
     } catch (IOException ex) {
       fail("Error: Unable to resolve fileset base directory: ["
           + project.getBasedir() + "]."
@@ -534,9 +770,67 @@ public class JpackageMojoTest {
       );
     }
     assertEquals("modulepath/dirsets/dirset/directory",
-        TestUtils.getCanonicalPath(new File(dirset.getDirectory())),
-        TestUtils.getCanonicalPath(new File(project.getBuild().getDirectory()))
+        TestUtils.getCanonicalPath(new File(normalizedDirset.getDirectory())),
+        TestUtils.getCanonicalPath(new File(project.getBasedir(), "target"))
     );
+    assertEquals("modulepath/dirsets/dirset/directory (not changed)",
+        dirset.getDirectory(), "target");
+  }
+
+  /**
+   * The module path is assembled from all filesets and dirsets in
+   * the order of declaration, the duplicates are removed.
+   *
+   * @throws Exception if any errors occurred
+   */
+  @Test
+  public void testMojoModulePath() throws Exception {
+    final File baseDir = project.getBasedir();
+    final File buildDir = new File(project.getBuild().getDirectory());
+    final File fileSetJar = createFile(new File(buildDir, "a.jar"));
+    final File secondFileSetJar = createFile(new File(baseDir, "mods/b.jar"));
+    final File dirSetDir = new File(buildDir, "exploded");
+    // the second dirset includes the path element
+    final File pathElement = new File(baseDir, "mods/exploded/mod");
+    Files.createDirectories(dirSetDir.toPath());
+    Files.createDirectories(pathElement.toPath());
+    rule.setVariableValueToObject(mojo, "baseDir", baseDir);
+    rule.setVariableValueToObject(mojo, "outputDir",
+        new File(project.getBuild().getOutputDirectory()));
+    rule.setVariableValueToObject(mojo, "fileSetManager",
+        new FileSetManager());
+    // the dependency is included by the first fileset
+    rule.setVariableValueToObject(mojo, "projectDependencies",
+        new ResolvedDependencies(null,
+            Collections.singletonMap(fileSetJar, null), Map.of(), Map.of()));
+    final Method getModulePath =
+        JpackageMojo.class.getDeclaredMethod("getModulePath");
+    getModulePath.setAccessible(true);
+    @SuppressWarnings("unchecked")
+    final List<File> modulePath = (List<File>) getModulePath.invoke(mojo);
+    assertEquals("module path",
+        Stream.of(pathElement, fileSetJar, secondFileSetJar, dirSetDir)
+            .map(TestUtils::getCanonicalPath)
+            .collect(Collectors.toList()),
+        modulePath.stream()
+            .map(TestUtils::getCanonicalPath)
+            .collect(Collectors.toList())
+    );
+  }
+
+  /**
+   * Create the empty file with the parent directories.
+   *
+   * @param file the file
+   *
+   * @return the file
+   *
+   * @throws IOException if the file can not be created
+   */
+  private static File createFile(final File file) throws IOException {
+    Files.createDirectories(file.getParentFile().toPath());
+    Files.write(file.toPath(), new byte[0]);
+    return file;
   }
 
   /**
@@ -0,0 +1,203 @@
+/*
+  Copyright (C) 2020 - 2024 Alexander Kapitman
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package ru.akman.maven.plugins.jpackage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * PhaseTracker Test Class.
+ */
+public class PhaseTrackerTest {
+
+  /**
+   * The start of the execution.
+   */
+  private static final Instant START =
+      Instant.parse("2024-01-01T10:00:00.000Z");
+
+  /**
+   * Temporary folder.
+   */
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * Create the tracker started at the specified instant (UTC).
+   *
+   * @param start the start of the execution
+   *
+   * @return the tracker
+   */
+  private static PhaseTracker newTracker(final Instant start) {
+    return new PhaseTracker(Clock.fixed(start, ZoneOffset.UTC));
+  }
+
+  /**
+   * Feed the verbose output lines to the tracker.
+   *
+   * @param tracker the tracker
+   * @param lines the verbose output lines
+   */
+  private static void feed(final PhaseTracker tracker,
+      final String... lines) {
+    for (final String line : lines) {
+      tracker.consumeLine(line);
+    }
+  }
+
+  /**
+   * Get the names of the completed phases.
+   *
+   * @param tracker the tracker
+   *
+   * @return the names of the completed phases
+   */
+  private static List<String> getNames(final PhaseTracker tracker) {
+    return tracker.getTimings().stream()
+        .map(PhaseTracker.Timing::getName)
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * Get the durations (in milliseconds) of the completed phases.
+   *
+   * @param tracker the tracker
+   *
+   * @return the durations of the completed phases
+   */
+  private static List<Long> getDurations(final PhaseTracker tracker) {
+    return tracker.getTimings().stream()
+        .map(timing -> timing.getDuration().toMillis())
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * Test the phases of the app-image creation.
+   */
+  @Test
+  public void testAppImagePhases() {
+    final PhaseTracker tracker = newTracker(START);
+    feed(tracker,
+        "[10:00:00.200] jpackage argument list: [--verbose]",
+        // the environment is validated, the phase is not switched
+        "[10:00:00.300] Running rpmbuild",
+        "not a verbose output line",
+        "[10:00:01.000] Creating app package: app in /tmp/out",
+        "[10:00:04.000] Command [PID: -1]:",
+        "[10:00:05.000] Using default package resource JavaApp.png [icon]"
+            + " (add app.png to the resource-dir to customize).",
+        "[10:00:06.500] Succeeded in building Linux Application Image"
+            + " package");
+    tracker.finish();
+    assertEquals("done", tracker.getPhaseReached());
+    assertEquals(List.of("prepare", "runtime", "app-image", "launchers"),
+        getNames(tracker));
+    assertEquals(List.of(1000L, 3000L, 1000L, 1500L),
+        getDurations(tracker));
+  }
+
+  /**
+   * Test the phase backfilled by the marker of its completion.
+   */
+  @Test
+  public void testBackfilledPhase() {
+    final PhaseTracker tracker = newTracker(START);
+    feed(tracker,
+        "[10:00:01.000] jpackage argument list: [--verbose]",
+        // the runtime phase is started right after the previous line
+        "[10:00:03.000] Command [PID: -1]:");
+    assertEquals("app-image", tracker.getPhaseReached());
+    assertEquals(List.of("prepare", "runtime"), getNames(tracker));
+    assertEquals(List.of(1000L, 2000L), getDurations(tracker));
+  }
+
+  /**
+   * Test the unfinished execution is completed by finish.
+   */
+  @Test
+  public void testFinish() {
+    final PhaseTracker tracker = newTracker(START);
+    feed(tracker,
+        "[10:00:01.000] Creating app package: app in /tmp/out",
+        "[10:00:02.000] Copying files");
+    tracker.finish();
+    // the phase reached is kept, the last phase ends with the last line
+    assertEquals("runtime", tracker.getPhaseReached());
+    assertEquals(List.of("prepare", "runtime"), getNames(tracker));
+    assertEquals(List.of(1000L, 1000L), getDurations(tracker));
+    // the lines after finish are ignored
+    feed(tracker, "[10:00:03.000] Succeeded in building package");
+    assertEquals("runtime", tracker.getPhaseReached());
+    assertEquals(2, tracker.getTimings().size());
+  }
+
+  /**
+   * Test the verbose output passed midnight.
+   */
+  @Test
+  public void testMidnightRollover() {
+    final PhaseTracker tracker =
+        newTracker(Instant.parse("2024-01-01T23:59:59.000Z"));
+    feed(tracker,
+        "[23:59:59.500] Creating app package: app in /tmp/out",
+        "[00:00:02.000] Command [PID: -1]:");
+    assertEquals(List.of("prepare", "runtime"), getNames(tracker));
+    assertEquals(List.of(500L, 2500L), getDurations(tracker));
+    assertEquals(Instant.parse("2024-01-02T00:00:02.000Z"),
+        tracker.getTimings().get(1).getEnd());
+    assertEquals(Duration.ZERO, tracker.getDuration());
+  }
+
+  /**
+   * Test the timeline replaces the previous one and no temporary
+   * files are left.
+   *
+   * @throws Exception if any errors occurred
+   */
+  @Test
+  public void testWriteJson() throws Exception {
+    final Path file = folder.getRoot().toPath().resolve("timings.json");
+    Files.write(file, "previous".getBytes(StandardCharsets.UTF_8));
+    final PhaseTracker tracker = newTracker(START);
+    feed(tracker, "[10:00:01.000] Creating app package: app in /tmp/out");
+    tracker.finish();
+    tracker.writeJson(file);
+    final String json =
+        new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    assertTrue(json, json.startsWith("{"));
+    assertTrue(json, json.contains("\"phaseReached\": \"runtime\""));
+    try (Stream<Path> files = Files.list(folder.getRoot().toPath())) {
+      assertEquals(1L, files.count());
+    }
+  }
+
+}